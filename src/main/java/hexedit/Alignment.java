@@ -0,0 +1,807 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Alignment of the contents of a target data model to those of a source data
+ * model, which allows for data that was inserted or removed. The alignment
+ * consists of segments of the source, each with the offset of the matching
+ * data in the target. Source addresses outside any segment have no
+ * counterpart in the target.
+ *
+ * <p>To find matching data, both data models are split into chunks at
+ * content-defined boundaries, using a rolling hash. Because the boundaries
+ * depend only on the data near them, chunks after an insertion or removal are
+ * the same in both data models and can be matched by their hashes. Matched
+ * chunks are then merged into segments and extended byte by byte into any
+ * unmatched data around them, skipping short runs of modified bytes.
+ *
+ * <p>The average chunk size grows with the size of the data, so the number of
+ * chunks, and thereby memory use, is bounded.
+ *
+ * @author Gerrit Meinders
+ */
+public class Alignment
+{
+	/**
+	 * Minimum average chunk size.
+	 */
+	private static final int MINIMUM_AVERAGE_CHUNK_SIZE = 0x2000; // 8k
+
+	/**
+	 * Maximum number of chunks per data model, on average.
+	 */
+	private static final long MAXIMUM_CHUNK_COUNT = 0x100000L; // 1M
+
+	/**
+	 * Size of the buffers used to read data.
+	 */
+	private static final int BUFFER_SIZE = 0x100000; // 1M
+
+	/**
+	 * Size of the buffers used to extend segments.
+	 */
+	private static final int EXTEND_BUFFER_SIZE = 0x1000; // 4k
+
+	/**
+	 * Random values for each byte value, used by the rolling hash.
+	 */
+	private static final long[] GEAR = new long[ 256 ];
+
+	static
+	{
+		final Random random = new Random( 0x4845584544495451L );
+		for ( int i = 0; i < GEAR.length; i++ )
+		{
+			GEAR[ i ] = random.nextLong();
+		}
+	}
+
+	/**
+	 * Length of the source.
+	 */
+	private final long _length;
+
+	/**
+	 * Start address of each segment in the source.
+	 */
+	private final long[] _starts;
+
+	/**
+	 * Length of each segment.
+	 */
+	private final long[] _lengths;
+
+	/**
+	 * Offset from the source to the target address of each segment.
+	 */
+	private final long[] _offsets;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param length  Length of the source.
+	 * @param starts  Start address of each segment in the source.
+	 * @param lengths Length of each segment.
+	 * @param offsets Offset from the source to the target address of each
+	 *                segment.
+	 */
+	private Alignment( final long length, final long[] starts, final long[] lengths, final long[] offsets )
+	{
+		_length = length;
+		_starts = starts;
+		_lengths = lengths;
+		_offsets = offsets;
+	}
+
+	/**
+	 * Aligns the target data model to the source data model. Both data models
+	 * are read in their entirety, in parallel.
+	 *
+	 * @param source Source data model.
+	 * @param target Target data model.
+	 *
+	 * @return Alignment.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static Alignment compute( final DataModel source, final DataModel target )
+	throws IOException
+	{
+		final int averageChunkSize = getAverageChunkSize( Math.max( source.getLength(), target.getLength() ) );
+
+		final ChunkTask sourceTask = new ChunkTask( source, averageChunkSize );
+		final ChunkTask targetTask = new ChunkTask( target, averageChunkSize );
+		ForkJoinPool.commonPool().invoke( new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				invokeAll( sourceTask, targetTask );
+			}
+		} );
+
+		if ( sourceTask._exception != null )
+		{
+			throw sourceTask._exception;
+		}
+		if ( targetTask._exception != null )
+		{
+			throw targetTask._exception;
+		}
+
+		final Chunks sourceChunks = sourceTask._chunks;
+		final Chunks targetChunks = targetTask._chunks;
+
+		/*
+		 * Match chunks, preferring the target chunk that follows the previous
+		 * match, so repeated data stays aligned. Chunks with equal hashes are
+		 * compared byte by byte, so hash collisions are not aligned.
+		 */
+		final Extender extender = new Extender( source, target );
+		final ChunkTable table = new ChunkTable( targetChunks );
+		final SegmentList segments = new SegmentList();
+		int previous = -2;
+		for ( int i = 0; i < sourceChunks._count; i++ )
+		{
+			final long hash = sourceChunks._hashes[ i ];
+			final long length = sourceChunks.getLength( i );
+			final long start = sourceChunks._starts[ i ];
+
+			int match = previous + 1;
+			if ( previous < 0 || match >= targetChunks._count || targetChunks._hashes[ match ] != hash || targetChunks.getLength( match ) != length || !extender.equals( start, targetChunks._starts[ match ], length ) )
+			{
+				match = table.get( hash );
+				if ( match >= 0 && ( targetChunks.getLength( match ) != length || !extender.equals( start, targetChunks._starts[ match ], length ) ) )
+				{
+					match = -1;
+				}
+			}
+
+			if ( match >= 0 )
+			{
+				segments.add( start, length, targetChunks._starts[ match ] - start );
+				previous = match;
+			}
+			else
+			{
+				previous = -2;
+			}
+		}
+
+		final SegmentList result = segments.extend( extender, source.getLength(), target.getLength() );
+		return new Alignment( source.getLength(), Arrays.copyOf( result._starts, result._count ), Arrays.copyOf( result._lengths, result._count ), Arrays.copyOf( result._offsets, result._count ) );
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return Number of segments.
+	 */
+	public int getSegmentCount()
+	{
+		return _starts.length;
+	}
+
+	/**
+	 * Returns the start address of the given segment in the source.
+	 *
+	 * @param segment Index of the segment.
+	 *
+	 * @return Start address.
+	 */
+	public long getSegmentStart( final int segment )
+	{
+		return _starts[ segment ];
+	}
+
+	/**
+	 * Returns the length of the given segment.
+	 *
+	 * @param segment Index of the segment.
+	 *
+	 * @return Length.
+	 */
+	public long getSegmentLength( final int segment )
+	{
+		return _lengths[ segment ];
+	}
+
+	/**
+	 * Returns the offset from the source to the target address of the given
+	 * segment.
+	 *
+	 * @param segment Index of the segment.
+	 *
+	 * @return Offset.
+	 */
+	public long getSegmentOffset( final int segment )
+	{
+		return _offsets[ segment ];
+	}
+
+	/**
+	 * Returns the index of the segment containing the given source address.
+	 *
+	 * @param address Source address.
+	 *
+	 * @return Index of the segment; {@code -1} if the address is not aligned.
+	 */
+	public int getSegment( final long address )
+	{
+		int index = Arrays.binarySearch( _starts, address );
+		if ( index < 0 )
+		{
+			index = -index - 2;
+		}
+		return ( index >= 0 && address < _starts[ index ] + _lengths[ index ] ) ? index : -1;
+	}
+
+	/**
+	 * Returns the target address that matches the given source address.
+	 *
+	 * @param address Source address.
+	 *
+	 * @return Target address; {@code -1} if the address is not aligned.
+	 */
+	public long getTargetAddress( final long address )
+	{
+		final int segment = getSegment( address );
+		return segment < 0 ? -1L : address + _offsets[ segment ];
+	}
+
+	/**
+	 * Returns the first source address, at or after the given address, that
+	 * has no counterpart in the target.
+	 *
+	 * @param address Source address to start at.
+	 *
+	 * @return Unaligned source address; {@code -1} if there is none.
+	 */
+	public long nextUnaligned( final long address )
+	{
+		long current = Math.max( 0L, address );
+		for ( int segment = getSegment( current ); segment >= 0; segment = getSegment( current ) )
+		{
+			current = _starts[ segment ] + _lengths[ segment ];
+		}
+		return current < _length ? current : -1L;
+	}
+
+	/**
+	 * Returns the last source address, before the given address, that has no
+	 * counterpart in the target.
+	 *
+	 * @param address Source address to start at.
+	 *
+	 * @return Unaligned source address; {@code -1} if there is none.
+	 */
+	public long previousUnaligned( final long address )
+	{
+		long current = Math.min( address, _length ) - 1L;
+		for ( int segment = current < 0L ? -1 : getSegment( current ); segment >= 0; segment = current < 0L ? -1 : getSegment( current ) )
+		{
+			current = _starts[ segment ] - 1L;
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the average chunk size for data of the given length.
+	 *
+	 * @param length Length of the data.
+	 *
+	 * @return Average chunk size, a power of two.
+	 */
+	private static int getAverageChunkSize( final long length )
+	{
+		int result = MINIMUM_AVERAGE_CHUNK_SIZE;
+		while ( (long)result * MAXIMUM_CHUNK_COUNT < length )
+		{
+			result *= 2;
+		}
+		return result;
+	}
+
+	/**
+	 * Chunks of a data model.
+	 */
+	private static class Chunks
+	{
+		/**
+		 * Length of the data.
+		 */
+		private final long _length;
+
+		private long[] _starts = new long[ 1024 ];
+
+		private long[] _hashes = new long[ 1024 ];
+
+		private int _count = 0;
+
+		private Chunks( final long length )
+		{
+			_length = length;
+		}
+
+		private void add( final long start, final long hash )
+		{
+			if ( _count == _starts.length )
+			{
+				_starts = Arrays.copyOf( _starts, _count * 2 );
+				_hashes = Arrays.copyOf( _hashes, _count * 2 );
+			}
+			_starts[ _count ] = start;
+			_hashes[ _count ] = hash;
+			_count++;
+		}
+
+		private long getLength( final int chunk )
+		{
+			return ( ( chunk + 1 < _count ) ? _starts[ chunk + 1 ] : _length ) - _starts[ chunk ];
+		}
+	}
+
+	/**
+	 * Splits a data model into chunks at content-defined boundaries.
+	 */
+	private static class ChunkTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DataModel _dataModel;
+
+		private final int _averageChunkSize;
+
+		private Chunks _chunks;
+
+		/**
+		 * Error that occurred while reading the data, if any.
+		 */
+		private IOException _exception;
+
+		private ChunkTask( final DataModel dataModel, final int averageChunkSize )
+		{
+			_dataModel = dataModel;
+			_averageChunkSize = averageChunkSize;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				_chunks = chunk();
+			}
+			catch ( IOException e )
+			{
+				_exception = e;
+			}
+		}
+
+		private Chunks chunk()
+		throws IOException
+		{
+			final DataModel dataModel = _dataModel;
+			final long length = dataModel.getLength();
+			final Chunks result = new Chunks( length );
+
+			/*
+			 * A boundary occurs where the top bits of the rolling hash are all
+			 * zero, which depend on the last 64 bytes.
+			 */
+			final int minimumSize = _averageChunkSize / 4;
+			final int maximumSize = _averageChunkSize * 4;
+			final long boundaryMask = ~( -1L >>> Integer.numberOfTrailingZeros( _averageChunkSize ) );
+
+			final byte[] buffer = new byte[ BUFFER_SIZE ];
+			final long[] gear = GEAR;
+
+			long rollingHash = 0L;
+			long chunkHash = 0xcbf29ce484222325L;
+			long chunkStart = 0L;
+			int chunkSize = 0;
+
+			for ( long position = 0L; position < length; )
+			{
+				final int count = dataModel.read( position, buffer, 0, (int)Math.min( (long)BUFFER_SIZE, length - position ) );
+				if ( count <= 0 )
+				{
+					break;
+				}
+
+				for ( int i = 0; i < count; i++ )
+				{
+					final int b = buffer[ i ] & 0xff;
+					rollingHash = ( rollingHash << 1 ) + gear[ b ];
+					chunkHash = ( chunkHash ^ (long)b ) * 0x100000001b3L;
+					chunkSize++;
+
+					if ( chunkSize >= maximumSize || chunkSize >= minimumSize && ( rollingHash & boundaryMask ) == 0L )
+					{
+						result.add( chunkStart, chunkHash );
+						chunkStart = position + (long)i + 1L;
+						chunkHash = 0xcbf29ce484222325L;
+						chunkSize = 0;
+					}
+				}
+
+				position += (long)count;
+			}
+
+			if ( chunkSize > 0 )
+			{
+				result.add( chunkStart, chunkHash );
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Hash table from chunk hashes to the first chunk with that hash.
+	 */
+	private static class ChunkTable
+	{
+		private final long[] _keys;
+
+		private final int[] _values;
+
+		private final int _mask;
+
+		private ChunkTable( final Chunks chunks )
+		{
+			int capacity = 16;
+			while ( capacity < chunks._count * 2 )
+			{
+				capacity *= 2;
+			}
+
+			_keys = new long[ capacity ];
+			_values = new int[ capacity ];
+			_mask = capacity - 1;
+			Arrays.fill( _values, -1 );
+
+			for ( int i = 0; i < chunks._count; i++ )
+			{
+				final long key = chunks._hashes[ i ];
+				int slot = slot( key );
+				while ( _values[ slot ] != -1 && _keys[ slot ] != key )
+				{
+					slot = ( slot + 1 ) & _mask;
+				}
+				if ( _values[ slot ] == -1 )
+				{
+					_keys[ slot ] = key;
+					_values[ slot ] = i;
+				}
+			}
+		}
+
+		private int slot( final long key )
+		{
+			return (int)( ( key * 0x9e3779b97f4a7c15L ) >>> 40 ) & _mask;
+		}
+
+		/**
+		 * Returns the first chunk with the given hash.
+		 *
+		 * @param key Chunk hash.
+		 *
+		 * @return Index of the chunk; {@code -1} if there is none.
+		 */
+		private int get( final long key )
+		{
+			for ( int slot = slot( key ); _values[ slot ] != -1; slot = ( slot + 1 ) & _mask )
+			{
+				if ( _keys[ slot ] == key )
+				{
+					return _values[ slot ];
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * List of segments, sorted by source address, that is being built.
+	 */
+	private static class SegmentList
+	{
+		private long[] _starts = new long[ 1024 ];
+
+		private long[] _lengths = new long[ 1024 ];
+
+		private long[] _offsets = new long[ 1024 ];
+
+		private int _count = 0;
+
+		/**
+		 * Adds a segment, or appends it to the last segment if it directly
+		 * follows it with the same offset.
+		 *
+		 * @param start  Start address in the source.
+		 * @param length Length of the segment.
+		 * @param offset Offset from source to target address.
+		 */
+		private void add( final long start, final long length, final long offset )
+		{
+			final int last = _count - 1;
+			if ( last >= 0 && _offsets[ last ] == offset && _starts[ last ] + _lengths[ last ] == start )
+			{
+				_lengths[ last ] += length;
+			}
+			else
+			{
+				if ( _count == _starts.length )
+				{
+					_starts = Arrays.copyOf( _starts, _count * 2 );
+					_lengths = Arrays.copyOf( _lengths, _count * 2 );
+					_offsets = Arrays.copyOf( _offsets, _count * 2 );
+				}
+				_starts[ _count ] = start;
+				_lengths[ _count ] = length;
+				_offsets[ _count ] = offset;
+				_count++;
+			}
+		}
+
+		/**
+		 * Returns a copy of this list in which each segment is extended into
+		 * the unaligned data before and after it, by comparing the source and
+		 * target data at the offset of the segment. Short runs of different
+		 * bytes, such as modified values, are skipped, but the extension
+		 * stops after {@link #MAXIMUM_GAP} different bytes in a row.
+		 *
+		 * @param extender     Compares source and target data.
+		 * @param sourceLength Length of the source.
+		 * @param targetLength Length of the target.
+		 *
+		 * @return Extended segments.
+		 *
+		 * @throws IOException if an I/O error occurs.
+		 */
+		private SegmentList extend( final Extender extender, final long sourceLength, final long targetLength )
+		throws IOException
+		{
+
+			final SegmentList result = new SegmentList();
+			for ( int i = 0; i < _count; i++ )
+			{
+				final long start = _starts[ i ];
+				final long end = start + _lengths[ i ];
+				final long offset = _offsets[ i ];
+
+				final long previousEnd = ( result._count > 0 ) ? result._starts[ result._count - 1 ] + result._lengths[ result._count - 1 ] : 0L;
+				extender.extendBackward( start, Math.max( previousEnd, -offset ), offset, result );
+
+				result.add( start, end - start, offset );
+
+				final long nextStart = ( i + 1 < _count ) ? _starts[ i + 1 ] : sourceLength;
+				extender.extendForward( end, Math.min( nextStart, targetLength - offset ), offset, result );
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Compares source and target data at a fixed offset, to extend segments.
+	 */
+	private static class Extender
+	{
+		/**
+		 * Maximum number of different bytes in a row that may be skipped.
+		 */
+		private static final int MAXIMUM_GAP = 64;
+
+		/**
+		 * Minimum number of equal bytes in a row, after skipping different
+		 * bytes, to be considered aligned.
+		 */
+		private static final int MINIMUM_RUN = 8;
+
+		private final DataModel _source;
+
+		private final DataModel _target;
+
+		private final byte[] _sourceBuffer = new byte[ EXTEND_BUFFER_SIZE ];
+
+		private final byte[] _targetBuffer = new byte[ EXTEND_BUFFER_SIZE ];
+
+		private Extender( final DataModel source, final DataModel target )
+		{
+			_source = source;
+			_target = target;
+		}
+
+		/**
+		 * Returns whether the given ranges of the source and target contain
+		 * the same data.
+		 *
+		 * @param sourceStart Start address in the source.
+		 * @param targetStart Start address in the target.
+		 * @param length      Length of the ranges.
+		 *
+		 * @return {@code true} if the data is equal.
+		 *
+		 * @throws IOException if an I/O error occurs.
+		 */
+		private boolean equals( final long sourceStart, final long targetStart, final long length )
+		throws IOException
+		{
+			for ( long position = 0L; position < length; )
+			{
+				final int count = (int)Math.min( (long)EXTEND_BUFFER_SIZE, length - position );
+				_source.read( sourceStart + position, _sourceBuffer, 0, count );
+				_target.read( targetStart + position, _targetBuffer, 0, count );
+				for ( int i = 0; i < count; i++ )
+				{
+					if ( _sourceBuffer[ i ] != _targetBuffer[ i ] )
+					{
+						return false;
+					}
+				}
+				position += (long)count;
+			}
+			return true;
+		}
+
+		/**
+		 * Adds segments for runs of equal bytes from the given address up to
+		 * the given limit.
+		 *
+		 * @param start  Source address to start at.
+		 * @param limit  Source address to stop at.
+		 * @param offset Offset from source to target address.
+		 * @param result List to add segments to.
+		 *
+		 * @throws IOException if an I/O error occurs.
+		 */
+		private void extendForward( final long start, final long limit, final long offset, final SegmentList result )
+		throws IOException
+		{
+			long runStart = start;
+			int gap = 0;
+
+			long address = start;
+			scan: while ( address < limit )
+			{
+				final int length = (int)Math.min( (long)EXTEND_BUFFER_SIZE, limit - address );
+				_source.read( address, _sourceBuffer, 0, length );
+				_target.read( address + offset, _targetBuffer, 0, length );
+
+				for ( int i = 0; i < length; i++, address++ )
+				{
+					if ( _sourceBuffer[ i ] == _targetBuffer[ i ] )
+					{
+						if ( runStart < 0L )
+						{
+							runStart = address;
+						}
+						gap = 0;
+					}
+					else
+					{
+						if ( runStart >= 0L )
+						{
+							addRun( start, runStart, address, offset, result );
+							runStart = -1L;
+						}
+						if ( ++gap > MAXIMUM_GAP )
+						{
+							break scan;
+						}
+					}
+				}
+			}
+
+			if ( runStart >= 0L )
+			{
+				addRun( start, runStart, address, offset, result );
+			}
+		}
+
+		/**
+		 * Adds segments for runs of equal bytes from the given address down to
+		 * the given limit.
+		 *
+		 * @param end    Source address to start at (exclusive).
+		 * @param limit  Source address to stop at.
+		 * @param offset Offset from source to target address.
+		 * @param result List to add segments to.
+		 *
+		 * @throws IOException if an I/O error occurs.
+		 */
+		private void extendBackward( final long end, final long limit, final long offset, final SegmentList result )
+		throws IOException
+		{
+			/*
+			 * Runs are found in descending order, but must be added in
+			 * ascending order.
+			 */
+			final SegmentList runs = new SegmentList();
+			long runEnd = end;
+			int gap = 0;
+
+			long address = end;
+			scan: while ( address > limit )
+			{
+				final int length = (int)Math.min( (long)EXTEND_BUFFER_SIZE, address - limit );
+				_source.read( address - (long)length, _sourceBuffer, 0, length );
+				_target.read( address - (long)length + offset, _targetBuffer, 0, length );
+
+				for ( int i = length - 1; i >= 0; i--, address-- )
+				{
+					if ( _sourceBuffer[ i ] == _targetBuffer[ i ] )
+					{
+						if ( runEnd < 0L )
+						{
+							runEnd = address;
+						}
+						gap = 0;
+					}
+					else
+					{
+						if ( runEnd >= 0L )
+						{
+							addRun( end, address, runEnd, offset, runs );
+							runEnd = -1L;
+						}
+						if ( ++gap > MAXIMUM_GAP )
+						{
+							break scan;
+						}
+					}
+				}
+			}
+
+			if ( runEnd >= 0L )
+			{
+				addRun( end, address, runEnd, offset, runs );
+			}
+
+			for ( int i = runs._count - 1; i >= 0; i-- )
+			{
+				result.add( runs._starts[ i ], runs._lengths[ i ], offset );
+			}
+		}
+
+		/**
+		 * Adds a run of equal bytes, if it is adjacent to the segment being
+		 * extended or long enough to be considered aligned.
+		 *
+		 * @param segmentBoundary Start or end of the segment being extended.
+		 * @param start           Start of the run.
+		 * @param end             End of the run.
+		 * @param offset          Offset from source to target address.
+		 * @param result          List to add the run to.
+		 */
+		private static void addRun( final long segmentBoundary, final long start, final long end, final long offset, final SegmentList result )
+		{
+			if ( end > start && ( start == segmentBoundary || end == segmentBoundary || end - start >= (long)MINIMUM_RUN ) )
+			{
+				result.add( start, end - start, offset );
+			}
+		}
+	}
+}
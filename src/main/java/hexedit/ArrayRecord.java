@@ -119,6 +119,20 @@ public class ArrayRecord
 			throw new IllegalArgumentException( "Record length must be greater than zero." );
 		}
 		_length = length;
+		moved( getStart() );
+		extentChanged();
+	}
+
+	@Override
+	public long getExtentStart()
+	{
+		return _start;
+	}
+
+	@Override
+	public long getExtentEnd()
+	{
+		return _start + _count * _length - 1L;
 	}
 
 	public long getCount()
@@ -133,6 +147,21 @@ public class ArrayRecord
 			throw new IllegalArgumentException( "Array must contain at least 1 record." );
 		}
 		_count = count;
+		extentChanged();
+	}
+
+	/**
+	 * Moves to the record with the given index.
+	 *
+	 * @param index Index of the record.
+	 */
+	public void setIndex( final long index )
+	{
+		if ( index < 0L || index >= _count )
+		{
+			throw new IndexOutOfBoundsException( "Index: " + index + ", count: " + _count );
+		}
+		update( index - _index );
 	}
 
 	@Override
@@ -157,7 +186,9 @@ public class ArrayRecord
 
 	private void update( final long offset )
 	{
+		final long oldStart = _address;
 		_index += offset;
 		_address = _start + _index * _length;
+		moved( oldStart );
 	}
 }
@@ -0,0 +1,493 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tree of hashes of the blocks of a {@link DataModel}, in which each node is
+ * the hash of its two children. Comparing the trees of several data models
+ * finds the blocks that may differ, while skipping any subtree that has the
+ * same hash in all trees.
+ *
+ * <p>Blocks have the same size as those of a {@link DifferenceIndex}. The last
+ * block is padded with zeros, consistent with the way data models of
+ * different lengths are compared.
+ *
+ * <p>For data models that are backed by a file, the block hashes are saved to
+ * a sidecar file, which is reused as long as the size and modification time of
+ * the file are unchanged.
+ *
+ * @author Gerrit Meinders
+ */
+public class BlockHashTree
+{
+	/**
+	 * Size of a block.
+	 */
+	public static final int BLOCK_SIZE = DifferenceIndex.BLOCK_SIZE;
+
+	/**
+	 * Extension added to the name of a file to get the name of its sidecar.
+	 */
+	private static final String SIDECAR_EXTENSION = ".blockhash";
+
+	/**
+	 * Identifies a sidecar file.
+	 */
+	private static final int MAGIC = 0x48584248; // "HXBH"
+
+	/**
+	 * Version of the sidecar file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Number of blocks that are hashed by a single task.
+	 */
+	private static final int BATCH_SIZE = 16;
+
+	private static final long PRIME_1 = 0x9e3779b97f4a7c15L;
+
+	private static final long PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+
+	/**
+	 * Block buffers, reused by each worker thread.
+	 */
+	private static final ThreadLocal<ByteBuffer> BLOCK_BUFFER = new ThreadLocal<ByteBuffer>();
+
+	/**
+	 * Hashes at each level of the tree, starting with the hashes of the
+	 * blocks. The last level contains only the root.
+	 */
+	private final long[][] _levels;
+
+	/**
+	 * Constructs a new tree from the given block hashes.
+	 *
+	 * @param blockHashes Hash of each block.
+	 */
+	private BlockHashTree( final long[] blockHashes )
+	{
+		final List<long[]> levels = new ArrayList<long[]>();
+		levels.add( blockHashes );
+
+		long[] level = blockHashes;
+		while ( level.length > 1 )
+		{
+			final long[] parent = new long[ ( level.length + 1 ) / 2 ];
+			for ( int i = 0; i < parent.length; i++ )
+			{
+				final int left = 2 * i;
+				parent[ i ] = ( left + 1 < level.length ) ? combine( level[ left ], level[ left + 1 ] ) : combine( level[ left ], 0L );
+			}
+			levels.add( parent );
+			level = parent;
+		}
+
+		_levels = levels.toArray( new long[ levels.size() ][] );
+	}
+
+	/**
+	 * Returns the block hash tree for the given data model. If the data model
+	 * is backed by a file, a previously saved tree is used if it is still up
+	 * to date. Otherwise, a new tree is built and saved.
+	 *
+	 * @param dataModel Data model.
+	 *
+	 * @return Block hash tree.
+	 *
+	 * @throws IOException if an I/O error occurs while reading the data.
+	 */
+	public static BlockHashTree get( final DataModel dataModel )
+	throws IOException
+	{
+		final Path file = getFile( dataModel );
+		if ( file == null )
+		{
+			return build( dataModel );
+		}
+
+		final long length = dataModel.getLength();
+		final long modified = Files.getLastModifiedTime( file ).toMillis();
+		final Path sidecar = file.resolveSibling( file.getFileName() + SIDECAR_EXTENSION );
+
+		BlockHashTree result = load( sidecar, length, modified );
+		if ( result == null )
+		{
+			result = build( dataModel );
+			result.save( sidecar, length, modified );
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the block hash tree for the given data model, hashing blocks in
+	 * parallel.
+	 *
+	 * @param dataModel Data model.
+	 *
+	 * @return Block hash tree.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static BlockHashTree build( final DataModel dataModel )
+	throws IOException
+	{
+		final long length = dataModel.getLength();
+		final long blockCount = ( length + (long)BLOCK_SIZE - 1L ) / (long)BLOCK_SIZE;
+		if ( blockCount > (long)Integer.MAX_VALUE )
+		{
+			throw new IllegalArgumentException( "Data is too large: " + length );
+		}
+
+		final long[] blockHashes = new long[ (int)blockCount ];
+		final HashTask task = new HashTask( dataModel, blockHashes, 0, blockHashes.length );
+		ForkJoinPool.commonPool().invoke( task );
+		if ( task._exception != null )
+		{
+			throw task._exception;
+		}
+		return new BlockHashTree( blockHashes );
+	}
+
+	/**
+	 * Returns the number of blocks in the tree.
+	 *
+	 * @return Number of blocks.
+	 */
+	public int getBlockCount()
+	{
+		return _levels[ 0 ].length;
+	}
+
+	/**
+	 * Returns the hash of the given block.
+	 *
+	 * @param block Index of the block.
+	 *
+	 * @return Hash of the block.
+	 */
+	public long getBlockHash( final int block )
+	{
+		return _levels[ 0 ][ block ];
+	}
+
+	/**
+	 * Finds the blocks that may differ between the given trees, descending
+	 * only into subtrees with different hashes. Blocks that are missing in
+	 * any of the trees are considered different.
+	 *
+	 * @param trees Trees to be compared.
+	 *
+	 * @return Set of blocks that may differ.
+	 */
+	public static BitSet getDifferentBlocks( final List<BlockHashTree> trees )
+	{
+		int height = 0;
+		for ( final BlockHashTree tree : trees )
+		{
+			height = Math.max( height, tree._levels.length );
+		}
+
+		final BitSet result = new BitSet();
+		if ( height > 0 )
+		{
+			addDifferentBlocks( trees, height - 1, 0, result );
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the blocks that may differ in the given subtree to the given set.
+	 *
+	 * @param trees  Trees to be compared.
+	 * @param level  Level of the subtree's root.
+	 * @param index  Index of the subtree's root within its level.
+	 * @param result Set to add blocks to.
+	 */
+	private static void addDifferentBlocks( final List<BlockHashTree> trees, final int level, final int index, final BitSet result )
+	{
+		boolean present = false;
+		boolean equal = true;
+		long hash = 0L;
+		for ( final BlockHashTree tree : trees )
+		{
+			final long[][] levels = tree._levels;
+			if ( level >= levels.length || index >= levels[ level ].length )
+			{
+				equal = false;
+			}
+			else if ( !present )
+			{
+				hash = levels[ level ][ index ];
+				present = true;
+			}
+			else if ( levels[ level ][ index ] != hash )
+			{
+				equal = false;
+			}
+		}
+
+		if ( present && !equal )
+		{
+			if ( level == 0 )
+			{
+				result.set( index );
+			}
+			else
+			{
+				addDifferentBlocks( trees, level - 1, 2 * index, result );
+				addDifferentBlocks( trees, level - 1, 2 * index + 1, result );
+			}
+		}
+	}
+
+	/**
+	 * Returns the file that backs the given data model.
+	 *
+	 * @param dataModel Data model.
+	 *
+	 * @return File; {@code null} if the data model isn't backed by a file.
+	 */
+	static Path getFile( final DataModel dataModel )
+	{
+		final URI dataSource = dataModel.getDataSource();
+		if ( dataSource != null && "file".equals( dataSource.getScheme() ) )
+		{
+			try
+			{
+				return Paths.get( dataSource );
+			}
+			catch ( IllegalArgumentException ignored )
+			{
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Loads a saved tree, if it matches the given file properties.
+	 *
+	 * @param sidecar  Sidecar file.
+	 * @param length   Length of the data.
+	 * @param modified Time that the data was last modified.
+	 *
+	 * @return Block hash tree; {@code null} if no valid tree was saved.
+	 */
+	private static BlockHashTree load( final Path sidecar, final long length, final long modified )
+	{
+		if ( !Files.isRegularFile( sidecar ) )
+		{
+			return null;
+		}
+
+		try
+		{
+			final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( sidecar ) ) );
+			try
+			{
+				if ( in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != BLOCK_SIZE || in.readLong() != length || in.readLong() != modified )
+				{
+					return null;
+				}
+
+				final long[] blockHashes = new long[ in.readInt() ];
+				if ( (long)blockHashes.length != ( length + (long)BLOCK_SIZE - 1L ) / (long)BLOCK_SIZE )
+				{
+					return null;
+				}
+
+				for ( int i = 0; i < blockHashes.length; i++ )
+				{
+					blockHashes[ i ] = in.readLong();
+				}
+				return new BlockHashTree( blockHashes );
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the tree to the given sidecar file. Failure to save the tree is
+	 * ignored; the tree is built again next time.
+	 *
+	 * @param sidecar  Sidecar file.
+	 * @param length   Length of the data.
+	 * @param modified Time that the data was last modified.
+	 */
+	private void save( final Path sidecar, final long length, final long modified )
+	{
+		final long[] blockHashes = _levels[ 0 ];
+		try
+		{
+			final Path temporary = sidecar.resolveSibling( sidecar.getFileName() + ".tmp" );
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ) ) );
+			try
+			{
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( BLOCK_SIZE );
+				out.writeLong( length );
+				out.writeLong( modified );
+				out.writeInt( blockHashes.length );
+				for ( final long hash : blockHashes )
+				{
+					out.writeLong( hash );
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			Files.move( temporary, sidecar, StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( IOException ignored )
+		{
+		}
+	}
+
+	/**
+	 * Returns the hash of the given block, eight bytes at a time.
+	 *
+	 * @param block Block, padded with zeros to a multiple of eight bytes.
+	 *
+	 * @return Hash of the block.
+	 */
+	private static long hash( final ByteBuffer block )
+	{
+		long result = 0L;
+		for ( int i = 0; i < block.limit(); i += 8 )
+		{
+			result = Long.rotateLeft( result ^ ( block.getLong( i ) * PRIME_1 ), 31 ) * PRIME_2;
+		}
+		return mix( result );
+	}
+
+	/**
+	 * Returns the hash of a node with the given children.
+	 *
+	 * @param left  Hash of the left child.
+	 * @param right Hash of the right child; {@code 0} if there is none.
+	 *
+	 * @return Hash of the node.
+	 */
+	private static long combine( final long left, final long right )
+	{
+		return mix( Long.rotateLeft( left * PRIME_1, 31 ) ^ ( right * PRIME_2 ) );
+	}
+
+	/**
+	 * Mixes the bits of the given hash.
+	 *
+	 * @param hash Hash value.
+	 *
+	 * @return Mixed hash value.
+	 */
+	private static long mix( final long hash )
+	{
+		long result = hash;
+		result ^= result >>> 33;
+		result *= 0xff51afd7ed558ccdL;
+		result ^= result >>> 33;
+		result *= 0xc4ceb9fe1a85ec53L;
+		result ^= result >>> 33;
+		return result;
+	}
+
+	/**
+	 * Hashes a range of blocks, splitting it up to hash blocks in parallel.
+	 */
+	private static class HashTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DataModel _dataModel;
+
+		private final long[] _blockHashes;
+
+		private final int _start;
+
+		private final int _end;
+
+		/**
+		 * Error that occurred while hashing the range, if any.
+		 */
+		private volatile IOException _exception;
+
+		private HashTask( final DataModel dataModel, final long[] blockHashes, final int start, final int end )
+		{
+			_dataModel = dataModel;
+			_blockHashes = blockHashes;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( _end - _start > BATCH_SIZE )
+			{
+				final int middle = ( _start + _end ) >>> 1;
+				final HashTask first = new HashTask( _dataModel, _blockHashes, _start, middle );
+				final HashTask second = new HashTask( _dataModel, _blockHashes, middle, _end );
+				invokeAll( first, second );
+				_exception = ( first._exception != null ) ? first._exception : second._exception;
+			}
+			else
+			{
+				ByteBuffer buffer = BLOCK_BUFFER.get();
+				if ( buffer == null )
+				{
+					buffer = ByteBuffer.allocate( BLOCK_SIZE );
+					BLOCK_BUFFER.set( buffer );
+				}
+
+				try
+				{
+					for ( int block = _start; block < _end; block++ )
+					{
+						buffer.clear();
+						_dataModel.read( (long)block * (long)BLOCK_SIZE, buffer );
+						while ( buffer.hasRemaining() )
+						{
+							buffer.put( (byte)0 );
+						}
+						_blockHashes[ block ] = hash( buffer );
+					}
+				}
+				catch ( IOException e )
+				{
+					_exception = e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+/**
+ * Matches an exact sequence of bytes, using the Boyer-Moore-Horspool algorithm
+ * to skip ahead in both directions.
+ *
+ * @author Gerrit Meinders
+ */
+public class BytePattern
+implements SearchPattern
+{
+	/**
+	 * Bytes to be matched.
+	 */
+	private final byte[] _bytes;
+
+	/**
+	 * Distance to shift forward, indexed by the last byte of a mismatch.
+	 */
+	private final int[] _forwardShift;
+
+	/**
+	 * Distance to shift backward, indexed by the first byte of a mismatch.
+	 */
+	private final int[] _backwardShift;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param bytes Bytes to be matched.
+	 */
+	public BytePattern( final byte[] bytes )
+	{
+		if ( bytes.length == 0 )
+		{
+			throw new IllegalArgumentException( "Pattern must not be empty." );
+		}
+
+		_bytes = bytes.clone();
+
+		final int length = bytes.length;
+		_forwardShift = new int[ 256 ];
+		_backwardShift = new int[ 256 ];
+		Arrays.fill( _forwardShift, length );
+		Arrays.fill( _backwardShift, length );
+		for ( int i = 0; i < length - 1; i++ )
+		{
+			_forwardShift[ bytes[ i ] & 0xff ] = length - 1 - i;
+		}
+		for ( int i = length - 1; i > 0; i-- )
+		{
+			_backwardShift[ bytes[ i ] & 0xff ] = i;
+		}
+	}
+
+	/**
+	 * Parses a pattern from a string of hexadecimal digits, e.g.
+	 * {@code "4d 5a 90"}. Whitespace is ignored.
+	 *
+	 * @param hex Hexadecimal string.
+	 *
+	 * @return Pattern.
+	 *
+	 * @throws IllegalArgumentException if the string is not valid.
+	 */
+	public static BytePattern parse( final String hex )
+	{
+		return new BytePattern( Tools.hexStringToBytes( hex ) );
+	}
+
+	@Override
+	public int getLength()
+	{
+		return _bytes.length;
+	}
+
+	@Override
+	public int indexOf( final byte[] data, final int from, final int to )
+	{
+		final byte[] bytes = _bytes;
+		final int last = bytes.length - 1;
+		final int[] shift = _forwardShift;
+
+		int i = from;
+		while ( i + last < to )
+		{
+			int j = last;
+			while ( data[ i + j ] == bytes[ j ] )
+			{
+				if ( j == 0 )
+				{
+					return i;
+				}
+				j--;
+			}
+			i += shift[ data[ i + last ] & 0xff ];
+		}
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf( final byte[] data, final int from, final int to )
+	{
+		final byte[] bytes = _bytes;
+		final int last = bytes.length - 1;
+		final int[] shift = _backwardShift;
+
+		int i = to - bytes.length;
+		while ( i >= from )
+		{
+			int j = 0;
+			while ( data[ i + j ] == bytes[ j ] )
+			{
+				if ( j == last )
+				{
+					return i;
+				}
+				j++;
+			}
+			i -= shift[ data[ i ] & 0xff ];
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Tools.bytesToHexString( _bytes, 0, _bytes.length );
+	}
+}
@@ -20,90 +20,472 @@ import java.io.*;
 import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Provides access to data from a {@link FileChannel}. The entire file can be
- * accessed, but only a very small piece of the file is kept in memory at any
- * given time.
+ * accessed, but only a limited number of fixed-size pages of the file are kept
+ * in memory at any given time. When the memory budget is exceeded, pages that
+ * were not used recently are evicted, as selected by the CLOCK algorithm.
+ *
+ * <p>Instances are safe for use by multiple threads. Pages are immutable once
+ * loaded and are looked up without locking, using positional reads that don't
+ * affect the position of the channel. Only loading a page that isn't cached
+ * requires a lock, to update the eviction state.
+ *
+ * <p>When pages are accessed sequentially, either forward or backward, the
+ * next few pages in the same direction are loaded in the background. This
+ * way, scrolling through the data rarely has to wait for I/O. Sequential
+ * access is tracked for each thread separately.
+ *
+ * <p>Pages are read into heap buffers by default. Subclasses may provide pages
+ * in a different way by overriding {@link #loadPage} and {@link #pageEvicted},
+ * as is done by {@link MappedDataModel}.
  *
  * @author Gerrit Meinders
  */
 public class DataModel
 {
-	private final FileChannel _channel;
+	/**
+	 * Default size of a page.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 0x10000; // 64k
 
-	private long _offset = 0L;
+	/**
+	 * Default amount of memory used to cache pages.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 0x1000000L; // 16M
 
-	private byte[] _bytes;
+	/**
+	 * Default number of pages to read ahead.
+	 */
+	public static final int DEFAULT_PREFETCH_DEPTH = 2;
 
-	private int _windowSize;
+	/**
+	 * Executes prefetch tasks for all data models.
+	 */
+	private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool( 2, new ThreadFactory()
+	{
+		@Override
+		public Thread newThread( final Runnable runnable )
+		{
+			final Thread result = new Thread( runnable, "DataModel prefetch" );
+			result.setDaemon( true );
+			return result;
+		}
+	} );
+
+	private final FileChannel _channel;
 
 	private URI _dataSource;
 
-	private ByteBuffer _buffer;
+	/**
+	 * Size of each page; always a power of two.
+	 */
+	private final int _pageSize;
 
 	/**
-	 * Constructs a new instance.
+	 * Number of bits to shift an address right to get its page index.
+	 */
+	private final int _pageShift;
+
+	/**
+	 * Maximum number of bytes used by cached pages.
+	 */
+	private volatile long _cacheSize;
+
+	/**
+	 * Cached pages by page index.
+	 */
+	private final ConcurrentMap<Long, Page> _pages = new ConcurrentHashMap<Long, Page>();
+
+	/**
+	 * Cached pages in the order scanned by the clock hand when looking for a
+	 * page to evict. Also used as the lock that guards eviction.
+	 */
+	private final List<Page> _clock = new ArrayList<Page>();
+
+	/**
+	 * Index in {@link #_clock} of the next candidate for eviction.
+	 */
+	private int _clockHand = 0;
+
+	/**
+	 * Index of the most recently accessed page of each thread; {@code -1} if
+	 * none. Sequential access is detected per thread, so concurrent readers
+	 * don't disturb each other's read-ahead. Only the index is kept, so that
+	 * threads don't keep evicted pages (or mappings) reachable.
+	 */
+	private final ThreadLocal<long[]> _lastPageIndex = new ThreadLocal<long[]>()
+	{
+		@Override
+		protected long[] initialValue()
+		{
+			return new long[] { -1L };
+		}
+	};
+
+	/**
+	 * Incremented whenever the cache is cleared. Pages that were loaded
+	 * before then are not added to the cache, since their contents may be
+	 * outdated.
+	 */
+	private volatile int _generation = 0;
+
+	/**
+	 * Number of page requests served from the cache.
+	 */
+	private final LongAdder _cacheHits = new LongAdder();
+
+	/**
+	 * Number of page requests that required reading from the channel.
+	 */
+	private final LongAdder _cacheMisses = new LongAdder();
+
+	/**
+	 * Number of pages to read ahead when sequential access is detected.
+	 */
+	private volatile int _prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+	/**
+	 * Indices of pages currently being prefetched.
+	 */
+	private final Set<Long> _prefetching = Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+
+	/**
+	 * Number of pages loaded by prefetching.
+	 */
+	private final LongAdder _prefetchedPages = new LongAdder();
+
+	/**
+	 * Number of prefetched pages that were used before being evicted.
+	 */
+	private final LongAdder _prefetchHits = new LongAdder();
+
+	/**
+	 * Number of prefetched pages that were evicted without being used.
+	 */
+	private final LongAdder _prefetchWasted = new LongAdder();
+
+	/**
+	 * Constructs a new instance with the default page size and cache size.
 	 *
 	 * @param dataSource URI of the data source.
 	 * @param channel    Channel that provides access to the data.
 	 */
 	public DataModel( final URI dataSource, final FileChannel channel )
 	{
+		this( dataSource, channel, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_SIZE );
+	}
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param dataSource URI of the data source.
+	 * @param channel    Channel that provides access to the data.
+	 * @param pageSize   Size of a page; must be a power of two.
+	 * @param cacheSize  Maximum number of bytes used to cache pages.
+	 */
+	public DataModel( final URI dataSource, final FileChannel channel, final int pageSize, final long cacheSize )
+	{
+		if ( pageSize <= 0 || Integer.bitCount( pageSize ) != 1 )
+		{
+			throw new IllegalArgumentException( "Page size must be a positive power of two: " + pageSize );
+		}
+
 		_channel = channel;
 		_dataSource = dataSource;
-		_windowSize = 0x10000; // 64k
+		_pageSize = pageSize;
+		_pageShift = Integer.numberOfTrailingZeros( pageSize );
+		setCacheSize( cacheSize );
 	}
 
-	public long getOffset()
+	public int getPageSize()
 	{
-		return _offset;
+		return _pageSize;
 	}
 
-	public void setOffset( final long offset )
+	public long getCacheSize()
 	{
-		if ( _offset != offset )
+		return _cacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of bytes used to cache pages. At least one page
+	 * is always cached, regardless of the given size.
+	 *
+	 * @param cacheSize Maximum number of bytes used to cache pages.
+	 */
+	public void setCacheSize( final long cacheSize )
+	{
+		if ( cacheSize <= 0L )
+		{
+			throw new IllegalArgumentException( "Cache size must be positive: " + cacheSize );
+		}
+
+		synchronized ( _clock )
 		{
-			if ( offset < 0L )
+			_cacheSize = cacheSize;
+
+			final int maximumPageCount = getMaximumPageCount();
+			final List<Page> clock = _clock;
+			while ( clock.size() > maximumPageCount )
 			{
-				throw new IllegalArgumentException( "Offset must not be negative: " + offset );
+				final int slot = evict();
+				clock.remove( slot );
+				if ( _clockHand > slot )
+				{
+					_clockHand--;
+				}
+				if ( _clockHand >= clock.size() )
+				{
+					_clockHand = 0;
+				}
 			}
+		}
+	}
+
+	private int getMaximumPageCount()
+	{
+		return (int)Math.max( 1L, Math.min( (long)Integer.MAX_VALUE, _cacheSize / (long)_pageSize ) );
+	}
+
+	/**
+	 * Returns the number of page requests that were served from the cache.
+	 *
+	 * @return Number of cache hits.
+	 */
+	public long getCacheHits()
+	{
+		return _cacheHits.sum();
+	}
+
+	/**
+	 * Returns the number of page requests that required reading from the
+	 * underlying channel.
+	 *
+	 * @return Number of cache misses.
+	 */
+	public long getCacheMisses()
+	{
+		return _cacheMisses.sum();
+	}
+
+	public int getPrefetchDepth()
+	{
+		return _prefetchDepth;
+	}
 
-			_offset = offset;
-			_bytes = null;
+	/**
+	 * Sets the number of pages to read ahead when sequential access is
+	 * detected.
+	 *
+	 * @param prefetchDepth Number of pages to read ahead; {@code 0} to disable
+	 *                      prefetching.
+	 */
+	public void setPrefetchDepth( final int prefetchDepth )
+	{
+		if ( prefetchDepth < 0 )
+		{
+			throw new IllegalArgumentException( "Prefetch depth must not be negative: " + prefetchDepth );
 		}
+		_prefetchDepth = prefetchDepth;
+	}
+
+	/**
+	 * Returns the number of pages that were loaded by prefetching.
+	 *
+	 * @return Number of prefetched pages.
+	 */
+	public long getPrefetchedPages()
+	{
+		return _prefetchedPages.sum();
+	}
+
+	/**
+	 * Returns the number of prefetched pages that were used.
+	 *
+	 * @return Number of prefetch hits.
+	 */
+	public long getPrefetchHits()
+	{
+		return _prefetchHits.sum();
 	}
 
-	public int getWindowSize()
+	/**
+	 * Returns the number of prefetched pages that were evicted from the cache
+	 * without being used.
+	 *
+	 * @return Number of wasted prefetches.
+	 */
+	public long getPrefetchWasted()
 	{
-		return _windowSize;
+		return _prefetchWasted.sum();
 	}
 
-	public void setWindowSize( final int windowSize )
+	/**
+	 * Removes all pages from the cache, e.g. after the underlying data was
+	 * changed. Pages that are still being loaded, e.g. by prefetching, are
+	 * discarded when they complete.
+	 */
+	public void clearCache()
 	{
-		if ( _windowSize != windowSize )
+		synchronized ( _clock )
 		{
-			if ( windowSize <= 0 )
+			_generation++;
+			for ( final Page page : _clock )
 			{
-				throw new IllegalArgumentException( "Window size must be positive: " + windowSize );
+				_pages.remove( page._index, page );
+				pageEvicted( page._bigEndian );
 			}
+			_clock.clear();
+			_clockHand = 0;
+		}
+	}
 
-			_windowSize = windowSize;
-			_bytes = null;
-			_buffer = null;
+	public byte getByte( final long address )
+	throws IOException
+	{
+		if ( address < 0L )
+		{
+			throw new IllegalArgumentException( "Address must not be negative: " + address );
 		}
+
+		final ByteBuffer page = getPage( address >>> _pageShift )._bigEndian;
+		final int index = (int)address & ( _pageSize - 1 );
+		return index >= page.limit() ? (byte)0 : page.get( index );
+	}
+
+	/**
+	 * Reads bytes starting at the given address into the given array. Fewer
+	 * bytes than requested are read only if the end of the data is reached.
+	 *
+	 * @param address Address of the first byte to read.
+	 * @param dst     Array to store the bytes in.
+	 * @param offset  Index in the array of the first byte to store.
+	 * @param length  Number of bytes to read.
+	 *
+	 * @return Number of bytes read.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int read( final long address, final byte[] dst, final int offset, final int length )
+	throws IOException
+	{
+		return read( address, ByteBuffer.wrap( dst, offset, length ) );
 	}
 
-	public ByteBuffer getBuffer()
+	/**
+	 * Reads bytes starting at the given address into the given buffer, until
+	 * the buffer is full or the end of the data is reached. The position of
+	 * the buffer is advanced by the number of bytes read. Whole pages that are
+	 * not cached are read directly, without adding them to the cache.
+	 *
+	 * @param address Address of the first byte to read.
+	 * @param dst     Buffer to store the bytes in.
+	 *
+	 * @return Number of bytes read.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int read( final long address, final ByteBuffer dst )
+	throws IOException
 	{
-		if ( _buffer == null )
+		if ( address < 0L )
 		{
-			_buffer = ByteBuffer.allocateDirect( _windowSize );
+			throw new IllegalArgumentException( "Address must not be negative: " + address );
 		}
-		return _buffer;
+
+		final int pageMask = _pageSize - 1;
+
+		int result = 0;
+		long current = address;
+		while ( dst.hasRemaining() )
+		{
+			final long pageIndex = current >>> _pageShift;
+			final int index = (int)current & pageMask;
+
+			if ( index == 0 && dst.remaining() >= _pageSize && !_pages.containsKey( pageIndex ) )
+			{
+				/*
+				 * Whole pages that are not cached are read directly, so
+				 * scanning large amounts of data doesn't evict the pages that
+				 * are in use.
+				 */
+				final int length = dst.remaining() & ~pageMask;
+				final int count = readDirect( current, dst, length );
+				result += count;
+				current += (long)count;
+				if ( count < length )
+				{
+					break;
+				}
+				continue;
+			}
+
+			final ByteBuffer page = getPage( pageIndex )._bigEndian;
+			final int count = Math.min( dst.remaining(), page.limit() - index );
+			if ( count <= 0 )
+			{
+				break;
+			}
+
+			final ByteBuffer source = page.duplicate();
+			source.position( index );
+			source.limit( index + count );
+			dst.put( source );
+
+			result += count;
+			current += (long)count;
+		}
+		return result;
 	}
 
-	public byte getByte( final long address )
+	public short getShort( final long address, final ByteOrder order )
+	throws IOException
+	{
+		return (short)getValue( address, 2, order );
+	}
+
+	public int getInt( final long address, final ByteOrder order )
+	throws IOException
+	{
+		return (int)getValue( address, 4, order );
+	}
+
+	public long getLong( final long address, final ByteOrder order )
+	throws IOException
+	{
+		return getValue( address, 8, order );
+	}
+
+	public float getFloat( final long address, final ByteOrder order )
+	throws IOException
+	{
+		return Float.intBitsToFloat( getInt( address, order ) );
+	}
+
+	public double getDouble( final long address, final ByteOrder order )
+	throws IOException
+	{
+		return Double.longBitsToDouble( getLong( address, order ) );
+	}
+
+	/**
+	 * Returns the unsigned value of the given number of bytes, decoded with
+	 * the given byte order. Bytes beyond the end of the data are read as zero.
+	 *
+	 * @param address Address of the first byte.
+	 * @param length  Number of bytes, between 1 and 8.
+	 * @param order   Byte order.
+	 *
+	 * @return Value.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private long getValue( final long address, final int length, final ByteOrder order )
 	throws IOException
 	{
 		if ( address < 0L )
@@ -111,36 +493,304 @@ public class DataModel
 			throw new IllegalArgumentException( "Address must not be negative: " + address );
 		}
 
-		final long relativeAddress = address - _offset;
-		if ( relativeAddress < 0L || relativeAddress >= (long)_windowSize )
+		final Page page = getPage( address >>> _pageShift );
+		final int index = (int)address & ( _pageSize - 1 );
+		final ByteBuffer buffer = page.getBuffer( order );
+
+		if ( index + length <= buffer.limit() )
+		{
+			return getValue( buffer, index, length );
+		}
+		else
+		{
+			// Value crosses a page boundary or the end of the data.
+			final byte[] bytes = new byte[ length ];
+			read( address, bytes, 0, length );
+			return getValue( ByteBuffer.wrap( bytes ).order( order ), 0, length );
+		}
+	}
+
+	private static long getValue( final ByteBuffer buffer, final int index, final int length )
+	{
+		switch ( length )
 		{
-			setOffset( Math.max( 0L, address - (long)( _windowSize / 2 ) ) );
+			case 1:
+				return (long)buffer.get( index ) & 0xffL;
+			case 2:
+				return (long)buffer.getShort( index ) & 0xffffL;
+			case 4:
+				return (long)buffer.getInt( index ) & 0xffffffffL;
+			case 8:
+				return buffer.getLong( index );
+			default:
+				long result = 0L;
+				if ( buffer.order() == ByteOrder.BIG_ENDIAN )
+				{
+					for ( int i = index, end = index + length; i < end; i++ )
+					{
+						result = ( result << 8 ) | ( (long)buffer.get( i ) & 0xffL );
+					}
+				}
+				else
+				{
+					for ( int i = index + length - 1; i >= index; i-- )
+					{
+						result = ( result << 8 ) | ( (long)buffer.get( i ) & 0xffL );
+					}
+				}
+				return result;
 		}
-		final int index = (int)( address - _offset );
-		final byte[] bytes = getBytes();
-		return index >= bytes.length ? (byte)0 : bytes[ index ];
 	}
 
-	private byte[] getBytes()
+	/**
+	 * Returns the page with the given index, reading it from the channel if
+	 * it isn't cached. Pages at the end of the data may be shorter than the
+	 * page size.
+	 *
+	 * @param pageIndex Index of the page.
+	 *
+	 * @return Page contents.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private Page getPage( final long pageIndex )
 	throws IOException
 	{
-		if ( _bytes == null )
+		final int generation = _generation;
+		Page page = _pages.get( pageIndex );
+		if ( page == null )
+		{
+			_cacheMisses.increment();
+			final Page loaded = new Page( pageIndex, generation, loadPage( pageIndex << _pageShift, _pageSize ) );
+			final Page added = addPage( loaded );
+			page = ( added == null ) ? loaded : added;
+		}
+		else
+		{
+			_cacheHits.increment();
+			page.reference();
+		}
+
+		if ( page._prefetched.compareAndSet( true, false ) )
+		{
+			_prefetchHits.increment();
+		}
+
+		final long[] lastPageIndex = _lastPageIndex.get();
+		if ( lastPageIndex[ 0 ] >= 0L )
+		{
+			final long step = pageIndex - lastPageIndex[ 0 ];
+			if ( step == 1L || step == -1L )
+			{
+				prefetch( pageIndex, step );
+			}
+		}
+
+		lastPageIndex[ 0 ] = pageIndex;
+		return page;
+	}
+
+	/**
+	 * Loads pages following the given page in the background, unless they
+	 * are already cached or being loaded.
+	 *
+	 * @param pageIndex Index of the page being accessed.
+	 * @param step      Direction of access; {@code 1} or {@code -1}.
+	 */
+	private void prefetch( final long pageIndex, final long step )
+	{
+		final int generation = _generation;
+		final int prefetchDepth = _prefetchDepth;
+		for ( int i = 1; i <= prefetchDepth; i++ )
+		{
+			final long index = pageIndex + step * (long)i;
+			if ( index >= 0L && !_pages.containsKey( index ) && _prefetching.add( index ) )
+			{
+				PREFETCH_EXECUTOR.execute( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							final long position = index << _pageShift;
+							if ( !_pages.containsKey( index ) && position < getLength() )
+							{
+								final Page page = new Page( index, generation, loadPage( position, _pageSize ) );
+								page._prefetched.set( true );
+								if ( addPage( page ) == page )
+								{
+									_prefetchedPages.increment();
+								}
+							}
+						}
+						catch ( IOException ignored )
+						{
+							// Reported when the page is actually used.
+						}
+						finally
+						{
+							_prefetching.remove( index );
+						}
+					}
+				} );
+			}
+		}
+	}
+
+	/**
+	 * Adds a newly loaded page to the cache, evicting another page if needed.
+	 *
+	 * @param page Page to be added.
+	 *
+	 * @return Cached page, which differs from the given page if the same page
+	 *         was loaded concurrently by another thread; {@code null} if the
+	 *         cache was cleared while the page was loaded.
+	 */
+	private Page addPage( final Page page )
+	{
+		final Page existing = _pages.putIfAbsent( page._index, page );
+		if ( existing != null )
+		{
+			pageEvicted( page._bigEndian );
+			return existing;
+		}
+
+		synchronized ( _clock )
+		{
+			if ( page._generation != _generation )
+			{
+				_pages.remove( page._index, page );
+				pageEvicted( page._bigEndian );
+				return null;
+			}
+
+			final List<Page> clock = _clock;
+			if ( clock.size() < getMaximumPageCount() )
+			{
+				clock.add( page );
+			}
+			else
+			{
+				clock.set( evict(), page );
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Evicts a page from the cache. Pages are scanned starting at the clock
+	 * hand; any page that was referenced since the previous scan is given a
+	 * second chance. Must be called while holding the lock on {@link #_clock}.
+	 *
+	 * @return Index in {@link #_clock} of the evicted page; the clock hand
+	 *         points to the next index.
+	 */
+	private int evict()
+	{
+		final List<Page> clock = _clock;
+		while ( true )
 		{
-			_channel.position( _offset );
+			final int slot = _clockHand;
+			_clockHand = ( slot + 1 ) % clock.size();
 
-			final ByteBuffer buffer = getBuffer();
-			buffer.clear();
-			while ( buffer.hasRemaining() && _channel.read( buffer ) != -1 )
+			final Page page = clock.get( slot );
+			if ( page._referenced )
+			{
+				page._referenced = false;
+			}
+			else
 			{
+				_pages.remove( page._index, page );
+				pageEvicted( page._bigEndian );
+				if ( page._prefetched.get() )
+				{
+					_prefetchWasted.increment();
+				}
+				return slot;
 			}
+		}
+	}
+
+	/**
+	 * Loads a page from the channel. The returned buffer must contain the data
+	 * starting at index 0, with its limit set to the number of bytes available.
+	 *
+	 * @param position Position of the page in the channel.
+	 * @param size     Size of a page.
+	 *
+	 * @return Page contents.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	protected ByteBuffer loadPage( final long position, final int size )
+	throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( new byte[ size ] );
+		while ( buffer.hasRemaining() && _channel.read( buffer, position + (long)buffer.position() ) != -1 )
+		{
+		}
+
+		buffer.flip();
+		return buffer;
+	}
 
-			buffer.flip();
-			final byte[] bytes = new byte[ buffer.limit() ];
-			buffer.get( bytes );
-			_bytes = bytes;
+	/**
+	 * Reads bytes directly from the channel, bypassing the cache.
+	 *
+	 * @param position Position of the first byte to read.
+	 * @param dst      Buffer to store the bytes in.
+	 * @param length   Number of bytes to read.
+	 *
+	 * @return Number of bytes read; less than requested if the end of the
+	 *         data is reached.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private int readDirect( final long position, final ByteBuffer dst, final int length )
+	throws IOException
+	{
+		final int limit = dst.limit();
+		dst.limit( dst.position() + length );
+		try
+		{
+			int result = 0;
+			while ( dst.hasRemaining() )
+			{
+				final int count = _channel.read( dst, position + (long)result );
+				if ( count == -1 )
+				{
+					break;
+				}
+				result += count;
+			}
+			return result;
 		}
+		finally
+		{
+			dst.limit( limit );
+		}
+	}
+
+	/**
+	 * Called when a page is removed from the cache. Subclasses may override
+	 * this method to release any resources held by the page. Note that other
+	 * threads may still be reading from the page.
+	 *
+	 * @param page Page that was evicted.
+	 */
+	protected void pageEvicted( final ByteBuffer page )
+	{
+	}
 
-		return _bytes;
+	/**
+	 * Returns the channel that provides access to the data.
+	 *
+	 * @return Channel.
+	 */
+	protected FileChannel getChannel()
+	{
+		return _channel;
 	}
 
 	public URI getDataSource()
@@ -166,12 +816,7 @@ public class DataModel
 			throw new IllegalArgumentException( "Length must be between 1 and 8: " + length );
 		}
 
-		long result = 0L;
-		for ( long offset = start, end = start + (long)length; offset < end; offset++ )
-		{
-			result = ( result << 8 ) | ( (long)getByte( offset ) & 0xffL );
-		}
-		return result;
+		return getValue( start, length, ByteOrder.BIG_ENDIAN );
 	}
 
 	public long getLittleEndian( final long start, final int length )
@@ -187,12 +832,7 @@ public class DataModel
 			throw new IllegalArgumentException( "Length must be between 1 and 8." );
 		}
 
-		long result = 0L;
-		for ( long offset = start + (long)length - 1L; offset >= start; offset-- )
-		{
-			result = ( result << 8 ) | ( (long)getByte( offset ) & 0xffL );
-		}
-		return result;
+		return getValue( start, length, ByteOrder.LITTLE_ENDIAN );
 	}
 
 	public long getLength()
@@ -200,4 +840,62 @@ public class DataModel
 	{
 		return _channel.size();
 	}
+
+	/**
+	 * Cached page, with views for each byte order. The contents of a page
+	 * never change once it's constructed.
+	 */
+	private static class Page
+	{
+		/**
+		 * Index of the page.
+		 */
+		private final long _index;
+
+		/**
+		 * Value of {@link DataModel#_generation} when the page was loaded.
+		 */
+		private final int _generation;
+
+		/**
+		 * Whether the page was used since the clock hand last passed it.
+		 */
+		private volatile boolean _referenced = false;
+
+		/**
+		 * Whether the page was prefetched, but not yet used.
+		 */
+		private final AtomicBoolean _prefetched = new AtomicBoolean();
+
+		/**
+		 * Page contents, as loaded by {@link DataModel#loadPage}.
+		 */
+		private final ByteBuffer _bigEndian;
+
+		/**
+		 * Little-endian view of the page contents.
+		 */
+		private final ByteBuffer _littleEndian;
+
+		private Page( final long index, final int generation, final ByteBuffer buffer )
+		{
+			_index = index;
+			_generation = generation;
+			_bigEndian = buffer.order( ByteOrder.BIG_ENDIAN );
+			_littleEndian = buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		}
+
+		private void reference()
+		{
+			if ( !_referenced )
+			{
+				_referenced = true;
+			}
+		}
+
+		private ByteBuffer getBuffer( final ByteOrder order )
+		{
+			return order == ByteOrder.BIG_ENDIAN ? _bigEndian : _littleEndian;
+		}
+	}
 }
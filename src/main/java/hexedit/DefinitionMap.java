@@ -16,30 +16,71 @@
  */
 package hexedit;
 
-import java.io.*;
 import java.util.*;
 
 /**
- * Provides fast access to definitions when performing many look-ups, at the
- * cost of an initial sort.
+ * Index of definitions by address, e.g. the definitions of a {@link Record}.
+ * Definitions can be added and removed in logarithmic time, so the index can
+ * be kept up to date instead of being rebuilt for every look-up.
  *
- * <p>When definitions contained in the map are modified, {@link #update()} must
- * be called before using the map. This is needed because the address of a
- * definition have changed, which potentially changes the ordering of the map.
+ * <p>The definitions are stored in a balanced search tree (a treap), ordered
+ * by address. Each node also stores the largest end address in its subtree,
+ * so definitions that overlap a given address or range are found without
+ * visiting definitions that end before it. If definitions overlap, the one
+ * that starts last takes precedence.
+ *
+ * <p>Record definitions are kept in a separate tree. Their addresses are
+ * relative to the record that contains them, while the records they define
+ * stay put, so they all change by the same amount when that record moves.
+ * {@link #shift} applies such a move in constant time.
+ *
+ * <p>When a single definition in the map is modified, it's re-indexed using
+ * {@link #update(Definition, long)}. After other modifications, {@link
+ * #update()} must be called before using the map. This is needed because the
+ * address of a definition may have changed, which potentially changes the
+ * ordering of the map.
  *
  * @author Gerrit Meinders
  */
 public class DefinitionMap
 {
 	/**
-	 * Definitions in the map, sorted by address.
+	 * Root of the tree of definitions other than record definitions.
+	 */
+	private Node _root = null;
+
+	/**
+	 * Root of the tree of record definitions. The address of each record
+	 * definition is the address stored in its node plus {@link #_offset}.
 	 */
-	private final List<Definition> _definitions;
+	private Node _movingRoot = null;
 
 	/**
-	 * Reused key instance.
+	 * Amount that record definitions were shifted by since the map was built.
 	 */
-	private Key _key = new Key();
+	private long _offset = 0L;
+
+	/**
+	 * Number of definitions in the map.
+	 */
+	private int _size = 0;
+
+	/**
+	 * Incremented whenever the map is modified.
+	 */
+	private int _version = 0;
+
+	/**
+	 * Used to derive the priority of each new node.
+	 */
+	private long _seed = 0L;
+
+	/**
+	 * Constructs a new empty map.
+	 */
+	public DefinitionMap()
+	{
+	}
 
 	/**
 	 * Constructs a new instance for the given definitions.
@@ -48,8 +89,29 @@ public class DefinitionMap
 	 */
 	public DefinitionMap( final Collection<Definition> definitions )
 	{
-		_definitions = new ArrayList<Definition>( definitions );
-		update();
+		build( definitions );
+	}
+
+	/**
+	 * Returns the number of definitions in the map.
+	 *
+	 * @return Number of definitions.
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Returns the version of the map, which changes whenever definitions are
+	 * added, removed or updated. Can be used to find out whether information
+	 * derived from the map is still up to date.
+	 *
+	 * @return Version of the map.
+	 */
+	public int getVersion()
+	{
+		return _version;
 	}
 
 	/**
@@ -57,7 +119,176 @@ public class DefinitionMap
 	 */
 	public void update()
 	{
-		Collections.sort( _definitions, DefinitionAddressComparator.INSTANCE );
+		build( getAll() );
+	}
+
+	/**
+	 * Updates the map to a change in the address or length of the given
+	 * definition. Unlike {@link #update()}, only the given definition is
+	 * re-indexed, in logarithmic time.
+	 *
+	 * @param definition Definition that changed.
+	 * @param address    Address of the definition before it changed.
+	 *
+	 * @return {@code true} if the definition was found at the given address.
+	 */
+	public boolean update( final Definition definition, final long address )
+	{
+		final boolean moving = isMoving( definition );
+		final long start = moving ? address - _offset : address;
+		final Node node = find( moving ? _movingRoot : _root, start );
+		final boolean result = ( node != null && node._definition == definition );
+		if ( result )
+		{
+			if ( moving )
+			{
+				_movingRoot = insert( remove( _movingRoot, start ), createNode( definition ) );
+			}
+			else
+			{
+				_root = insert( remove( _root, start ), createNode( definition ) );
+			}
+			_version++;
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the given amount to the address of every record definition in the
+	 * map, e.g. when the record that contains them moves. Takes constant
+	 * time.
+	 *
+	 * @param delta Amount to add.
+	 */
+	public void shift( final long delta )
+	{
+		if ( delta != 0L )
+		{
+			_offset += delta;
+			_version++;
+		}
+	}
+
+	/**
+	 * Adds the given definition to the map, replacing any definition at the
+	 * same address.
+	 *
+	 * @param definition Definition to be added.
+	 *
+	 * @return Definition that was replaced; {@code null} if none.
+	 */
+	public Definition put( final Definition definition )
+	{
+		final Definition result = remove( definition.getAddress() );
+		final Node node = createNode( definition );
+		if ( node._moving )
+		{
+			_movingRoot = insert( _movingRoot, node );
+		}
+		else
+		{
+			_root = insert( _root, node );
+		}
+		_size++;
+		_version++;
+		return result;
+	}
+
+	/**
+	 * Adds the given definitions to the map, replacing any definitions at the
+	 * same addresses. If several of the given definitions have the same
+	 * address, the last one is kept. Unless only a few definitions are added,
+	 * the tree is rebuilt once, which is faster than adding the definitions
+	 * one by one.
+	 *
+	 * @param definitions Definitions to be added.
+	 *
+	 * @return Definitions that were replaced, including given definitions
+	 *         that were replaced by a later one with the same address.
+	 */
+	public List<Definition> putAll( final Collection<? extends Definition> definitions )
+	{
+		final Definition[] added = definitions.toArray( new Definition[ definitions.size() ] );
+		Arrays.sort( added, DefinitionAddressComparator.INSTANCE );
+
+		final List<Definition> result = new ArrayList<Definition>();
+		if ( (long)added.length * 32L < (long)_size )
+		{
+			// Cheaper than rebuilding the tree.
+			for ( final Definition definition : added )
+			{
+				final Definition replaced = put( definition );
+				if ( replaced != null )
+				{
+					result.add( replaced );
+				}
+			}
+			return result;
+		}
+
+		final List<Definition> existing = getAll();
+
+		final List<Definition> merged = new ArrayList<Definition>( existing.size() + added.length );
+		int i = 0;
+		int j = 0;
+		while ( i < existing.size() || j < added.length )
+		{
+			if ( j == added.length || ( i < existing.size() && existing.get( i ).getAddress() < added[ j ].getAddress() ) )
+			{
+				merged.add( existing.get( i++ ) );
+			}
+			else
+			{
+				// Skip replaced definitions.
+				final long address = added[ j ].getAddress();
+				while ( i < existing.size() && existing.get( i ).getAddress() == address )
+				{
+					result.add( existing.get( i++ ) );
+				}
+				while ( j < added.length - 1 && added[ j + 1 ].getAddress() == address )
+				{
+					result.add( added[ j++ ] );
+				}
+				merged.add( added[ j++ ] );
+			}
+		}
+		build( merged );
+		return result;
+	}
+
+	/**
+	 * Removes the definition at the given address.
+	 *
+	 * @param address Address of the definition, relative to the same record as
+	 *                the definitions in this map.
+	 *
+	 * @return Definition that was removed; {@code null} if none.
+	 */
+	public Definition remove( final long address )
+	{
+		Node node = find( _root, address );
+		if ( node != null )
+		{
+			_root = remove( _root, address );
+		}
+		else
+		{
+			final long start = address - _offset;
+			node = find( _movingRoot, start );
+			if ( node != null )
+			{
+				_movingRoot = remove( _movingRoot, start );
+			}
+		}
+
+		Definition result = null;
+		if ( node != null )
+		{
+			result = node._definition;
+			_size--;
+			_version++;
+		}
+		return result;
 	}
 
 	/**
@@ -70,67 +301,688 @@ public class DefinitionMap
 	 */
 	public Definition get( final long address )
 	{
-		final Key key = _key;
-		key.setAddress( address );
+		final Node fixed = get( _root, address );
+		final Node moving = get( _movingRoot, address - _offset );
+		final Node node = ( moving == null || ( fixed != null && fixed._start > moving._start + _offset ) ) ? fixed : moving;
+		return ( node == null ) ? null : node._definition;
+	}
 
-		final int index = Collections.binarySearch( _definitions, key, DefinitionAddressComparator.INSTANCE );
-		if ( index >= 0 )
+	/**
+	 * Adds all definitions that overlap the given range to the given
+	 * collection, ordered by address.
+	 *
+	 * @param start  Start of the range (inclusive).
+	 * @param end    End of the range (exclusive).
+	 * @param result Collection to add definitions to.
+	 */
+	public void getIntersecting( final long start, final long end, final Collection<? super Definition> result )
+	{
+		final MergedRangeIterator iterator = new MergedRangeIterator();
+		iterator.reset( this, start, end );
+		for ( Node node = iterator.next(); node != null; node = iterator.next() )
 		{
-			return _definitions.get( index );
+			result.add( node._definition );
 		}
-		else if ( index == -1 )
+	}
+
+	/**
+	 * Returns an iterator over all definitions that overlap the given range,
+	 * ordered by address. Finding the first definition takes logarithmic
+	 * time; each next definition takes amortized constant time. The map must
+	 * not be modified while iterating.
+	 *
+	 * @param start Start of the range (inclusive).
+	 * @param end   End of the range (exclusive).
+	 *
+	 * @return Iterator over the definitions in the range.
+	 */
+	public Iterator<Definition> iterator( final long start, final long end )
+	{
+		final MergedRangeIterator iterator = new MergedRangeIterator();
+		iterator.reset( this, start, end );
+		return new Iterator<Definition>()
 		{
-			return null;
+			@Override
+			public boolean hasNext()
+			{
+				return iterator.peek() != null;
+			}
+
+			@Override
+			public Definition next()
+			{
+				final Node node = iterator.next();
+				if ( node == null )
+				{
+					throw new NoSuchElementException();
+				}
+				return node._definition;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns whether any definition overlaps the given range.
+	 *
+	 * @param start Start of the range (inclusive).
+	 * @param end   End of the range (exclusive).
+	 *
+	 * @return {@code true} if the range overlaps a definition.
+	 */
+	public boolean overlaps( final long start, final long end )
+	{
+		return overlaps( _root, start, end ) || overlaps( _movingRoot, subtract( start, _offset ), subtract( end, _offset ) );
+	}
+
+	/**
+	 * Adds every definition that overlaps another definition in the map to
+	 * the given collection. Takes linear time.
+	 *
+	 * @param result Collection to add definitions to.
+	 */
+	public void getOverlapping( final Collection<? super Definition> result )
+	{
+		final List<Definition> definitions = getAll();
+
+		/*
+		 * A definition overlaps an earlier one if it starts before the largest
+		 * end so far. The earlier definition that reaches furthest is then
+		 * reported as well; any other earlier definitions it overlaps are
+		 * reported when they are visited.
+		 */
+		Definition furthest = null;
+		long maximumEnd = Long.MIN_VALUE;
+		boolean furthestAdded = false;
+		for ( final Definition definition : definitions )
+		{
+			final long start = definition.getAddress();
+			final long end = start + (long)definition.getLength();
+			if ( start < maximumEnd )
+			{
+				if ( !furthestAdded )
+				{
+					result.add( furthest );
+				}
+				result.add( definition );
+				if ( end > maximumEnd )
+				{
+					furthest = definition;
+					maximumEnd = end;
+				}
+				furthestAdded = true;
+			}
+			else
+			{
+				furthest = definition;
+				maximumEnd = end;
+				furthestAdded = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns all definitions in the map, ordered by address.
+	 *
+	 * @return Definitions in the map.
+	 */
+	private List<Definition> getAll()
+	{
+		final List<Definition> result = new ArrayList<Definition>( _size );
+		final MergedRangeIterator iterator = new MergedRangeIterator();
+		iterator.reset( this, Long.MIN_VALUE, Long.MAX_VALUE );
+		for ( Node node = iterator.next(); node != null; node = iterator.next() )
+		{
+			result.add( node._definition );
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether any definition in the given subtree overlaps the given
+	 * range.
+	 */
+	private static boolean overlaps( final Node root, final long start, final long end )
+	{
+		Node node = root;
+		while ( node != null && node._maximumEnd > start )
+		{
+			if ( node._start < end && node._end > start )
+			{
+				return true;
+			}
+
+			/*
+			 * If the left subtree reaches past the start of the range, either
+			 * it overlaps the range, or all of its nodes (and those to the
+			 * right) start after the end of the range.
+			 */
+			node = ( node._left != null && node._left._maximumEnd > start ) ? node._left : ( node._start < end ) ? node._right : null;
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the contents of the map with the given definitions.
+	 *
+	 * @param definitions Definitions to provide access to.
+	 */
+	private void build( final Collection<Definition> definitions )
+	{
+		final List<Definition> fixed = new ArrayList<Definition>( definitions.size() );
+		final List<Definition> moving = new ArrayList<Definition>();
+		for ( final Definition definition : definitions )
+		{
+			( isMoving( definition ) ? moving : fixed ).add( definition );
+		}
+
+		_offset = 0L;
+		_root = buildTree( fixed );
+		_movingRoot = buildTree( moving );
+		_size = definitions.size();
+		_version++;
+	}
+
+	/**
+	 * Builds a tree for the given definitions.
+	 *
+	 * @param definitions Definitions to be added to the tree.
+	 *
+	 * @return Root of the tree.
+	 */
+	private Node buildTree( final Collection<Definition> definitions )
+	{
+		final Definition[] sorted = definitions.toArray( new Definition[ definitions.size() ] );
+		Arrays.sort( sorted, DefinitionAddressComparator.INSTANCE );
+
+		/*
+		 * Builds the treap from the sorted definitions in linear time, keeping
+		 * the nodes on the rightmost path of the tree on a stack.
+		 */
+		final Node[] stack = new Node[ sorted.length ];
+		int depth = 0;
+		for ( final Definition definition : sorted )
+		{
+			final Node node = createNode( definition );
+			Node last = null;
+			while ( depth > 0 && stack[ depth - 1 ]._priority < node._priority )
+			{
+				last = stack[ --depth ];
+				last.updateMaximumEnd();
+			}
+			node._left = last;
+			if ( depth > 0 )
+			{
+				stack[ depth - 1 ]._right = node;
+			}
+			stack[ depth++ ] = node;
+		}
+		for ( int i = depth - 1; i >= 0; i-- )
+		{
+			stack[ i ].updateMaximumEnd();
+		}
+
+		return ( depth > 0 ) ? stack[ 0 ] : null;
+	}
+
+	/**
+	 * Creates a node for the given definition, with a pseudo-random priority.
+	 */
+	private Node createNode( final Definition definition )
+	{
+		long priority = ++_seed * 0x9e3779b97f4a7c15L;
+		priority ^= priority >>> 32;
+		priority *= 0xd6e8feb86659fd93L;
+		priority ^= priority >>> 32;
+		final boolean moving = isMoving( definition );
+		return new Node( definition, moving ? definition.getAddress() - _offset : definition.getAddress(), moving, priority );
+	}
+
+	/**
+	 * Returns whether the given definition belongs in the tree of record
+	 * definitions, which is shifted when the containing record moves.
+	 */
+	private static boolean isMoving( final Definition definition )
+	{
+		return definition instanceof RecordDefinition;
+	}
+
+	/**
+	 * Subtracts an offset from an address, clamping the result instead of
+	 * overflowing, so open-ended ranges stay open-ended.
+	 */
+	private static long subtract( final long address, final long offset )
+	{
+		final long result = address - offset;
+		return ( ( ( address ^ offset ) & ( address ^ result ) ) < 0L ) ? ( ( address < 0L ) ? Long.MIN_VALUE : Long.MAX_VALUE ) : result;
+	}
+
+	/**
+	 * Returns the node with the given address in the given subtree.
+	 *
+	 * @return Node; {@code null} if not found.
+	 */
+	private static Node find( final Node root, final long address )
+	{
+		Node node = root;
+		while ( node != null && node._start != address )
+		{
+			node = ( address < node._start ) ? node._left : node._right;
+		}
+		return node;
+	}
+
+	/**
+	 * Inserts a node into the given subtree.
+	 *
+	 * @return New root of the subtree.
+	 */
+	private static Node insert( final Node node, final Node inserted )
+	{
+		Node result = node;
+		if ( node == null )
+		{
+			result = inserted;
+		}
+		else if ( inserted._start < node._start )
+		{
+			node._left = insert( node._left, inserted );
+			result = ( node._left._priority > node._priority ) ? rotateRight( node ) : node;
 		}
 		else
 		{
-			final int insertionPoint = -index - 1;
-			final Definition previous = _definitions.get( insertionPoint - 1 );
-			return address - previous.getAddress() < (long)previous.getLength() ? previous : null;
+			node._right = insert( node._right, inserted );
+			result = ( node._right._priority > node._priority ) ? rotateLeft( node ) : node;
 		}
+		result.updateMaximumEnd();
+		return result;
 	}
 
 	/**
-	 * Key object used to call {@link Collections#binarySearch}.
+	 * Removes the first node with the given address from the given subtree.
+	 *
+	 * @return New root of the subtree.
 	 */
-	private static class Key
-	implements Definition
+	private static Node remove( final Node node, final long address )
 	{
-		private long _address = 0L;
+		Node result = node;
+		if ( address < node._start )
+		{
+			node._left = remove( node._left, address );
+		}
+		else if ( address > node._start )
+		{
+			node._right = remove( node._right, address );
+		}
+		else
+		{
+			result = merge( node._left, node._right );
+		}
+		if ( result != null )
+		{
+			result.updateMaximumEnd();
+		}
+		return result;
+	}
 
-		@Override
-		public String getLabel()
+	/**
+	 * Merges two subtrees, where all nodes in the first subtree come before
+	 * those in the second.
+	 *
+	 * @return Root of the merged tree.
+	 */
+	private static Node merge( final Node first, final Node second )
+	{
+		final Node result;
+		if ( first == null )
 		{
-			return null;
+			result = second;
+		}
+		else if ( second == null )
+		{
+			result = first;
+		}
+		else if ( first._priority > second._priority )
+		{
+			first._right = merge( first._right, second );
+			result = first;
+		}
+		else
+		{
+			second._left = merge( first, second._left );
+			result = second;
 		}
+		if ( result != null )
+		{
+			result.updateMaximumEnd();
+		}
+		return result;
+	}
 
-		@Override
-		public long getAddress()
+	private static Node rotateLeft( final Node node )
+	{
+		final Node result = node._right;
+		node._right = result._left;
+		result._left = node;
+		node.updateMaximumEnd();
+		result.updateMaximumEnd();
+		return result;
+	}
+
+	private static Node rotateRight( final Node node )
+	{
+		final Node result = node._left;
+		node._left = result._right;
+		result._right = node;
+		node.updateMaximumEnd();
+		result.updateMaximumEnd();
+		return result;
+	}
+
+	/**
+	 * Returns the node that starts last among those that contain the given
+	 * address, within the given subtree.
+	 */
+	private static Node get( final Node node, final long address )
+	{
+		Node result = null;
+		if ( node != null && node._maximumEnd > address )
+		{
+			if ( node._start > address )
+			{
+				result = get( node._left, address );
+			}
+			else
+			{
+				result = get( node._right, address );
+				if ( result == null )
+				{
+					result = ( node._end > address ) ? node : get( node._left, address );
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up definitions for a series of increasing addresses, e.g. the
+	 * addresses of the tiles in a view. Instead of searching the tree for
+	 * every address, the cursor walks the definitions in order along with the
+	 * addresses. Instances can be reused for different maps.
+	 */
+	public static class Cursor
+	{
+		/**
+		 * Iterates over the definitions that start after the last address.
+		 */
+		private final MergedRangeIterator _iterator = new MergedRangeIterator();
+
+		/**
+		 * Map to look up definitions in.
+		 */
+		private DefinitionMap _map = null;
+
+		/**
+		 * Whether the iterator is positioned, which happens at the first
+		 * look-up.
+		 */
+		private boolean _started = false;
+
+		/**
+		 * Definitions that started at or before the last address, ordered by
+		 * address. Ended definitions are removed only when they are on top.
+		 */
+		private final List<Node> _active = new ArrayList<Node>();
+
+		/**
+		 * Starts looking up definitions in the given map.
+		 *
+		 * @param map Definition map.
+		 */
+		public void reset( final DefinitionMap map )
+		{
+			_map = map;
+			_started = false;
+			_active.clear();
+		}
+
+		/**
+		 * Returns the definition that applies to the given address. The
+		 * address must not be less than that of the previous call since the
+		 * last {@link #reset}.
+		 *
+		 * @param address Address to look up.
+		 *
+		 * @return Definition for the given address, if any.
+		 */
+		public Definition get( final long address )
+		{
+			final MergedRangeIterator iterator = _iterator;
+			if ( !_started )
+			{
+				iterator.reset( _map, address, Long.MAX_VALUE );
+				_started = true;
+			}
+
+			final List<Node> active = _active;
+			for ( Node next = iterator.peek(); next != null && iterator.getStart( next ) <= address; next = iterator.peek() )
+			{
+				active.add( iterator.next() );
+			}
+
+			/*
+			 * Definitions are added in order of address, so the top of the
+			 * stack is the last definition to start. Once ended definitions
+			 * are removed from the top, it contains the address.
+			 */
+			int size = active.size();
+			while ( size > 0 && iterator.getEnd( active.get( size - 1 ) ) <= address )
+			{
+				active.remove( --size );
+			}
+			return ( size > 0 ) ? active.get( size - 1 )._definition : null;
+		}
+	}
+
+	/**
+	 * Walks the nodes of both trees of a map that overlap a range, in order of
+	 * address. At the same address, record definitions come last.
+	 */
+	private static class MergedRangeIterator
+	{
+		private final RangeIterator _fixed = new RangeIterator();
+
+		private final RangeIterator _moving = new RangeIterator();
+
+		/**
+		 * Offset of the record definitions; see {@link DefinitionMap#_offset}.
+		 */
+		private long _offset;
+
+		private void reset( final DefinitionMap map, final long start, final long end )
+		{
+			_offset = map._offset;
+			_fixed.reset( map._root, start, end );
+			_moving.reset( map._movingRoot, subtract( start, _offset ), subtract( end, _offset ) );
+		}
+
+		private Node peek()
+		{
+			final Node fixed = _fixed.peek();
+			final Node moving = _moving.peek();
+			return ( moving == null || ( fixed != null && fixed._start <= moving._start + _offset ) ) ? fixed : moving;
+		}
+
+		private Node next()
 		{
-			return _address;
+			final Node result = peek();
+			if ( result != null )
+			{
+				( result._moving ? _moving : _fixed ).next();
+			}
+			return result;
 		}
 
-		private void setAddress( final long address )
+		/**
+		 * Returns the address of the given node's definition.
+		 */
+		private long getStart( final Node node )
 		{
-			_address = address;
+			return node._moving ? node._start + _offset : node._start;
 		}
 
-		@Override
-		public int getLength()
+		/**
+		 * Returns the end of the given node's definition (exclusive).
+		 */
+		private long getEnd( final Node node )
 		{
-			return 0;
+			return node._moving ? node._end + _offset : node._end;
 		}
+	}
+
+	/**
+	 * Walks the nodes that overlap a range in order, skipping subtrees that
+	 * end before the range.
+	 */
+	private static class RangeIterator
+	{
+		/**
+		 * Nodes of which the node itself and its right subtree remain to be
+		 * visited.
+		 */
+		private final List<Node> _stack = new ArrayList<Node>();
+
+		private long _start;
+
+		private long _end;
+
+		/**
+		 * Next node to be returned; {@code null} at the end.
+		 */
+		private Node _next;
+
+		private void reset( final Node root, final long start, final long end )
+		{
+			_stack.clear();
+			_start = start;
+			_end = end;
+			pushLeft( root );
+			_next = advance();
+		}
+
+		private Node peek()
+		{
+			return _next;
+		}
+
+		private Node next()
+		{
+			final Node result = _next;
+			if ( result != null )
+			{
+				_next = advance();
+			}
+			return result;
+		}
+
+		private Node advance()
+		{
+			final List<Node> stack = _stack;
+			while ( !stack.isEmpty() )
+			{
+				final Node node = stack.remove( stack.size() - 1 );
+				if ( node._start >= _end )
+				{
+					stack.clear();
+					break;
+				}
+				pushLeft( node._right );
+				if ( node._end > _start )
+				{
+					return node;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Pushes the given node and its left descendants, as far as their
+		 * subtrees reach into the range.
+		 */
+		private void pushLeft( final Node node )
+		{
+			for ( Node current = node; current != null && current._maximumEnd > _start; current = current._left )
+			{
+				_stack.add( current );
+			}
+		}
+	}
+
+	/**
+	 * Node in the tree.
+	 */
+	private static class Node
+	{
+		private final Definition _definition;
+
+		/**
+		 * Address of the definition when it was added. For record
+		 * definitions, this excludes the offset of the map at that time.
+		 */
+		private final long _start;
+
+		/**
+		 * End of the definition (exclusive), relative to the same origin as
+		 * {@link #_start}.
+		 */
+		private final long _end;
+
+		/**
+		 * Whether the node is in the tree of record definitions.
+		 */
+		private final boolean _moving;
+
+		/**
+		 * Largest end address in the subtree rooted at this node.
+		 */
+		private long _maximumEnd;
+
+		/**
+		 * Priority of the node; no child has a higher priority.
+		 */
+		private final long _priority;
+
+		private Node _left = null;
+
+		private Node _right = null;
 
-		@Override
-		public void use( final View view )
-		throws IOException
+		private Node( final Definition definition, final long start, final boolean moving, final long priority )
 		{
+			_definition = definition;
+			_start = start;
+			_end = start + (long)definition.getLength();
+			_moving = moving;
+			_maximumEnd = _end;
+			_priority = priority;
 		}
 
-		@Override
-		public boolean isLink()
+		private void updateMaximumEnd()
 		{
-			return false;
+			long maximumEnd = _end;
+			if ( _left != null )
+			{
+				maximumEnd = Math.max( maximumEnd, _left._maximumEnd );
+			}
+			if ( _right != null )
+			{
+				maximumEnd = Math.max( maximumEnd, _right._maximumEnd );
+			}
+			_maximumEnd = maximumEnd;
 		}
 	}
 }
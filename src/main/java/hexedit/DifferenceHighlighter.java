@@ -23,7 +23,13 @@ import java.util.List;
 
 /**
  * Highlights based on the number of distinct values for a given address in two
- * or more data sources.
+ * or more data sources. Addresses are first looked up in a
+ * {@link DifferenceIndex}; the data sources are only read for addresses that
+ * are not indexed yet, or where more than two data sources are compared.
+ *
+ * <p>After {@link #align()} is called, data sources are no longer compared
+ * address by address. Instead, any address of the first data source that has
+ * no counterpart in another data source is highlighted as a difference.
  *
  * @author Gerrit Meinders
  */
@@ -32,6 +38,14 @@ implements Highlighter
 {
 	private List<DataModel> _dataModels;
 
+	private DifferenceIndex _index;
+
+	/**
+	 * Alignment of each data model, except the first, to the first data
+	 * model; {@code null} if the data models are not aligned.
+	 */
+	private volatile Alignment[] _alignments;
+
 	private byte[] _values;
 
 	private Color[] _colors;
@@ -40,8 +54,11 @@ implements Highlighter
 	 * Constructs a new instance.
 	 *
 	 * @param dataModels Data models to show differences between.
+	 *
+	 * @throws IOException if an I/O error occurs.
 	 */
 	public DifferenceHighlighter( final List<DataModel> dataModels )
+	throws IOException
 	{
 		if ( dataModels.size() < 2 )
 		{
@@ -49,6 +66,7 @@ implements Highlighter
 		}
 
 		_dataModels = new ArrayList<DataModel>( dataModels );
+		_index = new DifferenceIndex( dataModels );
 
 		final int size = dataModels.size();
 		_values = new byte[ size ];
@@ -60,9 +78,124 @@ implements Highlighter
 		}
 	}
 
+	/**
+	 * Returns the index of differences between the data models. The index is
+	 * not built until {@link DifferenceIndex#start()} is called.
+	 *
+	 * @return Difference index.
+	 */
+	public DifferenceIndex getIndex()
+	{
+		return _index;
+	}
+
+	/**
+	 * Aligns all data models to the first data model, so data that is
+	 * inserted or removed only causes the affected addresses to be
+	 * highlighted. All data is read, so this method should not be called on
+	 * the event dispatch thread.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void align()
+	throws IOException
+	{
+		final DataModel source = _dataModels.get( 0 );
+		final Alignment[] alignments = new Alignment[ _dataModels.size() - 1 ];
+		for ( int i = 0; i < alignments.length; i++ )
+		{
+			alignments[ i ] = Alignment.compute( source, _dataModels.get( i + 1 ) );
+		}
+		_alignments = alignments;
+	}
+
+	/**
+	 * Returns the first address, at or after the given address, that is
+	 * highlighted as a difference. If the data models are aligned, this is
+	 * the first address without a counterpart in any other data model;
+	 * otherwise, the difference index is used.
+	 *
+	 * @param address Address to start at.
+	 *
+	 * @return Address of the next difference; {@code -1} if there is none.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long nextDifference( final long address )
+	throws IOException
+	{
+		final Alignment[] alignments = _alignments;
+		if ( alignments == null )
+		{
+			return _index.nextDifference( address );
+		}
+
+		long result = -1L;
+		for ( final Alignment alignment : alignments )
+		{
+			final long unaligned = alignment.nextUnaligned( address );
+			if ( unaligned >= 0L && ( result < 0L || unaligned < result ) )
+			{
+				result = unaligned;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the last address, before the given address, that is
+	 * highlighted as a difference. See {@link #nextDifference(long)}.
+	 *
+	 * @param address Address to start at.
+	 *
+	 * @return Address of the previous difference; {@code -1} if there is none.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long previousDifference( final long address )
+	throws IOException
+	{
+		final Alignment[] alignments = _alignments;
+		if ( alignments == null )
+		{
+			return _index.previousDifference( address );
+		}
+
+		long result = -1L;
+		for ( final Alignment alignment : alignments )
+		{
+			result = Math.max( result, alignment.previousUnaligned( address ) );
+		}
+		return result;
+	}
+
 	@Override
 	public Color getColor( final long address )
 	{
+		final Alignment[] alignments = _alignments;
+		if ( alignments != null )
+		{
+			int count = 1;
+			for ( final Alignment alignment : alignments )
+			{
+				if ( alignment.getSegment( address ) < 0 )
+				{
+					count++;
+				}
+			}
+			return _colors[ count - 1 ];
+		}
+
+		final int state = _index.getState( address );
+		if ( state == DifferenceIndex.IDENTICAL )
+		{
+			return _colors[ 0 ];
+		}
+		else if ( state == DifferenceIndex.DIFFERENT && _colors.length == 2 )
+		{
+			return _colors[ 1 ];
+		}
+
 		int count = 0;
 		models: for ( final DataModel dataModel : _dataModels )
 		{
@@ -0,0 +1,685 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Index of the address ranges at which two or more data models differ. The
+ * index is built in the background by comparing large blocks of all data
+ * models in parallel.
+ *
+ * <p>For each block, the index stores whether the block is identical in all
+ * data models or, if not, the ranges within the block that differ. If a block
+ * contains too many separate ranges, it is marked as dense and its ranges are
+ * not stored; such blocks are compared again when needed. Bytes beyond the end
+ * of a data model are treated as zero.
+ *
+ * <p>Before comparing any blocks, the {@link BlockHashTree}s of the data models
+ * are compared, so only blocks with different hashes are read. Because the
+ * trees are saved, reopening the same files skips reading identical blocks
+ * entirely.
+ *
+ * @author Gerrit Meinders
+ */
+public class DifferenceIndex
+{
+	/**
+	 * Returned by {@link #getState} if the address is not indexed yet.
+	 */
+	public static final int UNKNOWN = 0;
+
+	/**
+	 * Returned by {@link #getState} if all data models are equal at the
+	 * address.
+	 */
+	public static final int IDENTICAL = 1;
+
+	/**
+	 * Returned by {@link #getState} if the data models differ at the address.
+	 */
+	public static final int DIFFERENT = 2;
+
+	/**
+	 * Size of a block.
+	 */
+	static final int BLOCK_SIZE = 0x10000; // 64k
+
+	/**
+	 * Number of blocks that are indexed by a single task.
+	 */
+	private static final int BATCH_SIZE = 16;
+
+	/**
+	 * Maximum number of ranges stored for a single block.
+	 */
+	private static final int MAXIMUM_RANGES = 32;
+
+	/**
+	 * Marks a block that is identical in all data models.
+	 */
+	private static final int[] IDENTICAL_BLOCK = new int[ 0 ];
+
+	/**
+	 * Marks a block that contains too many differences to store.
+	 */
+	private static final int[] DENSE_BLOCK = new int[ 0 ];
+
+	/**
+	 * Block buffers, reused by each worker thread.
+	 */
+	private static final ThreadLocal<byte[][]> BLOCK_BUFFERS = new ThreadLocal<byte[][]>();
+
+	private final List<DataModel> _dataModels;
+
+	/**
+	 * Length of the longest data model.
+	 */
+	private final long _length;
+
+	/**
+	 * Differing ranges in each block, as pairs of start (inclusive) and end
+	 * (exclusive) offsets relative to the start of the block. Elements are
+	 * {@code null} until the block is indexed.
+	 */
+	private final AtomicReferenceArray<int[]> _blocks;
+
+	/**
+	 * Sorted indices of all blocks that are not identical. Only available
+	 * when the index is complete.
+	 */
+	private volatile int[] _differentBlocks;
+
+	private volatile boolean _cancelled = false;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param dataModels Data models to be compared.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public DifferenceIndex( final List<DataModel> dataModels )
+	throws IOException
+	{
+		if ( dataModels.size() < 2 )
+		{
+			throw new IllegalArgumentException( "At least two data models are needed." );
+		}
+
+		_dataModels = new ArrayList<DataModel>( dataModels );
+
+		long length = 0L;
+		for ( final DataModel dataModel : dataModels )
+		{
+			length = Math.max( length, dataModel.getLength() );
+		}
+		_length = length;
+
+		final long blockCount = ( length + (long)BLOCK_SIZE - 1L ) / (long)BLOCK_SIZE;
+		if ( blockCount > (long)Integer.MAX_VALUE )
+		{
+			throw new IllegalArgumentException( "Data is too large: " + length );
+		}
+		_blocks = new AtomicReferenceArray<int[]>( (int)blockCount );
+	}
+
+	/**
+	 * Returns the length of the longest data model.
+	 *
+	 * @return Length of the compared data.
+	 */
+	public long getLength()
+	{
+		return _length;
+	}
+
+	/**
+	 * Starts building the index in the background.
+	 */
+	public void start()
+	{
+		ForkJoinPool.commonPool().execute( new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				markIdenticalBlocks();
+				new IndexTask( 0, _blocks.length() ).invoke();
+				if ( !_cancelled )
+				{
+					compact();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Marks all blocks that have the same hash in the {@link BlockHashTree}
+	 * of every data model as identical, so they don't need to be compared.
+	 * Unless the trees were saved before, this requires reading all data
+	 * once.
+	 */
+	private void markIdenticalBlocks()
+	{
+		final List<BlockHashTree> trees = new ArrayList<BlockHashTree>();
+		try
+		{
+			for ( final DataModel dataModel : _dataModels )
+			{
+				if ( _cancelled )
+				{
+					return;
+				}
+				trees.add( BlockHashTree.get( dataModel ) );
+			}
+		}
+		catch ( IOException e )
+		{
+			// All blocks are compared instead.
+			return;
+		}
+
+		final BitSet differentBlocks = BlockHashTree.getDifferentBlocks( trees );
+		for ( int i = differentBlocks.nextClearBit( 0 ); i < _blocks.length(); i = differentBlocks.nextClearBit( i + 1 ) )
+		{
+			_blocks.compareAndSet( i, null, IDENTICAL_BLOCK );
+		}
+	}
+
+	/**
+	 * Stops building the index as soon as possible.
+	 */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+
+	/**
+	 * Returns whether all blocks are indexed.
+	 *
+	 * @return {@code true} if the index is complete.
+	 */
+	public boolean isComplete()
+	{
+		return _differentBlocks != null;
+	}
+
+	/**
+	 * Returns whether the data models differ at the given address.
+	 *
+	 * @param address Address to be checked.
+	 *
+	 * @return {@link #IDENTICAL}, {@link #DIFFERENT}, or {@link #UNKNOWN} if
+	 *         the address is not indexed or lies in a dense block.
+	 */
+	public int getState( final long address )
+	{
+		if ( address < 0L || address >= _length )
+		{
+			return IDENTICAL;
+		}
+
+		final int[] ranges = _blocks.get( (int)( address / (long)BLOCK_SIZE ) );
+		if ( ranges == IDENTICAL_BLOCK )
+		{
+			return IDENTICAL;
+		}
+		else if ( ranges == null || ranges == DENSE_BLOCK )
+		{
+			return UNKNOWN;
+		}
+		else
+		{
+			return indexOfRange( ranges, (int)( address % (long)BLOCK_SIZE ) ) >= 0 ? DIFFERENT : IDENTICAL;
+		}
+	}
+
+	/**
+	 * Returns the first address at or after the given address where the data
+	 * models differ. Blocks that are not indexed yet are compared on demand,
+	 * several at a time in parallel.
+	 *
+	 * @param address Address to start at.
+	 *
+	 * @return Address of the next difference; {@code -1} if there is none.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long nextDifference( final long address )
+	throws IOException
+	{
+		long current = Math.max( 0L, address );
+		while ( current < _length )
+		{
+			final int block = nextCandidateBlock( (int)( current / (long)BLOCK_SIZE ) );
+			if ( block < 0 )
+			{
+				break;
+			}
+
+			if ( _blocks.get( block ) == null )
+			{
+				indexBlocks( block, Math.min( _blocks.length(), block + getBatchBlocks() ) );
+			}
+
+			final long blockStart = (long)block * (long)BLOCK_SIZE;
+			final int offset = (int)( Math.max( current, blockStart ) - blockStart );
+			final int[] ranges = getRanges( block );
+			for ( int i = 0; i < ranges.length; i += 2 )
+			{
+				if ( ranges[ i + 1 ] > offset )
+				{
+					return blockStart + (long)Math.max( offset, ranges[ i ] );
+				}
+			}
+			current = blockStart + (long)BLOCK_SIZE;
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the last address before the given address where the data models
+	 * differ. Blocks that are not indexed yet are compared on demand, several
+	 * at a time in parallel.
+	 *
+	 * @param address Address to start at.
+	 *
+	 * @return Address of the previous difference; {@code -1} if there is none.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long previousDifference( final long address )
+	throws IOException
+	{
+		long current = Math.min( address, _length );
+		while ( current > 0L )
+		{
+			final int block = previousCandidateBlock( (int)( ( current - 1L ) / (long)BLOCK_SIZE ) );
+			if ( block < 0 )
+			{
+				break;
+			}
+
+			if ( _blocks.get( block ) == null )
+			{
+				indexBlocks( Math.max( 0, block + 1 - getBatchBlocks() ), block + 1 );
+			}
+
+			final long blockStart = (long)block * (long)BLOCK_SIZE;
+			final int end = (int)( Math.min( current, blockStart + (long)BLOCK_SIZE ) - blockStart );
+			final int[] ranges = getRanges( block );
+			for ( int i = ranges.length - 2; i >= 0; i -= 2 )
+			{
+				if ( ranges[ i ] < end )
+				{
+					return blockStart + (long)Math.min( end, ranges[ i + 1 ] ) - 1L;
+				}
+			}
+			current = blockStart;
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the number of blocks to be compared in parallel when a block
+	 * that is not indexed yet is needed.
+	 *
+	 * @return Number of blocks.
+	 */
+	private static int getBatchBlocks()
+	{
+		return BATCH_SIZE * ForkJoinPool.commonPool().getParallelism();
+	}
+
+	/**
+	 * Indexes the given range of blocks in parallel and waits for it to
+	 * complete. Blocks that are already indexed are skipped.
+	 *
+	 * @param start Index of the first block (inclusive).
+	 * @param end   Index of the last block (exclusive).
+	 */
+	private void indexBlocks( final int start, final int end )
+	{
+		ForkJoinPool.commonPool().invoke( new IndexTask( start, end ) );
+	}
+
+	/**
+	 * Returns the first block at or after the given block that may contain
+	 * differences.
+	 *
+	 * @param block Index of the block to start at.
+	 *
+	 * @return Index of the block; {@code -1} if there is none.
+	 */
+	private int nextCandidateBlock( final int block )
+	{
+		final int[] differentBlocks = _differentBlocks;
+		if ( differentBlocks != null )
+		{
+			int index = Arrays.binarySearch( differentBlocks, block );
+			if ( index < 0 )
+			{
+				index = -index - 1;
+			}
+			return index < differentBlocks.length ? differentBlocks[ index ] : -1;
+		}
+
+		for ( int i = block; i < _blocks.length(); i++ )
+		{
+			if ( _blocks.get( i ) != IDENTICAL_BLOCK )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the last block at or before the given block that may contain
+	 * differences.
+	 *
+	 * @param block Index of the block to start at.
+	 *
+	 * @return Index of the block; {@code -1} if there is none.
+	 */
+	private int previousCandidateBlock( final int block )
+	{
+		final int[] differentBlocks = _differentBlocks;
+		if ( differentBlocks != null )
+		{
+			int index = Arrays.binarySearch( differentBlocks, block );
+			if ( index < 0 )
+			{
+				index = -index - 2;
+			}
+			return index >= 0 ? differentBlocks[ index ] : -1;
+		}
+
+		for ( int i = block; i >= 0; i-- )
+		{
+			if ( _blocks.get( i ) != IDENTICAL_BLOCK )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns all differing ranges in the given block, comparing the block if
+	 * the ranges are not stored in the index.
+	 *
+	 * @param block Index of the block.
+	 *
+	 * @return Differing ranges.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private int[] getRanges( final int block )
+	throws IOException
+	{
+		int[] result = _blocks.get( block );
+		if ( result == null || result == DENSE_BLOCK )
+		{
+			result = compareBlock( block, Integer.MAX_VALUE );
+			_blocks.compareAndSet( block, null, result.length > 2 * MAXIMUM_RANGES ? DENSE_BLOCK : result );
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the range containing the given offset.
+	 *
+	 * @param ranges Pairs of start and end offsets.
+	 * @param offset Offset to look for.
+	 *
+	 * @return Index of the range start; negative if not found.
+	 */
+	private static int indexOfRange( final int[] ranges, final int offset )
+	{
+		int low = 0;
+		int high = ranges.length / 2 - 1;
+		while ( low <= high )
+		{
+			final int middle = ( low + high ) >>> 1;
+			if ( offset < ranges[ 2 * middle ] )
+			{
+				high = middle - 1;
+			}
+			else if ( offset >= ranges[ 2 * middle + 1 ] )
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				return 2 * middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the given block in all data models.
+	 *
+	 * @param block         Index of the block.
+	 * @param maximumRanges Maximum number of ranges to find.
+	 *
+	 * @return Differing ranges; {@link #IDENTICAL_BLOCK} if there are none, or
+	 *         {@link #DENSE_BLOCK} if there are more than the given maximum.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private int[] compareBlock( final int block, final int maximumRanges )
+	throws IOException
+	{
+		final List<DataModel> dataModels = _dataModels;
+		final int count = dataModels.size();
+
+		byte[][] buffers = BLOCK_BUFFERS.get();
+		if ( buffers == null || buffers.length < count )
+		{
+			buffers = new byte[ count ][ BLOCK_SIZE ];
+			BLOCK_BUFFERS.set( buffers );
+		}
+
+		final long start = (long)block * (long)BLOCK_SIZE;
+		final int length = (int)Math.min( (long)BLOCK_SIZE, _length - start );
+		for ( int i = 0; i < count; i++ )
+		{
+			final byte[] buffer = buffers[ i ];
+			final int read = dataModels.get( i ).read( start, buffer, 0, length );
+			Arrays.fill( buffer, Math.max( 0, read ), length, (byte)0 );
+		}
+
+		final ByteBuffer first = ByteBuffer.wrap( buffers[ 0 ], 0, length );
+		final ByteBuffer[] others = new ByteBuffer[ count - 1 ];
+		for ( int i = 1; i < count; i++ )
+		{
+			others[ i - 1 ] = ByteBuffer.wrap( buffers[ i ], 0, length );
+		}
+
+		int[] ranges = new int[ 8 ];
+		int rangeCount = 0;
+		for ( int offset = mismatch( first, others, 0, length ); offset < length; offset = mismatch( first, others, offset, length ) )
+		{
+			final int rangeStart = offset;
+			while ( offset < length && isDifferent( buffers, count, offset ) )
+			{
+				offset++;
+			}
+
+			if ( rangeCount == maximumRanges )
+			{
+				return DENSE_BLOCK;
+			}
+			if ( 2 * rangeCount + 2 > ranges.length )
+			{
+				ranges = Arrays.copyOf( ranges, ranges.length * 2 );
+			}
+			ranges[ 2 * rangeCount ] = rangeStart;
+			ranges[ 2 * rangeCount + 1 ] = offset;
+			rangeCount++;
+		}
+
+		return rangeCount == 0 ? IDENTICAL_BLOCK : Arrays.copyOf( ranges, 2 * rangeCount );
+	}
+
+	/**
+	 * Returns the first offset at which any of the given buffers differs from
+	 * the first buffer. Eight bytes are compared at a time.
+	 *
+	 * @param first  First buffer.
+	 * @param others Other buffers.
+	 * @param from   Offset to start at (inclusive).
+	 * @param to     Offset to end at (exclusive).
+	 *
+	 * @return Offset of the first difference; {@code to} if there is none.
+	 */
+	private static int mismatch( final ByteBuffer first, final ByteBuffer[] others, final int from, final int to )
+	{
+		int offset = from;
+		words: for ( ; offset + 8 <= to; offset += 8 )
+		{
+			final long value = first.getLong( offset );
+			for ( final ByteBuffer other : others )
+			{
+				if ( other.getLong( offset ) != value )
+				{
+					break words;
+				}
+			}
+		}
+
+		for ( ; offset < to; offset++ )
+		{
+			final byte value = first.get( offset );
+			for ( final ByteBuffer other : others )
+			{
+				if ( other.get( offset ) != value )
+				{
+					return offset;
+				}
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Returns whether any of the given buffers differs from the first buffer
+	 * at the given offset.
+	 *
+	 * @param buffers Buffers to be compared.
+	 * @param count   Number of buffers.
+	 * @param offset  Offset to be compared.
+	 *
+	 * @return {@code true} if the buffers differ.
+	 */
+	private static boolean isDifferent( final byte[][] buffers, final int count, final int offset )
+	{
+		final byte value = buffers[ 0 ][ offset ];
+		for ( int i = 1; i < count; i++ )
+		{
+			if ( buffers[ i ][ offset ] != value )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the sorted list of blocks that are not identical, so that
+	 * differences can be found with a binary search.
+	 */
+	private void compact()
+	{
+		final AtomicReferenceArray<int[]> blocks = _blocks;
+
+		int count = 0;
+		for ( int i = 0; i < blocks.length(); i++ )
+		{
+			if ( blocks.get( i ) != IDENTICAL_BLOCK )
+			{
+				count++;
+			}
+		}
+
+		final int[] differentBlocks = new int[ count ];
+		int index = 0;
+		for ( int i = 0; i < blocks.length(); i++ )
+		{
+			if ( blocks.get( i ) != IDENTICAL_BLOCK )
+			{
+				differentBlocks[ index++ ] = i;
+			}
+		}
+		_differentBlocks = differentBlocks;
+	}
+
+	/**
+	 * Indexes a range of blocks, splitting it up to index blocks in parallel.
+	 */
+	private class IndexTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int _start;
+
+		private final int _end;
+
+		private IndexTask( final int start, final int end )
+		{
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( _end - _start > BATCH_SIZE )
+			{
+				final int middle = ( _start + _end ) >>> 1;
+				invokeAll( new IndexTask( _start, middle ), new IndexTask( middle, _end ) );
+			}
+			else
+			{
+				for ( int block = _start; block < _end && !_cancelled; block++ )
+				{
+					if ( _blocks.get( block ) == null )
+					{
+						try
+						{
+							_blocks.compareAndSet( block, null, compareBlock( block, MAXIMUM_RANGES ) );
+						}
+						catch ( IOException ignored )
+						{
+							// Left unindexed, to be compared again on demand.
+						}
+					}
+				}
+			}
+		}
+	}
+}
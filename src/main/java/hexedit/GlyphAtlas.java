@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Image containing the text of a {@link Tile} for every possible byte value,
+ * i.e. the character (if printable) and the hexadecimal value, rendered at a
+ * specific scale. Painting the text of a tile is then a matter of copying part
+ * of the image, instead of laying out text.
+ *
+ * @author Gerrit Meinders
+ */
+public class GlyphAtlas
+{
+	/**
+	 * Number of cells in each row of the image.
+	 */
+	private static final int CELLS_PER_ROW = 16;
+
+	/**
+	 * Image containing a cell for every byte value.
+	 */
+	private final BufferedImage _image;
+
+	/**
+	 * Size of a cell, in pixels.
+	 */
+	private final int _cellSize;
+
+	/**
+	 * Size of a tile, in view coordinates.
+	 */
+	private final int _tileSize;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param scale               Scale at which tiles are painted.
+	 * @param tileSize            Size of a tile, in view coordinates.
+	 * @param characterFont       Font for characters.
+	 * @param characterForeground Color for characters.
+	 * @param valueFont           Font for hexadecimal values.
+	 * @param valueForeground     Color for hexadecimal values.
+	 * @param nullValueForeground Color for the hexadecimal value of zero.
+	 */
+	public GlyphAtlas( final double scale, final int tileSize, final Font characterFont, final Color characterForeground, final Font valueFont, final Color valueForeground, final Color nullValueForeground )
+	{
+		_tileSize = tileSize;
+		_cellSize = getCellSize( scale, tileSize );
+		_image = new BufferedImage( CELLS_PER_ROW * _cellSize, ( 256 / CELLS_PER_ROW ) * _cellSize, BufferedImage.TYPE_INT_ARGB );
+
+		final Graphics2D g = _image.createGraphics();
+		try
+		{
+			g.setRenderingHint( RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON );
+			g.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON );
+			g.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+
+			final double cellScale = (double)_cellSize / (double)tileSize;
+			g.scale( cellScale, cellScale );
+
+			final FontMetrics characterMetrics = g.getFontMetrics( characterFont );
+			final FontMetrics valueMetrics = g.getFontMetrics( valueFont );
+			final float characterY = (float)characterMetrics.getAscent();
+			final float valueY = (float)tileSize - (float)valueMetrics.getDescent();
+			final float centerX = (float)tileSize / 2.0f;
+
+			for ( int value = 0; value < 256; value++ )
+			{
+				final float x = (float)( ( value % CELLS_PER_ROW ) * tileSize );
+				final float y = (float)( ( value / CELLS_PER_ROW ) * tileSize );
+
+				if ( value >= 32 && value <= 127 )
+				{
+					final char c = (char)value;
+					g.setFont( characterFont );
+					g.setColor( characterForeground );
+					g.drawString( String.valueOf( c ), x + centerX - (float)characterMetrics.charWidth( c ) / 2.0f, y + characterY );
+				}
+
+				final String hexadecimal = Tools.byteToHexString( value );
+				g.setFont( valueFont );
+				g.setColor( value == 0 ? nullValueForeground : valueForeground );
+				g.drawString( hexadecimal, x + centerX - (float)valueMetrics.stringWidth( hexadecimal ) / 2.0f, y + valueY );
+			}
+		}
+		finally
+		{
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Returns the size of a cell, in pixels, for tiles painted at the given
+	 * scale.
+	 *
+	 * @param scale    Scale at which tiles are painted.
+	 * @param tileSize Size of a tile, in view coordinates.
+	 *
+	 * @return Size of a cell.
+	 */
+	public static int getCellSize( final double scale, final int tileSize )
+	{
+		return Math.max( 1, (int)Math.ceil( scale * (double)tileSize ) );
+	}
+
+	/**
+	 * Paints the text of a tile.
+	 *
+	 * @param g     Graphics to paint with, in view coordinates.
+	 * @param value Value of the byte shown by the tile.
+	 * @param x     X-coordinate of the tile.
+	 * @param y     Y-coordinate of the tile.
+	 */
+	public void drawTile( final Graphics2D g, final int value, final int x, final int y )
+	{
+		final int cellSize = _cellSize;
+		final int sourceX = ( ( value & 0xff ) % CELLS_PER_ROW ) * cellSize;
+		final int sourceY = ( ( value & 0xff ) / CELLS_PER_ROW ) * cellSize;
+		g.drawImage( _image, x, y, x + _tileSize, y + _tileSize, sourceX, sourceY, sourceX + cellSize, sourceY + cellSize, null );
+	}
+}
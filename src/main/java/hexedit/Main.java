@@ -20,9 +20,13 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import javax.swing.*;
+import javax.swing.Timer;
 
 /**
  * Main class that starts the hex editor to edit one or more files specified
@@ -32,6 +36,17 @@ import javax.swing.*;
  */
 public class Main
 {
+	/**
+	 * Files of at least this size are memory-mapped instead of read.
+	 */
+	private static final long MAPPING_THRESHOLD = 0x10000000L; // 256M
+
+	/**
+	 * Session files that could not be loaded. These are never overwritten
+	 * automatically, since that would lose the structure saved in them.
+	 */
+	private static final Set<Path> UNREADABLE_SESSIONS = Collections.synchronizedSet( new HashSet<Path>() );
+
 	/**
 	 * Run application.
 	 *
@@ -61,10 +76,37 @@ public class Main
 
 		final ViewModel viewModel = new ViewModel();
 		viewModel.setDataModel( dataModels.get( 0 ) );
-		viewModel.setRecord( new RootRecord( viewModel.getDataModel() ) );
+		final RootRecord rootRecord = new RootRecord( viewModel.getDataModel() );
+		viewModel.setRecord( rootRecord );
+
+		final Path sessionFile = Session.getFile( viewModel.getDataModel() );
+		IOException sessionException = null;
+		if ( sessionFile != null && sessionFile.toFile().isFile() )
+		{
+			try
+			{
+				Session.load( rootRecord, sessionFile );
+			}
+			catch ( IOException e )
+			{
+				UNREADABLE_SESSIONS.add( sessionFile );
+				sessionException = e;
+			}
+		}
+		final IOException sessionLoadException = sessionException;
 		if ( dataModels.size() > 1 )
 		{
-			viewModel.setHighlighter( new DifferenceHighlighter( dataModels ) );
+			try
+			{
+				final DifferenceHighlighter highlighter = new DifferenceHighlighter( dataModels );
+				highlighter.getIndex().start();
+				viewModel.setHighlighter( highlighter );
+			}
+			catch ( IOException e )
+			{
+				System.err.println( "Failed to compare files: " + e );
+				return;
+			}
 		}
 
 		SwingUtilities.invokeLater( new Runnable()
@@ -79,8 +121,24 @@ public class Main
 				final JFrame frame = new JFrame();
 				frame.setContentPane( view );
 				frame.setDefaultCloseOperation( WindowConstants.DISPOSE_ON_CLOSE );
+				frame.addWindowListener( new WindowAdapter()
+				{
+					@Override
+					public void windowClosed( final WindowEvent e )
+					{
+						if ( sessionFile != null && !UNREADABLE_SESSIONS.contains( sessionFile ) )
+						{
+							saveSession( null, rootRecord, sessionFile );
+						}
+					}
+				} );
 				frame.setBounds( 400, 100, 1280, 800 );
 				frame.setVisible( true );
+
+				if ( sessionLoadException != null )
+				{
+					JOptionPane.showMessageDialog( frame, "Failed to load session " + sessionFile.getFileName() + ": " + sessionLoadException.getMessage() + "\nThe session file will not be overwritten unless the structure is saved explicitly.", "load", JOptionPane.ERROR_MESSAGE );
+				}
 			}
 		} );
 	}
@@ -245,16 +303,34 @@ public class Main
 			}
 		};
 
+		final Action previousDifference = new AbstractAction( "previous" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				findDifference( view, false );
+			}
+		};
+
+		final Action nextDifference = new AbstractAction( "next" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				findDifference( view, true );
+			}
+		};
+
 		final Action newRecord = new AbstractAction( "new" )
 		{
 			@Override
 			public void actionPerformed( final ActionEvent e )
 			{
 				final ViewModel viewModel = view.getViewModel();
-				if ( !viewModel.isSelectionEmpty() )
+				final Record parent = viewModel.getRecord();
+				if ( !viewModel.isSelectionEmpty() && confirmOverlap( view, parent, viewModel.getSelectionStart() - parent.getStart(), viewModel.getSelectionLength(), "new" ) )
 				{
 					final ArrayRecord record = new ArrayRecord( viewModel.getSelectionStart(), viewModel.getSelectionLength(), 1L );
-					final Record parent = viewModel.getRecord();
 					record.setParent( parent );
 					final RecordDefinition definition = new RecordDefinition( "record", record );
 					record.setRecordDefinition( definition );
@@ -272,16 +348,16 @@ public class Main
 			{
 				final ViewModel viewModel = view.getViewModel();
 				final long selectionLength = viewModel.getSelectionLength();
-				if ( selectionLength >= 1L && selectionLength <= 8L )
+				final Record parent = viewModel.getRecord();
+				final long pointerAddress = viewModel.getSelectionStart() - parent.getStart();
+				if ( selectionLength >= 1L && selectionLength <= 8L && confirmOverlap( view, parent, pointerAddress, selectionLength, "pointer" ) )
 				{
 					final DataModel dataModel = viewModel.getDataModel();
 					try
 					{
 						final long pointer = dataModel.getLittleEndian( viewModel.getSelectionStart(), (int)selectionLength );
 						final ArrayRecord record = new ArrayRecord( pointer, 1L, 1L );
-						final Record parent = viewModel.getRecord();
 						record.setParent( parent );
-						final long pointerAddress = viewModel.getSelectionStart() - parent.getStart();
 						final PointerDefinition definition = new PointerDefinition( "pointer", pointerAddress, (int)selectionLength, record );
 						record.setRecordDefinition( definition );
 						parent.addDefinition( definition );
@@ -397,6 +473,25 @@ public class Main
 			}
 		};
 
+		final Action saveStructure = new AbstractAction( "save" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				final ViewModel viewModel = view.getViewModel();
+				Record root = viewModel.getRecord();
+				while ( root.getParent() != null )
+				{
+					root = root.getParent();
+				}
+				final Path sessionFile = Session.getFile( viewModel.getDataModel() );
+				if ( sessionFile != null )
+				{
+					saveSession( view, root, sessionFile );
+				}
+			}
+		};
+
 		final Action deleteRecord = new AbstractAction( "delete" )
 		{
 			@Override
@@ -413,6 +508,7 @@ public class Main
 						parent.removeDefinition( definition );
 						viewModel.jumpTo( definition.getAddress() );
 					}
+					record.setParent( null );
 					viewModel.setRecord( parent );
 				}
 			}
@@ -427,6 +523,8 @@ public class Main
 			items.add( new MenuItem( jumpRelative, 2 ) );
 			items.add( new MenuItem( endOfRecord, 2 ) );
 			items.add( new MenuItem( parentRecord, 2 ) );
+			items.add( new MenuItem( previousDifference, 2 ) );
+			items.add( new MenuItem( nextDifference, 2 ) );
 			items.add( structureMenu );
 			items.add( analyzeMenu );
 			navigateMenu.setItems( items );
@@ -442,14 +540,274 @@ public class Main
 			items.add( new MenuItem( setRecordCount, 2 ) );
 			items.add( new MenuItem( deleteRecord, 2 ) );
 			items.add( new MenuItem( parentRecord, 2 ) );
+			items.add( new MenuItem( saveStructure, 2 ) );
 			items.add( analyzeMenu );
 			structureMenu.setItems( items );
 		}
 
+		final Action find = new AbstractAction( "find" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				final ViewModel viewModel = view.getViewModel();
+				final DataModel dataModel = viewModel.getDataModel();
+
+				String selectedBytes = null;
+				final long selectionLength = viewModel.getSelectionLength();
+				if ( selectionLength >= 1L && selectionLength <= 64L )
+				{
+					try
+					{
+						final byte[] bytes = new byte[ (int)selectionLength ];
+						final int length = dataModel.read( viewModel.getSelectionStart(), bytes, 0, bytes.length );
+						selectedBytes = Tools.bytesToHexString( bytes, 0, length );
+					}
+					catch ( IOException e1 )
+					{
+						showError( view, "find", e1 );
+					}
+				}
+
+				final String input = JOptionPane.showInputDialog( view, "Bytes to find (hexadecimal, '?' for any digit):", selectedBytes );
+				if ( input != null )
+				{
+					final SearchPattern pattern;
+					try
+					{
+						pattern = MaskedPattern.compile( input );
+					}
+					catch ( IllegalArgumentException e1 )
+					{
+						JOptionPane.showMessageDialog( view, e1.getMessage(), "find", JOptionPane.ERROR_MESSAGE );
+						return;
+					}
+
+					final Search search = new Search( dataModel, pattern );
+					viewModel.setSearch( search );
+
+					/*
+					 * Matches may be found at a very high rate, so repaints
+					 * are coalesced until the search is completed.
+					 */
+					final AtomicBoolean matchesFound = new AtomicBoolean();
+					final Timer repaintTimer = new Timer( 100, new ActionListener()
+					{
+						@Override
+						public void actionPerformed( final ActionEvent e )
+						{
+							if ( matchesFound.getAndSet( false ) )
+							{
+								view.repaint();
+							}
+						}
+					} );
+					repaintTimer.start();
+
+					try
+					{
+						search.start( new SearchListener()
+						{
+							@Override
+							public void matchFound( final Search search, final long address )
+							{
+								matchesFound.set( true );
+							}
+
+							@Override
+							public void searchCompleted( final Search search )
+							{
+								SwingUtilities.invokeLater( new Runnable()
+								{
+									@Override
+									public void run()
+									{
+										repaintTimer.stop();
+										view.repaint();
+										if ( search.getException() != null )
+										{
+											showError( view, "find", search.getException() );
+										}
+									}
+								} );
+							}
+						} );
+					}
+					catch ( IOException e1 )
+					{
+						repaintTimer.stop();
+						showError( view, "find", e1 );
+						return;
+					}
+
+					findMatch( view, true );
+				}
+			}
+		};
+
+		final Action findNext = new AbstractAction( "next" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				findMatch( view, true );
+			}
+		};
+
+		final Action findPrevious = new AbstractAction( "previous" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				findMatch( view, false );
+			}
+		};
+
+		final Action carve = new AbstractAction( "carve" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				final ViewModel viewModel = view.getViewModel();
+				final DataModel dataModel = viewModel.getDataModel();
+
+				Record root = viewModel.getRecord();
+				while ( root.getParent() != null )
+				{
+					root = root.getParent();
+				}
+				final Record rootRecord = root;
+
+				setEnabled( false );
+				new SwingWorker<Object, ArrayRecord>()
+				{
+					@Override
+					protected Object doInBackground()
+					throws Exception
+					{
+						final SignatureScanner scanner = new SignatureScanner( Signature.FILE_FORMATS );
+						scanner.scan( dataModel, new SignatureListener()
+						{
+							@Override
+							public void signatureFound( final Signature signature, final long address )
+							{
+								final ArrayRecord record = new ArrayRecord( address, (long)signature.getLength(), 1L );
+								record.setRecordDefinition( new RecordDefinition( signature.getName(), record ) );
+								publish( record );
+							}
+						} );
+						return null;
+					}
+
+					@Override
+					protected void process( final List<ArrayRecord> records )
+					{
+						/*
+						 * Signatures that overlap existing definitions, e.g.
+						 * from an earlier carve, are skipped instead of
+						 * replacing them.
+						 */
+						final List<ArrayRecord> sorted = new ArrayList<ArrayRecord>( records );
+						Collections.sort( sorted, new Comparator<ArrayRecord>()
+						{
+							@Override
+							public int compare( final ArrayRecord record1, final ArrayRecord record2 )
+							{
+								return Long.compare( record1.getStart(), record2.getStart() );
+							}
+						} );
+
+						final DefinitionMap existing = rootRecord.getDefinitions();
+						final List<Definition> definitions = new ArrayList<Definition>( sorted.size() );
+						long end = Long.MIN_VALUE;
+						for ( final ArrayRecord record : sorted )
+						{
+							final long start = record.getStart() - rootRecord.getStart();
+							if ( start >= end && !existing.overlaps( start, start + record.getLength() ) )
+							{
+								record.setParent( rootRecord );
+								definitions.add( record.getRecordDefinition() );
+								end = start + record.getLength();
+							}
+						}
+						rootRecord.addDefinitions( definitions );
+						view.repaint();
+					}
+
+					@Override
+					protected void done()
+					{
+						setEnabled( true );
+						try
+						{
+							get();
+						}
+						catch ( InterruptedException e )
+						{
+							Thread.currentThread().interrupt();
+						}
+						catch ( ExecutionException e )
+						{
+							showError( view, "carve", e );
+						}
+					}
+				}.execute();
+			}
+		};
+
+		final Action align = new AbstractAction( "align" )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				final Highlighter highlighter = view.getViewModel().getHighlighter();
+				if ( highlighter instanceof DifferenceHighlighter )
+				{
+					final DifferenceHighlighter differenceHighlighter = (DifferenceHighlighter)highlighter;
+
+					setEnabled( false );
+					new SwingWorker<Object, Object>()
+					{
+						@Override
+						protected Object doInBackground()
+						throws Exception
+						{
+							differenceHighlighter.align();
+							return null;
+						}
+
+						@Override
+						protected void done()
+						{
+							setEnabled( true );
+							try
+							{
+								get();
+							}
+							catch ( InterruptedException e )
+							{
+								Thread.currentThread().interrupt();
+							}
+							catch ( ExecutionException e )
+							{
+								showError( view, "align", e );
+							}
+							view.repaint();
+						}
+					}.execute();
+				}
+			}
+		};
+
 		{
 			final List<MenuItem> items = new ArrayList<MenuItem>();
 			items.add( navigateMenu );
 			items.add( structureMenu );
+			items.add( new MenuItem( find, 2 ) );
+			items.add( new MenuItem( findPrevious, 2 ) );
+			items.add( new MenuItem( findNext, 2 ) );
+			items.add( new MenuItem( carve, 2 ) );
+			items.add( new MenuItem( align, 2 ) );
 
 /*
 			items.add( new MenuItem( new AbstractAction( "little-endian" )
@@ -496,6 +854,15 @@ public class Main
 				setRecordLength.setEnabled( !rootRecord && numberSelected );
 				setRecordCount.setEnabled( !rootRecord && numberSelected );
 				deleteRecord.setEnabled( !rootRecord );
+
+				final boolean comparing = viewModel.getHighlighter() instanceof DifferenceHighlighter;
+				previousDifference.setEnabled( comparing );
+				nextDifference.setEnabled( comparing );
+				align.setEnabled( comparing );
+
+				final boolean searching = viewModel.getSearch() != null;
+				findNext.setEnabled( searching );
+				findPrevious.setEnabled( searching );
 			}
 		};
 		viewModel.addObserver( actionStateUpdater );
@@ -504,11 +871,209 @@ public class Main
 		return structureMenu;
 	}
 
+	/**
+	 * Selects the next or previous match of the current search, relative to
+	 * the selection. The search runs in the background.
+	 *
+	 * @param view    View to select the match in.
+	 * @param forward {@code true} to find the next match; {@code false} to
+	 *                find the previous match.
+	 */
+	private static void findMatch( final View view, final boolean forward )
+	{
+		final ViewModel viewModel = view.getViewModel();
+		final Search search = viewModel.getSearch();
+		if ( search != null )
+		{
+			final long from;
+			if ( viewModel.isSelectionEmpty() )
+			{
+				from = viewModel.getFirstRowAddress();
+			}
+			else
+			{
+				from = forward ? viewModel.getSelectionStart() + 1L : viewModel.getSelectionStart();
+			}
+
+			new SwingWorker<Long, Object>()
+			{
+				@Override
+				protected Long doInBackground()
+				throws Exception
+				{
+					return forward ? search.findNext( from ) : search.findPrevious( from );
+				}
+
+				@Override
+				protected void done()
+				{
+					try
+					{
+						final long address = get();
+						if ( address >= 0L && viewModel.getSearch() == search )
+						{
+							viewModel.jumpTo( address );
+							viewModel.select( address, address + (long)search.getPattern().getLength() - 1L );
+						}
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+					}
+					catch ( ExecutionException e )
+					{
+						showError( view, "find", e );
+					}
+				}
+			}.execute();
+		}
+	}
+
+	/**
+	 * Selects the next or previous address at which the compared data models
+	 * differ, relative to the selection. The data is compared in the
+	 * background.
+	 *
+	 * @param view    View to select the difference in.
+	 * @param forward {@code true} to find the next difference; {@code false}
+	 *                to find the previous difference.
+	 */
+	private static void findDifference( final View view, final boolean forward )
+	{
+		final ViewModel viewModel = view.getViewModel();
+		final Highlighter highlighter = viewModel.getHighlighter();
+		if ( highlighter instanceof DifferenceHighlighter )
+		{
+			final DifferenceHighlighter differenceHighlighter = (DifferenceHighlighter)highlighter;
+
+			final long from;
+			if ( viewModel.isSelectionEmpty() )
+			{
+				from = viewModel.getFirstRowAddress();
+			}
+			else
+			{
+				from = forward ? viewModel.getSelectionStart() + 1L : viewModel.getSelectionStart();
+			}
+
+			new SwingWorker<Long, Object>()
+			{
+				@Override
+				protected Long doInBackground()
+				throws Exception
+				{
+					return forward ? differenceHighlighter.nextDifference( from ) : differenceHighlighter.previousDifference( from );
+				}
+
+				@Override
+				protected void done()
+				{
+					try
+					{
+						final long address = get();
+						if ( address >= 0L )
+						{
+							viewModel.jumpTo( address );
+							viewModel.select( address, address );
+						}
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+					}
+					catch ( ExecutionException e )
+					{
+						showError( view, "difference", e );
+					}
+				}
+			}.execute();
+		}
+	}
+
+	/**
+	 * Asks the user to confirm adding a definition that overlaps existing
+	 * definitions in the given record. Any definition at the same address is
+	 * replaced by the new definition.
+	 *
+	 * @param parentComponent Parent component of the confirmation dialog.
+	 * @param parent          Record that the definition is added to.
+	 * @param address         Address of the definition, relative to the
+	 *                        record.
+	 * @param length          Length of the definition.
+	 * @param title           Title of the confirmation dialog.
+	 *
+	 * @return {@code true} if there is no overlap or the user confirmed;
+	 * {@code false} if the definition should not be added.
+	 */
+	private static boolean confirmOverlap( final Component parentComponent, final Record parent, final long address, final long length, final String title )
+	{
+		final DefinitionMap definitions = parent.getDefinitions();
+		if ( !definitions.overlaps( address, address + length ) )
+		{
+			return true;
+		}
+
+		final Definition existing = definitions.get( address );
+		final String message = ( existing != null && existing.getAddress() == address )
+		                       ? "The selection replaces '" + existing.getLabel() + "'. Continue?"
+		                       : "The selection overlaps existing definitions. Continue?";
+		return JOptionPane.showConfirmDialog( parentComponent, message, title, JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE ) == JOptionPane.YES_OPTION;
+	}
+
+	/**
+	 * Saves the structure of the given root record to the given session file,
+	 * if there is any structure to save or a session was saved before. A
+	 * session file that could not be loaded is first moved aside, by adding
+	 * {@code .bak} to its name. Errors are shown in a dialog.
+	 *
+	 * @param parentComponent Parent of the error dialog; may be {@code null}.
+	 * @param rootRecord      Root record.
+	 * @param sessionFile     Session file.
+	 */
+	private static void saveSession( final Component parentComponent, final Record rootRecord, final Path sessionFile )
+	{
+		if ( sessionFile.toFile().isFile() || rootRecord.getDefinitions().size() > 0 )
+		{
+			try
+			{
+				if ( UNREADABLE_SESSIONS.contains( sessionFile ) )
+				{
+					Files.move( sessionFile, sessionFile.resolveSibling( sessionFile.getFileName() + ".bak" ), StandardCopyOption.REPLACE_EXISTING );
+					UNREADABLE_SESSIONS.remove( sessionFile );
+				}
+				Session.save( rootRecord, sessionFile );
+			}
+			catch ( IOException e )
+			{
+				JOptionPane.showMessageDialog( parentComponent, "Failed to save session " + sessionFile.getFileName() + ": " + e.getMessage(), "save", JOptionPane.ERROR_MESSAGE );
+			}
+		}
+	}
+
+	/**
+	 * Shows an error message for the given exception. For an exception thrown
+	 * by a background task, the exception that caused it is shown.
+	 *
+	 * @param parentComponent Parent of the dialog.
+	 * @param title           Title of the dialog.
+	 * @param exception       Exception to be shown.
+	 */
+	private static void showError( final Component parentComponent, final String title, final Throwable exception )
+	{
+		final Throwable cause = ( exception instanceof ExecutionException && exception.getCause() != null ) ? exception.getCause() : exception;
+		final String message = cause.getMessage();
+		JOptionPane.showMessageDialog( parentComponent, ( message == null ) ? cause.toString() : message, title, JOptionPane.ERROR_MESSAGE );
+	}
+
 	private static DataModel createDataModel( final String filename )
 	throws IOException
 	{
 		final File file = new File( filename );
 		final FileChannel channel = FileChannel.open( file.toPath() );
+		if ( channel.size() >= MAPPING_THRESHOLD )
+		{
+			return new MappedDataModel( file.toURI(), channel );
+		}
 		return new DataModel( file.toURI(), channel );
 	}
 }
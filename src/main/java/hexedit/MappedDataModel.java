@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+/**
+ * Data model that maps its data into memory in large segments, instead of
+ * reading it into heap buffers. This is intended for very large files, since
+ * bytes are served straight from the mapping without any copying.
+ *
+ * <p>The number of cached segments is limited by the cache size. Segments that
+ * are evicted from the cache are not unmapped explicitly, since other threads
+ * may still be reading from them; instead, they are unmapped when garbage
+ * collected. The mapped address space may therefore temporarily exceed the
+ * given maximum, by evicted segments that are not collected yet. Until then,
+ * a segment that is needed again reuses the existing mapping, so there is
+ * never more than one mapping for any part of the file.
+ *
+ * <p>Prefetching is disabled by default, since the operating system already
+ * reads ahead when accessing mapped files.
+ *
+ * @author Gerrit Meinders
+ */
+public class MappedDataModel
+extends DataModel
+{
+	/**
+	 * Default size of a mapped segment.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 0x4000000; // 64M
+
+	/**
+	 * Default amount of address space used by mapped segments.
+	 */
+	public static final long DEFAULT_MAPPED_SIZE = 0x40000000L; // 1G
+
+	/**
+	 * Mapped segments by position, including segments that were evicted from
+	 * the cache but are not yet garbage collected.
+	 */
+	private final ConcurrentMap<Long, SegmentReference> _segments = new ConcurrentHashMap<Long, SegmentReference>();
+
+	/**
+	 * Queue of references to segments that were garbage collected, which are
+	 * removed from {@link #_segments}.
+	 */
+	private final ReferenceQueue<ByteBuffer> _collectedSegments = new ReferenceQueue<ByteBuffer>();
+
+	/**
+	 * Constructs a new instance with the default segment size and amount of
+	 * mapped memory.
+	 *
+	 * @param dataSource URI of the data source.
+	 * @param channel    Channel that provides access to the data.
+	 */
+	public MappedDataModel( final URI dataSource, final FileChannel channel )
+	{
+		this( dataSource, channel, DEFAULT_SEGMENT_SIZE, DEFAULT_MAPPED_SIZE );
+	}
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param dataSource  URI of the data source.
+	 * @param channel     Channel that provides access to the data.
+	 * @param segmentSize Size of a mapped segment; must be a power of two.
+	 * @param mappedSize  Maximum number of bytes mapped at any given time.
+	 */
+	public MappedDataModel( final URI dataSource, final FileChannel channel, final int segmentSize, final long mappedSize )
+	{
+		super( dataSource, channel, segmentSize, mappedSize );
+		setPrefetchDepth( 0 );
+	}
+
+	@Override
+	protected ByteBuffer loadPage( final long position, final int size )
+	throws IOException
+	{
+		removeCollectedSegments();
+
+		final Reference<ByteBuffer> reference = _segments.get( position );
+		final ByteBuffer existing = reference == null ? null : reference.get();
+
+		final FileChannel channel = getChannel();
+		final long available = Math.max( 0L, channel.size() - position );
+		final long length = Math.min( (long)size, available );
+
+		final ByteBuffer result;
+		if ( existing != null && (long)existing.limit() == length )
+		{
+			result = existing;
+		}
+		else if ( length == 0L )
+		{
+			result = ByteBuffer.allocate( 0 );
+		}
+		else
+		{
+			result = channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+			_segments.put( position, new SegmentReference( position, result, _collectedSegments ) );
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the entries of all segments that were garbage collected.
+	 */
+	private void removeCollectedSegments()
+	{
+		for ( Reference<? extends ByteBuffer> reference = _collectedSegments.poll(); reference != null; reference = _collectedSegments.poll() )
+		{
+			final SegmentReference segment = (SegmentReference)reference;
+			_segments.remove( segment._position, segment );
+		}
+	}
+
+	/**
+	 * Weak reference to a mapped segment, which remembers the position of the
+	 * segment, so it can be removed when the segment is collected.
+	 */
+	private static class SegmentReference
+	extends WeakReference<ByteBuffer>
+	{
+		/**
+		 * Position of the segment.
+		 */
+		private final Long _position;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param position Position of the segment.
+		 * @param segment  Mapped segment.
+		 * @param queue    Queue to register the reference with.
+		 */
+		private SegmentReference( final Long position, final ByteBuffer segment, final ReferenceQueue<ByteBuffer> queue )
+		{
+			super( segment, queue );
+			_position = position;
+		}
+	}
+}
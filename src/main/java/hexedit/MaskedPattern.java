@@ -0,0 +1,320 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+/**
+ * Matches a sequence of bytes in which some bits are don't-care, e.g.
+ * {@code "4d 5a ?? ?? 50 45"} or {@code "1? 00 ?f"}.
+ *
+ * <p>To skip ahead efficiently, the longest run of fully specified bytes is
+ * used as an anchor, which is searched for using {@link BytePattern}. Only at
+ * positions where the anchor is found, the rest of the pattern is checked. If
+ * the pattern contains no fully specified bytes, a Horspool-like shift table is
+ * used that takes the masks into account.
+ *
+ * @author Gerrit Meinders
+ */
+public class MaskedPattern
+implements SearchPattern
+{
+	/**
+	 * Values to be matched, for bits that are set in the mask.
+	 */
+	private final byte[] _values;
+
+	/**
+	 * Mask for each byte, specifying which bits must match.
+	 */
+	private final byte[] _masks;
+
+	/**
+	 * Longest run of bytes without don't-care bits; {@code null} if there are
+	 * no such bytes.
+	 */
+	private final BytePattern _anchor;
+
+	/**
+	 * Offset of the anchor in the pattern.
+	 */
+	private final int _anchorOffset;
+
+	/**
+	 * Distance to shift forward, indexed by the last byte of a mismatch. Only
+	 * used if there is no anchor.
+	 */
+	private final int[] _forwardShift;
+
+	/**
+	 * Distance to shift backward, indexed by the first byte of a mismatch.
+	 * Only used if there is no anchor.
+	 */
+	private final int[] _backwardShift;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param values Values to be matched, for bits that are set in the mask.
+	 * @param masks  Mask for each byte, specifying which bits must match.
+	 */
+	public MaskedPattern( final byte[] values, final byte[] masks )
+	{
+		if ( values.length == 0 )
+		{
+			throw new IllegalArgumentException( "Pattern must not be empty." );
+		}
+
+		if ( values.length != masks.length )
+		{
+			throw new IllegalArgumentException( "Values and masks must have the same length." );
+		}
+
+		final int length = values.length;
+		_values = new byte[ length ];
+		_masks = masks.clone();
+		for ( int i = 0; i < length; i++ )
+		{
+			_values[ i ] = (byte)( values[ i ] & masks[ i ] );
+		}
+
+		int anchorOffset = 0;
+		int anchorLength = 0;
+		for ( int start = 0; start < length; )
+		{
+			int end = start;
+			while ( end < length && masks[ end ] == (byte)0xff )
+			{
+				end++;
+			}
+			if ( end - start > anchorLength )
+			{
+				anchorOffset = start;
+				anchorLength = end - start;
+			}
+			start = end + 1;
+		}
+
+		if ( anchorLength > 0 )
+		{
+			_anchor = new BytePattern( Arrays.copyOfRange( _values, anchorOffset, anchorOffset + anchorLength ) );
+			_anchorOffset = anchorOffset;
+			_forwardShift = null;
+			_backwardShift = null;
+		}
+		else
+		{
+			_anchor = null;
+			_anchorOffset = 0;
+			_forwardShift = new int[ 256 ];
+			_backwardShift = new int[ 256 ];
+			for ( int b = 0; b < 256; b++ )
+			{
+				int forward = length;
+				for ( int i = 0; i < length - 1; i++ )
+				{
+					if ( matches( b, i ) )
+					{
+						forward = length - 1 - i;
+					}
+				}
+				_forwardShift[ b ] = forward;
+
+				int backward = length;
+				for ( int i = length - 1; i > 0; i-- )
+				{
+					if ( matches( b, i ) )
+					{
+						backward = i;
+					}
+				}
+				_backwardShift[ b ] = backward;
+			}
+		}
+	}
+
+	/**
+	 * Compiles a pattern from a string of hexadecimal digits, in which
+	 * {@code ?} is used for don't-care digits. Whitespace is ignored. If the
+	 * string contains no don't-care digits, a {@link BytePattern} is returned.
+	 *
+	 * @param pattern Pattern string, e.g. {@code "4d 5a ?? ?? 50 45"}.
+	 *
+	 * @return Pattern.
+	 *
+	 * @throws IllegalArgumentException if the string is not valid.
+	 */
+	public static SearchPattern compile( final String pattern )
+	{
+		final String digits = pattern.replaceAll( "\\s+", "" );
+		if ( digits.isEmpty() || digits.length() % 2 != 0 )
+		{
+			throw new IllegalArgumentException( "Expected an even number of hexadecimal digits: " + pattern );
+		}
+
+		if ( digits.indexOf( '?' ) == -1 )
+		{
+			return BytePattern.parse( digits );
+		}
+
+		final byte[] values = new byte[ digits.length() / 2 ];
+		final byte[] masks = new byte[ values.length ];
+		for ( int i = 0; i < digits.length(); i++ )
+		{
+			final char c = digits.charAt( i );
+			final int shift = ( i % 2 == 0 ) ? 4 : 0;
+			if ( c != '?' )
+			{
+				final int digit = Character.digit( c, 16 );
+				if ( digit < 0 )
+				{
+					throw new IllegalArgumentException( "Invalid hexadecimal digit: " + pattern );
+				}
+				values[ i / 2 ] |= (byte)( digit << shift );
+				masks[ i / 2 ] |= (byte)( 0xf << shift );
+			}
+		}
+		return new MaskedPattern( values, masks );
+	}
+
+	@Override
+	public int getLength()
+	{
+		return _values.length;
+	}
+
+	@Override
+	public int indexOf( final byte[] data, final int from, final int to )
+	{
+		final int length = _values.length;
+		final BytePattern anchor = _anchor;
+		if ( anchor != null )
+		{
+			final int anchorOffset = _anchorOffset;
+			final int anchorTo = to - ( length - anchorOffset - anchor.getLength() );
+			for ( int i = anchor.indexOf( data, from + anchorOffset, anchorTo ); i >= 0; i = anchor.indexOf( data, i + 1, anchorTo ) )
+			{
+				final int start = i - anchorOffset;
+				if ( matches( data, start ) )
+				{
+					return start;
+				}
+			}
+		}
+		else
+		{
+			final int last = length - 1;
+			final int[] shift = _forwardShift;
+			for ( int i = from; i + last < to; i += shift[ data[ i + last ] & 0xff ] )
+			{
+				if ( matches( data, i ) )
+				{
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf( final byte[] data, final int from, final int to )
+	{
+		final int length = _values.length;
+		final BytePattern anchor = _anchor;
+		if ( anchor != null )
+		{
+			final int anchorOffset = _anchorOffset;
+			final int anchorFrom = from + anchorOffset;
+			int anchorTo = to - ( length - anchorOffset - anchor.getLength() );
+			for ( int i = anchor.lastIndexOf( data, anchorFrom, anchorTo ); i >= 0; i = anchor.lastIndexOf( data, anchorFrom, anchorTo ) )
+			{
+				final int start = i - anchorOffset;
+				if ( matches( data, start ) )
+				{
+					return start;
+				}
+				anchorTo = i + anchor.getLength() - 1;
+			}
+		}
+		else
+		{
+			final int[] shift = _backwardShift;
+			for ( int i = to - length; i >= from; i -= shift[ data[ i ] & 0xff ] )
+			{
+				if ( matches( data, i ) )
+				{
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether the entire pattern matches at the given index.
+	 *
+	 * @param data  Data to be matched.
+	 * @param start Index of the first byte to be matched.
+	 *
+	 * @return {@code true} if the pattern matches.
+	 */
+	private boolean matches( final byte[] data, final int start )
+	{
+		final byte[] values = _values;
+		final byte[] masks = _masks;
+		for ( int i = 0; i < values.length; i++ )
+		{
+			if ( ( data[ start + i ] & masks[ i ] ) != values[ i ] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the given byte matches the pattern at the given index.
+	 *
+	 * @param b     Byte value.
+	 * @param index Index in the pattern.
+	 *
+	 * @return {@code true} if the byte matches.
+	 */
+	private boolean matches( final int b, final int index )
+	{
+		return (byte)( b & _masks[ index ] ) == _values[ index ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder result = new StringBuilder();
+		for ( int i = 0; i < _values.length; i++ )
+		{
+			if ( i > 0 )
+			{
+				result.append( ' ' );
+			}
+
+			final String hex = Tools.byteToHexString( _values[ i ] );
+			final int mask = _masks[ i ];
+			result.append( ( mask & 0xf0 ) == 0 ? '?' : hex.charAt( 0 ) );
+			result.append( ( mask & 0x0f ) == 0 ? '?' : hex.charAt( 1 ) );
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * Paints the contents of a {@link View} when it's zoomed out too far to show
+ * the text of tiles (see {@link ViewModel#TEXT_SCALE}). The view is painted
+ * one device pixel at a time, at one of two levels of detail:
+ *
+ * <ul>
+ * <li>If a row of tiles is at least one pixel high, every tile is painted in
+ * the color of its byte value.</li>
+ * <li>Otherwise, each row of pixels covers several rows of tiles. If these
+ * contain only a few bytes, each column is painted in the average color of
+ * its bytes. For larger ranges, the fractions of each byte class, taken from
+ * the {@link OverviewPyramid}, are shown as a bar. The last two columns show
+ * the mean byte value as a shade of gray and the entropy, from light (highly
+ * structured) to dark (compressed or encrypted).</li>
+ * </ul>
+ *
+ * @author Gerrit Meinders
+ */
+public class OverviewPainter
+{
+	/**
+	 * Maximum number of bytes covered by a row of pixels for which the bytes
+	 * are read directly, instead of using the overview pyramid.
+	 */
+	private static final int DIRECT_LIMIT = 512;
+
+	/**
+	 * Color of every byte value.
+	 */
+	private static final int[] BYTE_COLORS = new int[ 256 ];
+
+	/**
+	 * Color of each byte class.
+	 */
+	private static final int[] CLASS_COLORS = new int[ OverviewPyramid.CLASS_COUNT ];
+
+	/**
+	 * Color of a range with an entropy of zero bits per byte.
+	 */
+	private static final int LOW_ENTROPY_COLOR = 0xfff7bc;
+
+	/**
+	 * Color of a range with an entropy of eight bits per byte.
+	 */
+	private static final int HIGH_ENTROPY_COLOR = 0x662506;
+
+	static
+	{
+		CLASS_COLORS[ OverviewPyramid.ZERO ] = 0xffffff;
+		CLASS_COLORS[ OverviewPyramid.TEXT ] = 0x3b7dd8;
+		CLASS_COLORS[ OverviewPyramid.CONTROL ] = 0x2e9e5b;
+		CLASS_COLORS[ OverviewPyramid.HIGH ] = 0xd9543c;
+
+		for ( int value = 0; value < BYTE_COLORS.length; value++ )
+		{
+			final int byteClass = OverviewPyramid.getByteClass( value );
+			final int color = CLASS_COLORS[ byteClass ];
+			if ( byteClass == OverviewPyramid.TEXT )
+			{
+				BYTE_COLORS[ value ] = blend( color, 0xffffff, (float)( value - 32 ) / 95.0f * 0.5f );
+			}
+			else if ( byteClass == OverviewPyramid.HIGH )
+			{
+				BYTE_COLORS[ value ] = blend( color, 0x000000, (float)( value - 128 ) / 127.0f * 0.5f );
+			}
+			else
+			{
+				BYTE_COLORS[ value ] = color;
+			}
+		}
+	}
+
+	/**
+	 * Color of parts of the view not covered by tiles.
+	 */
+	private final int _background;
+
+	/**
+	 * Color of the header above the first row.
+	 */
+	private final int _headerBackground;
+
+	/**
+	 * Color of selected bytes.
+	 */
+	private final int _selectionBackground;
+
+	/**
+	 * Image that pixels are painted into; reused between paints.
+	 */
+	private BufferedImage _image;
+
+	/**
+	 * Buffer for bytes read from the data model.
+	 */
+	private final byte[] _bytes = new byte[ DIRECT_LIMIT ];
+
+	/**
+	 * Summary of a band, as returned by the overview pyramid.
+	 */
+	private final float[] _summary = new float[ OverviewPyramid.SUMMARY_SIZE ];
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param background          Color of parts of the view not covered by
+	 *                            tiles.
+	 * @param headerBackground    Color of the header above the first row.
+	 * @param selectionBackground Color of selected bytes.
+	 */
+	public OverviewPainter( final Color background, final Color headerBackground, final Color selectionBackground )
+	{
+		_background = background.getRGB() & 0xffffff;
+		_headerBackground = headerBackground.getRGB() & 0xffffff;
+		_selectionBackground = selectionBackground.getRGB() & 0xffffff;
+	}
+
+	/**
+	 * Paints the given part of the view.
+	 *
+	 * @param g         Graphics to paint with, in component coordinates. The
+	 *                  graphics may be scaled for the device, but not rotated.
+	 * @param viewModel View model to paint.
+	 * @param clip      Part of the view to paint, in component coordinates.
+	 *
+	 * @return {@code true} if the view was painted completely; {@code false}
+	 * if part of the overview pyramid was not available yet. Parts that are
+	 * unavailable because of an error don't count as incomplete.
+	 */
+	public boolean paint( final Graphics2D g, final ViewModel viewModel, final Rectangle clip )
+	{
+		final AffineTransform deviceTransform = g.getTransform();
+		final double deviceScale = deviceTransform.getScaleY();
+		final double deviceX = deviceTransform.getTranslateX();
+		final double deviceY = deviceTransform.getTranslateY();
+
+		final int x0 = (int)Math.floor( (double)clip.x * deviceScale + deviceX );
+		final int y0 = (int)Math.floor( (double)clip.y * deviceScale + deviceY );
+		final int width = (int)Math.ceil( (double)( clip.x + clip.width ) * deviceScale + deviceX ) - x0;
+		final int height = (int)Math.ceil( (double)( clip.y + clip.height ) * deviceScale + deviceY ) - y0;
+		if ( width <= 0 || height <= 0 )
+		{
+			return true;
+		}
+
+		BufferedImage image = _image;
+		if ( image == null || image.getWidth() < width || image.getHeight() < height )
+		{
+			image = new BufferedImage( Math.max( width, image == null ? 0 : image.getWidth() ), Math.max( height, image == null ? 0 : image.getHeight() ), BufferedImage.TYPE_INT_RGB );
+			_image = image;
+		}
+		final int[] pixels = ( (DataBufferInt)image.getRaster().getDataBuffer() ).getData();
+		final int stride = image.getWidth();
+
+		final AffineTransform transform = viewModel.getTransform();
+		final double scaleX = transform.getScaleX() * deviceScale;
+		final double scaleY = transform.getScaleY() * deviceScale;
+		final double translateX = transform.getTranslateX() * deviceScale + deviceX;
+		final double translateY = transform.getTranslateY() * deviceScale + deviceY;
+
+		final int columns = viewModel.getColumns();
+		final double size = (double)viewModel.getTileSize();
+		final double padding = (double)viewModel.getTilePadding();
+		final double spacing = size + padding;
+
+		final int[] columnStart = new int[ columns ];
+		final int[] columnEnd = new int[ columns ];
+		for ( int column = 0; column < columns; column++ )
+		{
+			columnStart[ column ] = Math.max( 0, Math.min( width, (int)Math.ceil( translateX + (double)column * spacing * scaleX - 0.5 ) - x0 ) );
+			columnEnd[ column ] = Math.max( 0, Math.min( width, (int)Math.ceil( translateX + ( (double)column * spacing + size ) * scaleX - 0.5 ) - x0 ) );
+		}
+
+		final int markerWidth = Math.max( 2, (int)Math.round( 3.0 * deviceScale ) );
+		final int markerEnd = Math.max( 0, Math.min( width, (int)Math.ceil( translateX - 0.5 ) - x0 - markerWidth ) );
+		final int markerStart = Math.max( 0, markerEnd - markerWidth );
+
+		final DataModel dataModel = viewModel.getDataModel();
+		final long firstRowAddress = viewModel.getFirstRowAddress();
+		long length;
+		try
+		{
+			length = dataModel.getLength();
+		}
+		catch ( IOException e )
+		{
+			length = 0L;
+		}
+
+		final Highlighter highlighter = viewModel.getHighlighter();
+		final long selectionStart = viewModel.getSelectionStart();
+		final long selectionEnd = viewModel.getSelectionEnd();
+		final boolean tiles = ( spacing * scaleY >= 1.0 );
+		final byte[] bytes = _bytes;
+		final float[] summary = _summary;
+		final int[] red = new int[ columns ];
+		final int[] green = new int[ columns ];
+		final int[] blue = new int[ columns ];
+		final int[] count = new int[ columns ];
+
+		boolean complete = true;
+		long cachedRow = Long.MIN_VALUE;
+		int cachedLength = 0;
+
+		for ( int y = 0; y < height; y++ )
+		{
+			final int offset = y * stride;
+			final double top = ( (double)( y0 + y ) - translateY ) / scaleY;
+			final double bottom = ( (double)( y0 + y + 1 ) - translateY ) / scaleY;
+			final double center = ( top + bottom ) / 2.0;
+
+			fill( pixels, offset, 0, width, ( center < -padding ) ? _headerBackground : _background );
+			if ( center < 0.0 )
+			{
+				continue;
+			}
+
+			if ( tiles )
+			{
+				final long row = (long)Math.floor( center / spacing );
+				if ( center - (double)row * spacing >= size )
+				{
+					continue;
+				}
+
+				final long rowAddress = firstRowAddress + row * (long)columns;
+				if ( row != cachedRow )
+				{
+					cachedRow = row;
+					cachedLength = read( dataModel, rowAddress, (int)Math.max( 0L, Math.min( (long)columns, length - rowAddress ) ) );
+				}
+
+				for ( int column = 0; column < cachedLength; column++ )
+				{
+					final long address = rowAddress + (long)column;
+					final int color;
+					if ( address >= selectionStart && address <= selectionEnd )
+					{
+						color = _selectionBackground;
+					}
+					else
+					{
+						final Color highlight = highlighter.getColor( address );
+						color = ( highlight == null ) ? BYTE_COLORS[ bytes[ column ] & 0xff ] : highlight.getRGB() & 0xffffff;
+					}
+					fill( pixels, offset, columnStart[ column ], columnEnd[ column ], color );
+				}
+			}
+			else
+			{
+				final long start = Math.max( 0L, firstRowAddress + (long)Math.floor( top / spacing ) * (long)columns );
+				final long end = Math.min( length, firstRowAddress + ( (long)Math.floor( bottom / spacing ) + 1L ) * (long)columns );
+				if ( start >= end )
+				{
+					continue;
+				}
+
+				if ( end - start <= (long)DIRECT_LIMIT )
+				{
+					final int bandLength = read( dataModel, start, (int)( end - start ) );
+					for ( int column = 0; column < columns; column++ )
+					{
+						red[ column ] = 0;
+						green[ column ] = 0;
+						blue[ column ] = 0;
+						count[ column ] = 0;
+					}
+
+					int column = (int)( ( start - firstRowAddress ) % (long)columns );
+					for ( int i = 0; i < bandLength; i++ )
+					{
+						final int color = BYTE_COLORS[ bytes[ i ] & 0xff ];
+						red[ column ] += ( color >> 16 ) & 0xff;
+						green[ column ] += ( color >> 8 ) & 0xff;
+						blue[ column ] += color & 0xff;
+						count[ column ]++;
+						if ( ++column == columns )
+						{
+							column = 0;
+						}
+					}
+
+					for ( column = 0; column < columns; column++ )
+					{
+						final int n = count[ column ];
+						if ( n > 0 )
+						{
+							fill( pixels, offset, columnStart[ column ], columnEnd[ column ], ( red[ column ] / n ) << 16 | ( green[ column ] / n ) << 8 | ( blue[ column ] / n ) );
+						}
+					}
+				}
+				else
+				{
+					final OverviewPyramid pyramid = viewModel.getOverviewPyramid();
+					if ( pyramid != null && pyramid.getSummary( start, end, summary ) )
+					{
+						final boolean details = ( columns > 2 );
+						final int barStart = columnStart[ 0 ];
+						final int barWidth = columnEnd[ details ? columns - 3 : columns - 1 ] - barStart;
+						float position = 0.0f;
+						for ( int byteClass = 0; byteClass < OverviewPyramid.CLASS_COUNT; byteClass++ )
+						{
+							final int from = barStart + Math.round( position * (float)barWidth );
+							position += summary[ byteClass ];
+							final int to = barStart + Math.round( Math.min( 1.0f, position ) * (float)barWidth );
+							fill( pixels, offset, from, to, CLASS_COLORS[ byteClass ] );
+						}
+
+						if ( details )
+						{
+							final int mean = Math.max( 0, Math.min( 255, Math.round( summary[ OverviewPyramid.MEAN ] ) ) );
+							fill( pixels, offset, columnStart[ columns - 2 ], columnEnd[ columns - 2 ], mean << 16 | mean << 8 | mean );
+							final float entropy = Math.max( 0.0f, Math.min( 1.0f, summary[ OverviewPyramid.ENTROPY ] / 8.0f ) );
+							fill( pixels, offset, columnStart[ columns - 1 ], columnEnd[ columns - 1 ], blend( LOW_ENTROPY_COLOR, HIGH_ENTROPY_COLOR, entropy ) );
+						}
+					}
+					else if ( viewModel.getOverviewException() == null )
+					{
+						complete = false;
+					}
+				}
+
+				if ( start <= selectionEnd && end > selectionStart )
+				{
+					fill( pixels, offset, markerStart, markerEnd, _selectionBackground );
+				}
+			}
+		}
+
+		final Graphics2D deviceGraphics = (Graphics2D)g.create();
+		try
+		{
+			deviceGraphics.setTransform( new AffineTransform() );
+			deviceGraphics.drawImage( image, x0, y0, x0 + width, y0 + height, 0, 0, width, height, null );
+		}
+		finally
+		{
+			deviceGraphics.dispose();
+		}
+
+		return complete;
+	}
+
+	/**
+	 * Reads bytes into {@link #_bytes}.
+	 *
+	 * @return Number of bytes read; zero if an I/O error occurs.
+	 */
+	private int read( final DataModel dataModel, final long address, final int length )
+	{
+		if ( length <= 0 )
+		{
+			return 0;
+		}
+
+		try
+		{
+			return Math.max( 0, dataModel.read( address, _bytes, 0, length ) );
+		}
+		catch ( IOException e )
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Sets a range of pixels in a row to the given color.
+	 */
+	private static void fill( final int[] pixels, final int offset, final int from, final int to, final int color )
+	{
+		for ( int i = offset + from; i < offset + to; i++ )
+		{
+			pixels[ i ] = color;
+		}
+	}
+
+	/**
+	 * Blends two colors.
+	 *
+	 * @param color  First color.
+	 * @param other  Second color.
+	 * @param amount Amount of the second color, from 0 to 1.
+	 *
+	 * @return Blended color.
+	 */
+	private static int blend( final int color, final int other, final float amount )
+	{
+		int result = 0;
+		for ( int shift = 0; shift < 24; shift += 8 )
+		{
+			final int a = ( color >> shift ) & 0xff;
+			final int b = ( other >> shift ) & 0xff;
+			result |= Math.round( (float)a + (float)( b - a ) * amount ) << shift;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,851 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Summary of the bytes in a {@link DataModel} at several levels of detail,
+ * used to paint the view when it's zoomed out too far to show single bytes.
+ *
+ * <p>The first level stores, for each block of {@link #BLOCK_SIZE} bytes, the
+ * fraction of bytes in each byte class (see {@link #getByteClass}), the mean
+ * byte value and the Shannon entropy. Every next level combines two blocks of
+ * the previous level, so any address range can be summarized by looking at
+ * only a few blocks. The entropy of a combined block is the average entropy of
+ * its parts, rather than the entropy of all of its bytes.
+ *
+ * <p>The pyramid is built in the background, reading chunks of the data in
+ * parallel. For data models that are backed by a file, the first level is
+ * saved to a sidecar file, which is reused as long as the size and
+ * modification time of the file are unchanged. After part of the data is
+ * changed, {@link #update} summarizes only that part again. If reading the
+ * data fails, the affected parts remain unavailable and the error is
+ * available from {@link #getException}.
+ *
+ * @author Gerrit Meinders
+ */
+public class OverviewPyramid
+{
+	/**
+	 * Byte class of zero bytes.
+	 */
+	public static final int ZERO = 0;
+
+	/**
+	 * Byte class of printable ASCII characters, tabs and line breaks.
+	 */
+	public static final int TEXT = 1;
+
+	/**
+	 * Byte class of other bytes below 128.
+	 */
+	public static final int CONTROL = 2;
+
+	/**
+	 * Byte class of bytes from 128 to 255.
+	 */
+	public static final int HIGH = 3;
+
+	/**
+	 * Number of byte classes.
+	 */
+	public static final int CLASS_COUNT = 4;
+
+	/**
+	 * Index in a summary of the mean byte value, from 0 to 255. The fraction
+	 * of each byte class is stored at the index of the byte class.
+	 */
+	public static final int MEAN = CLASS_COUNT;
+
+	/**
+	 * Index in a summary of the entropy, in bits per byte, from 0 to 8.
+	 */
+	public static final int ENTROPY = CLASS_COUNT + 1;
+
+	/**
+	 * Number of values in a summary.
+	 */
+	public static final int SUMMARY_SIZE = CLASS_COUNT + 2;
+
+	/**
+	 * Number of bytes summarized by each block of the first level.
+	 */
+	static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Level at which a block covers a whole chunk.
+	 */
+	private static final int CHUNK_LEVEL = 8;
+
+	/**
+	 * Number of bytes summarized by a single task.
+	 */
+	private static final int CHUNK_SIZE = BLOCK_SIZE << CHUNK_LEVEL;
+
+	/**
+	 * Number of bits used to store each fraction.
+	 */
+	private static final int FRACTION_BITS = 12;
+
+	/**
+	 * Maximum value of a stored fraction.
+	 */
+	private static final int FRACTION_SCALE = ( 1 << FRACTION_BITS ) - 1;
+
+	/**
+	 * Position of the mean byte value in a packed block.
+	 */
+	private static final int MEAN_SHIFT = CLASS_COUNT * FRACTION_BITS;
+
+	/**
+	 * Position of the entropy in a packed block.
+	 */
+	private static final int ENTROPY_SHIFT = MEAN_SHIFT + 8;
+
+	/**
+	 * Extension added to the name of a file to get the name of its sidecar.
+	 */
+	private static final String SIDECAR_EXTENSION = ".overview";
+
+	/**
+	 * Identifies a sidecar file.
+	 */
+	private static final int MAGIC = 0x48584f56; // "HXOV"
+
+	/**
+	 * Version of the sidecar file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Byte class of every byte value.
+	 */
+	private static final byte[] BYTE_CLASSES = new byte[ 256 ];
+
+	/**
+	 * Value of {@code n * log2(n)} for every possible number of equal bytes
+	 * in a block.
+	 */
+	private static final double[] N_LOG_N = new double[ BLOCK_SIZE + 1 ];
+
+	/**
+	 * Chunk buffers, reused by each worker thread.
+	 */
+	private static final ThreadLocal<byte[]> CHUNK_BUFFER = new ThreadLocal<byte[]>();
+
+	static
+	{
+		for ( int value = 0; value < BYTE_CLASSES.length; value++ )
+		{
+			final int byteClass;
+			if ( value == 0 )
+			{
+				byteClass = ZERO;
+			}
+			else if ( ( value >= 32 && value < 127 ) || value == '\t' || value == '\n' || value == '\r' )
+			{
+				byteClass = TEXT;
+			}
+			else if ( value < 128 )
+			{
+				byteClass = CONTROL;
+			}
+			else
+			{
+				byteClass = HIGH;
+			}
+			BYTE_CLASSES[ value ] = (byte)byteClass;
+		}
+
+		for ( int n = 1; n < N_LOG_N.length; n++ )
+		{
+			N_LOG_N[ n ] = (double)n * Math.log( (double)n ) / Math.log( 2.0 );
+		}
+	}
+
+	/**
+	 * Data model being summarized.
+	 */
+	private final DataModel _dataModel;
+
+	/**
+	 * Length of the data model when the pyramid was created.
+	 */
+	private final long _length;
+
+	/**
+	 * Blocks of each level, packed by {@link #pack}.
+	 */
+	private final long[][] _levels;
+
+	/**
+	 * Chunks of which the blocks up to {@link #CHUNK_LEVEL} are summarized.
+	 * Also used as the lock that guards it.
+	 */
+	private final BitSet _completeChunks = new BitSet();
+
+	/**
+	 * Whether every level is summarized.
+	 */
+	private volatile boolean _complete = false;
+
+	/**
+	 * Whether building the pyramid was cancelled.
+	 */
+	private volatile boolean _cancelled = false;
+
+	/**
+	 * Error that occurred while reading the data, if any.
+	 */
+	private volatile IOException _exception;
+
+	/**
+	 * Constructs a new pyramid for the given data model. Call {@link #start}
+	 * to build it.
+	 *
+	 * @param dataModel Data model to summarize.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public OverviewPyramid( final DataModel dataModel )
+	throws IOException
+	{
+		_dataModel = dataModel;
+		final long length = dataModel.getLength();
+		_length = length;
+
+		final long blockCount = Math.max( 1L, ( length + (long)BLOCK_SIZE - 1L ) / (long)BLOCK_SIZE );
+		if ( blockCount > (long)Integer.MAX_VALUE )
+		{
+			throw new IllegalArgumentException( "Data is too large: " + length );
+		}
+
+		int levelCount = 1;
+		while ( ( blockCount - 1L ) >> ( levelCount - 1 ) > 0L )
+		{
+			levelCount++;
+		}
+
+		_levels = new long[ levelCount ][];
+		for ( int level = 0; level < levelCount; level++ )
+		{
+			_levels[ level ] = new long[ (int)( ( blockCount + ( 1L << level ) - 1L ) >> level ) ];
+		}
+	}
+
+	/**
+	 * Returns the byte class of the given byte value.
+	 *
+	 * @param value Byte value.
+	 *
+	 * @return Byte class, e.g. {@link #TEXT}.
+	 */
+	public static int getByteClass( final int value )
+	{
+		return BYTE_CLASSES[ value & 0xff ];
+	}
+
+	/**
+	 * Returns the length of the summarized data.
+	 *
+	 * @return Length of the data.
+	 */
+	public long getLength()
+	{
+		return _length;
+	}
+
+	/**
+	 * Returns the number of levels in the pyramid.
+	 *
+	 * @return Number of levels.
+	 */
+	public int getLevelCount()
+	{
+		return _levels.length;
+	}
+
+	/**
+	 * Returns the number of bytes summarized by each block of the given level.
+	 *
+	 * @param level Level in the pyramid.
+	 *
+	 * @return Size of a block.
+	 */
+	public static long getBlockSize( final int level )
+	{
+		return (long)BLOCK_SIZE << level;
+	}
+
+	/**
+	 * Starts building the pyramid in the background. If the data model is
+	 * backed by a file with an up-to-date sidecar, the sidecar is loaded
+	 * instead.
+	 */
+	public void start()
+	{
+		ForkJoinPool.commonPool().execute( new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				final Path sidecar = getSidecar();
+				if ( sidecar != null && load( sidecar ) )
+				{
+					return;
+				}
+
+				final int chunkCount = getChunkCount();
+				final ChunkTask task = new ChunkTask( 0, chunkCount );
+				task.invoke();
+				if ( task._exception != null )
+				{
+					// Data in the failed chunks remains unavailable.
+					_exception = task._exception;
+				}
+				else if ( !_cancelled )
+				{
+					summarizeParents( CHUNK_LEVEL + 1, Integer.MAX_VALUE, 0, _levels[ 0 ].length - 1 );
+					_complete = true;
+					if ( sidecar != null )
+					{
+						save( sidecar );
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Summarizes the given range of the data again, after it was changed. The
+	 * range is extended to whole chunks and is summarized in the background.
+	 * Until then, queries return the previous summary. Changes beyond the
+	 * length of the pyramid are ignored.
+	 *
+	 * <p>Any cached data of the changed range must be cleared from the data
+	 * model before calling this method (see {@link DataModel#clearCache}).
+	 *
+	 * @param start Start of the changed range (inclusive).
+	 * @param end   End of the changed range (exclusive).
+	 *
+	 * @return Completes when the range is summarized.
+	 */
+	public Future<?> update( final long start, final long end )
+	{
+		final long clampedStart = Math.max( 0L, start );
+		final long clampedEnd = Math.min( _length, end );
+		if ( clampedStart >= clampedEnd )
+		{
+			return CompletableFuture.completedFuture( null );
+		}
+
+		final int firstChunk = (int)( clampedStart / (long)CHUNK_SIZE );
+		final int lastChunk = (int)( ( clampedEnd - 1L ) / (long)CHUNK_SIZE );
+
+		return ForkJoinPool.commonPool().submit( new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				final ChunkTask task = new ChunkTask( firstChunk, lastChunk + 1 );
+				task.invoke();
+				if ( task._exception != null )
+				{
+					_exception = task._exception;
+				}
+				else if ( _complete && !_cancelled )
+				{
+					final int firstBlock = firstChunk << CHUNK_LEVEL;
+					final int lastBlock = Math.min( _levels[ 0 ].length - 1, ( ( lastChunk + 1 ) << CHUNK_LEVEL ) - 1 );
+					summarizeParents( CHUNK_LEVEL + 1, Integer.MAX_VALUE, firstBlock, lastBlock );
+
+					final Path sidecar = getSidecar();
+					if ( sidecar != null )
+					{
+						save( sidecar );
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Stops building the pyramid as soon as possible.
+	 */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+
+	/**
+	 * Returns whether the pyramid is completely built.
+	 *
+	 * @return {@code true} if all data is summarized.
+	 */
+	public boolean isComplete()
+	{
+		return _complete;
+	}
+
+	/**
+	 * Returns the error that occurred while reading the data, if any. Parts
+	 * of the data that could not be read are not summarized.
+	 *
+	 * @return Exception that occurred while building the pyramid.
+	 */
+	public IOException getException()
+	{
+		return _exception;
+	}
+
+	/**
+	 * Summarizes the given range, using the coarsest level with blocks no
+	 * larger than the range. The result is approximate, because the range is
+	 * extended to whole blocks of that level. At most three blocks are read.
+	 *
+	 * @param start   Start of the range (inclusive).
+	 * @param end     End of the range (exclusive).
+	 * @param summary Array of {@link #SUMMARY_SIZE} elements to store the
+	 *                fraction of each byte class, the {@link #MEAN} and the
+	 *                {@link #ENTROPY} in.
+	 *
+	 * @return {@code true} if the range is summarized; {@code false} if that
+	 * part of the pyramid is not built yet.
+	 */
+	public boolean getSummary( final long start, final long end, final float[] summary )
+	{
+		int level = 0;
+		while ( ( level < _levels.length - 1 ) && ( getBlockSize( level + 1 ) <= end - start ) )
+		{
+			level++;
+		}
+		return getSummary( level, start, end, summary );
+	}
+
+	/**
+	 * Summarizes the given range using the blocks of the given level. The
+	 * range is extended to whole blocks of that level.
+	 *
+	 * @param level   Level in the pyramid.
+	 * @param start   Start of the range (inclusive).
+	 * @param end     End of the range (exclusive).
+	 * @param summary Array of {@link #SUMMARY_SIZE} elements to store the
+	 *                fraction of each byte class, the {@link #MEAN} and the
+	 *                {@link #ENTROPY} in.
+	 *
+	 * @return {@code true} if the range is summarized; {@code false} if that
+	 * part of the pyramid is not built yet.
+	 */
+	public boolean getSummary( final int level, final long start, final long end, final float[] summary )
+	{
+		final long clampedStart = Math.max( 0L, start );
+		final long clampedEnd = Math.min( _length, end );
+		if ( clampedStart >= clampedEnd )
+		{
+			return false;
+		}
+
+		int usedLevel = level;
+		if ( !_complete )
+		{
+			// Only levels up to the size of a chunk are built per chunk.
+			usedLevel = Math.min( level, CHUNK_LEVEL );
+			final int firstChunk = (int)( clampedStart / (long)CHUNK_SIZE );
+			final int lastChunk = (int)( ( clampedEnd - 1L ) / (long)CHUNK_SIZE );
+			synchronized ( _completeChunks )
+			{
+				if ( _completeChunks.nextClearBit( firstChunk ) <= lastChunk )
+				{
+					return false;
+				}
+			}
+		}
+
+		final long blockSize = getBlockSize( usedLevel );
+		final int firstBlock = (int)( clampedStart / blockSize );
+		final int lastBlock = (int)( ( clampedEnd - 1L ) / blockSize );
+
+		final long[] blocks = _levels[ usedLevel ];
+		final double total = (double)( Math.min( _length, (long)( lastBlock + 1 ) * blockSize ) - (long)firstBlock * blockSize );
+		Arrays.fill( summary, 0, SUMMARY_SIZE, 0.0f );
+		for ( int block = firstBlock; block <= lastBlock; block++ )
+		{
+			final long packed = blocks[ block ];
+			final double weight = (double)getBlockLength( usedLevel, block ) / total;
+			for ( int i = 0; i < SUMMARY_SIZE; i++ )
+			{
+				summary[ i ] += (float)( weight * getValue( packed, i ) );
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Summarizes the blocks of the given chunk, up to {@link #CHUNK_LEVEL}.
+	 *
+	 * @param chunk Index of the chunk.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void summarizeChunk( final int chunk )
+	throws IOException
+	{
+		byte[] buffer = CHUNK_BUFFER.get();
+		if ( buffer == null )
+		{
+			buffer = new byte[ CHUNK_SIZE ];
+			CHUNK_BUFFER.set( buffer );
+		}
+
+		final long position = (long)chunk * (long)CHUNK_SIZE;
+		final int chunkLength = (int)Math.min( (long)CHUNK_SIZE, _length - position );
+		_dataModel.read( position, buffer, 0, chunkLength );
+
+		final int[] histogram = new int[ 256 ];
+		final long[] firstLevel = _levels[ 0 ];
+		final int firstBlock = chunk << CHUNK_LEVEL;
+
+		for ( int offset = 0; offset < chunkLength; offset += BLOCK_SIZE )
+		{
+			final int blockLength = Math.min( BLOCK_SIZE, chunkLength - offset );
+			Arrays.fill( histogram, 0 );
+			for ( int i = offset; i < offset + blockLength; i++ )
+			{
+				histogram[ buffer[ i ] & 0xff ]++;
+			}
+			firstLevel[ firstBlock + offset / BLOCK_SIZE ] = summarizeBlock( histogram, blockLength );
+		}
+
+		final int lastBlock = firstBlock + ( chunkLength - 1 ) / BLOCK_SIZE;
+		summarizeParents( 1, CHUNK_LEVEL, firstBlock, lastBlock );
+	}
+
+	/**
+	 * Returns the packed summary of a block with the given byte counts.
+	 *
+	 * @param histogram Number of bytes with each value.
+	 * @param length    Number of bytes in the block.
+	 *
+	 * @return Packed summary.
+	 */
+	private static long summarizeBlock( final int[] histogram, final int length )
+	{
+		final double[] summary = new double[ SUMMARY_SIZE ];
+		double sum = 0.0;
+		double entropy = 0.0;
+		for ( int value = 0; value < histogram.length; value++ )
+		{
+			final int count = histogram[ value ];
+			if ( count > 0 )
+			{
+				summary[ BYTE_CLASSES[ value ] ] += (double)count;
+				sum += (double)( value * count );
+				entropy += N_LOG_N[ count ];
+			}
+		}
+
+		final double n = (double)length;
+		for ( int byteClass = 0; byteClass < CLASS_COUNT; byteClass++ )
+		{
+			summary[ byteClass ] /= n;
+		}
+		summary[ MEAN ] = sum / n;
+		summary[ ENTROPY ] = ( N_LOG_N[ length ] - entropy ) / n;
+		return pack( summary );
+	}
+
+	/**
+	 * Combines blocks into the blocks of the given higher levels. Only parents
+	 * of the given range of first-level blocks are updated.
+	 *
+	 * @param firstLevel First level to update.
+	 * @param lastLevel  Last level to update; limited to the top level.
+	 * @param firstBlock First block of the first level (inclusive).
+	 * @param lastBlock  Last block of the first level (inclusive).
+	 */
+	private void summarizeParents( final int firstLevel, final int lastLevel, final int firstBlock, final int lastBlock )
+	{
+		final double[] sums = new double[ SUMMARY_SIZE ];
+		final int topLevel = Math.min( lastLevel, _levels.length - 1 );
+
+		for ( int level = firstLevel; level <= topLevel; level++ )
+		{
+			final long[] children = _levels[ level - 1 ];
+			final long[] parents = _levels[ level ];
+			for ( int parent = firstBlock >> level; parent <= lastBlock >> level; parent++ )
+			{
+				Arrays.fill( sums, 0.0 );
+				final int firstChild = parent * 2;
+				final int lastChild = Math.min( firstChild + 1, children.length - 1 );
+				for ( int child = firstChild; child <= lastChild; child++ )
+				{
+					unpack( children[ child ], (double)getBlockLength( level - 1, child ), sums );
+				}
+
+				final double length = (double)getBlockLength( level, parent );
+				for ( int i = 0; i < SUMMARY_SIZE; i++ )
+				{
+					sums[ i ] /= length;
+				}
+				parents[ parent ] = pack( sums );
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of chunks in the data.
+	 */
+	private int getChunkCount()
+	{
+		return (int)( ( _length + (long)CHUNK_SIZE - 1L ) / (long)CHUNK_SIZE );
+	}
+
+	/**
+	 * Returns the number of bytes summarized by the given block.
+	 */
+	private long getBlockLength( final int level, final int block )
+	{
+		final long blockSize = getBlockSize( level );
+		return Math.min( blockSize, _length - (long)block * blockSize );
+	}
+
+	/**
+	 * Adds the summary represented by a packed block, multiplied by the given
+	 * weight, to the given sums.
+	 */
+	private static void unpack( final long packed, final double weight, final double[] sums )
+	{
+		for ( int i = 0; i < SUMMARY_SIZE; i++ )
+		{
+			sums[ i ] += weight * getValue( packed, i );
+		}
+	}
+
+	/**
+	 * Returns a single value of the summary represented by a packed block.
+	 *
+	 * @param packed Packed block.
+	 * @param index  Index in the summary, e.g. {@link #MEAN}.
+	 *
+	 * @return Value at the given index.
+	 */
+	private static double getValue( final long packed, final int index )
+	{
+		final double result;
+		if ( index == MEAN )
+		{
+			result = (double)( (int)( packed >>> MEAN_SHIFT ) & 0xff );
+		}
+		else if ( index == ENTROPY )
+		{
+			result = (double)( (int)( packed >>> ENTROPY_SHIFT ) & 0xff ) * 8.0 / 255.0;
+		}
+		else
+		{
+			result = (double)( (int)( packed >>> ( FRACTION_BITS * index ) ) & FRACTION_SCALE ) / (double)FRACTION_SCALE;
+		}
+		return result;
+	}
+
+	/**
+	 * Packs a summary into a single value: a 12-bit fraction for each byte
+	 * class, followed by the mean and the entropy in 8 bits each.
+	 */
+	private static long pack( final double[] summary )
+	{
+		long result = 0L;
+		for ( int byteClass = 0; byteClass < CLASS_COUNT; byteClass++ )
+		{
+			final long fraction = Math.min( (long)FRACTION_SCALE, Math.round( summary[ byteClass ] * (double)FRACTION_SCALE ) );
+			result |= fraction << ( FRACTION_BITS * byteClass );
+		}
+		result |= Math.min( 255L, Math.round( summary[ MEAN ] ) ) << MEAN_SHIFT;
+		result |= Math.min( 255L, Math.round( summary[ ENTROPY ] * 255.0 / 8.0 ) ) << ENTROPY_SHIFT;
+		return result;
+	}
+
+	/**
+	 * Returns the sidecar file for the data model.
+	 *
+	 * @return Sidecar file; {@code null} if the data model isn't backed by a
+	 * file.
+	 */
+	private Path getSidecar()
+	{
+		final Path file = BlockHashTree.getFile( _dataModel );
+		return ( file == null ) ? null : file.resolveSibling( file.getFileName() + SIDECAR_EXTENSION );
+	}
+
+	/**
+	 * Returns the modification time of the file that backs the data model.
+	 */
+	private long getModified( final Path sidecar )
+	throws IOException
+	{
+		final String name = sidecar.getFileName().toString();
+		final Path file = sidecar.resolveSibling( name.substring( 0, name.length() - SIDECAR_EXTENSION.length() ) );
+		return Files.getLastModifiedTime( file ).toMillis();
+	}
+
+	/**
+	 * Loads the first level from the given sidecar file, if it matches the
+	 * data, and builds the other levels from it.
+	 *
+	 * @param sidecar Sidecar file.
+	 *
+	 * @return {@code true} if the pyramid was loaded.
+	 */
+	private boolean load( final Path sidecar )
+	{
+		if ( !Files.isRegularFile( sidecar ) )
+		{
+			return false;
+		}
+
+		final long[] firstLevel = _levels[ 0 ];
+		try
+		{
+			final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( sidecar ) ) );
+			try
+			{
+				if ( in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != BLOCK_SIZE || in.readLong() != _length || in.readLong() != getModified( sidecar ) || in.readInt() != firstLevel.length )
+				{
+					return false;
+				}
+
+				for ( int i = 0; i < firstLevel.length; i++ )
+				{
+					firstLevel[ i ] = in.readLong();
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch ( IOException e )
+		{
+			return false;
+		}
+
+		summarizeParents( 1, Integer.MAX_VALUE, 0, firstLevel.length - 1 );
+		synchronized ( _completeChunks )
+		{
+			_completeChunks.set( 0, getChunkCount() );
+		}
+		_complete = true;
+		return true;
+	}
+
+	/**
+	 * Saves the first level to the given sidecar file. Failure to save it is
+	 * ignored; the pyramid is built again next time.
+	 *
+	 * @param sidecar Sidecar file.
+	 */
+	private void save( final Path sidecar )
+	{
+		final long[] firstLevel = _levels[ 0 ];
+		try
+		{
+			final Path temporary = sidecar.resolveSibling( sidecar.getFileName() + ".tmp" );
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ) ) );
+			try
+			{
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( BLOCK_SIZE );
+				out.writeLong( _length );
+				out.writeLong( getModified( sidecar ) );
+				out.writeInt( firstLevel.length );
+				for ( final long block : firstLevel )
+				{
+					out.writeLong( block );
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			Files.move( temporary, sidecar, StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( IOException ignored )
+		{
+		}
+	}
+
+	/**
+	 * Summarizes a range of chunks, splitting it up to summarize chunks in
+	 * parallel.
+	 */
+	private class ChunkTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int _start;
+
+		private final int _end;
+
+		/**
+		 * Error that occurred while summarizing the range, if any.
+		 */
+		private volatile IOException _exception;
+
+		private ChunkTask( final int start, final int end )
+		{
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( _end - _start > 1 )
+			{
+				final int middle = ( _start + _end ) >>> 1;
+				final ChunkTask first = new ChunkTask( _start, middle );
+				final ChunkTask second = new ChunkTask( middle, _end );
+				invokeAll( first, second );
+				_exception = ( first._exception != null ) ? first._exception : second._exception;
+			}
+			else if ( _end > _start && !_cancelled )
+			{
+				try
+				{
+					summarizeChunk( _start );
+					synchronized ( _completeChunks )
+					{
+						_completeChunks.set( _start );
+					}
+				}
+				catch ( IOException e )
+				{
+					_exception = e;
+				}
+			}
+		}
+	}
+}
@@ -34,11 +34,29 @@ public abstract class Record
 
 	private Definition _recordDefinition;
 
-	private List<Definition> _definitions;
+	/**
+	 * Definitions in the record, indexed by address.
+	 */
+	private final DefinitionMap _definitions = new DefinitionMap();
+
+	/**
+	 * Index of the records in the hierarchy, if this is the root record.
+	 */
+	private RecordIndex _recordIndex = null;
+
+	/**
+	 * Session from which the records defined in this record are loaded when
+	 * the definitions are first needed; {@code null} if already loaded.
+	 */
+	private Session _session = null;
+
+	/**
+	 * Index of this record in {@link #_session}.
+	 */
+	private int _sessionIndex = -1;
 
 	protected Record()
 	{
-		_definitions = new ArrayList<Definition>();
 	}
 
 	public Record getParent()
@@ -46,9 +64,70 @@ public abstract class Record
 		return _parent;
 	}
 
+	/**
+	 * Sets the parent of the record, which moves the record and any records
+	 * defined in it to the record index of the parent's hierarchy. Setting
+	 * the parent to {@code null} removes them from the index; the record then
+	 * becomes the root of its own hierarchy.
+	 *
+	 * @param parent Parent record.
+	 */
 	public void setParent( final Record parent )
 	{
+		final List<Record> moved;
+		if ( _parent != null )
+		{
+			moved = _parent.getRecordIndex().remove( this );
+		}
+		else
+		{
+			synchronized ( this )
+			{
+				moved = ( _recordIndex == null ) ? Collections.<Record>emptyList() : _recordIndex.getRecords();
+				_recordIndex = null;
+			}
+		}
+
 		_parent = parent;
+
+		final RecordIndex index = getRecordIndex();
+		if ( parent != null )
+		{
+			index.add( this );
+		}
+		for ( final Record record : moved )
+		{
+			if ( record != this )
+			{
+				index.add( record );
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of all records in the hierarchy that this record is
+	 * part of, which is owned by the root record.
+	 *
+	 * @return Record index.
+	 */
+	public RecordIndex getRecordIndex()
+	{
+		Record root = this;
+		while ( root._parent != null )
+		{
+			root = root._parent;
+		}
+
+		synchronized ( root )
+		{
+			RecordIndex result = root._recordIndex;
+			if ( result == null )
+			{
+				result = new RecordIndex();
+				root._recordIndex = result;
+			}
+			return result;
+		}
 	}
 
 	public Definition getRecordDefinition()
@@ -61,37 +140,208 @@ public abstract class Record
 		_recordDefinition = recordDefinition;
 	}
 
+	/**
+	 * Returns the most deeply nested record in this record's hierarchy that
+	 * contains the given address. Unlike {@link RecordIndex#getDeepest}, any
+	 * records containing the address that were loaded from a {@link Session}
+	 * but not created yet are created first.
+	 *
+	 * @param address Address to look up.
+	 *
+	 * @return Deepest record containing the address; the root record if
+	 * there is no other record containing it.
+	 */
+	public Record findRecord( final long address )
+	{
+		Record root = this;
+		while ( root._parent != null )
+		{
+			root = root._parent;
+		}
+		root.getDefinitions();
+
+		final RecordIndex index = root.getRecordIndex();
+		final List<Record> containing = new ArrayList<Record>();
+		boolean created = true;
+		while ( created )
+		{
+			created = false;
+			containing.clear();
+			index.getContaining( address, containing );
+			for ( final Record record : containing )
+			{
+				if ( record._session != null )
+				{
+					record.getDefinitions();
+					created = true;
+				}
+			}
+		}
+
+		final Record result = index.getDeepest( address );
+		return ( result == null ) ? root : result;
+	}
+
+	/**
+	 * Returns the definitions in the record. The same map is returned every
+	 * time; it is updated as definitions are added and removed. If the record
+	 * was loaded from a {@link Session}, the records defined in it are created
+	 * when this method is first called.
+	 *
+	 * @return Definitions in the record.
+	 */
 	public DefinitionMap getDefinitions()
 	{
-		return new DefinitionMap( _definitions );
+		final Session session = _session;
+		if ( session != null )
+		{
+			_session = null;
+			session.loadChildren( this, _sessionIndex );
+		}
+
+		return _definitions;
 	}
 
+	/**
+	 * Adds the given definition, replacing any definition at the same address.
+	 * A record defined by the replaced definition is detached from this
+	 * record.
+	 *
+	 * @param definition Definition to be added.
+	 */
 	public void addDefinition( final Definition definition )
 	{
-		final List<Definition> definitions = _definitions;
-		for ( int i = 0; i < definitions.size(); i++ )
+		final Definition replaced = getDefinitions().put( definition );
+		final Record replacedRecord = getDefinedRecord( replaced );
+		if ( replacedRecord != null && replacedRecord.getParent() == this && replacedRecord.getRecordDefinition() != definition )
+		{
+			replacedRecord.setParent( null );
+		}
+	}
+
+	/**
+	 * Adds the given definitions, replacing any definitions at the same
+	 * addresses. Faster than adding many definitions one by one. Records
+	 * defined by replaced definitions are detached from this record, as with
+	 * {@link #addDefinition}.
+	 *
+	 * @param definitions Definitions to be added.
+	 */
+	public void addDefinitions( final Collection<? extends Definition> definitions )
+	{
+		final List<Definition> replaced = getDefinitions().putAll( definitions );
+		if ( !replaced.isEmpty() )
 		{
-			final Definition existing = definitions.get( i );
-			if ( existing.getAddress() == definition.getAddress() )
+			/*
+			 * Of several definitions with the same address, only the last one
+			 * is kept, as if they were added one by one.
+			 */
+			final Map<Long, Definition> keptByAddress = new HashMap<Long, Definition>();
+			for ( final Definition definition : definitions )
 			{
-				definitions.set( i, definition );
-				return;
+				keptByAddress.put( definition.getAddress(), definition );
+			}
+			final Set<Definition> kept = Collections.newSetFromMap( new IdentityHashMap<Definition, Boolean>() );
+			kept.addAll( keptByAddress.values() );
+
+			for ( final Definition definition : replaced )
+			{
+				final Record replacedRecord = getDefinedRecord( definition );
+				if ( replacedRecord != null && replacedRecord.getParent() == this && !kept.contains( replacedRecord.getRecordDefinition() ) )
+				{
+					replacedRecord.setParent( null );
+				}
 			}
 		}
-		definitions.add( definition );
 	}
 
+	/**
+	 * Returns the record defined by the given definition.
+	 *
+	 * @param definition Definition; may be {@code null}.
+	 *
+	 * @return Defined record; {@code null} if the definition doesn't define a
+	 *         record.
+	 */
+	private static Record getDefinedRecord( final Definition definition )
+	{
+		final Record result;
+		if ( definition instanceof RecordDefinition )
+		{
+			result = ( (RecordDefinition)definition ).getRecord();
+		}
+		else if ( definition instanceof PointerDefinition )
+		{
+			result = ( (PointerDefinition)definition ).getRecord();
+		}
+		else
+		{
+			result = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the definition at the same address as the given definition.
+	 *
+	 * @param definition Definition to be removed.
+	 */
 	public void removeDefinition( final Definition definition )
 	{
-		final List<Definition> definitions = _definitions;
-		for ( int i = 0; i < definitions.size(); i++ )
+		getDefinitions().remove( definition.getAddress() );
+	}
+
+	/**
+	 * Sets the session that the records defined in this record are loaded
+	 * from, when they are first needed.
+	 *
+	 * @param session Session to load from.
+	 * @param index   Index of this record in the session.
+	 */
+	void setSession( final Session session, final int index )
+	{
+		_session = session;
+		_sessionIndex = index;
+	}
+
+	/**
+	 * Returns the session that the records defined in this record are still
+	 * to be loaded from.
+	 *
+	 * @return Session; {@code null} if the records are loaded.
+	 */
+	Session getSession()
+	{
+		return _session;
+	}
+
+	/**
+	 * Returns the index of this record in its session.
+	 *
+	 * @return Index in the session.
+	 */
+	int getSessionIndex()
+	{
+		return _sessionIndex;
+	}
+
+	/**
+	 * Must be called when the start or length of the record changes. This
+	 * changes the relative addresses of the records defined in this record,
+	 * and the address or length of the definition of this record in its
+	 * parent.
+	 *
+	 * @param oldStart Start of the record before it changed.
+	 */
+	protected void moved( final long oldStart )
+	{
+		_definitions.shift( oldStart - getStart() );
+
+		final Record parent = _parent;
+		final Definition recordDefinition = _recordDefinition;
+		if ( parent != null && recordDefinition != null )
 		{
-			final Definition existing = definitions.get( i );
-			if ( existing.getAddress() == definition.getAddress() )
-			{
-				definitions.remove( i );
-				break;
-			}
+			parent._definitions.update( recordDefinition, oldStart - parent.getStart() );
 		}
 	}
 
@@ -109,6 +359,38 @@ public abstract class Record
 	 */
 	public abstract long getEnd();
 
+	/**
+	 * Returns the first address covered by any occurrence of the record.
+	 *
+	 * @return Start address of the first occurrence.
+	 */
+	public long getExtentStart()
+	{
+		return getStart();
+	}
+
+	/**
+	 * Returns the last address covered by any occurrence of the record.
+	 *
+	 * @return End address of the last occurrence.
+	 */
+	public long getExtentEnd()
+	{
+		return getEnd();
+	}
+
+	/**
+	 * Must be called when the range covered by the occurrences of the record
+	 * changes, to update the record index.
+	 */
+	protected void extentChanged()
+	{
+		if ( _parent != null )
+		{
+			getRecordIndex().update( this );
+		}
+	}
+
 	/**
 	 * Returns the length of the record.
 	 *
@@ -39,6 +39,16 @@ implements Definition
 		_record = record;
 	}
 
+	/**
+	 * Returns the record that is defined.
+	 *
+	 * @return Defined record.
+	 */
+	public Record getRecord()
+	{
+		return _record;
+	}
+
 	@Override
 	public String getLabel()
 	{
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+/**
+ * Index of all records in a hierarchy of records by the addresses they
+ * cover, e.g. to find the record at any address in the file, regardless of
+ * the record being viewed.
+ *
+ * <p>Records are added to the index of their root record when their parent is
+ * set (see {@link Record#setParent}) and are updated whenever their extent
+ * changes. The root record itself is not indexed. The extent of a record is
+ * the range covered by all of its occurrences, e.g. all elements of an
+ * {@link ArrayRecord}.
+ *
+ * <p>Records loaded from a {@link Session} are only indexed once they are
+ * created, i.e. when the definitions of their parent are first needed. Right
+ * after a session is loaded, the index is therefore empty. Use
+ * {@link Record#findRecord} to look up a record in such a hierarchy: it
+ * creates the records containing the address first. Records that are defined
+ * in a record that does not itself contain the address, e.g. the target of a
+ * pointer, are still only found after their parent was created.
+ *
+ * <p>Like {@link DefinitionMap}, the index is a treap ordered by start
+ * address, in which each node stores the largest end address in its subtree.
+ * Instances are safe for use by multiple threads.
+ *
+ * @author Gerrit Meinders
+ */
+public class RecordIndex
+{
+	/**
+	 * Root of the tree.
+	 */
+	private Node _root = null;
+
+	/**
+	 * Node of each record in the index.
+	 */
+	private final Map<Record, Node> _nodes = new HashMap<Record, Node>();
+
+	/**
+	 * Indexed records defined in each record, to find the records to be
+	 * removed along with their parent.
+	 */
+	private final Map<Record, Set<Record>> _children = new HashMap<Record, Set<Record>>();
+
+	/**
+	 * Used to derive the priority and order of each new node.
+	 */
+	private long _sequence = 0L;
+
+	/**
+	 * Returns the number of records in the index.
+	 *
+	 * @return Number of records.
+	 */
+	public synchronized int size()
+	{
+		return _nodes.size();
+	}
+
+	/**
+	 * Adds the given record to the index, or updates it if it's already
+	 * indexed.
+	 *
+	 * @param record Record to be added.
+	 */
+	public synchronized void add( final Record record )
+	{
+		final Node existing = _nodes.get( record );
+		if ( existing != null )
+		{
+			_root = remove( _root, existing );
+		}
+		else
+		{
+			Set<Record> siblings = _children.get( record.getParent() );
+			if ( siblings == null )
+			{
+				siblings = new HashSet<Record>();
+				_children.put( record.getParent(), siblings );
+			}
+			siblings.add( record );
+		}
+
+		int depth = 0;
+		for ( Record parent = record.getParent(); parent != null; parent = parent.getParent() )
+		{
+			depth++;
+		}
+
+		final Node node = createNode( record, depth );
+		_nodes.put( record, node );
+		_root = insert( _root, node );
+	}
+
+	/**
+	 * Updates the index after the extent of the given record changed. Records
+	 * that are not indexed are ignored.
+	 *
+	 * @param record Record that changed.
+	 */
+	public synchronized void update( final Record record )
+	{
+		if ( _nodes.containsKey( record ) )
+		{
+			add( record );
+		}
+	}
+
+	/**
+	 * Removes the given record and any records defined in it from the index.
+	 *
+	 * @param record Record to be removed.
+	 *
+	 * @return Records that were removed, each after the record it is defined
+	 * in; empty if the record was not indexed.
+	 */
+	public synchronized List<Record> remove( final Record record )
+	{
+		final List<Record> result = new ArrayList<Record>();
+		final Node node = _nodes.remove( record );
+		if ( node != null )
+		{
+			_root = remove( _root, node );
+			final Set<Record> siblings = _children.get( record.getParent() );
+			siblings.remove( record );
+			if ( siblings.isEmpty() )
+			{
+				_children.remove( record.getParent() );
+			}
+
+			result.add( record );
+			for ( int i = 0; i < result.size(); i++ )
+			{
+				final Set<Record> children = _children.remove( result.get( i ) );
+				if ( children != null )
+				{
+					for ( final Record child : children )
+					{
+						_root = remove( _root, _nodes.remove( child ) );
+						result.add( child );
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all records in the index, each after the record it is defined
+	 * in.
+	 *
+	 * @return Indexed records.
+	 */
+	public synchronized List<Record> getRecords()
+	{
+		final List<Record> result = new ArrayList<Record>( _nodes.size() );
+		for ( final Record record : _nodes.keySet() )
+		{
+			if ( !_nodes.containsKey( record.getParent() ) )
+			{
+				result.add( record );
+			}
+		}
+		for ( int i = 0; i < result.size(); i++ )
+		{
+			final Set<Record> children = _children.get( result.get( i ) );
+			if ( children != null )
+			{
+				result.addAll( children );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the most deeply nested record that contains the given address.
+	 * If several records at the same depth contain the address, the one that
+	 * starts last is returned.
+	 *
+	 * @param address Address to look up.
+	 *
+	 * @return Deepest record containing the address; {@code null} if the
+	 * address is only contained in the root record.
+	 */
+	public synchronized Record getDeepest( final long address )
+	{
+		final List<Node> nodes = new ArrayList<Node>();
+		addOverlapping( _root, address, address + 1L, nodes );
+
+		Node result = null;
+		for ( final Node node : nodes )
+		{
+			if ( result == null || node._depth >= result._depth )
+			{
+				result = node;
+			}
+		}
+		return ( result == null ) ? null : result._record;
+	}
+
+	/**
+	 * Adds all records that contain the given address to the given
+	 * collection, ordered by start address.
+	 *
+	 * @param address Address to look up.
+	 * @param result  Collection to add records to.
+	 */
+	public synchronized void getContaining( final long address, final Collection<? super Record> result )
+	{
+		getOverlapping( address, address + 1L, result );
+	}
+
+	/**
+	 * Adds all records that overlap the given range to the given collection,
+	 * ordered by start address.
+	 *
+	 * @param start  Start of the range (inclusive).
+	 * @param end    End of the range (exclusive).
+	 * @param result Collection to add records to.
+	 */
+	public synchronized void getOverlapping( final long start, final long end, final Collection<? super Record> result )
+	{
+		final List<Node> nodes = new ArrayList<Node>();
+		addOverlapping( _root, start, end, nodes );
+		for ( final Node node : nodes )
+		{
+			result.add( node._record );
+		}
+	}
+
+	/**
+	 * Creates a node for the given record, with a pseudo-random priority.
+	 */
+	private Node createNode( final Record record, final int depth )
+	{
+		final long sequence = ++_sequence;
+		long priority = sequence * 0x9e3779b97f4a7c15L;
+		priority ^= priority >>> 32;
+		priority *= 0xd6e8feb86659fd93L;
+		priority ^= priority >>> 32;
+		return new Node( record, depth, sequence, priority );
+	}
+
+	/**
+	 * Inserts a node into the given subtree.
+	 *
+	 * @return New root of the subtree.
+	 */
+	private static Node insert( final Node node, final Node inserted )
+	{
+		Node result = node;
+		if ( node == null )
+		{
+			result = inserted;
+		}
+		else if ( inserted.compareTo( node ) < 0 )
+		{
+			node._left = insert( node._left, inserted );
+			result = ( node._left._priority > node._priority ) ? rotateRight( node ) : node;
+		}
+		else
+		{
+			node._right = insert( node._right, inserted );
+			result = ( node._right._priority > node._priority ) ? rotateLeft( node ) : node;
+		}
+		result.updateMaximumEnd();
+		return result;
+	}
+
+	/**
+	 * Removes the given node from the given subtree.
+	 *
+	 * @return New root of the subtree.
+	 */
+	private static Node remove( final Node node, final Node removed )
+	{
+		Node result = node;
+		if ( node == removed )
+		{
+			result = merge( node._left, node._right );
+		}
+		else if ( removed.compareTo( node ) < 0 )
+		{
+			node._left = remove( node._left, removed );
+		}
+		else
+		{
+			node._right = remove( node._right, removed );
+		}
+		if ( result != null )
+		{
+			result.updateMaximumEnd();
+		}
+		return result;
+	}
+
+	/**
+	 * Merges two subtrees, where all nodes in the first subtree come before
+	 * those in the second.
+	 *
+	 * @return Root of the merged tree.
+	 */
+	private static Node merge( final Node first, final Node second )
+	{
+		final Node result;
+		if ( first == null )
+		{
+			result = second;
+		}
+		else if ( second == null )
+		{
+			result = first;
+		}
+		else if ( first._priority > second._priority )
+		{
+			first._right = merge( first._right, second );
+			result = first;
+		}
+		else
+		{
+			second._left = merge( first, second._left );
+			result = second;
+		}
+		if ( result != null )
+		{
+			result.updateMaximumEnd();
+		}
+		return result;
+	}
+
+	private static Node rotateLeft( final Node node )
+	{
+		final Node result = node._right;
+		node._right = result._left;
+		result._left = node;
+		node.updateMaximumEnd();
+		result.updateMaximumEnd();
+		return result;
+	}
+
+	private static Node rotateRight( final Node node )
+	{
+		final Node result = node._left;
+		node._left = result._right;
+		result._right = node;
+		node.updateMaximumEnd();
+		result.updateMaximumEnd();
+		return result;
+	}
+
+	/**
+	 * Adds the nodes in the given subtree that overlap the given range, in
+	 * order.
+	 */
+	private static void addOverlapping( final Node node, final long start, final long end, final List<Node> result )
+	{
+		if ( node != null && node._maximumEnd > start )
+		{
+			addOverlapping( node._left, start, end, result );
+			if ( node._start < end )
+			{
+				if ( node._end > start )
+				{
+					result.add( node );
+				}
+				addOverlapping( node._right, start, end, result );
+			}
+		}
+	}
+
+	/**
+	 * Node in the tree.
+	 */
+	private static class Node
+	{
+		private final Record _record;
+
+		/**
+		 * Number of ancestors of the record when it was added.
+		 */
+		private final int _depth;
+
+		/**
+		 * Start of the record's extent when it was added.
+		 */
+		private final long _start;
+
+		/**
+		 * End of the record's extent (exclusive) when it was added.
+		 */
+		private final long _end;
+
+		/**
+		 * Orders nodes with the same start address.
+		 */
+		private final long _sequence;
+
+		/**
+		 * Largest end address in the subtree rooted at this node.
+		 */
+		private long _maximumEnd;
+
+		/**
+		 * Priority of the node; no child has a higher priority.
+		 */
+		private final long _priority;
+
+		private Node _left = null;
+
+		private Node _right = null;
+
+		private Node( final Record record, final int depth, final long sequence, final long priority )
+		{
+			_record = record;
+			_depth = depth;
+			_start = record.getExtentStart();
+			_end = record.getExtentEnd() + 1L;
+			_maximumEnd = _end;
+			_sequence = sequence;
+			_priority = priority;
+		}
+
+		private int compareTo( final Node other )
+		{
+			final int result = Long.compare( _start, other._start );
+			return ( result != 0 ) ? result : Long.compare( _sequence, other._sequence );
+		}
+
+		private void updateMaximumEnd()
+		{
+			long maximumEnd = _end;
+			if ( _left != null )
+			{
+				maximumEnd = Math.max( maximumEnd, _left._maximumEnd );
+			}
+			if ( _right != null )
+			{
+				maximumEnd = Math.max( maximumEnd, _right._maximumEnd );
+			}
+			_maximumEnd = maximumEnd;
+		}
+	}
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Searches a {@link DataModel} for occurrences of a {@link SearchPattern}.
+ *
+ * <p>The data is split into chunks that overlap by the length of the pattern
+ * minus one, so matches that cross a chunk boundary are found exactly once.
+ * Chunks are scanned in parallel on the common fork/join pool.
+ *
+ * @author Gerrit Meinders
+ */
+public class Search
+{
+	/**
+	 * Size of the chunks that are scanned in parallel.
+	 */
+	public static final int CHUNK_SIZE = 0x100000; // 1M
+
+	/**
+	 * Chunk buffers, reused by each worker thread.
+	 */
+	private static final ThreadLocal<byte[]> CHUNK_BUFFER = new ThreadLocal<byte[]>();
+
+	private final DataModel _dataModel;
+
+	private final SearchPattern _pattern;
+
+	/**
+	 * Matches found by scanning the entire data model.
+	 */
+	private final ConcurrentSkipListSet<Long> _matches = new ConcurrentSkipListSet<Long>();
+
+	/**
+	 * Number of matches found.
+	 */
+	private final AtomicInteger _matchCount = new AtomicInteger();
+
+	private volatile boolean _cancelled = false;
+
+	private volatile boolean _completed = false;
+
+	/**
+	 * First error that occurred while scanning, if any.
+	 */
+	private volatile IOException _exception;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param dataModel Data model to search in.
+	 * @param pattern   Pattern to search for.
+	 */
+	public Search( final DataModel dataModel, final SearchPattern pattern )
+	{
+		_dataModel = dataModel;
+		_pattern = pattern;
+	}
+
+	public DataModel getDataModel()
+	{
+		return _dataModel;
+	}
+
+	public SearchPattern getPattern()
+	{
+		return _pattern;
+	}
+
+	/**
+	 * Starts scanning the entire data model in the background. Matches are
+	 * reported to the given listener as soon as they are found.
+	 *
+	 * @param listener Listener to be notified of matches.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void start( final SearchListener listener )
+	throws IOException
+	{
+		final long length = _dataModel.getLength();
+		ForkJoinPool.commonPool().execute( new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				try
+				{
+					new ScanTask( 0L, length, listener ).invoke();
+				}
+				finally
+				{
+					_completed = !_cancelled && _exception == null;
+					listener.searchCompleted( Search.this );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Cancels the search. Any scan that is in progress stops as soon as
+	 * possible.
+	 */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return _cancelled;
+	}
+
+	/**
+	 * Returns whether the entire data model was scanned successfully.
+	 *
+	 * @return {@code true} if all matches are known.
+	 */
+	public boolean isCompleted()
+	{
+		return _completed;
+	}
+
+	/**
+	 * Returns the error that stopped the scan, if any.
+	 *
+	 * @return Exception that occurred while scanning.
+	 */
+	public IOException getException()
+	{
+		return _exception;
+	}
+
+	/**
+	 * Returns the number of matches found so far.
+	 *
+	 * @return Number of matches.
+	 */
+	public int getMatchCount()
+	{
+		return _matchCount.get();
+	}
+
+	/**
+	 * Returns the addresses of the matches found so far.
+	 *
+	 * @return Addresses of matches, in ascending order.
+	 */
+	public NavigableSet<Long> getMatches()
+	{
+		return Collections.unmodifiableNavigableSet( _matches );
+	}
+
+	/**
+	 * Returns the address of the first match at or after the given address.
+	 *
+	 * @param address Address to start searching at.
+	 *
+	 * @return Address of the match; {@code -1} if not found.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long findNext( final long address )
+	throws IOException
+	{
+		if ( _completed )
+		{
+			final Long result = _matches.ceiling( address );
+			return result == null ? -1L : result;
+		}
+
+		final long length = _dataModel.getLength();
+		final int batchSize = ForkJoinPool.commonPool().getParallelism();
+
+		long start = Math.max( 0L, address );
+		while ( start < length && !_cancelled )
+		{
+			final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for ( int i = 0; i < batchSize && start < length; i++ )
+			{
+				final long end = Math.min( length, start + (long)CHUNK_SIZE );
+				tasks.add( new FindTask( start, end, true ) );
+				start = end;
+			}
+
+			final long result = getFirstResult( tasks );
+			if ( result >= 0L )
+			{
+				return result;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the address of the last match before the given address.
+	 *
+	 * @param address Address to start searching at.
+	 *
+	 * @return Address of the match; {@code -1} if not found.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long findPrevious( final long address )
+	throws IOException
+	{
+		if ( _completed )
+		{
+			final Long result = _matches.lower( address );
+			return result == null ? -1L : result;
+		}
+
+		final int batchSize = ForkJoinPool.commonPool().getParallelism();
+
+		long end = Math.min( _dataModel.getLength(), address );
+		while ( end > 0L && !_cancelled )
+		{
+			final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for ( int i = 0; i < batchSize && end > 0L; i++ )
+			{
+				final long start = Math.max( 0L, end - (long)CHUNK_SIZE );
+				tasks.add( new FindTask( start, end, false ) );
+				end = start;
+			}
+
+			final long result = getFirstResult( tasks );
+			if ( result >= 0L )
+			{
+				return result;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Runs the given tasks in parallel and returns the first non-negative
+	 * result, in the order of the tasks.
+	 *
+	 * @param tasks Tasks to be run.
+	 *
+	 * @return First non-negative result; {@code -1} if there is none.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private static long getFirstResult( final List<Callable<Long>> tasks )
+	throws IOException
+	{
+		try
+		{
+			for ( final Future<Long> future : ForkJoinPool.commonPool().invokeAll( tasks ) )
+			{
+				final long result = future.get();
+				if ( result >= 0L )
+				{
+					return result;
+				}
+			}
+			return -1L;
+		}
+		catch ( InterruptedException e )
+		{
+			throw new InterruptedIOException();
+		}
+		catch ( ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+			{
+				throw (IOException)cause;
+			}
+			throw new RuntimeException( cause );
+		}
+	}
+
+	/**
+	 * Returns a buffer that is large enough to hold any chunk, which may be
+	 * used by the current thread until the next call to this method.
+	 *
+	 * @return Chunk buffer.
+	 */
+	private byte[] getChunkBuffer()
+	{
+		final int capacity = CHUNK_SIZE + _pattern.getLength() - 1;
+		byte[] result = CHUNK_BUFFER.get();
+		if ( result == null || result.length < capacity )
+		{
+			result = new byte[ capacity ];
+			CHUNK_BUFFER.set( result );
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a chunk, including any bytes after the chunk that may be part of a
+	 * match starting inside the chunk.
+	 *
+	 * @param start  Start of the chunk.
+	 * @param end    End of the chunk.
+	 * @param buffer Buffer to read the chunk into.
+	 *
+	 * @return Number of bytes read.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private int readChunk( final long start, final long end, final byte[] buffer )
+	throws IOException
+	{
+		return _dataModel.read( start, buffer, 0, (int)( end - start ) + _pattern.getLength() - 1 );
+	}
+
+	/**
+	 * Finds all matches in a range, splitting it into chunks that are scanned
+	 * in parallel.
+	 */
+	private class ScanTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long _start;
+
+		private final long _end;
+
+		private final SearchListener _listener;
+
+		private ScanTask( final long start, final long end, final SearchListener listener )
+		{
+			_start = start;
+			_end = end;
+			_listener = listener;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( _cancelled || _exception != null )
+			{
+				return;
+			}
+
+			final long chunks = ( _end - _start + (long)CHUNK_SIZE - 1L ) / (long)CHUNK_SIZE;
+			if ( chunks > 1L )
+			{
+				final long middle = _start + ( chunks / 2L ) * (long)CHUNK_SIZE;
+				invokeAll( new ScanTask( _start, middle, _listener ), new ScanTask( middle, _end, _listener ) );
+			}
+			else if ( chunks == 1L )
+			{
+				try
+				{
+					final byte[] data = getChunkBuffer();
+					final int length = readChunk( _start, _end, data );
+
+					final SearchPattern pattern = _pattern;
+					for ( int i = pattern.indexOf( data, 0, length ); i >= 0; i = pattern.indexOf( data, i + 1, length ) )
+					{
+						final long address = _start + (long)i;
+						_matches.add( address );
+						_matchCount.incrementAndGet();
+						_listener.matchFound( Search.this, address );
+					}
+				}
+				catch ( IOException e )
+				{
+					if ( _exception == null )
+					{
+						_exception = e;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the first or last match in a single chunk.
+	 */
+	private class FindTask
+	implements Callable<Long>
+	{
+		private final long _start;
+
+		private final long _end;
+
+		private final boolean _forward;
+
+		private FindTask( final long start, final long end, final boolean forward )
+		{
+			_start = start;
+			_end = end;
+			_forward = forward;
+		}
+
+		@Override
+		public Long call()
+		throws IOException
+		{
+			if ( _cancelled )
+			{
+				return -1L;
+			}
+
+			final byte[] data = getChunkBuffer();
+			final int length = readChunk( _start, _end, data );
+			final int index = _forward ? _pattern.indexOf( data, 0, length ) : _pattern.lastIndexOf( data, 0, length );
+			return index < 0 ? -1L : _start + (long)index;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+/**
+ * Receives the results of a {@link Search} while it's running. Methods are
+ * called from background threads, possibly concurrently.
+ *
+ * @author Gerrit Meinders
+ */
+public interface SearchListener
+{
+	/**
+	 * Called when a match is found. Matches are not reported in any
+	 * particular order.
+	 *
+	 * @param search  Search that found the match.
+	 * @param address Address of the match.
+	 */
+	void matchFound( Search search, long address );
+
+	/**
+	 * Called when the search is completed, cancelled or failed.
+	 *
+	 * @param search Search that was completed.
+	 */
+	void searchCompleted( Search search );
+}
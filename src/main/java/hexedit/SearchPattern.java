@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+/**
+ * Pattern of bytes that can be searched for in a byte array. Implementations
+ * must be safe for use by multiple threads.
+ *
+ * @author Gerrit Meinders
+ */
+public interface SearchPattern
+{
+	/**
+	 * Returns the number of bytes matched by the pattern.
+	 *
+	 * @return Length of the pattern.
+	 */
+	int getLength();
+
+	/**
+	 * Returns the index of the first match that lies completely within the
+	 * given range.
+	 *
+	 * @param data Data to search in.
+	 * @param from Start of the range (inclusive).
+	 * @param to   End of the range (exclusive).
+	 *
+	 * @return Index of the first match; {@code -1} if not found.
+	 */
+	int indexOf( byte[] data, int from, int to );
+
+	/**
+	 * Returns the index of the last match that lies completely within the
+	 * given range.
+	 *
+	 * @param data Data to search in.
+	 * @param from Start of the range (inclusive).
+	 * @param to   End of the range (exclusive).
+	 *
+	 * @return Index of the last match; {@code -1} if not found.
+	 */
+	int lastIndexOf( byte[] data, int from, int to );
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Saved structure of a file, i.e. the records and definitions that were
+ * created for it, stored in a sidecar file next to the data file.
+ *
+ * <p>The session file consists of a table of fixed-size entries, one for each
+ * record, followed by a table of labels. The records are stored breadth-first,
+ * so the records defined in the same parent are stored together. A loaded
+ * session file is validated and kept in memory as is, and the records defined
+ * in a record are only created when the definitions of that record are first
+ * needed, e.g. when the record is viewed. Records that were not created yet
+ * are not part of the {@link RecordIndex}. When a session is saved, records
+ * that were never created are copied from the loaded session.
+ *
+ * @author Gerrit Meinders
+ */
+public class Session
+{
+	/**
+	 * Extension added to the name of a file to get the name of its session.
+	 */
+	private static final String SIDECAR_EXTENSION = ".session";
+
+	/**
+	 * Identifies a session file.
+	 */
+	private static final int MAGIC = 0x4858534e; // "HXSN"
+
+	/**
+	 * Version of the session file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the header, in bytes.
+	 */
+	private static final int HEADER_SIZE = 20;
+
+	/**
+	 * Size of a record entry, in bytes.
+	 */
+	private static final int RECORD_SIZE = 48;
+
+	/**
+	 * Type of a record that is defined by a {@link RecordDefinition}.
+	 */
+	private static final byte RECORD = 0;
+
+	/**
+	 * Type of a record that is defined by a {@link PointerDefinition}.
+	 */
+	private static final byte POINTER = 1;
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	/**
+	 * Contents of the session file.
+	 */
+	private final ByteBuffer _buffer;
+
+	/**
+	 * Number of records defined in the root record.
+	 */
+	private final int _rootChildCount;
+
+	/**
+	 * Labels of definitions, decoded when first used.
+	 */
+	private final String[] _labels;
+
+	/**
+	 * Position of the label table.
+	 */
+	private final int _labelsPosition;
+
+	/**
+	 * Constructs a new instance for the given session file contents. The
+	 * contents are validated entirely, so records can be created from them
+	 * later without any further checks.
+	 *
+	 * @param buffer Contents of a session file.
+	 *
+	 * @throws IOException if the contents are not a valid session.
+	 */
+	private Session( final ByteBuffer buffer )
+	throws IOException
+	{
+		final int size = buffer.limit();
+		if ( size < HEADER_SIZE || buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION )
+		{
+			throw new IOException( "Not a session file." );
+		}
+
+		final int recordCount = buffer.getInt( 8 );
+		final int rootChildCount = buffer.getInt( 12 );
+		final int labelCount = buffer.getInt( 16 );
+		if ( recordCount < 0 || rootChildCount < 0 || rootChildCount > recordCount || labelCount < 0 )
+		{
+			throw new IOException( "Invalid session file header." );
+		}
+
+		final long labelsPosition = (long)HEADER_SIZE + (long)recordCount * (long)RECORD_SIZE;
+		final long labelDataPosition = labelsPosition + ( (long)labelCount + 1L ) * 4L;
+		if ( labelDataPosition > (long)size )
+		{
+			throw new IOException( "Session file is truncated." );
+		}
+
+		int labelOffset = 0;
+		for ( int i = 0; i <= labelCount; i++ )
+		{
+			final int offset = buffer.getInt( (int)labelsPosition + i * 4 );
+			if ( offset < labelOffset )
+			{
+				throw new IOException( "Invalid label " + i + " in session file." );
+			}
+			labelOffset = offset;
+		}
+		if ( labelOffset > size - (int)labelDataPosition )
+		{
+			throw new IOException( "Session file is truncated." );
+		}
+
+		/*
+		 * Because the records are stored breadth-first, the children of each
+		 * record must directly follow the children of the record before it,
+		 * and come after the record itself. This also rules out cycles.
+		 */
+		int nextChild = rootChildCount;
+		for ( int i = 0; i < recordCount; i++ )
+		{
+			final int position = HEADER_SIZE + i * RECORD_SIZE;
+			final long start = buffer.getLong( position );
+			final long length = buffer.getLong( position + 8 );
+			final long count = buffer.getLong( position + 16 );
+			final int firstChild = buffer.getInt( position + 32 );
+			final int childCount = buffer.getInt( position + 36 );
+			final int label = buffer.getInt( position + 40 );
+			final byte type = buffer.get( position + 44 );
+			final byte pointerLength = buffer.get( position + 45 );
+
+			if ( length <= 0L || count <= 0L || count > Long.MAX_VALUE / length || start > Long.MAX_VALUE - count * length ||
+			     firstChild != nextChild || childCount < 0 || childCount > recordCount - firstChild || ( childCount > 0 && firstChild <= i ) ||
+			     label < 0 || label >= labelCount ||
+			     ( type != RECORD && ( type != POINTER || pointerLength < 1 || pointerLength > 8 ) ) )
+			{
+				throw new IOException( "Invalid record " + i + " in session file." );
+			}
+			nextChild += childCount;
+		}
+		if ( nextChild != recordCount )
+		{
+			throw new IOException( "Invalid session file: not all records are reachable." );
+		}
+
+		_buffer = buffer;
+		_rootChildCount = rootChildCount;
+		_labels = new String[ labelCount ];
+		_labelsPosition = (int)labelsPosition;
+	}
+
+	/**
+	 * Returns the session file for the given data model.
+	 *
+	 * @param dataModel Data model.
+	 *
+	 * @return Session file; {@code null} if the data model isn't backed by a
+	 * file.
+	 */
+	public static Path getFile( final DataModel dataModel )
+	{
+		final Path file = BlockHashTree.getFile( dataModel );
+		return ( file == null ) ? null : file.resolveSibling( file.getFileName() + SIDECAR_EXTENSION );
+	}
+
+	/**
+	 * Loads the given session file into the given root record. The file is
+	 * read and validated, but the records are created when they are first
+	 * needed.
+	 *
+	 * @param root Root record, without any definitions.
+	 * @param file Session file.
+	 *
+	 * @throws IOException if an I/O error occurs or the file is not a valid
+	 * session file.
+	 */
+	public static void load( final Record root, final Path file )
+	throws IOException
+	{
+		if ( Files.size( file ) > (long)Integer.MAX_VALUE )
+		{
+			throw new IOException( "Session file is too large." );
+		}
+		final Session session = new Session( ByteBuffer.wrap( Files.readAllBytes( file ) ) );
+		root.setSession( session, -1 );
+	}
+
+	/**
+	 * Saves the records defined in the given root record, and the records
+	 * defined in those records, etc., to the given session file. Records of
+	 * types other than {@link ArrayRecord} are not saved. Records that were
+	 * loaded from a session, but not created yet, are copied from that session
+	 * without creating them. If the file already contains the same structure,
+	 * it is left untouched.
+	 *
+	 * @param root Root record.
+	 * @param file Session file.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void save( final Record root, final Path file )
+	throws IOException
+	{
+		/*
+		 * Records are stored breadth-first: the children of each record are
+		 * appended as the record is visited, so they follow the children of
+		 * all records before it.
+		 */
+		final List<Entry> entries = new ArrayList<Entry>();
+		final int rootChildCount = addChildren( root, root.getSession(), root.getSessionIndex(), entries );
+		for ( int i = 0; i < entries.size(); i++ )
+		{
+			final Entry entry = entries.get( i );
+			entry._childCount = addChildren( entry._record, entry._session, entry._index, entries );
+		}
+
+		final Map<String, Integer> labelIndices = new HashMap<String, Integer>();
+		final List<String> labels = new ArrayList<String>();
+		final int[] entryLabels = new int[ entries.size() ];
+		for ( int i = 0; i < entryLabels.length; i++ )
+		{
+			final String label = entries.get( i ).getLabel();
+			Integer labelIndex = labelIndices.get( label );
+			if ( labelIndex == null )
+			{
+				labelIndex = labels.size();
+				labelIndices.put( label, labelIndex );
+				labels.add( label );
+			}
+			entryLabels[ i ] = labelIndex;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( HEADER_SIZE + entries.size() * RECORD_SIZE );
+		final DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( entries.size() );
+		out.writeInt( rootChildCount );
+		out.writeInt( labels.size() );
+
+		int firstChild = rootChildCount;
+		for ( int i = 0; i < entries.size(); i++ )
+		{
+			final Entry entry = entries.get( i );
+			final ArrayRecord record = entry._record;
+			if ( record == null )
+			{
+				final ByteBuffer buffer = entry._session._buffer;
+				final int position = HEADER_SIZE + entry._index * RECORD_SIZE;
+				out.writeLong( buffer.getLong( position ) );
+				out.writeLong( buffer.getLong( position + 8 ) );
+				out.writeLong( buffer.getLong( position + 16 ) );
+				out.writeLong( buffer.getLong( position + 24 ) );
+				out.writeInt( firstChild );
+				out.writeInt( entry._childCount );
+				out.writeInt( entryLabels[ i ] );
+				out.writeByte( buffer.get( position + 44 ) );
+				out.writeByte( buffer.get( position + 45 ) );
+				out.writeShort( 0 );
+			}
+			else
+			{
+				final Definition definition = entry._definition;
+				final boolean pointer = ( definition instanceof PointerDefinition );
+				out.writeLong( record.getExtentStart() );
+				out.writeLong( record.getLength() );
+				out.writeLong( record.getCount() );
+				out.writeLong( pointer ? definition.getAddress() : 0L );
+				out.writeInt( firstChild );
+				out.writeInt( entry._childCount );
+				out.writeInt( entryLabels[ i ] );
+				out.writeByte( pointer ? POINTER : RECORD );
+				out.writeByte( pointer ? definition.getLength() : 0 );
+				out.writeShort( 0 );
+			}
+			firstChild += entry._childCount;
+		}
+
+		final List<byte[]> encodedLabels = new ArrayList<byte[]>( labels.size() );
+		int offset = 0;
+		for ( final String label : labels )
+		{
+			final byte[] encoded = label.getBytes( UTF8 );
+			encodedLabels.add( encoded );
+			out.writeInt( offset );
+			offset += encoded.length;
+		}
+		out.writeInt( offset );
+		for ( final byte[] encoded : encodedLabels )
+		{
+			out.write( encoded );
+		}
+		out.close();
+
+		final byte[] contents = bytes.toByteArray();
+		if ( Files.isRegularFile( file ) && Files.size( file ) == (long)contents.length && Arrays.equals( Files.readAllBytes( file ), contents ) )
+		{
+			return;
+		}
+
+		final Path temporary = file.resolveSibling( file.getFileName() + ".tmp" );
+		boolean success = false;
+		try
+		{
+			Files.write( temporary, contents );
+			Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING );
+			success = true;
+		}
+		finally
+		{
+			if ( !success )
+			{
+				try
+				{
+					Files.deleteIfExists( temporary );
+				}
+				catch ( IOException ignored )
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds entries for the records defined in the given record to the given
+	 * list. If the records were not created yet, they are taken from the
+	 * given session instead.
+	 *
+	 * @param parent  Record to add the records of; {@code null} if the record
+	 *                was not created.
+	 * @param session Session that the records are stored in, if they were not
+	 *                created yet; {@code null} otherwise.
+	 * @param index   Index of the parent record in the session.
+	 * @param entries Entries to add to.
+	 *
+	 * @return Number of entries added.
+	 */
+	private static int addChildren( final Record parent, final Session session, final int index, final List<Entry> entries )
+	{
+		final int first = entries.size();
+		if ( session != null )
+		{
+			final int firstChild = session.getFirstChild( index );
+			final int childCount = session.getChildCount( index );
+			for ( int child = firstChild; child < firstChild + childCount; child++ )
+			{
+				entries.add( new Entry( null, null, session, child ) );
+			}
+		}
+		else
+		{
+			final Iterator<Definition> iterator = parent.getDefinitions().iterator( Long.MIN_VALUE, Long.MAX_VALUE );
+			while ( iterator.hasNext() )
+			{
+				final Definition definition = iterator.next();
+				final Record record;
+				if ( definition instanceof RecordDefinition )
+				{
+					record = ( (RecordDefinition)definition ).getRecord();
+				}
+				else if ( definition instanceof PointerDefinition )
+				{
+					record = ( (PointerDefinition)definition ).getRecord();
+				}
+				else
+				{
+					record = null;
+				}
+
+				if ( record instanceof ArrayRecord && record.getParent() == parent )
+				{
+					entries.add( new Entry( (ArrayRecord)record, definition, record.getSession(), record.getSessionIndex() ) );
+				}
+			}
+		}
+		return entries.size() - first;
+	}
+
+	/**
+	 * Returns the index of the first record defined in the given record.
+	 *
+	 * @param index Index of the record; {@code -1} for the root record.
+	 *
+	 * @return Index of the first child record.
+	 */
+	private int getFirstChild( final int index )
+	{
+		return ( index < 0 ) ? 0 : _buffer.getInt( HEADER_SIZE + index * RECORD_SIZE + 32 );
+	}
+
+	/**
+	 * Returns the number of records defined in the given record.
+	 *
+	 * @param index Index of the record; {@code -1} for the root record.
+	 *
+	 * @return Number of child records.
+	 */
+	private int getChildCount( final int index )
+	{
+		return ( index < 0 ) ? _rootChildCount : _buffer.getInt( HEADER_SIZE + index * RECORD_SIZE + 36 );
+	}
+
+	/**
+	 * Creates the records defined in the given record, which was loaded from
+	 * this session.
+	 *
+	 * @param parent Record to create the records of.
+	 * @param index  Index of the record in the session; {@code -1} for the
+	 *               root record.
+	 */
+	void loadChildren( final Record parent, final int index )
+	{
+		final ByteBuffer buffer = _buffer;
+		final int firstChild = getFirstChild( index );
+		final int childCount = getChildCount( index );
+
+		final List<Definition> definitions = new ArrayList<Definition>( childCount );
+		for ( int child = firstChild; child < firstChild + childCount; child++ )
+		{
+			final int position = HEADER_SIZE + child * RECORD_SIZE;
+			final ArrayRecord record = new ArrayRecord( buffer.getLong( position ), buffer.getLong( position + 8 ), buffer.getLong( position + 16 ) );
+			record.setParent( parent );
+
+			final String label = getLabel( buffer.getInt( position + 40 ) );
+			final Definition definition;
+			if ( buffer.get( position + 44 ) == POINTER )
+			{
+				definition = new PointerDefinition( label, buffer.getLong( position + 24 ), buffer.get( position + 45 ), record );
+			}
+			else
+			{
+				definition = new RecordDefinition( label, record );
+			}
+			record.setRecordDefinition( definition );
+			definitions.add( definition );
+
+			if ( buffer.getInt( position + 36 ) > 0 )
+			{
+				record.setSession( this, child );
+			}
+		}
+		parent.addDefinitions( definitions );
+	}
+
+	/**
+	 * Returns the label with the given index.
+	 */
+	private String getLabel( final int index )
+	{
+		String result = _labels[ index ];
+		if ( result == null )
+		{
+			final ByteBuffer buffer = _buffer;
+			final int offset = buffer.getInt( _labelsPosition + index * 4 );
+			final int end = buffer.getInt( _labelsPosition + ( index + 1 ) * 4 );
+			final byte[] encoded = new byte[ end - offset ];
+			final ByteBuffer data = buffer.duplicate();
+			data.position( _labelsPosition + ( _labels.length + 1 ) * 4 + offset );
+			data.get( encoded );
+			result = new String( encoded, UTF8 );
+			_labels[ index ] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Record to be saved.
+	 */
+	private static class Entry
+	{
+		/**
+		 * Record; {@code null} if the record was not created yet.
+		 */
+		private final ArrayRecord _record;
+
+		/**
+		 * Definition of the record; {@code null} if the record was not
+		 * created yet.
+		 */
+		private final Definition _definition;
+
+		/**
+		 * Session that the records defined in this record are stored in;
+		 * {@code null} if they were created.
+		 */
+		private final Session _session;
+
+		/**
+		 * Index of the record in {@link #_session}.
+		 */
+		private final int _index;
+
+		/**
+		 * Number of records defined in this record.
+		 */
+		private int _childCount = 0;
+
+		private Entry( final ArrayRecord record, final Definition definition, final Session session, final int index )
+		{
+			_record = record;
+			_definition = definition;
+			_session = session;
+			_index = index;
+		}
+
+		/**
+		 * Returns the label of the definition of the record.
+		 *
+		 * @return Label.
+		 */
+		private String getLabel()
+		{
+			return ( _record == null ) ? _session.getLabel( _session._buffer.getInt( HEADER_SIZE + _index * RECORD_SIZE + 40 ) ) : String.valueOf( _definition.getLabel() );
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+/**
+ * Sequence of bytes that identifies a particular kind of data, such as the
+ * magic number at the start of a file format.
+ *
+ * @author Gerrit Meinders
+ */
+public class Signature
+{
+	/**
+	 * Signatures of some common file formats. Each signature is at least four
+	 * bytes long, so random data matches any of them less than once every
+	 * 400 MB. Where a format only has a shorter magic number, signatures are
+	 * included for the most common values of the bytes that follow it.
+	 */
+	public static final List<Signature> FILE_FORMATS = Collections.unmodifiableList( createFileFormats() );
+
+	private final String _name;
+
+	private final byte[] _bytes;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param name  Name of the signature.
+	 * @param bytes Bytes that make up the signature.
+	 */
+	public Signature( final String name, final byte[] bytes )
+	{
+		if ( bytes.length == 0 )
+		{
+			throw new IllegalArgumentException( "Signature must not be empty." );
+		}
+
+		_name = name;
+		_bytes = bytes.clone();
+	}
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param name Name of the signature.
+	 * @param hex  Bytes that make up the signature, as hexadecimal digits.
+	 */
+	public Signature( final String name, final String hex )
+	{
+		this( name, Tools.hexStringToBytes( hex ) );
+	}
+
+	/**
+	 * Creates the signatures of some common file formats.
+	 *
+	 * @return File format signatures.
+	 */
+	private static List<Signature> createFileFormats()
+	{
+		final List<Signature> result = new ArrayList<Signature>();
+		result.add( new Signature( "png", "89 50 4e 47 0d 0a 1a 0a" ) );
+		result.add( new Signature( "zip", "50 4b 03 04" ) );
+		result.add( new Signature( "elf", "7f 45 4c 46" ) );
+		result.add( new Signature( "pdf", "25 50 44 46 2d" ) );
+		// Deflate method, without flags or with a file name.
+		result.add( new Signature( "gzip", "1f 8b 08 00" ) );
+		result.add( new Signature( "gzip", "1f 8b 08 08" ) );
+		// Start of image, followed by a JFIF, Exif, ICC, quantization table or Adobe segment.
+		result.add( new Signature( "jpeg", "ff d8 ff e0" ) );
+		result.add( new Signature( "jpeg", "ff d8 ff e1" ) );
+		result.add( new Signature( "jpeg", "ff d8 ff e2" ) );
+		result.add( new Signature( "jpeg", "ff d8 ff db" ) );
+		result.add( new Signature( "jpeg", "ff d8 ff ee" ) );
+		result.add( new Signature( "gif", "47 49 46 38 37 61" ) );
+		result.add( new Signature( "gif", "47 49 46 38 39 61" ) );
+		result.add( new Signature( "7z", "37 7a bc af 27 1c" ) );
+		result.add( new Signature( "xz", "fd 37 7a 58 5a 00" ) );
+		// Block size '1' to '9', followed by the magic number of the first block.
+		for ( int blockSize = 1; blockSize <= 9; blockSize++ )
+		{
+			result.add( new Signature( "bzip2", "42 5a 68 3" + blockSize + " 31 41 59 26 53 59" ) );
+		}
+		result.add( new Signature( "sqlite", "53 51 4c 69 74 65 20 66 6f 72 6d 61 74 20 33 00" ) );
+		return result;
+	}
+
+	public String getName()
+	{
+		return _name;
+	}
+
+	public int getLength()
+	{
+		return _bytes.length;
+	}
+
+	/**
+	 * Returns the byte at the given index in the signature.
+	 *
+	 * @param index Index of the byte.
+	 *
+	 * @return Byte value.
+	 */
+	public byte getByte( final int index )
+	{
+		return _bytes[ index ];
+	}
+
+	@Override
+	public String toString()
+	{
+		return _name + " (" + Tools.bytesToHexString( _bytes, 0, _bytes.length ) + ")";
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+/**
+ * Receives signatures found by a {@link SignatureScanner}. Methods are called
+ * from background threads, possibly concurrently.
+ *
+ * @author Gerrit Meinders
+ */
+public interface SignatureListener
+{
+	/**
+	 * Called when a signature is found.
+	 *
+	 * @param signature Signature that was found.
+	 * @param address   Address of the first byte of the signature.
+	 */
+	void signatureFound( Signature signature, long address );
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds all occurrences of any number of {@link Signature}s in a single pass,
+ * using an Aho-Corasick automaton.
+ *
+ * <p>The automaton is compiled into a deterministic transition table, so each
+ * byte of input costs a single table look-up, regardless of the number of
+ * signatures. Chunks of the data are scanned in parallel; each chunk is
+ * preceded by enough bytes of the previous chunk to find signatures that cross
+ * the chunk boundary.
+ *
+ * @author Gerrit Meinders
+ */
+public class SignatureScanner
+{
+	/**
+	 * Size of the chunks that are scanned in parallel.
+	 */
+	static final int CHUNK_SIZE = 0x400000; // 4M
+
+	/**
+	 * Chunk buffers, reused by each worker thread.
+	 */
+	private static final ThreadLocal<byte[]> CHUNK_BUFFER = new ThreadLocal<byte[]>();
+
+	/**
+	 * Signatures to be found.
+	 */
+	private final Signature[] _signatures;
+
+	/**
+	 * Transition table. Each state is represented by its index multiplied by
+	 * 256, so the next state is {@code _transitions[ state + b ]}.
+	 */
+	private final int[] _transitions;
+
+	/**
+	 * Indices of the signatures that end in each state; {@code null} for
+	 * states where no signature ends.
+	 */
+	private final int[][] _outputs;
+
+	/**
+	 * Length of the longest signature.
+	 */
+	private final int _maximumLength;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param signatures Signatures to be found.
+	 */
+	public SignatureScanner( final Collection<Signature> signatures )
+	{
+		if ( signatures.isEmpty() )
+		{
+			throw new IllegalArgumentException( "At least one signature is needed." );
+		}
+
+		_signatures = signatures.toArray( new Signature[ signatures.size() ] );
+
+		/*
+		 * Build a trie of all signatures.
+		 */
+		final List<int[]> trie = new ArrayList<int[]>();
+		final List<int[]> outputs = new ArrayList<int[]>();
+		trie.add( newState() );
+		outputs.add( null );
+
+		int maximumLength = 0;
+		for ( int i = 0; i < _signatures.length; i++ )
+		{
+			final Signature signature = _signatures[ i ];
+			maximumLength = Math.max( maximumLength, signature.getLength() );
+
+			int state = 0;
+			for ( int j = 0; j < signature.getLength(); j++ )
+			{
+				final int b = signature.getByte( j ) & 0xff;
+				int next = trie.get( state )[ b ];
+				if ( next == -1 )
+				{
+					next = trie.size();
+					trie.get( state )[ b ] = next;
+					trie.add( newState() );
+					outputs.add( null );
+				}
+				state = next;
+			}
+			outputs.set( state, append( outputs.get( state ), i ) );
+		}
+		_maximumLength = maximumLength;
+
+		/*
+		 * Add failure transitions in breadth-first order, turning the trie
+		 * into a deterministic automaton.
+		 */
+		final int stateCount = trie.size();
+		final int[] failure = new int[ stateCount ];
+		final Deque<Integer> queue = new ArrayDeque<Integer>();
+
+		final int[] root = trie.get( 0 );
+		for ( int b = 0; b < 256; b++ )
+		{
+			if ( root[ b ] == -1 )
+			{
+				root[ b ] = 0;
+			}
+			else
+			{
+				failure[ root[ b ] ] = 0;
+				queue.add( root[ b ] );
+			}
+		}
+
+		while ( !queue.isEmpty() )
+		{
+			final int state = queue.remove();
+			final int[] transitions = trie.get( state );
+			final int[] failureTransitions = trie.get( failure[ state ] );
+
+			final int[] failureOutputs = outputs.get( failure[ state ] );
+			if ( failureOutputs != null )
+			{
+				int[] stateOutputs = outputs.get( state );
+				for ( final int output : failureOutputs )
+				{
+					stateOutputs = append( stateOutputs, output );
+				}
+				outputs.set( state, stateOutputs );
+			}
+
+			for ( int b = 0; b < 256; b++ )
+			{
+				final int next = transitions[ b ];
+				if ( next == -1 )
+				{
+					transitions[ b ] = failureTransitions[ b ];
+				}
+				else
+				{
+					failure[ next ] = failureTransitions[ b ];
+					queue.add( next );
+				}
+			}
+		}
+
+		_transitions = new int[ stateCount * 256 ];
+		for ( int state = 0; state < stateCount; state++ )
+		{
+			final int[] transitions = trie.get( state );
+			for ( int b = 0; b < 256; b++ )
+			{
+				_transitions[ state * 256 + b ] = transitions[ b ] * 256;
+			}
+		}
+
+		_outputs = outputs.toArray( new int[ stateCount ][] );
+	}
+
+	private static int[] newState()
+	{
+		final int[] result = new int[ 256 ];
+		Arrays.fill( result, -1 );
+		return result;
+	}
+
+	private static int[] append( final int[] array, final int value )
+	{
+		final int[] result;
+		if ( array == null )
+		{
+			result = new int[] { value };
+		}
+		else
+		{
+			result = Arrays.copyOf( array, array.length + 1 );
+			result[ array.length ] = value;
+		}
+		return result;
+	}
+
+	/**
+	 * Scans the entire data model for signatures. Signatures are reported as
+	 * soon as they are found, in no particular order. This method returns
+	 * when the scan is complete.
+	 *
+	 * @param dataModel Data model to be scanned.
+	 * @param listener  Listener to be notified of found signatures.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void scan( final DataModel dataModel, final SignatureListener listener )
+	throws IOException
+	{
+		final long length = dataModel.getLength();
+		final ScanTask task = new ScanTask( dataModel, 0L, length, listener );
+		ForkJoinPool.commonPool().invoke( task );
+		if ( task._exception != null )
+		{
+			throw task._exception;
+		}
+	}
+
+	/**
+	 * Scans the given bytes for signatures.
+	 *
+	 * @param data       Data to be scanned.
+	 * @param length     Number of bytes to scan.
+	 * @param address    Address of the first byte.
+	 * @param reportFrom Only report signatures that end at or after this index.
+	 * @param listener   Listener to be notified of found signatures.
+	 */
+	private void scanChunk( final byte[] data, final int length, final long address, final int reportFrom, final SignatureListener listener )
+	{
+		final int[] transitions = _transitions;
+		final int[][] outputs = _outputs;
+
+		int state = 0;
+		for ( int i = 0; i < length; i++ )
+		{
+			state = transitions[ state + ( data[ i ] & 0xff ) ];
+
+			final int[] output = outputs[ state >> 8 ];
+			if ( output != null && i >= reportFrom )
+			{
+				for ( final int index : output )
+				{
+					final Signature signature = _signatures[ index ];
+					listener.signatureFound( signature, address + (long)( i - signature.getLength() + 1 ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a buffer that is large enough to hold any chunk, including the
+	 * bytes before it that may be part of a signature ending inside the chunk.
+	 * The buffer may be used by the current thread until the next call to
+	 * this method.
+	 *
+	 * @return Chunk buffer.
+	 */
+	private byte[] getChunkBuffer()
+	{
+		final int capacity = CHUNK_SIZE + _maximumLength - 1;
+		byte[] result = CHUNK_BUFFER.get();
+		if ( result == null || result.length < capacity )
+		{
+			result = new byte[ capacity ];
+			CHUNK_BUFFER.set( result );
+		}
+		return result;
+	}
+
+	/**
+	 * Scans a range, splitting it into chunks that are scanned in parallel.
+	 */
+	private class ScanTask
+	extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DataModel _dataModel;
+
+		private final long _start;
+
+		private final long _end;
+
+		private final SignatureListener _listener;
+
+		/**
+		 * Error that occurred while scanning the range, if any.
+		 */
+		private volatile IOException _exception;
+
+		private ScanTask( final DataModel dataModel, final long start, final long end, final SignatureListener listener )
+		{
+			_dataModel = dataModel;
+			_start = start;
+			_end = end;
+			_listener = listener;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				scanRange();
+			}
+			catch ( IOException e )
+			{
+				_exception = e;
+			}
+		}
+
+		private void scanRange()
+		throws IOException
+		{
+			final long chunks = ( _end - _start + (long)CHUNK_SIZE - 1L ) / (long)CHUNK_SIZE;
+			if ( chunks > 1L )
+			{
+				final long middle = _start + ( chunks / 2L ) * (long)CHUNK_SIZE;
+				final ScanTask first = new ScanTask( _dataModel, _start, middle, _listener );
+				final ScanTask second = new ScanTask( _dataModel, middle, _end, _listener );
+				invokeAll( first, second );
+				if ( first._exception != null )
+				{
+					throw first._exception;
+				}
+				if ( second._exception != null )
+				{
+					throw second._exception;
+				}
+			}
+			else if ( chunks == 1L )
+			{
+				final int overlap = (int)Math.min( _start, (long)( _maximumLength - 1 ) );
+				final byte[] data = getChunkBuffer();
+				final int length = _dataModel.read( _start - (long)overlap, data, 0, overlap + (int)( _end - _start ) );
+				scanChunk( data, length, _start - (long)overlap, overlap, _listener );
+			}
+		}
+	}
+}
@@ -51,28 +51,35 @@ public class Tile
 
 	public void setAddress( final long address )
 	{
-		_address = address;
-		init();
-	}
-
-	private void init()
-	{
-		final long address = getAddress();
-
-		final ViewModel viewModel = _viewModel;
-		final long offset = address - viewModel.getFirstRowAddress();
-		final int columns = viewModel.getColumns();
-		_column = (int)( offset % (long)columns );
-		_row = (int)( offset / (long)columns );
-
+		final int value;
 		try
 		{
-			_value = (int)_dataModel.getByte( address );
+			value = (int)_dataModel.getByte( address );
 		}
 		catch ( IOException e )
 		{
 			throw new RuntimeException( e );
 		}
+		setAddress( address, value );
+	}
+
+	/**
+	 * Sets the address of the tile, using a value that was already read from
+	 * the data model.
+	 *
+	 * @param address Address of the tile.
+	 * @param value   Value of the byte at the given address.
+	 */
+	public void setAddress( final long address, final int value )
+	{
+		_address = address;
+		_value = value;
+
+		final ViewModel viewModel = _viewModel;
+		final long offset = address - viewModel.getFirstRowAddress();
+		final int columns = viewModel.getColumns();
+		_column = (int)Math.floorMod( offset, (long)columns );
+		_row = (int)Math.floorDiv( offset, (long)columns );
 	}
 
 	public int getColumn()
@@ -106,11 +113,25 @@ public class Tile
 	}
 
 	public Rectangle2D.Float getBounds()
+	{
+		return getBounds( new Rectangle2D.Float() );
+	}
+
+	/**
+	 * Stores the bounds of the tile in the given rectangle, to avoid creating
+	 * a new rectangle for every tile that is painted.
+	 *
+	 * @param bounds Rectangle to store the bounds in.
+	 *
+	 * @return The given rectangle.
+	 */
+	public Rectangle2D.Float getBounds( final Rectangle2D.Float bounds )
 	{
 		final float size = _viewModel.getTileSize();
 		final float padding = _viewModel.getTilePadding();
 		final float spacing = size + padding;
-		return new Rectangle2D.Float( spacing * (float)getColumn(), spacing * (float)getRow(), size, size );
+		bounds.setRect( spacing * (float)getColumn(), spacing * (float)getRow(), size, size );
+		return bounds;
 	}
 
 	public boolean isSelected()
@@ -27,11 +27,81 @@ public class Tools
 {
 	private static final char[] _hexDigits = "0123456789abcdef".toCharArray();
 
+	/**
+	 * Hexadecimal representations of all byte values, to avoid creating a new
+	 * string for every byte that is painted.
+	 */
+	private static final String[] _byteHexStrings = new String[ 256 ];
+
+	static
+	{
+		for ( int b = 0; b < _byteHexStrings.length; b++ )
+		{
+			_byteHexStrings[ b ] = new String( new char[] {
+			_hexDigits[ ( b >> 4 ) & 0xf ], _hexDigits[ b & 0xf ]
+			} );
+		}
+	}
+
 	public static String byteToHexString( final int b )
 	{
-		return new String( new char[] {
-		_hexDigits[ ( b >> 4 ) & 0xf ], _hexDigits[ b & 0xf ]
-		} );
+		return _byteHexStrings[ b & 0xff ];
+	}
+
+	/**
+	 * Returns the given bytes as hexadecimal digits, separated by spaces.
+	 *
+	 * @param bytes  Bytes to be converted.
+	 * @param offset Index of the first byte.
+	 * @param length Number of bytes.
+	 *
+	 * @return Hexadecimal string.
+	 */
+	public static String bytesToHexString( final byte[] bytes, final int offset, final int length )
+	{
+		final StringBuilder result = new StringBuilder( length * 3 );
+		for ( int i = offset; i < offset + length; i++ )
+		{
+			if ( i > offset )
+			{
+				result.append( ' ' );
+			}
+			result.append( _hexDigits[ ( bytes[ i ] >> 4 ) & 0xf ] );
+			result.append( _hexDigits[ bytes[ i ] & 0xf ] );
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Parses a string of hexadecimal digits, e.g. {@code "4d 5a 90"}.
+	 * Whitespace is ignored.
+	 *
+	 * @param hex Hexadecimal string.
+	 *
+	 * @return Bytes represented by the string.
+	 *
+	 * @throws IllegalArgumentException if the string is not valid.
+	 */
+	public static byte[] hexStringToBytes( final String hex )
+	{
+		final String digits = hex.replaceAll( "\\s+", "" );
+		if ( digits.length() % 2 != 0 )
+		{
+			throw new IllegalArgumentException( "Expected an even number of hexadecimal digits: " + hex );
+		}
+
+		final byte[] result = new byte[ digits.length() / 2 ];
+		for ( int i = 0; i < result.length; i++ )
+		{
+			final int high = Character.digit( digits.charAt( 2 * i ), 16 );
+			final int low = Character.digit( digits.charAt( 2 * i + 1 ), 16 );
+			if ( high < 0 || low < 0 )
+			{
+				throw new IllegalArgumentException( "Invalid hexadecimal digit: " + hex );
+			}
+			result[ i ] = (byte)( ( high << 4 ) | low );
+		}
+		return result;
 	}
 
 	public static Rectangle2D.Float transform( AffineTransform transform, Rectangle2D.Float rectangle )
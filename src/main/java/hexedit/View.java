@@ -19,8 +19,11 @@ package hexedit;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
+import java.awt.image.*;
+import java.beans.*;
 import java.io.*;
 import java.util.*;
+import java.util.List;
 import javax.swing.*;
 import javax.swing.Timer;
 
@@ -33,6 +36,11 @@ import javax.swing.Timer;
 public class View
 extends JPanel
 {
+	/**
+	 * Maximum number of glyph atlases that are kept for reuse.
+	 */
+	private static final int MAXIMUM_GLYPH_ATLASES = 8;
+
 	/**
 	 * Model backing the view.
 	 */
@@ -44,14 +52,125 @@ extends JPanel
 	private Menu _menu;
 
 	/**
-	 * Triggers an update of the view when its model changes.
+	 * Fonts, font metrics and colors used for painting. Recreated only when
+	 * the scale of the view changes.
+	 */
+	private Resources _resources;
+
+	/**
+	 * Recently used glyph atlases, by cell size. The cell size is the scale
+	 * rounded to whole pixels per tile, so zooming in and out reuses atlases
+	 * instead of rendering them again.
+	 */
+	private final Map<Integer, GlyphAtlas> _glyphAtlases = new LinkedHashMap<Integer, GlyphAtlas>( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry<Integer, GlyphAtlas> eldest )
+		{
+			return size() > MAXIMUM_GLYPH_ATLASES;
+		}
+	};
+
+	/**
+	 * Bounds of the tile being painted. Reused for every tile.
+	 */
+	private final Rectangle2D.Float _tileBounds = new Rectangle2D.Float();
+
+	/**
+	 * Looks up the definitions of the tiles being painted, which are painted
+	 * in order of address.
+	 */
+	private final DefinitionMap.Cursor _definitionCursor = new DefinitionMap.Cursor();
+
+	/**
+	 * Rendered contents of the view, except for the button bar. When the view
+	 * is moved, the existing pixels are shifted and only the exposed parts
+	 * are painted.
+	 */
+	private BufferedImage _backBuffer;
+
+	/**
+	 * Device scale (e.g. for high-resolution displays) of the back buffer.
+	 */
+	private double _backBufferDeviceScale;
+
+	/**
+	 * Vertical scale of the view transform when the back buffer was painted.
+	 * The horizontal scale follows from it.
+	 */
+	private double _backBufferScale;
+
+	/**
+	 * Horizontal translation of the view when the back buffer was painted.
+	 */
+	private double _backBufferTranslateX;
+
+	/**
+	 * Vertical translation of the view when the back buffer was painted.
+	 */
+	private double _backBufferTranslateY;
+
+	/**
+	 * Index of the first row when the back buffer was painted.
+	 */
+	private long _backBufferFirstRow;
+
+	/**
+	 * Part of the view, in component coordinates, that changed since the
+	 * back buffer was painted; {@code null} if nothing changed.
+	 */
+	private Rectangle _invalidRegion;
+
+	/**
+	 * Paints the view when it's zoomed out too far to show text.
+	 */
+	private OverviewPainter _overviewPainter;
+
+	/**
+	 * Repaints the view while the overview is still being built.
+	 */
+	private final Timer _overviewTimer;
+
+	/**
+	 * Triggers an update of the view when its model changes. Selection
+	 * changes only repaint the affected rows. Swing's repaint manager merges
+	 * all requests made during one event-dispatch cycle into a single paint.
 	 */
 	private Observer _viewModelObserver = new Observer()
 	{
 		@Override
 		public void update( final Observable o, final Object arg )
 		{
-			repaint();
+			final ViewModelEvent.Type type = ( arg instanceof ViewModelEvent ) ? ( (ViewModelEvent)arg ).getType() : null;
+			if ( type == ViewModelEvent.Type.SELECTION )
+			{
+				repaintSelection( (ViewModelEvent)arg );
+			}
+			else if ( type == ViewModelEvent.Type.TRANSFORM )
+			{
+				repaintMoved();
+			}
+			else
+			{
+				repaint();
+			}
+		}
+	};
+
+	/**
+	 * Repaints the button bar when a menu action is enabled or disabled.
+	 */
+	private PropertyChangeListener _menuActionListener = new PropertyChangeListener()
+	{
+		@Override
+		public void propertyChange( final PropertyChangeEvent e )
+		{
+			if ( "enabled".equals( e.getPropertyName() ) )
+			{
+				repaintButtonBar();
+			}
 		}
 	};
 
@@ -64,6 +183,16 @@ extends JPanel
 
 		setOpaque( true );
 		setBackground( new Color( 0xeeeeee ) );
+
+		_overviewTimer = new Timer( 250, new ActionListener()
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				repaint();
+			}
+		} );
+		_overviewTimer.setRepeats( false );
 	}
 
 	public ViewModel getViewModel()
@@ -94,19 +223,399 @@ extends JPanel
 
 	public void setMenu( final Menu menu )
 	{
+		final Menu oldMenu = _menu;
+		if ( oldMenu != null )
+		{
+			for ( final MenuItem menuItem : oldMenu.getItems() )
+			{
+				final Action action = menuItem.getAction();
+				if ( action != null )
+				{
+					action.removePropertyChangeListener( _menuActionListener );
+				}
+			}
+		}
+
 		_menu = menu;
+
+		if ( menu != null )
+		{
+			for ( final MenuItem menuItem : menu.getItems() )
+			{
+				final Action action = menuItem.getAction();
+				if ( action != null )
+				{
+					action.addPropertyChangeListener( _menuActionListener );
+				}
+			}
+		}
+
 		repaint();
 	}
 
+	/**
+	 * Repaints the parts of the view affected by a change of the selection,
+	 * i.e. the rows containing bytes that were selected or deselected and the
+	 * tip above the start of the old and new selection.
+	 *
+	 * @param event Selection event.
+	 */
+	private void repaintSelection( final ViewModelEvent event )
+	{
+		final long oldStart = event.getOldSelectionStart();
+		final long oldEnd = event.getOldSelectionEnd();
+		final long newStart = event.getNewSelectionStart();
+		final long newEnd = event.getNewSelectionEnd();
+
+		final boolean oldEmpty = ( oldEnd < oldStart );
+		final boolean newEmpty = ( newEnd < newStart );
+
+		if ( oldEmpty || newEmpty || ( oldEnd < newStart ) || ( newEnd < oldStart ) )
+		{
+			if ( !oldEmpty )
+			{
+				repaintRows( oldStart, oldEnd, true );
+			}
+			if ( !newEmpty )
+			{
+				repaintRows( newStart, newEnd, true );
+			}
+		}
+		else
+		{
+			repaintRows( oldStart, oldStart, true );
+			repaintRows( newStart, newStart, true );
+
+			if ( oldStart != newStart )
+			{
+				repaintRows( Math.min( oldStart, newStart ), Math.max( oldStart, newStart ), false );
+			}
+			if ( oldEnd != newEnd )
+			{
+				repaintRows( Math.min( oldEnd, newEnd ), Math.max( oldEnd, newEnd ), false );
+			}
+		}
+	}
+
+	/**
+	 * Repaints the rows containing the given range of addresses.
+	 *
+	 * @param start      First address.
+	 * @param end        Last address.
+	 * @param includeTip Whether to include the row above the first address,
+	 *                   where the selection tip is shown.
+	 */
+	private void repaintRows( final long start, final long end, final boolean includeTip )
+	{
+		final ViewModel viewModel = _viewModel;
+		final long firstRowAddress = viewModel.getFirstRowAddress();
+		final long columns = (long)viewModel.getColumns();
+		final double spacing = (double)( viewModel.getTileSize() + viewModel.getTilePadding() );
+		final double padding = (double)viewModel.getTilePadding();
+
+		final long firstRow = Math.floorDiv( start - firstRowAddress, columns ) - ( includeTip ? 1L : 0L );
+		final long lastRow = Math.floorDiv( end - firstRowAddress, columns );
+
+		final AffineTransform transform = viewModel.getTransform();
+		final double top = transform.getScaleY() * ( (double)firstRow * spacing - padding ) + transform.getTranslateY();
+		final double bottom = transform.getScaleY() * ( (double)( lastRow + 1L ) * spacing ) + transform.getTranslateY();
+
+		final int height = getHeight();
+		final int y = (int)Math.max( -1.0, Math.floor( top ) - 1.0 );
+		final int maxY = (int)Math.min( (double)height + 1.0, Math.ceil( bottom ) + 1.0 );
+		if ( y < maxY )
+		{
+			repaint( 0, y, getWidth(), maxY - y );
+		}
+	}
+
+	/**
+	 * Repaints the button bar at the bottom of the view.
+	 */
+	private void repaintButtonBar()
+	{
+		final int barHeight = (int)Math.ceil( 1.5 * (double)_viewModel.getTileSize() );
+		repaint( 0, getHeight() - barHeight, getWidth(), barHeight );
+	}
+
+	/**
+	 * Repaints the view after it was moved or scaled. Unlike {@link
+	 * #repaint}, this keeps the back buffer, so a move only needs to paint
+	 * the parts of the view that were exposed.
+	 */
+	private void repaintMoved()
+	{
+		super.repaint( 0L, 0, 0, getWidth(), getHeight() );
+	}
+
+	@Override
+	public void repaint( final long tm, final int x, final int y, final int width, final int height )
+	{
+		addInvalidRegion( new Rectangle( x, y, width, height ) );
+		super.repaint( tm, x, y, width, height );
+	}
+
+	/**
+	 * Marks part of the view as changed, such that it's painted again instead
+	 * of copied from the back buffer. May be called from any thread.
+	 *
+	 * @param region Changed region, in component coordinates.
+	 */
+	private synchronized void addInvalidRegion( final Rectangle region )
+	{
+		final Rectangle invalidRegion = _invalidRegion;
+		_invalidRegion = ( invalidRegion == null ) ? region : invalidRegion.union( region );
+	}
+
+	/**
+	 * Returns and clears the part of the view that changed since the back
+	 * buffer was painted.
+	 *
+	 * @return Changed region; {@code null} if nothing changed.
+	 */
+	private synchronized Rectangle takeInvalidRegion()
+	{
+		final Rectangle result = _invalidRegion;
+		_invalidRegion = null;
+		return result;
+	}
+
 	@Override
 	protected void paintComponent( final Graphics g )
 	{
-		super.paintComponent( g );
-		final Graphics2D g2 = (Graphics2D)g.create();
+		final Graphics2D g2 = (Graphics2D)g;
+		final double deviceScale = g2.getTransform().getScaleX();
+
+		final BufferedImage backBuffer = updateBackBuffer( deviceScale );
+		g2.drawImage( backBuffer, AffineTransform.getScaleInstance( 1.0 / deviceScale, 1.0 / deviceScale ), null );
 
+		final Menu menu = _menu;
+		if ( menu != null )
+		{
+			final Graphics2D staticGraphics = (Graphics2D)g.create();
+			try
+			{
+				setRenderingHints( staticGraphics );
+				drawButtonBar( staticGraphics, _resources, menu );
+			}
+			finally
+			{
+				staticGraphics.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Brings the back buffer up-to-date with the view model. If the view was
+	 * only moved by a whole number of pixels since the buffer was painted,
+	 * the existing pixels are shifted and only the exposed strips and any
+	 * invalidated region are painted.
+	 *
+	 * @param deviceScale Scale of the device being painted on.
+	 *
+	 * @return Back buffer.
+	 */
+	private BufferedImage updateBackBuffer( final double deviceScale )
+	{
+		final ViewModel viewModel = _viewModel;
+		final AffineTransform transform = viewModel.getTransform();
+		final long firstRow = viewModel.getFirstRowAddress() / (long)viewModel.getColumns();
+
+		final int width = (int)Math.ceil( (double)getWidth() * deviceScale );
+		final int height = (int)Math.ceil( (double)getHeight() * deviceScale );
+		final Rectangle bufferBounds = new Rectangle( 0, 0, width, height );
+
+		final Rectangle invalidRegion = takeInvalidRegion();
+		final List<Rectangle> regions = new ArrayList<Rectangle>();
+
+		BufferedImage backBuffer = _backBuffer;
+		if ( ( backBuffer == null ) || ( backBuffer.getWidth() != width ) || ( backBuffer.getHeight() != height ) || ( _backBufferDeviceScale != deviceScale ) || ( _backBufferScale != transform.getScaleY() ) )
+		{
+			backBuffer = createBackBuffer( Math.max( 1, width ), Math.max( 1, height ) );
+			_backBuffer = backBuffer;
+			regions.add( bufferBounds );
+		}
+		else
+		{
+			/*
+			 * Rows move by whole tiles when the first row changes, so the
+			 * shift is measured relative to the start of the data.
+			 */
+			final double rowDistance = (double)( ( viewModel.getTileSize() + viewModel.getTilePadding() ) * (float)transform.getScaleY() );
+			final double dx = ( transform.getTranslateX() - _backBufferTranslateX ) * deviceScale;
+			final double dy = ( transform.getTranslateY() - _backBufferTranslateY - (double)( firstRow - _backBufferFirstRow ) * rowDistance ) * deviceScale;
+			final Point shift = getBackBufferShift( dx, dy, width, height );
+
+			if ( shift == null )
+			{
+				regions.add( bufferBounds );
+			}
+			else if ( ( shift.x != 0 ) || ( shift.y != 0 ) )
+			{
+				final int x = shift.x;
+				final int y = shift.y;
+
+				final Graphics2D bufferGraphics = backBuffer.createGraphics();
+				try
+				{
+					bufferGraphics.copyArea( 0, 0, width, height, x, y );
+				}
+				finally
+				{
+					bufferGraphics.dispose();
+				}
+
+				getExposedRegions( width, height, x, y, regions );
+
+				/*
+				 * The invalid region may have been computed before or after
+				 * the move, so both positions are painted.
+				 */
+				if ( invalidRegion != null )
+				{
+					final Rectangle shifted = toDeviceRegion( invalidRegion, deviceScale );
+					shifted.translate( x, y );
+					regions.add( shifted );
+				}
+			}
+		}
+
+		if ( invalidRegion != null )
+		{
+			regions.add( toDeviceRegion( invalidRegion, deviceScale ) );
+		}
+
+		_backBufferDeviceScale = deviceScale;
+		_backBufferScale = transform.getScaleY();
+		_backBufferTranslateX = transform.getTranslateX();
+		_backBufferTranslateY = transform.getTranslateY();
+		_backBufferFirstRow = firstRow;
+
+		for ( final Rectangle region : regions )
+		{
+			final Rectangle clip = region.intersection( bufferBounds );
+			if ( !clip.isEmpty() )
+			{
+				final Graphics2D bufferGraphics = backBuffer.createGraphics();
+				try
+				{
+					bufferGraphics.clipRect( clip.x, clip.y, clip.width, clip.height );
+					bufferGraphics.scale( deviceScale, deviceScale );
+					paintScene( bufferGraphics );
+				}
+				finally
+				{
+					bufferGraphics.dispose();
+				}
+			}
+
+			if ( region == bufferBounds )
+			{
+				break;
+			}
+		}
+
+		return backBuffer;
+	}
+
+	/**
+	 * Returns the amount by which the contents of the back buffer are shifted
+	 * to follow a move of the view.
+	 *
+	 * @param dx     Horizontal move, in device pixels.
+	 * @param dy     Vertical move, in device pixels.
+	 * @param width  Width of the back buffer.
+	 * @param height Height of the back buffer.
+	 *
+	 * @return Shift, in device pixels; {@code null} if the move is not a whole
+	 *         number of pixels or no pixels would remain, in which case the
+	 *         entire buffer must be painted.
+	 */
+	static Point getBackBufferShift( final double dx, final double dy, final int width, final int height )
+	{
+		final long shiftX = Math.round( dx );
+		final long shiftY = Math.round( dy );
+
+		Point result = null;
+		if ( ( Math.abs( dx - (double)shiftX ) <= 0.01 ) && ( Math.abs( dy - (double)shiftY ) <= 0.01 ) && ( Math.abs( shiftX ) < (long)width ) && ( Math.abs( shiftY ) < (long)height ) )
+		{
+			result = new Point( (int)shiftX, (int)shiftY );
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the strips of the back buffer that are exposed when its contents
+	 * are shifted by the given amount, which must be painted.
+	 *
+	 * @param width  Width of the back buffer.
+	 * @param height Height of the back buffer.
+	 * @param x      Horizontal shift, in pixels.
+	 * @param y      Vertical shift, in pixels.
+	 * @param result Collection to add exposed regions to.
+	 */
+	static void getExposedRegions( final int width, final int height, final int x, final int y, final Collection<? super Rectangle> result )
+	{
+		if ( x > 0 )
+		{
+			result.add( new Rectangle( 0, 0, x, height ) );
+		}
+		else if ( x < 0 )
+		{
+			result.add( new Rectangle( width + x, 0, -x, height ) );
+		}
+
+		if ( y > 0 )
+		{
+			result.add( new Rectangle( 0, 0, width, y ) );
+		}
+		else if ( y < 0 )
+		{
+			result.add( new Rectangle( 0, height + y, width, -y ) );
+		}
+	}
+
+	/**
+	 * Creates an opaque image to be used as back buffer.
+	 */
+	private BufferedImage createBackBuffer( final int width, final int height )
+	{
+		final GraphicsConfiguration graphicsConfiguration = getGraphicsConfiguration();
+		return ( graphicsConfiguration == null ) ? new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB ) : graphicsConfiguration.createCompatibleImage( width, height );
+	}
+
+	/**
+	 * Converts a region in component coordinates to device pixels.
+	 */
+	private static Rectangle toDeviceRegion( final Rectangle region, final double deviceScale )
+	{
+		final int x = (int)Math.floor( (double)region.x * deviceScale );
+		final int y = (int)Math.floor( (double)region.y * deviceScale );
+		final int maxX = (int)Math.ceil( (double)( region.x + region.width ) * deviceScale );
+		final int maxY = (int)Math.ceil( (double)( region.y + region.height ) * deviceScale );
+		return new Rectangle( x, y, maxX - x, maxY - y );
+	}
+
+	private static void setRenderingHints( final Graphics2D g2 )
+	{
 		g2.setRenderingHint( RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON );
 		g2.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON );
 		g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+	}
+
+	/**
+	 * Paints everything except the button bar: the tiles, the header and the
+	 * selection tip. Only tiles in the clip area are painted.
+	 *
+	 * @param g Graphics to paint with, in component coordinates.
+	 */
+	private void paintScene( final Graphics g )
+	{
+		g.setColor( getBackground() );
+		g.fillRect( 0, 0, getWidth(), getHeight() );
+
+		final Graphics2D g2 = (Graphics2D)g.create();
+		setRenderingHints( g2 );
 
 		final ViewModel viewModel = _viewModel;
 
@@ -114,76 +623,92 @@ extends JPanel
 		final AffineTransform transform = viewModel.getTransform();
 		g2.transform( transform );
 
-		final Font sourceFont = new Font( Font.SERIF, Font.ITALIC, 42 );
-		final Font sourceDetailsFont = new Font( Font.SANS_SERIF, Font.PLAIN, 15 );
-		final Font characterFont = new Font( Font.SERIF, Font.BOLD, 18 );
-		final Font valueFont = new Font( Font.MONOSPACED, Font.PLAIN, 12 );
-		final Font addressFont = new Font( Font.MONOSPACED, Font.PLAIN, 12 );
-
-		final FontMetrics sourceMetrics = g2.getFontMetrics( sourceFont );
-		final FontMetrics sourceDetailsMetrics = g2.getFontMetrics( sourceDetailsFont );
-		final FontMetrics characterMetrics = g2.getFontMetrics( characterFont );
-		final FontMetrics valueMetrics = g2.getFontMetrics( valueFont );
-		final FontMetrics addressMetrics = g2.getFontMetrics( addressFont );
-
-		final Color headerBackground = new Color( 0xbbdddd );
-		final Color sourceForeground = new Color( 0x444444 );
-		final Color sourceDetailsForeground = new Color( 0x888888 );
-
-		final Color charForeground = new Color( 0x000000 );
-		final Color addressForeground = new Color( 0x444444 );
-		final Color charBackground = new Color( 0xffffff );
-		final Color otherRecordBackground = new Color( 0xf8f8f8 );
-		final Color valueForeground = new Color( 0x008080 );
-		final Color nullValueForeground = new Color( 0xaaaaaa );
-		final Color selectionBackground = new Color( 0xbbdddd );
-		final Color selectionBorderColor = new Color( 0x88cccc );
-
-		final Color tipBackground = new Color( 0xffffcc );
-		final Color tipBorderColor = new Color( 0xeeeeee );
-		final Color tipForeground = new Color( 0x000000 );
+		final double scale = g2.getTransform().getScaleX();
+		Resources resources = _resources;
+		if ( resources == null || resources._scale != scale )
+		{
+			resources = new Resources( scale, viewModel.getTileSize(), viewModel.getTilePadding(), g2, staticGraphics, _glyphAtlases );
+			_resources = resources;
+		}
+		final GlyphAtlas glyphAtlas = resources._glyphAtlas;
 
 		final float tipPadding = 2.0f;
 		final float addressMargin = 10.0f;
 
-		final float characterY = (float)characterMetrics.getAscent();
-		final float decimalY = viewModel.getTileSize() - (float)valueMetrics.getDescent();
+		final float characterY = (float)resources._characterMetrics.getAscent();
+		final float decimalY = viewModel.getTileSize() - (float)resources._valueMetrics.getDescent();
 
 		final Rectangle2D.Float viewBounds = Tools.inverseTransform( transform, new Rectangle2D.Float( 0.0f, 0.0f, (float)getWidth(), (float)getHeight() ) );
 
-		final Record record = viewModel.getRecord();
-		final Highlighter highlighter = viewModel.getHighlighter();
-
-		final DefinitionMap definitions = record.getDefinitions();
+		/*
+		 * Only tiles in the area being repainted are painted. Address labels
+		 * are painted with the first column, so that column is included when
+		 * the labels need repainting.
+		 */
+		final Rectangle clip = g.getClipBounds( new Rectangle( 0, 0, getWidth(), getHeight() ) );
+		final Rectangle2D.Float paintBounds = Tools.inverseTransform( transform, new Rectangle2D.Float( (float)clip.x, (float)clip.y, (float)clip.width, (float)clip.height ) );
+		if ( paintBounds.x < 0.0f )
+		{
+			paintBounds.width = Math.max( paintBounds.width, 1.0f - paintBounds.x );
+		}
 
-		for ( final Tile tile : viewModel.getTiles() )
+		if ( !viewModel.isTextVisible() )
 		{
-			final Rectangle2D.Float bounds = tile.getBounds();
-			if ( !viewBounds.intersects( bounds ) )
+			OverviewPainter overviewPainter = _overviewPainter;
+			if ( overviewPainter == null )
+			{
+				overviewPainter = new OverviewPainter( getBackground(), resources._headerBackground, resources._selectionBackground );
+				_overviewPainter = overviewPainter;
+			}
+
+			if ( !overviewPainter.paint( (Graphics2D)g, viewModel, clip ) && !_overviewTimer.isRunning() )
+			{
+				_overviewTimer.start();
+			}
+
+			final Exception overviewException = viewModel.getOverviewException();
+			if ( overviewException != null )
 			{
-				continue;
+				staticGraphics.setColor( resources._sourceForeground );
+				staticGraphics.setFont( resources._sourceDetailsFont );
+				staticGraphics.drawString( "Overview incomplete: " + overviewException, 10.0f, (float)staticGraphics.getFontMetrics().getAscent() + 10.0f );
 			}
 
+			staticGraphics.dispose();
+			g2.dispose();
+			return;
+		}
+
+		final Record record = viewModel.getRecord();
+		final Highlighter highlighter = viewModel.getHighlighter();
+
+		final DefinitionMap.Cursor definitions = _definitionCursor;
+		definitions.reset( record.getDefinitions() );
+
+		final Rectangle2D.Float bounds = _tileBounds;
+		for ( final Tile tile : viewModel.getTiles( paintBounds ) )
+		{
+			tile.getBounds( bounds );
 			final long address = tile.getAddress();
 
 			final Definition definition = definitions.get( address - record.getStart() );
 
 			if ( tile.isSelected() )
 			{
-				g2.setColor( selectionBackground );
+				g2.setColor( resources._selectionBackground );
 			}
 			else if ( address >= record.getStart() && address <= record.getEnd() )
 			{
 				if ( definition != null && definition.isLink() )
 				{
-					g2.setColor( tipBackground );
+					g2.setColor( resources._tipBackground );
 				}
 				else
 				{
 					final Color color = highlighter.getColor( tile.getAddress() );
 					if ( color == null )
 					{
-						g2.setColor( charBackground );
+						g2.setColor( resources._charBackground );
 					}
 					else
 					{
@@ -193,55 +718,49 @@ extends JPanel
 			}
 			else
 			{
-				g2.setColor( otherRecordBackground );
+				g2.setColor( resources._otherRecordBackground );
 			}
 
 			g2.fill( bounds );
 
 			if ( address == record.getStart() )
 			{
-				g2.setColor( new Color( 0xbbdddd ) );
-				g2.fill( createStartBracket( bounds ) );
+				g2.setColor( resources._recordBracketColor );
+				fillTranslated( g2, resources._startBracket, bounds );
 			}
 			else if ( definition != null && ( address == record.getStart() + definition.getAddress() ) )
 			{
-				g2.setColor( new Color( 0xcccccc ) );
-				g2.fill( createStartBracket( bounds ) );
+				g2.setColor( resources._definitionBracketColor );
+				fillTranslated( g2, resources._startBracket, bounds );
 			}
 
 			if ( address == record.getEnd() )
 			{
-				g2.setColor( new Color( 0xbbdddd ) );
-				g2.fill( createEndBracket( bounds ) );
+				g2.setColor( resources._recordBracketColor );
+				fillTranslated( g2, resources._endBracket, bounds );
 			}
 			else if ( definition != null && ( address == record.getStart() + definition.getAddress() + (long)definition.getLength() - 1L ) )
 			{
-				g2.setColor( new Color( 0xcccccc ) );
-				g2.fill( createEndBracket( bounds ) );
+				g2.setColor( resources._definitionBracketColor );
+				fillTranslated( g2, resources._endBracket, bounds );
 			}
 
-			if ( tile.isPrintable() )
+			if ( glyphAtlas != null )
 			{
-				g2.setFont( characterFont );
-				final char c = tile.getCharacter();
-				final int charWidth = characterMetrics.charWidth( c );
-				g2.setColor( charForeground );
-				g2.drawString( String.valueOf( c ), (float)bounds.getCenterX() - (float)charWidth / 2.0f, bounds.y + characterY );
+				glyphAtlas.drawTile( g2, tile.getCharacter(), (int)bounds.x, (int)bounds.y );
+			}
+			else
+			{
+				drawTileText( g2, resources, tile, bounds, characterY, decimalY );
 			}
-
-			final String value = tile.getHexadecimal();
-			g2.setFont( valueFont );
-			final int valueWidth = valueMetrics.stringWidth( value );
-			g2.setColor( tile.getCharacter() == '\0' ? nullValueForeground : valueForeground );
-			g2.drawString( value, (float)bounds.getCenterX() - (float)valueWidth / 2.0f, bounds.y + decimalY );
 
 			if ( tile.getColumn() == 0 )
 			{
 				final String addressLabel = Long.toString( address );
-				final Rectangle2D stringBounds = addressMetrics.getStringBounds( addressLabel, g2 );
-				g2.setColor( addressForeground );
-				g2.setFont( addressFont );
-				g2.drawString( addressLabel, -addressMargin -(float)stringBounds.getMaxX(), (float)bounds.getCenterY() - (float)stringBounds.getY() - (float)stringBounds.getHeight() / 2.0f );
+				final FontMetrics addressMetrics = resources._addressMetrics;
+				g2.setColor( resources._addressForeground );
+				g2.setFont( resources._addressFont );
+				g2.drawString( addressLabel, -addressMargin - (float)addressMetrics.stringWidth( addressLabel ), (float)bounds.getCenterY() + (float)addressMetrics.getAscent() - (float)addressMetrics.getHeight() / 2.0f );
 			}
 		}
 
@@ -269,27 +788,35 @@ extends JPanel
 			g2.setColor( new Color( 0xcccccc ) );
 			g2.fill( new Rectangle2D.Float( x, y, viewModel.getTileSize() * 8.0f + viewModel.getTilePadding() * 7.0f, viewModel.getTileSize() + viewModel.getTilePadding() ) );
 			g2.setColor( new Color( 0x444444 ) );
-			g2.setFont( sourceDetailsFont );
-			drawString( g2, new Rectangle2D.Float( x, y + viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Integer" );
-			drawString( g2, new Rectangle2D.Float( x + viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 2.0f, y + viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Float" );
+			g2.setFont( resources._sourceDetailsFont );
+			drawString( g2, resources._sourceDetailsMetrics, new Rectangle2D.Float( x, y + viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Integer" );
+			drawString( g2, resources._sourceDetailsMetrics, new Rectangle2D.Float( x + viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 2.0f, y + viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Float" );
 
 			g2.setColor( new Color( 0xaaaaaa ) );
 			g2.fill( new Rectangle2D.Float( x, y + viewModel.getTileSize() + viewModel.getTilePadding(), viewModel.getTileSize() * 8.0f + viewModel.getTilePadding() * 7.0f, viewModel.getTileSize() + viewModel.getTilePadding() ) );
 			g2.setColor( new Color( 0x444444 ) );
-			g2.setFont( sourceDetailsFont );
-			drawString( g2, new Rectangle2D.Float( x, y + viewModel.getTileSize() + 2.0f * viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Little-endian" );
-			drawString( g2, new Rectangle2D.Float( x + viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 2.0f, y + viewModel.getTileSize() + 2.0f * viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Big-endian" );
+			g2.setFont( resources._sourceDetailsFont );
+			drawString( g2, resources._sourceDetailsMetrics, new Rectangle2D.Float( x, y + viewModel.getTileSize() + 2.0f * viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Little-endian" );
+			drawString( g2, resources._sourceDetailsMetrics, new Rectangle2D.Float( x + viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 2.0f, y + viewModel.getTileSize() + 2.0f * viewModel.getTilePadding(), viewModel.getTileSize() * 2.0f + viewModel.getTilePadding() * 1.0f, viewModel.getTileSize() ), 0.5f, 0.5f, "Big-endian" );
 		}
 
 		if ( viewBounds.getY() < 0.0 )
 		{
-			g2.setColor( headerBackground );
+			g2.setColor( resources._headerBackground );
 			g2.fill( new Rectangle2D.Float( viewBounds.x, Math.min( viewBounds.y, -viewBounds.height - viewModel.getTilePadding() ), viewBounds.width, viewBounds.height ) );
 
 			final String dataSource = viewModel.getDataSourceName();
-			g2.setColor( sourceForeground );
-			g2.setFont( sourceFont );
+			g2.setColor( resources._sourceForeground );
+			g2.setFont( resources._sourceFont );
 			g2.drawString( dataSource, 0.0f, -viewModel.getTileSize() - viewModel.getTilePadding() );
+
+			final String searchStatus = viewModel.getSearchStatus();
+			if ( searchStatus != null )
+			{
+				g2.setColor( resources._sourceDetailsForeground );
+				g2.setFont( resources._sourceDetailsFont );
+				g2.drawString( searchStatus, 0.0f, -viewModel.getTilePadding() - (float)resources._sourceDetailsMetrics.getDescent() );
+			}
 		}
 
 		if ( viewModel.getSelectionLength() > 0L )
@@ -297,28 +824,48 @@ extends JPanel
 			final String selectionValue = viewModel.getSelectionValue();
 			if ( selectionValue != null )
 			{
-				final Rectangle2D tipTextBounds = valueMetrics.getStringBounds( selectionValue, g2 );
+				final Rectangle2D tipTextBounds = resources._valueMetrics.getStringBounds( selectionValue, g2 );
 				final Tile tile = viewModel.getTile( viewModel.getSelectionStart() );
-				final Rectangle2D.Float tileBounds = tile.getBounds();
+				final Rectangle2D.Float tileBounds = tile.getBounds( bounds );
 
-				g2.setColor( tipBackground );
+				g2.setColor( resources._tipBackground );
 				final Rectangle2D.Float tipBounds = new Rectangle2D.Float( tileBounds.x + (float)tipTextBounds.getMinX(), tileBounds.y + (float)tipTextBounds.getMinY() - 2.0f * tipPadding, (float)tipTextBounds.getWidth() + 2.0f * tipPadding, (float)tipTextBounds.getHeight() + 2.0f * tipPadding );
 				g2.fill( tipBounds );
-				g2.setColor( tipBorderColor );
+				g2.setColor( resources._tipBorderColor );
 				g2.draw( tipBounds );
-				g2.setColor( tipForeground );
-				g2.setFont( valueFont );
-				g2.drawString( selectionValue, tileBounds.x + tipPadding, tileBounds.y - (float)valueMetrics.getDescent() );
+				g2.setColor( resources._tipForeground );
+				g2.setFont( resources._valueFont );
+				g2.drawString( selectionValue, tileBounds.x + tipPadding, tileBounds.y - (float)resources._valueMetrics.getDescent() );
 			}
 		}
 
-		if ( _menu != null )
+		staticGraphics.dispose();
+		g2.dispose();
+	}
+
+	/**
+	 * Paints the character and hexadecimal value of a tile, for scales that
+	 * have no glyph atlas.
+	 */
+	private void drawTileText( final Graphics2D g2, final Resources resources, final Tile tile, final Rectangle2D.Float bounds, final float characterY, final float decimalY )
+	{
+		if ( tile.isPrintable() )
 		{
-			drawButtonBar( staticGraphics, _menu );
+			g2.setFont( resources._characterFont );
+			final char c = tile.getCharacter();
+			final int charWidth = resources._characterMetrics.charWidth( c );
+			g2.setColor( resources._charForeground );
+			g2.drawString( resources._characterStrings[ c ], (float)bounds.getCenterX() - (float)charWidth / 2.0f, bounds.y + characterY );
 		}
+
+		final String value = tile.getHexadecimal();
+		g2.setFont( resources._valueFont );
+		final int valueWidth = resources._valueMetrics.stringWidth( value );
+		g2.setColor( tile.getCharacter() == '\0' ? resources._nullValueForeground : resources._valueForeground );
+		g2.drawString( value, (float)bounds.getCenterX() - (float)valueWidth / 2.0f, bounds.y + decimalY );
 	}
 
-	private void drawButtonBar( final Graphics2D g, final Menu menu )
+	private void drawButtonBar( final Graphics2D g, final Resources resources, final Menu menu )
 	{
 		final ViewModel viewModel = _viewModel;
 		final float barHeight = viewModel.getTileSize();
@@ -327,9 +874,9 @@ extends JPanel
 		g.setColor( menu.getBackground() );
 		g.fill( bar );
 
-		g.setColor( new Color( 0xffffff ) );
-		g.setFont( new Font( Font.SANS_SERIF, Font.BOLD, 15 ) );
-		drawString( g, new Rectangle2D.Float( 0.0f, getHeight() - 1.5f * barHeight, getWidth(), 0.5f * barHeight ), 0.5f, 0.5f, menu.getText() );
+		g.setColor( resources._buttonForeground );
+		g.setFont( resources._buttonFont );
+		drawString( g, resources._buttonMetrics, new Rectangle2D.Float( 0.0f, getHeight() - 1.5f * barHeight, getWidth(), 0.5f * barHeight ), 0.5f, 0.5f, menu.getText() );
 
 		int buttonColumn = 0;
 		final String group = null;
@@ -344,52 +891,220 @@ extends JPanel
 			}
 
 			final Action action = menuItem.getAction();
-			g.setColor( action != null && action.isEnabled() ? new Color( 0xffffff ) : new Color( 0x80ffffff, true ) );
-			g.setFont( new Font( Font.SANS_SERIF, Font.BOLD, 15 ) );
-			drawString( g, bounds, 0.5f, 0.5f, menuItem.getText() );
+			g.setColor( action != null && action.isEnabled() ? resources._buttonForeground : resources._disabledButtonForeground );
+			g.setFont( resources._buttonFont );
+			drawString( g, resources._buttonMetrics, bounds, 0.5f, 0.5f, menuItem.getText() );
 
 			buttonColumn += menuItem.getWidth();
 		}
 	}
 
-	private void drawString( final Graphics2D g2, final Rectangle2D.Float bounds, final float horizontalAlignment, final float verticalAlignment, final String string )
+	private void drawString( final Graphics2D g2, final FontMetrics fontMetrics, final Rectangle2D.Float bounds, final float horizontalAlignment, final float verticalAlignment, final String string )
 	{
-		final FontMetrics fontMetrics = g2.getFontMetrics();
 		final float x = bounds.x + horizontalAlignment * ( bounds.width - fontMetrics.stringWidth( string ) );
 		final float y = bounds.y + fontMetrics.getAscent() + verticalAlignment * ( bounds.height - fontMetrics.getHeight() );
 		g2.drawString( string, x, y );
 	}
 
-	private Path2D.Float createStartBracket( final Rectangle2D.Float bounds )
+	/**
+	 * Fills a shape defined relative to the origin of a tile.
+	 */
+	private static void fillTranslated( final Graphics2D g2, final Shape shape, final Rectangle2D.Float bounds )
+	{
+		final double x = (double)bounds.x;
+		final double y = (double)bounds.y;
+		g2.translate( x, y );
+		g2.fill( shape );
+		g2.translate( -x, -y );
+	}
+
+	/**
+	 * Creates the bracket that marks the start of a record or definition,
+	 * relative to the origin of a tile.
+	 */
+	private static Path2D.Float createStartBracket( final float size, final float padding )
 	{
 		final Path2D.Float startBracket = new Path2D.Float();
-		startBracket.moveTo( bounds.x, bounds.y );
-		startBracket.lineTo( bounds.x + _viewModel.getTilePadding(), bounds.y );
-		startBracket.lineTo( bounds.x + _viewModel.getTilePadding(), bounds.y - _viewModel.getTilePadding() );
-		startBracket.lineTo( bounds.x - _viewModel.getTilePadding(), bounds.y - _viewModel.getTilePadding() );
-		startBracket.lineTo( bounds.x - _viewModel.getTilePadding(), bounds.y + bounds.height + _viewModel.getTilePadding() );
-		startBracket.lineTo( bounds.x + _viewModel.getTilePadding(), bounds.y + bounds.height + _viewModel.getTilePadding() );
-		startBracket.lineTo( bounds.x + _viewModel.getTilePadding(), bounds.y + bounds.height );
-		startBracket.lineTo( bounds.x, bounds.y + bounds.height );
+		startBracket.moveTo( 0.0f, 0.0f );
+		startBracket.lineTo( padding, 0.0f );
+		startBracket.lineTo( padding, -padding );
+		startBracket.lineTo( -padding, -padding );
+		startBracket.lineTo( -padding, size + padding );
+		startBracket.lineTo( padding, size + padding );
+		startBracket.lineTo( padding, size );
+		startBracket.lineTo( 0.0f, size );
 		startBracket.closePath();
 		return startBracket;
 	}
 
-	private Path2D.Float createEndBracket( final Rectangle2D.Float bounds )
+	/**
+	 * Creates the bracket that marks the end of a record or definition,
+	 * relative to the origin of a tile.
+	 */
+	private static Path2D.Float createEndBracket( final float size, final float padding )
 	{
 		final Path2D.Float endBracket = new Path2D.Float();
-		endBracket.moveTo( bounds.x + bounds.width, bounds.y );
-		endBracket.lineTo( bounds.x + bounds.width - _viewModel.getTilePadding(), bounds.y );
-		endBracket.lineTo( bounds.x + bounds.width - _viewModel.getTilePadding(), bounds.y - _viewModel.getTilePadding() );
-		endBracket.lineTo( bounds.x + bounds.width + _viewModel.getTilePadding(), bounds.y - _viewModel.getTilePadding() );
-		endBracket.lineTo( bounds.x + bounds.width + _viewModel.getTilePadding(), bounds.y + bounds.height + _viewModel.getTilePadding() );
-		endBracket.lineTo( bounds.x + bounds.width - _viewModel.getTilePadding(), bounds.y + bounds.height + _viewModel.getTilePadding() );
-		endBracket.lineTo( bounds.x + bounds.width - _viewModel.getTilePadding(), bounds.y + bounds.height );
-		endBracket.lineTo( bounds.x + bounds.width, bounds.y + bounds.height );
+		endBracket.moveTo( size, 0.0f );
+		endBracket.lineTo( size - padding, 0.0f );
+		endBracket.lineTo( size - padding, -padding );
+		endBracket.lineTo( size + padding, -padding );
+		endBracket.lineTo( size + padding, size + padding );
+		endBracket.lineTo( size - padding, size + padding );
+		endBracket.lineTo( size - padding, size );
+		endBracket.lineTo( size, size );
 		endBracket.closePath();
 		return endBracket;
 	}
 
+	/**
+	 * Fonts, font metrics, colors and shapes used to paint the view. Font
+	 * metrics depend on the scale at which the view is painted, so new
+	 * resources are created whenever the scale changes.
+	 */
+	private static class Resources
+	{
+		/**
+		 * Maximum size of a glyph atlas cell, in pixels. At larger scales,
+		 * few tiles are visible and text is drawn directly.
+		 */
+		private static final int MAXIMUM_ATLAS_CELL_SIZE = 96;
+
+		/**
+		 * Scale for which the font metrics were created.
+		 */
+		private final double _scale;
+
+		/**
+		 * Pre-rendered tile text; {@code null} if the scale is too large.
+		 */
+		private final GlyphAtlas _glyphAtlas;
+
+		/**
+		 * Bracket marking the start of a record or definition, relative to
+		 * the origin of a tile.
+		 */
+		private final Shape _startBracket;
+
+		/**
+		 * Bracket marking the end of a record or definition, relative to the
+		 * origin of a tile.
+		 */
+		private final Shape _endBracket;
+
+		/**
+		 * Strings containing the character for each byte value.
+		 */
+		private final String[] _characterStrings = new String[ 256 ];
+
+		private final Font _sourceFont = new Font( Font.SERIF, Font.ITALIC, 42 );
+
+		private final Font _sourceDetailsFont = new Font( Font.SANS_SERIF, Font.PLAIN, 15 );
+
+		private final Font _characterFont = new Font( Font.SERIF, Font.BOLD, 18 );
+
+		private final Font _valueFont = new Font( Font.MONOSPACED, Font.PLAIN, 12 );
+
+		private final Font _addressFont = new Font( Font.MONOSPACED, Font.PLAIN, 12 );
+
+		private final Font _buttonFont = new Font( Font.SANS_SERIF, Font.BOLD, 15 );
+
+		private final FontMetrics _sourceMetrics;
+
+		private final FontMetrics _sourceDetailsMetrics;
+
+		private final FontMetrics _characterMetrics;
+
+		private final FontMetrics _valueMetrics;
+
+		private final FontMetrics _addressMetrics;
+
+		private final FontMetrics _buttonMetrics;
+
+		private final Color _headerBackground = new Color( 0xbbdddd );
+
+		private final Color _sourceForeground = new Color( 0x444444 );
+
+		private final Color _sourceDetailsForeground = new Color( 0x888888 );
+
+		private final Color _charForeground = new Color( 0x000000 );
+
+		private final Color _addressForeground = new Color( 0x444444 );
+
+		private final Color _charBackground = new Color( 0xffffff );
+
+		private final Color _otherRecordBackground = new Color( 0xf8f8f8 );
+
+		private final Color _valueForeground = new Color( 0x008080 );
+
+		private final Color _nullValueForeground = new Color( 0xaaaaaa );
+
+		private final Color _selectionBackground = new Color( 0xbbdddd );
+
+		private final Color _selectionBorderColor = new Color( 0x88cccc );
+
+		private final Color _recordBracketColor = new Color( 0xbbdddd );
+
+		private final Color _definitionBracketColor = new Color( 0xcccccc );
+
+		private final Color _tipBackground = new Color( 0xffffcc );
+
+		private final Color _tipBorderColor = new Color( 0xeeeeee );
+
+		private final Color _tipForeground = new Color( 0x000000 );
+
+		private final Color _buttonForeground = new Color( 0xffffff );
+
+		private final Color _disabledButtonForeground = new Color( 0x80ffffff, true );
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param scale          Scale of the view, including any scaling of
+		 *                       the device.
+		 * @param tileSize       Size of a tile, in view coordinates.
+		 * @param tilePadding    Space between tiles, in view coordinates.
+		 * @param viewGraphics   Graphics used to paint the contents of the
+		 *                       view.
+		 * @param staticGraphics Graphics used to paint elements that don't
+		 *                       scale with the view, such as the menu.
+		 * @param glyphAtlases   Glyph atlases by cell size, to reuse or add
+		 *                       the atlas for this scale.
+		 */
+		private Resources( final double scale, final float tileSize, final float tilePadding, final Graphics2D viewGraphics, final Graphics2D staticGraphics, final Map<Integer, GlyphAtlas> glyphAtlases )
+		{
+			_scale = scale;
+			_startBracket = createStartBracket( tileSize, tilePadding );
+			_endBracket = createEndBracket( tileSize, tilePadding );
+
+			for ( int i = 0; i < _characterStrings.length; i++ )
+			{
+				_characterStrings[ i ] = String.valueOf( (char)i );
+			}
+			_sourceMetrics = viewGraphics.getFontMetrics( _sourceFont );
+			_sourceDetailsMetrics = viewGraphics.getFontMetrics( _sourceDetailsFont );
+			_characterMetrics = viewGraphics.getFontMetrics( _characterFont );
+			_valueMetrics = viewGraphics.getFontMetrics( _valueFont );
+			_addressMetrics = viewGraphics.getFontMetrics( _addressFont );
+			_buttonMetrics = staticGraphics.getFontMetrics( _buttonFont );
+
+			final int cellSize = GlyphAtlas.getCellSize( scale, (int)tileSize );
+			if ( cellSize <= MAXIMUM_ATLAS_CELL_SIZE )
+			{
+				GlyphAtlas glyphAtlas = glyphAtlases.get( cellSize );
+				if ( glyphAtlas == null )
+				{
+					glyphAtlas = new GlyphAtlas( scale, (int)tileSize, _characterFont, _charForeground, _valueFont, _valueForeground, _nullValueForeground );
+					glyphAtlases.put( cellSize, glyphAtlas );
+				}
+				_glyphAtlas = glyphAtlas;
+			}
+			else
+			{
+				_glyphAtlas = null;
+			}
+		}
+	}
+
 	private class MouseListenerImpl
 		extends MouseAdapter
 	{
@@ -504,10 +1219,25 @@ extends JPanel
 				if ( tile != null )
 				{
 					final Record record = _viewModel.getRecord();
-					if ( record != null )
+					final long address = tile.getAddress();
+					if ( record != null && ( address < record.getStart() || address > record.getEnd() ) )
+					{
+						/*
+						 * Outside the current record, switch to the record
+						 * that the address is part of.
+						 */
+						final Record found = record.findRecord( address );
+						if ( found instanceof ArrayRecord )
+						{
+							final ArrayRecord array = (ArrayRecord)found;
+							array.setIndex( ( address - array.getExtentStart() ) / array.getLength() );
+						}
+						_viewModel.setRecord( found );
+					}
+					else if ( record != null )
 					{
 						final DefinitionMap definitions = record.getDefinitions();
-						final Definition definition = definitions.get( tile.getAddress() );
+						final Definition definition = definitions.get( address - record.getStart() );
 						if ( definition != null )
 						{
 							try
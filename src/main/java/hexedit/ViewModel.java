@@ -20,17 +20,37 @@ import java.awt.*;
 import java.awt.geom.*;
 import java.io.*;
 import java.net.*;
+import java.nio.*;
 import java.util.*;
 
 /**
  * Model for {@link View} which keeps track of view layout, transformation,
- * selection, highlighting and so on.
+ * selection, highlighting and so on. Observers are notified with a
+ * {@link ViewModelEvent} describing the change.
  *
  * @author Gerrit Meinders
  */
 public class ViewModel
 extends Observable
 {
+	/**
+	 * Smallest scale at which tiles show their text. Below this scale, tiles
+	 * are painted as plain colors and the view is only scaled vertically, so
+	 * the columns stay visible while an ever larger part of the data fits in
+	 * the view.
+	 */
+	public static final float TEXT_SCALE = 0.5f;
+
+	/**
+	 * Largest scale.
+	 */
+	public static final float MAXIMUM_SCALE = 8.0f;
+
+	/**
+	 * Height, in pixels, of the entire data at the smallest scale.
+	 */
+	private static final float MINIMUM_DATA_HEIGHT = 400.0f;
+
 	private DataModel _dataModel;
 
 	private int _columns = 24;
@@ -57,6 +77,28 @@ extends Observable
 
 	private Record _record;
 
+	/**
+	 * Summary of the data for zoomed-out views; created when first needed.
+	 */
+	private OverviewPyramid _overviewPyramid;
+
+	/**
+	 * Exception that prevented the overview pyramid from being created. The
+	 * pyramid is not created again until the data model changes.
+	 */
+	private Exception _overviewException;
+
+	/**
+	 * Iterator reused by {@link #getTiles}, to avoid allocating a tile and a
+	 * buffer every time the view is painted.
+	 */
+	private TileIterator _tileIterator;
+
+	/**
+	 * Current search, if any.
+	 */
+	private Search _search;
+
 	private Highlighter _highlighter = new Highlighter()
 	{
 		@Override
@@ -87,20 +129,126 @@ extends Observable
 		if ( _dataModel != dataModel )
 		{
 			_dataModel = dataModel;
+			_tileIterator = null;
+			if ( _overviewPyramid != null )
+			{
+				_overviewPyramid.cancel();
+				_overviewPyramid = null;
+			}
+			_overviewException = null;
 			setChanged();
-			notifyObservers();
+			notifyObservers( new ViewModelEvent( ViewModelEvent.Type.DATA ) );
 		}
 	}
 
+	/**
+	 * Returns the transform from model coordinates to view coordinates.
+	 * Below {@link #TEXT_SCALE}, the horizontal scale remains fixed.
+	 *
+	 * @return Transform of the view.
+	 */
 	public AffineTransform getTransform()
 	{
 		if ( _affineTransform == null )
 		{
-			_affineTransform = new AffineTransform( _scale, 0.0f, 0.0f, _scale, _translateX, _translateY );
+			_affineTransform = new AffineTransform( getHorizontalScale(), 0.0f, 0.0f, _scale, _translateX, _translateY );
 		}
 		return _affineTransform;
 	}
 
+	/**
+	 * Returns the vertical scale of the view.
+	 *
+	 * @return Scale of the view.
+	 */
+	public float getScale()
+	{
+		return _scale;
+	}
+
+	/**
+	 * Returns whether tiles are shown with text at the current scale.
+	 *
+	 * @return {@code true} if tiles show their text; {@code false} if only
+	 * colors are shown.
+	 */
+	public boolean isTextVisible()
+	{
+		return _scale >= TEXT_SCALE;
+	}
+
+	private float getHorizontalScale()
+	{
+		return Math.max( TEXT_SCALE, _scale );
+	}
+
+	/**
+	 * Returns the smallest scale, at which the entire data fits in a small
+	 * part of the view.
+	 *
+	 * @return Minimum scale.
+	 */
+	private float getMinimumScale()
+	{
+		long length;
+		try
+		{
+			length = ( _dataModel == null ) ? 0L : _dataModel.getLength();
+		}
+		catch ( IOException e )
+		{
+			length = 0L;
+		}
+
+		final double rows = (double)( ( length + (long)_columns - 1L ) / (long)_columns );
+		final double height = rows * (double)( _tileSize + _tilePadding );
+		return (float)Math.min( 1.0, (double)MINIMUM_DATA_HEIGHT / Math.max( 1.0, height ) );
+	}
+
+	/**
+	 * Returns a summary of the data, for painting the view at scales where
+	 * single bytes can't be shown. The summary is built in the background
+	 * when first requested.
+	 *
+	 * @return Overview of the data; {@code null} if not available.
+	 *
+	 * @see #getOverviewException()
+	 */
+	public OverviewPyramid getOverviewPyramid()
+	{
+		OverviewPyramid result = _overviewPyramid;
+		if ( result == null && _dataModel != null && _overviewException == null )
+		{
+			try
+			{
+				result = new OverviewPyramid( _dataModel );
+				result.start();
+				_overviewPyramid = result;
+			}
+			catch ( IOException e )
+			{
+				_overviewException = e;
+			}
+			catch ( IllegalArgumentException e )
+			{
+				_overviewException = e;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the exception that prevented (part of) the overview pyramid
+	 * from being built, if any.
+	 *
+	 * @return Exception; {@code null} if there was no error.
+	 */
+	public Exception getOverviewException()
+	{
+		final OverviewPyramid overviewPyramid = _overviewPyramid;
+		return ( overviewPyramid != null ) ? overviewPyramid.getException() : _overviewException;
+	}
+
 	public Tile getTile()
 	{
 		return new Tile( this, _dataModel );
@@ -138,11 +286,6 @@ extends Observable
 		final int row = (int)( modelPoint.y / spacing );
 		final int offset = row * getColumns() + column;
 
-		if ( offset >= _dataModel.getWindowSize() )
-		{
-			return null;
-		}
-
 		final Tile result = new Tile( this, _dataModel );
 		result.setAddress( _firstRowAddress + (long)offset );
 		return result;
@@ -169,7 +312,7 @@ extends Observable
 			_affineTransform = null;
 			normalizePosition();
 			setChanged();
-			notifyObservers();
+			notifyObservers( new ViewModelEvent( ViewModelEvent.Type.TRANSFORM ) );
 		}
 	}
 
@@ -189,25 +332,28 @@ extends Observable
 			setChanged();
 		}
 
-		notifyObservers();
+		notifyObservers( new ViewModelEvent( ViewModelEvent.Type.TRANSFORM ) );
 	}
 
 	public void scale( final Point2D center, final float factor )
 	{
 		final float oldScale = _scale;
-		final float newScale = Math.max( 1.0f, Math.min( 8.0f, oldScale * factor ) );
+		final float newScale = Math.max( getMinimumScale(), Math.min( MAXIMUM_SCALE, oldScale * factor ) );
 		final float actualFactor = newScale / oldScale;
 		if ( Math.abs( actualFactor - 1.0f ) > 0.001f )
 		{
+			final float oldHorizontalScale = getHorizontalScale();
+			_scale = newScale;
+			final float horizontalFactor = getHorizontalScale() / oldHorizontalScale;
+
 			final float centerX = (float)center.getX();
 			final float centerY = (float)center.getY();
-			_translateX = ( _translateX - centerX ) * factor + centerX;
-			_translateY = ( _translateY - centerY ) * factor + centerY;
-			_scale = newScale;
+			_translateX = ( _translateX - centerX ) * horizontalFactor + centerX;
+			_translateY = ( _translateY - centerY ) * actualFactor + centerY;
 			_affineTransform = null;
 			normalizePosition();
 			setChanged();
-			notifyObservers();
+			notifyObservers( new ViewModelEvent( ViewModelEvent.Type.TRANSFORM ) );
 		}
 	}
 
@@ -216,16 +362,16 @@ extends Observable
 		final float tileDistance = ( _tileSize + _tilePadding ) * _scale;
 		final float translateY = _translateY;
 
-		int rows = (int)Math.ceil( (double)( translateY / tileDistance ) );
+		long rows = (long)Math.ceil( (double)translateY / (double)tileDistance );
 
-		if ( _firstRowAddress < (long)rows * (long)_columns )
+		if ( _firstRowAddress < rows * (long)_columns )
 		{
-			rows = (int)( _firstRowAddress / (long)_columns );
+			rows = _firstRowAddress / (long)_columns;
 		}
 
 		if ( rows != 0 )
 		{
-			_firstRowAddress -= (long)rows * (long)_columns;
+			_firstRowAddress -= rows * (long)_columns;
 			_translateY -= (float)rows * tileDistance;
 		}
 
@@ -247,11 +393,12 @@ extends Observable
 			throw new IllegalStateException( "Can't adjust selection end when selection is empty." );
 		}
 
-		if ( _selectionStart != selectionStart )
+		final long oldSelectionStart = _selectionStart;
+		if ( oldSelectionStart != selectionStart )
 		{
 			_selectionStart = selectionStart;
 			setChanged();
-			notifyObservers();
+			notifyObservers( ViewModelEvent.selectionChanged( oldSelectionStart, _selectionEnd, selectionStart, _selectionEnd ) );
 		}
 	}
 
@@ -267,11 +414,12 @@ extends Observable
 			throw new IllegalStateException( "Can't adjust selection end when selection is empty." );
 		}
 
-		if ( _selectionEnd != selectionEnd )
+		final long oldSelectionEnd = _selectionEnd;
+		if ( oldSelectionEnd != selectionEnd )
 		{
 			_selectionEnd = selectionEnd;
 			setChanged();
-			notifyObservers();
+			notifyObservers( ViewModelEvent.selectionChanged( _selectionStart, oldSelectionEnd, _selectionStart, selectionEnd ) );
 		}
 	}
 
@@ -287,6 +435,9 @@ extends Observable
 
 	public void select( final long start, final long end )
 	{
+		final long oldStart = _selectionStart;
+		final long oldEnd = _selectionEnd;
+
 		final long newStart = Math.min( start, end );
 		if ( _selectionStart != newStart )
 		{
@@ -301,17 +452,19 @@ extends Observable
 			setChanged();
 		}
 
-		notifyObservers();
+		notifyObservers( ViewModelEvent.selectionChanged( oldStart, oldEnd, newStart, newEnd ) );
 	}
 
 	public void clearSelection()
 	{
 		if ( getSelectionLength() > 0L )
 		{
+			final long oldStart = _selectionStart;
+			final long oldEnd = _selectionEnd;
 			_selectionStart = -1L;
 			_selectionEnd = -2L;
 			setChanged();
-			notifyObservers();
+			notifyObservers( ViewModelEvent.selectionChanged( oldStart, oldEnd, -1L, -2L ) );
 		}
 	}
 
@@ -339,9 +492,6 @@ extends Observable
 			{
 				try
 				{
-					final long bigEndian = _dataModel.getBigEndian( start, (int)selectionLength );
-					final long littleEndian = _dataModel.getLittleEndian( start, (int)selectionLength );
-
 					final StringBuilder builder = new StringBuilder();
 					builder.append( "[" );
 					builder.append( recordStart );
@@ -349,22 +499,22 @@ extends Observable
 					builder.append( start - recordStart );
 					builder.append( "] " );
 					builder.append( "int: LE " );
-					builder.append( littleEndian );
+					builder.append( _dataModel.getLittleEndian( start, (int)selectionLength ) );
 					builder.append( " / BE " );
-					builder.append( bigEndian );
+					builder.append( _dataModel.getBigEndian( start, (int)selectionLength ) );
 					if ( selectionLength == 4L )
 					{
 						builder.append( " -- float: LE " );
-						builder.append( Float.intBitsToFloat( (int)littleEndian ) );
+						builder.append( _dataModel.getFloat( start, ByteOrder.LITTLE_ENDIAN ) );
 						builder.append( " / BE " );
-						builder.append( Float.intBitsToFloat( (int)bigEndian ) );
+						builder.append( _dataModel.getFloat( start, ByteOrder.BIG_ENDIAN ) );
 					}
 					else if ( selectionLength == 8L )
 					{
 						builder.append( " -- float: LE " );
-						builder.append( Double.longBitsToDouble( littleEndian ) );
+						builder.append( _dataModel.getDouble( start, ByteOrder.LITTLE_ENDIAN ) );
 						builder.append( " / BE " );
-						builder.append( Double.longBitsToDouble( bigEndian ) );
+						builder.append( _dataModel.getDouble( start, ByteOrder.BIG_ENDIAN ) );
 					}
 					return builder.toString();
 				}
@@ -376,7 +526,7 @@ extends Observable
 			else
 			{
 				final long end = _selectionEnd;
-				return "Length: " + selectionLength + ", start: " + ( _dataModel.getOffset() + start ) + ", end: " + ( _dataModel.getOffset() + end );
+				return "Length: " + selectionLength + ", start: " + start + ", end: " + end;
 			}
 		}
 	}
@@ -414,19 +564,51 @@ extends Observable
 		return _firstRowAddress;
 	}
 
-	public Iterable<Tile> getTiles()
+	/**
+	 * Returns the tiles that intersect the given bounds. Only the rows and
+	 * columns covered by the bounds are iterated, so the number of tiles
+	 * depends on the size of the view and the current scale.
+	 *
+	 * <p>To keep painting free of allocations, the same iterable, iterator and
+	 * {@link Tile} instance are returned on every call. The result can only be
+	 * iterated once and only until the next call to this method.
+	 *
+	 * @param bounds Bounds, in model coordinates (i.e. relative to the first
+	 *               row, without the view transform).
+	 *
+	 * @return Tiles intersecting the given bounds.
+	 */
+	public Iterable<Tile> getTiles( final Rectangle2D bounds )
 	{
-		final long start = getFirstRowAddress();
-		final long end = start + 800L;
+		final double size = (double)_tileSize;
+		final double spacing = (double)( _tileSize + _tilePadding );
+		final int columns = _columns;
+		final long firstRowAddress = getFirstRowAddress();
 
-		return new Iterable<Tile>()
+		final int firstColumn = Math.max( 0, (int)Math.floor( ( bounds.getMinX() - size ) / spacing ) + 1 );
+		final int lastColumn = Math.min( columns - 1, (int)Math.ceil( bounds.getMaxX() / spacing ) - 1 );
+		final long firstRow = Math.max( -firstRowAddress / (long)columns, (long)Math.floor( ( bounds.getMinY() - size ) / spacing ) + 1L );
+		final long lastRow = (long)Math.ceil( bounds.getMaxY() / spacing ) - 1L;
+
+		TileIterator result = _tileIterator;
+		if ( result == null )
 		{
-			@Override
-			public Iterator<Tile> iterator()
-			{
-				return new TileIterator( getTile( start ), end );
-			}
-		};
+			result = new TileIterator( getTile() );
+			_tileIterator = result;
+		}
+
+		if ( ( firstColumn > lastColumn ) || ( firstRow > lastRow ) )
+		{
+			result.clear();
+		}
+		else
+		{
+			final long start = firstRowAddress + firstRow * (long)columns + (long)firstColumn;
+			final long end = firstRowAddress + lastRow * (long)columns + (long)lastColumn;
+			result.reset( _dataModel, start, end, lastColumn - firstColumn + 1, columns );
+		}
+
+		return result;
 	}
 
 	public void setHighlighter( final Highlighter highlighter )
@@ -439,26 +621,107 @@ extends Observable
 		return _highlighter;
 	}
 
+	/**
+	 * Iterates over the tiles in a rectangular block of rows and columns. The
+	 * iterator is its own iterable and can be reset to iterate another block,
+	 * reusing its tile and buffer.
+	 */
 	private static class TileIterator
-	implements Iterator<Tile>
+	implements Iterable<Tile>, Iterator<Tile>
 	{
 		private final Tile _tile;
 
+		private long _start;
+
 		private long _current;
 
 		private long _end;
 
 		/**
-		 * Constructs a new instance.
+		 * Number of tiles to iterate in each row.
+		 */
+		private int _width;
+
+		/**
+		 * Number of columns in the view.
+		 */
+		private int _columns;
+
+		/**
+		 * Address of the last tile to iterate in the current row.
+		 */
+		private long _rowEnd;
+
+		/**
+		 * Values of the bytes from start to end. May be larger than needed.
+		 */
+		private byte[] _values = new byte[ 0 ];
+
+		/**
+		 * Constructs a new instance that iterates no tiles.
 		 *
-		 * @param tile First tile.
-		 * @param end  Address of last tile.
+		 * @param tile Tile instance to be reused for every address.
 		 */
-		private TileIterator( final Tile tile, final long end )
+		private TileIterator( final Tile tile )
 		{
 			_tile = tile;
-			_current = tile.getAddress();
+			clear();
+		}
+
+		/**
+		 * Resets the iterator such that it iterates no tiles.
+		 */
+		private void clear()
+		{
+			_start = 0L;
+			_current = 0L;
+			_end = -1L;
+		}
+
+		/**
+		 * Resets the iterator to iterate the given block of tiles.
+		 *
+		 * @param dataModel Data model to read values from.
+		 * @param start     Address of first tile.
+		 * @param end       Address of last tile.
+		 * @param width     Number of tiles to iterate in each row.
+		 * @param columns   Number of columns in the view.
+		 */
+		private void reset( final DataModel dataModel, final long start, final long end, final int width, final int columns )
+		{
+			final int length = (int)( end - start + 1L );
+			byte[] values = _values;
+			if ( values.length < length )
+			{
+				values = new byte[ length ];
+				_values = values;
+			}
+			else
+			{
+				Arrays.fill( values, 0, length, (byte)0 );
+			}
+
+			try
+			{
+				dataModel.read( start, values, 0, length );
+			}
+			catch ( IOException e )
+			{
+				throw new RuntimeException( e );
+			}
+
+			_start = start;
+			_current = start;
 			_end = end;
+			_width = width;
+			_columns = columns;
+			_rowEnd = start + (long)width - 1L;
+		}
+
+		@Override
+		public Iterator<Tile> iterator()
+		{
+			return this;
 		}
 
 		@Override
@@ -474,7 +737,19 @@ extends Observable
 			{
 				throw new NoSuchElementException();
 			}
-			_tile.setAddress( _current++ );
+
+			final long address = _current;
+			if ( address == _rowEnd )
+			{
+				_current = address + (long)( _columns - _width + 1 );
+				_rowEnd += (long)_columns;
+			}
+			else
+			{
+				_current = address + 1L;
+			}
+
+			_tile.setAddress( address, _values[ (int)( address - _start ) ] );
 			return _tile;
 		}
 
@@ -485,13 +760,68 @@ extends Observable
 		}
 	}
 
+	public Search getSearch()
+	{
+		return _search;
+	}
+
+	/**
+	 * Sets the current search. Any previous search is cancelled.
+	 *
+	 * @param search Search to be set.
+	 */
+	public void setSearch( final Search search )
+	{
+		if ( _search != search )
+		{
+			if ( _search != null )
+			{
+				_search.cancel();
+			}
+			_search = search;
+			setChanged();
+			notifyObservers( new ViewModelEvent( ViewModelEvent.Type.SEARCH ) );
+		}
+	}
+
+	/**
+	 * Returns a description of the state of the current search.
+	 *
+	 * @return Search status; {@code null} if there is no search.
+	 */
+	public String getSearchStatus()
+	{
+		final Search search = _search;
+		if ( search == null )
+		{
+			return null;
+		}
+
+		final StringBuilder result = new StringBuilder();
+		result.append( search.getPattern() );
+		result.append( ": " );
+		result.append( search.getMatchCount() );
+		result.append( search.getMatchCount() == 1 ? " match" : " matches" );
+		if ( search.getException() != null )
+		{
+			result.append( " (" );
+			result.append( search.getException() );
+			result.append( ")" );
+		}
+		else if ( !search.isCompleted() && !search.isCancelled() )
+		{
+			result.append( " (searching)" );
+		}
+		return result.toString();
+	}
+
 	public void setRecord( final Record record )
 	{
 		if ( _record != record )
 		{
 			_record = record;
 			setChanged();
-			notifyObservers();
+			notifyObservers( new ViewModelEvent( ViewModelEvent.Type.RECORD ) );
 		}
 	}
 
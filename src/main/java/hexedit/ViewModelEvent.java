@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+/**
+ * Describes a change to a {@link ViewModel}. Passed as the argument to
+ * observers of the view model, so they can limit their response to what
+ * actually changed.
+ *
+ * @author Gerrit Meinders
+ */
+public class ViewModelEvent
+{
+	/**
+	 * Type of change.
+	 */
+	public enum Type
+	{
+		/**
+		 * The selection changed.
+		 */
+		SELECTION,
+
+		/**
+		 * The view was moved or scaled.
+		 */
+		TRANSFORM,
+
+		/**
+		 * The current record changed.
+		 */
+		RECORD,
+
+		/**
+		 * The data model changed.
+		 */
+		DATA,
+
+		/**
+		 * The current search changed.
+		 */
+		SEARCH
+	}
+
+	/**
+	 * Type of change.
+	 */
+	private final Type _type;
+
+	/**
+	 * Start of the selection before the change.
+	 */
+	private final long _oldSelectionStart;
+
+	/**
+	 * End of the selection before the change.
+	 */
+	private final long _oldSelectionEnd;
+
+	/**
+	 * Start of the selection after the change.
+	 */
+	private final long _newSelectionStart;
+
+	/**
+	 * End of the selection after the change.
+	 */
+	private final long _newSelectionEnd;
+
+	/**
+	 * Constructs a new instance for a change other than a selection change.
+	 *
+	 * @param type Type of change.
+	 */
+	public ViewModelEvent( final Type type )
+	{
+		this( type, -1L, -2L, -1L, -2L );
+	}
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param type              Type of change.
+	 * @param oldSelectionStart Start of the selection before the change.
+	 * @param oldSelectionEnd   End of the selection before the change.
+	 * @param newSelectionStart Start of the selection after the change.
+	 * @param newSelectionEnd   End of the selection after the change.
+	 */
+	public ViewModelEvent( final Type type, final long oldSelectionStart, final long oldSelectionEnd, final long newSelectionStart, final long newSelectionEnd )
+	{
+		_type = type;
+		_oldSelectionStart = oldSelectionStart;
+		_oldSelectionEnd = oldSelectionEnd;
+		_newSelectionStart = newSelectionStart;
+		_newSelectionEnd = newSelectionEnd;
+	}
+
+	/**
+	 * Creates an event for a change of the selection.
+	 *
+	 * @param oldSelectionStart Start of the selection before the change.
+	 * @param oldSelectionEnd   End of the selection before the change.
+	 * @param newSelectionStart Start of the selection after the change.
+	 * @param newSelectionEnd   End of the selection after the change.
+	 *
+	 * @return Selection event.
+	 */
+	public static ViewModelEvent selectionChanged( final long oldSelectionStart, final long oldSelectionEnd, final long newSelectionStart, final long newSelectionEnd )
+	{
+		return new ViewModelEvent( Type.SELECTION, oldSelectionStart, oldSelectionEnd, newSelectionStart, newSelectionEnd );
+	}
+
+	public Type getType()
+	{
+		return _type;
+	}
+
+	public long getOldSelectionStart()
+	{
+		return _oldSelectionStart;
+	}
+
+	public long getOldSelectionEnd()
+	{
+		return _oldSelectionEnd;
+	}
+
+	public long getNewSelectionStart()
+	{
+		return _newSelectionStart;
+	}
+
+	public long getNewSelectionEnd()
+	{
+		return _newSelectionEnd;
+	}
+
+	@Override
+	public String toString()
+	{
+		if ( _type == Type.SELECTION )
+		{
+			return _type + "[" + _oldSelectionStart + ".." + _oldSelectionEnd + " -> " + _newSelectionStart + ".." + _newSelectionEnd + "]";
+		}
+		return String.valueOf( _type );
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark that imports many definitions into a {@link Record}, e.g. the
+ * fields of a template, either one by one or as a batch. Also compares
+ * looking up the definition of every address in a viewport one by one, as
+ * opposed to using a {@link DefinitionMap.Cursor}. Run it with:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) org.openjdk.jmh.Main DefinitionBenchmark
+ * </pre>
+ *
+ * @author Gerrit Meinders
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class DefinitionBenchmark
+{
+	/**
+	 * Number of definitions to import.
+	 */
+	@Param( { "100000", "1000000" } )
+	public int count;
+
+	/**
+	 * Number of addresses looked up by the lookup benchmarks, i.e. the number
+	 * of tiles in a typical view.
+	 */
+	private static final int VIEWPORT_SIZE = 64 * 32;
+
+	/**
+	 * Definitions to import, ordered by address.
+	 */
+	private List<Definition> _ordered;
+
+	/**
+	 * Definitions to import, in random order.
+	 */
+	private List<Definition> _shuffled;
+
+	/**
+	 * Map containing all definitions, used by the lookup benchmarks.
+	 */
+	private DefinitionMap _map;
+
+	private final DefinitionMap.Cursor _cursor = new DefinitionMap.Cursor();
+
+	/**
+	 * First address looked up by the lookup benchmarks.
+	 */
+	private long _viewportStart;
+
+	@Setup
+	public void setUp()
+	{
+		final List<Definition> definitions = new ArrayList<Definition>( count );
+		for ( int i = 0; i < count; i++ )
+		{
+			definitions.add( new DefinitionImpl( (long)i * 4L, 4 ) );
+		}
+		_ordered = definitions;
+
+		_shuffled = new ArrayList<Definition>( definitions );
+		Collections.shuffle( _shuffled, new Random( 1L ) );
+
+		_map = new DefinitionMap( definitions );
+		_viewportStart = (long)count * 2L;
+	}
+
+	@Benchmark
+	public Record addInOrder()
+	{
+		final Record record = new ArrayRecord( 0L, (long)count * 4L, 1L );
+		for ( final Definition definition : _ordered )
+		{
+			record.addDefinition( definition );
+		}
+		return record;
+	}
+
+	@Benchmark
+	public Record addShuffled()
+	{
+		final Record record = new ArrayRecord( 0L, (long)count * 4L, 1L );
+		for ( final Definition definition : _shuffled )
+		{
+			record.addDefinition( definition );
+		}
+		return record;
+	}
+
+	@Benchmark
+	public Record addBatch()
+	{
+		final Record record = new ArrayRecord( 0L, (long)count * 4L, 1L );
+		record.addDefinitions( _shuffled );
+		return record;
+	}
+
+	@Benchmark
+	@BenchmarkMode( Mode.AverageTime )
+	@OutputTimeUnit( TimeUnit.MICROSECONDS )
+	@Warmup( iterations = 5, time = 1 )
+	@Measurement( iterations = 5, time = 1 )
+	public int lookupPerAddress()
+	{
+		final DefinitionMap map = _map;
+		int result = 0;
+		for ( long address = _viewportStart; address < _viewportStart + (long)VIEWPORT_SIZE; address++ )
+		{
+			if ( map.get( address ) != null )
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	@BenchmarkMode( Mode.AverageTime )
+	@OutputTimeUnit( TimeUnit.MICROSECONDS )
+	@Warmup( iterations = 5, time = 1 )
+	@Measurement( iterations = 5, time = 1 )
+	public int lookupWithCursor()
+	{
+		final DefinitionMap.Cursor cursor = _cursor;
+		cursor.reset( _map );
+		int result = 0;
+		for ( long address = _viewportStart; address < _viewportStart + (long)VIEWPORT_SIZE; address++ )
+		{
+			if ( cursor.get( address ) != null )
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.swing.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark that repeatedly paints a {@link View} into an image, without a
+ * display. Run it with the GC profiler to see the amount of memory allocated
+ * per repaint (gc.alloc.rate.norm):
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) org.openjdk.jmh.Main PaintBenchmark -prof gc
+ * </pre>
+ *
+ * @author Gerrit Meinders
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = "-Djava.awt.headless=true" )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class PaintBenchmark
+{
+	/**
+	 * Scale of the view. At the largest scale, tile text is not taken from a
+	 * {@link GlyphAtlas}.
+	 */
+	@Param( { "1", "3" } )
+	public float scale;
+
+	private File _file;
+
+	private FileChannel _channel;
+
+	private ViewModel _viewModel;
+
+	private View _view;
+
+	/**
+	 * Direction in which the view is moved by {@link #scroll}.
+	 */
+	private int _scrollDirection = 1;
+
+	private BufferedImage _image;
+
+	private Graphics2D _graphics;
+
+	@Setup
+	public void setUp()
+	throws IOException
+	{
+		final byte[] data = new byte[ 0x10000 ];
+		new Random( 1L ).nextBytes( data );
+
+		_file = File.createTempFile( "hexedit", ".bin" );
+		final FileOutputStream out = new FileOutputStream( _file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		_channel = FileChannel.open( _file.toPath() );
+
+		final ViewModel viewModel = new ViewModel();
+		viewModel.setDataModel( new DataModel( _file.toURI(), _channel ) );
+		viewModel.setRecord( new RootRecord( viewModel.getDataModel() ) );
+		viewModel.select( 100L, 103L );
+		viewModel.scale( new Point( 0, 0 ), scale );
+
+		final Menu menu = new Menu( 4, new Color( 0x7fa1bb ) );
+		menu.setAction( new NoAction( "structure" ) );
+		final List<MenuItem> items = new ArrayList<MenuItem>();
+		for ( final String name : new String[] { "new", "pointer", "start", "end", "length", "count" } )
+		{
+			items.add( new MenuItem( new NoAction( name ), 2 ) );
+		}
+		menu.setItems( items );
+
+		_viewModel = viewModel;
+		_view = new View();
+		_view.setViewModel( viewModel );
+		_view.setMenu( menu );
+		_view.setSize( 1280, 800 );
+
+		_image = new BufferedImage( 1280, 800, BufferedImage.TYPE_INT_RGB );
+		_graphics = _image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown()
+	throws IOException
+	{
+		_graphics.dispose();
+		_channel.close();
+		_file.delete();
+	}
+
+	/**
+	 * Paints the entire view.
+	 */
+	@Benchmark
+	public BufferedImage paint()
+	{
+		_view.repaint();
+		_view.paintComponent( _graphics );
+		return _image;
+	}
+
+	/**
+	 * Moves the view up or down by a few pixels and paints it, as happens
+	 * while dragging the view.
+	 */
+	@Benchmark
+	public BufferedImage scroll()
+	{
+		final Point from = new Point( 0, 0 );
+		_viewModel.moveView( from, new Point( 0, 4 * _scrollDirection ) );
+		_scrollDirection = -_scrollDirection;
+		_view.paintComponent( _graphics );
+		return _image;
+	}
+
+	/**
+	 * Action that does nothing.
+	 */
+	private static class NoAction
+	extends AbstractAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private NoAction( final String name )
+		{
+			super( name );
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+		}
+	}
+}
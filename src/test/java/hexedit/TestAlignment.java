@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link Alignment} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestAlignment
+extends TestCase
+{
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+		}
+	}
+
+	public void testInsertion()
+	throws IOException
+	{
+		final byte[] source = random( 1L, 200000 );
+		final byte[] target = concat( Arrays.copyOfRange( source, 0, 100000 ), random( 2L, 1000 ), Arrays.copyOfRange( source, 100000, source.length ) );
+
+		final Alignment alignment = Alignment.compute( createDataModel( source ), createDataModel( target ) );
+		assertEquals( 50000L, alignment.getTargetAddress( 50000L ) );
+		assertEquals( 99999L, alignment.getTargetAddress( 99999L ) );
+		assertEquals( 101000L, alignment.getTargetAddress( 100000L ) );
+		assertEquals( 151000L, alignment.getTargetAddress( 150000L ) );
+		assertEquals( 200999L, alignment.getTargetAddress( 199999L ) );
+		assertEquals( -1L, alignment.nextUnaligned( 0L ) );
+		assertEquals( -1L, alignment.previousUnaligned( 200000L ) );
+	}
+
+	public void testDeletion()
+	throws IOException
+	{
+		final byte[] source = random( 3L, 200000 );
+		final byte[] target = concat( Arrays.copyOfRange( source, 0, 100000 ), Arrays.copyOfRange( source, 101000, source.length ) );
+
+		final Alignment alignment = Alignment.compute( createDataModel( source ), createDataModel( target ) );
+		assertEquals( 50000L, alignment.getTargetAddress( 50000L ) );
+		assertEquals( -1L, alignment.getTargetAddress( 100500L ) );
+		assertEquals( 100000L, alignment.getTargetAddress( 101000L ) );
+		assertEquals( 149000L, alignment.getTargetAddress( 150000L ) );
+
+		final long first = alignment.nextUnaligned( 0L );
+		final long last = alignment.previousUnaligned( 200000L );
+		assertTrue( "first: " + first, first >= 100000L && first < 100010L );
+		assertTrue( "last: " + last, last > 100990L && last <= 100999L );
+		assertEquals( -1L, alignment.nextUnaligned( last + 1L ) );
+		assertEquals( -1L, alignment.previousUnaligned( first ) );
+		assertEquals( 100500L, alignment.nextUnaligned( 100500L ) );
+		assertEquals( 100499L, alignment.previousUnaligned( 100500L ) );
+	}
+
+	public void testRepeatedChunks()
+	throws IOException
+	{
+		final byte[] prefix = random( 4L, 30000 );
+		final byte[] repeated = random( 5L, 40000 );
+		final byte[] suffix = random( 6L, 30000 );
+		final byte[] source = concat( prefix, repeated, repeated, repeated, suffix );
+		final byte[] target = concat( prefix, random( 7L, 500 ), repeated, repeated, repeated, suffix );
+
+		final Alignment alignment = Alignment.compute( createDataModel( source ), createDataModel( target ) );
+		assertEquals( 10000L, alignment.getTargetAddress( 10000L ) );
+		for ( int copy = 0; copy < 3; copy++ )
+		{
+			final long address = 30000L + 40000L * (long)copy;
+			assertEquals( address + 500L, alignment.getTargetAddress( address ) );
+			assertEquals( address + 20500L, alignment.getTargetAddress( address + 20000L ) );
+			assertEquals( address + 40499L, alignment.getTargetAddress( address + 39999L ) );
+		}
+		assertEquals( 160500L, alignment.getTargetAddress( 160000L ) );
+		assertEquals( -1L, alignment.nextUnaligned( 0L ) );
+	}
+
+	public void testEqualLength()
+	throws IOException
+	{
+		final byte[] source = random( 8L, 200000 );
+		final byte[] target = source.clone();
+		target[ 5000 ]++;
+		target[ 120000 ]++;
+		target[ 120001 ]++;
+
+		final Alignment alignment = Alignment.compute( createDataModel( source ), createDataModel( target ) );
+		assertEquals( 4999L, alignment.getTargetAddress( 4999L ) );
+		assertEquals( -1L, alignment.getTargetAddress( 5000L ) );
+		assertEquals( 5001L, alignment.getTargetAddress( 5001L ) );
+		assertEquals( 199999L, alignment.getTargetAddress( 199999L ) );
+
+		assertEquals( 5000L, alignment.nextUnaligned( 0L ) );
+		assertEquals( 120000L, alignment.nextUnaligned( 5001L ) );
+		assertEquals( 120001L, alignment.nextUnaligned( 120001L ) );
+		assertEquals( -1L, alignment.nextUnaligned( 120002L ) );
+		assertEquals( 120001L, alignment.previousUnaligned( 200000L ) );
+		assertEquals( 5000L, alignment.previousUnaligned( 120000L ) );
+		assertEquals( -1L, alignment.previousUnaligned( 5000L ) );
+	}
+
+	public void testIdentical()
+	throws IOException
+	{
+		final byte[] data = random( 9L, 100000 );
+
+		final Alignment alignment = Alignment.compute( createDataModel( data ), createDataModel( data ) );
+		assertEquals( 1, alignment.getSegmentCount() );
+		assertEquals( 0L, alignment.getSegmentStart( 0 ) );
+		assertEquals( 100000L, alignment.getSegmentLength( 0 ) );
+		assertEquals( 0L, alignment.getSegmentOffset( 0 ) );
+		assertEquals( -1L, alignment.nextUnaligned( 0L ) );
+		assertEquals( -1L, alignment.previousUnaligned( 100000L ) );
+	}
+
+	private static byte[] random( final long seed, final int length )
+	{
+		final byte[] result = new byte[ length ];
+		new Random( seed ).nextBytes( result );
+		return result;
+	}
+
+	private static byte[] concat( final byte[]... parts )
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for ( final byte[] part : parts )
+		{
+			out.write( part, 0, part.length );
+		}
+		return out.toByteArray();
+	}
+
+	private DataModel createDataModel( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+		return new DataModel( file.toURI(), channel );
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link BlockHashTree} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestBlockHashTree
+extends TestCase
+{
+	private static final int BLOCK_SIZE = BlockHashTree.BLOCK_SIZE;
+
+	/**
+	 * Offset of the first block hash in a sidecar file.
+	 */
+	private static final int HASHES_OFFSET = 32;
+
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+			getSidecar( file ).delete();
+		}
+	}
+
+	public void testDifferentBlocks()
+	throws Exception
+	{
+		final byte[] data = new byte[ 10 * BLOCK_SIZE + 100 ];
+		new Random( 1L ).nextBytes( data );
+		final byte[] changed = data.clone();
+		changed[ 3 * BLOCK_SIZE + 7 ]++;
+		changed[ 9 * BLOCK_SIZE - 1 ]++;
+		final byte[] shorter = Arrays.copyOf( data, 8 * BLOCK_SIZE + 5 );
+
+		final BlockHashTree tree = BlockHashTree.build( createDataModel( data ) );
+		final BlockHashTree changedTree = BlockHashTree.build( createDataModel( changed ) );
+		final BlockHashTree shorterTree = BlockHashTree.build( createDataModel( shorter ) );
+		assertEquals( 11, tree.getBlockCount() );
+		assertEquals( 9, shorterTree.getBlockCount() );
+
+		assertTrue( BlockHashTree.getDifferentBlocks( Arrays.asList( tree, BlockHashTree.build( createDataModel( data.clone() ) ) ) ).isEmpty() );
+
+		final BitSet expected = new BitSet();
+		expected.set( 3 );
+		expected.set( 8 );
+		assertEquals( expected, BlockHashTree.getDifferentBlocks( Arrays.asList( tree, changedTree ) ) );
+
+		// The partial last block and all missing blocks differ.
+		expected.clear();
+		expected.set( 8, 11 );
+		assertEquals( expected, BlockHashTree.getDifferentBlocks( Arrays.asList( tree, shorterTree ) ) );
+	}
+
+	public void testSidecar()
+	throws Exception
+	{
+		final byte[] data = new byte[ 3 * BLOCK_SIZE + 100 ];
+		new Random( 2L ).nextBytes( data );
+		final File file = createFile( data );
+		final File sidecar = getSidecar( file );
+
+		final long hash = BlockHashTree.get( createDataModel( file ) ).getBlockHash( 0 );
+		assertTrue( "Sidecar not saved.", sidecar.isFile() );
+
+		// A valid sidecar is used instead of reading the data.
+		setFirstHash( sidecar, hash + 1L );
+		assertEquals( hash + 1L, BlockHashTree.get( createDataModel( file ) ).getBlockHash( 0 ) );
+
+		// The sidecar is rejected when the file is modified.
+		Files.setLastModifiedTime( file.toPath(), FileTime.fromMillis( file.lastModified() + 10000L ) );
+		assertEquals( hash, BlockHashTree.get( createDataModel( file ) ).getBlockHash( 0 ) );
+
+		// The rebuilt tree was saved.
+		setFirstHash( sidecar, hash + 2L );
+		assertEquals( hash + 2L, BlockHashTree.get( createDataModel( file ) ).getBlockHash( 0 ) );
+
+		// The sidecar is rejected when the length changes.
+		final long modified = file.lastModified();
+		final FileOutputStream out = new FileOutputStream( file, true );
+		try
+		{
+			out.write( new byte[ BLOCK_SIZE ] );
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.setLastModifiedTime( file.toPath(), FileTime.fromMillis( modified ) );
+
+		final BlockHashTree tree = BlockHashTree.get( createDataModel( file ) );
+		assertEquals( hash, tree.getBlockHash( 0 ) );
+		assertEquals( 5, tree.getBlockCount() );
+	}
+
+	/**
+	 * Overwrites the hash of the first block in the given sidecar file.
+	 */
+	private static void setFirstHash( final File sidecar, final long hash )
+	throws IOException
+	{
+		final FileChannel channel = FileChannel.open( sidecar.toPath(), StandardOpenOption.WRITE );
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate( 8 );
+			buffer.putLong( 0, hash );
+			channel.write( buffer, (long)HASHES_OFFSET );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static File getSidecar( final File file )
+	{
+		return new File( file.getPath() + ".blockhash" );
+	}
+
+	private File createFile( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private DataModel createDataModel( final byte[] data )
+	throws IOException
+	{
+		return createDataModel( createFile( data ) );
+	}
+
+	private DataModel createDataModel( final File file )
+	throws IOException
+	{
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+		return new DataModel( file.toURI(), channel );
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link BytePattern} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestBytePattern
+extends TestCase
+{
+	public void testAgainstBruteForce()
+	{
+		// Small alphabet, so there are many partial and complete matches.
+		final Random random = new Random( 1L );
+		final byte[] data = new byte[ 2000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = (byte)random.nextInt( 3 );
+		}
+
+		for ( int length = 1; length <= 6; length++ )
+		{
+			for ( int n = 0; n < 20; n++ )
+			{
+				final byte[] bytes = new byte[ length ];
+				for ( int i = 0; i < length; i++ )
+				{
+					bytes[ i ] = (byte)random.nextInt( 3 );
+				}
+				final BytePattern pattern = new BytePattern( bytes );
+
+				final int from = random.nextInt( 100 );
+				final int to = data.length - random.nextInt( 100 );
+				assertEquals( pattern + " in [" + from + ", " + to + ")", indexOf( data, bytes, from, to ), pattern.indexOf( data, from, to ) );
+				assertEquals( pattern + " in [" + from + ", " + to + ")", lastIndexOf( data, bytes, from, to ), pattern.lastIndexOf( data, from, to ) );
+			}
+		}
+	}
+
+	public void testBounds()
+	{
+		final byte[] data = Tools.hexStringToBytes( "4d5a0000004d5a" );
+		final BytePattern pattern = BytePattern.parse( "4d 5a" );
+		assertEquals( "4d5a", pattern.toString().replace( " ", "" ).toLowerCase() );
+
+		assertEquals( 0, pattern.indexOf( data, 0, data.length ) );
+		assertEquals( 5, pattern.indexOf( data, 1, data.length ) );
+		assertEquals( -1, pattern.indexOf( data, 1, data.length - 1 ) );
+		assertEquals( 5, pattern.lastIndexOf( data, 0, data.length ) );
+		assertEquals( 0, pattern.lastIndexOf( data, 0, data.length - 1 ) );
+		assertEquals( -1, pattern.lastIndexOf( data, 1, data.length - 1 ) );
+		assertEquals( -1, pattern.indexOf( data, 0, 1 ) );
+	}
+
+	public void testEmpty()
+	{
+		try
+		{
+			new BytePattern( new byte[ 0 ] );
+			fail( "Expected an exception." );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			// Expected.
+		}
+	}
+
+	private static int indexOf( final byte[] data, final byte[] bytes, final int from, final int to )
+	{
+		for ( int i = from; i + bytes.length <= to; i++ )
+		{
+			if ( matches( data, bytes, i ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf( final byte[] data, final byte[] bytes, final int from, final int to )
+	{
+		for ( int i = to - bytes.length; i >= from; i-- )
+		{
+			if ( matches( data, bytes, i ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches( final byte[] data, final byte[] bytes, final int start )
+	{
+		for ( int i = 0; i < bytes.length; i++ )
+		{
+			if ( data[ start + i ] != bytes[ i ] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for {@link DataModel}.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestDataModel
+extends TestCase
+{
+	private File _file;
+
+	private byte[] _data;
+
+	@Override
+	protected void setUp()
+	throws Exception
+	{
+		_data = new byte[ 0x40000 + 123 ];
+		new Random( 1L ).nextBytes( _data );
+
+		_file = File.createTempFile( "hexedit", ".bin" );
+		final FileOutputStream out = new FileOutputStream( _file );
+		try
+		{
+			out.write( _data );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		_file.delete();
+	}
+
+	public void testConcurrentReads()
+	throws Exception
+	{
+		final FileChannel channel = FileChannel.open( _file.toPath() );
+		try
+		{
+			// Small cache to force frequent eviction.
+			testConcurrentReads( new DataModel( _file.toURI(), channel, 0x1000, 0x8000L ) );
+			testConcurrentReads( new MappedDataModel( _file.toURI(), channel, 0x2000, 0x8000L ) );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Tests that sequential access is detected for each reader, even while
+	 * another reader accesses pages elsewhere in between.
+	 */
+	public void testInterleavedSequentialReads()
+	throws Exception
+	{
+		final FileChannel channel = FileChannel.open( _file.toPath() );
+		final ExecutorService first = Executors.newSingleThreadExecutor();
+		final ExecutorService second = Executors.newSingleThreadExecutor();
+		try
+		{
+			final DataModel dataModel = new DataModel( _file.toURI(), channel, 0x1000, 0x40000L );
+			for ( int page = 0; page < 2; page++ )
+			{
+				assertEquals( _data[ page * 0x1000 ], getByte( first, dataModel, page * 0x1000 ) );
+				assertEquals( _data[ ( page + 32 ) * 0x1000 ], getByte( second, dataModel, ( page + 32 ) * 0x1000 ) );
+			}
+
+			// Both readers prefetch the next two pages.
+			final long timeout = System.currentTimeMillis() + 10000L;
+			while ( dataModel.getPrefetchedPages() < 4L )
+			{
+				assertTrue( "Pages not prefetched in time.", System.currentTimeMillis() < timeout );
+				Thread.sleep( 10L );
+			}
+			assertEquals( 4L, dataModel.getPrefetchedPages() );
+		}
+		finally
+		{
+			first.shutdown();
+			second.shutdown();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Tests that pages prefetched while the cache is cleared are discarded.
+	 */
+	public void testClearCacheDuringPrefetch()
+	throws Exception
+	{
+		final FileChannel channel = FileChannel.open( _file.toPath() );
+		try
+		{
+			final CountDownLatch release = new CountDownLatch( 1 );
+			final AtomicInteger delayedPages = new AtomicInteger();
+			final DataModel dataModel = new DataModel( _file.toURI(), channel, 0x1000, 0x40000L )
+			{
+				@Override
+				protected ByteBuffer loadPage( final long position, final int size )
+				throws IOException
+				{
+					if ( position < 0x2000L )
+					{
+						return super.loadPage( position, size );
+					}
+
+					try
+					{
+						release.await();
+					}
+					catch ( InterruptedException e )
+					{
+						throw new InterruptedIOException();
+					}
+					final ByteBuffer result = super.loadPage( position, size );
+					delayedPages.incrementAndGet();
+					return result;
+				}
+			};
+
+			// Starts prefetching pages 2 and 3, which wait for the release.
+			dataModel.getByte( 0L );
+			dataModel.getByte( 0x1000L );
+			dataModel.clearCache();
+			release.countDown();
+
+			final long timeout = System.currentTimeMillis() + 10000L;
+			while ( delayedPages.get() < 2 )
+			{
+				assertTrue( "Pages not loaded in time.", System.currentTimeMillis() < timeout );
+				Thread.sleep( 10L );
+			}
+			Thread.sleep( 100L );
+			assertEquals( 0L, dataModel.getPrefetchedPages() );
+
+			final long misses = dataModel.getCacheMisses();
+			assertEquals( _data[ 0x2000 ], dataModel.getByte( 0x2000L ) );
+			assertEquals( misses + 1L, dataModel.getCacheMisses() );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static byte getByte( final ExecutorService executor, final DataModel dataModel, final long address )
+	throws Exception
+	{
+		return executor.submit( new Callable<Byte>()
+		{
+			@Override
+			public Byte call()
+			throws Exception
+			{
+				return dataModel.getByte( address );
+			}
+		} ).get();
+	}
+
+	private void testConcurrentReads( final DataModel dataModel )
+	throws Exception
+	{
+		final byte[] data = _data;
+		final ByteBuffer bigEndian = ByteBuffer.wrap( Arrays.copyOf( data, data.length + 8 ) );
+		final ByteBuffer littleEndian = bigEndian.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+
+		final int threadCount = 8;
+		final ExecutorService executor = Executors.newFixedThreadPool( threadCount );
+		try
+		{
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for ( int i = 0; i < threadCount; i++ )
+			{
+				final long seed = (long)i;
+				futures.add( executor.submit( new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					throws Exception
+					{
+						final Random random = new Random( seed );
+						final byte[] buffer = new byte[ 0x3000 ];
+						for ( int j = 0; j < 20000; j++ )
+						{
+							final int address = random.nextInt( data.length + 16 );
+
+							final int valueAddress = Math.min( address, data.length );
+							final byte expectedByte = address < data.length ? data[ address ] : (byte)0;
+							if ( dataModel.getByte( address ) != expectedByte )
+							{
+								fail( "getByte(" + address + ")" );
+							}
+							if ( dataModel.getInt( valueAddress, ByteOrder.BIG_ENDIAN ) != bigEndian.getInt( valueAddress ) )
+							{
+								fail( "getInt(" + valueAddress + ")" );
+							}
+							if ( dataModel.getLong( valueAddress, ByteOrder.LITTLE_ENDIAN ) != littleEndian.getLong( valueAddress ) )
+							{
+								fail( "getLong(" + valueAddress + ")" );
+							}
+
+							if ( j % 16 == 0 )
+							{
+								final int length = random.nextInt( buffer.length );
+								final int count = dataModel.read( address, buffer, 0, length );
+								assertEquals( "read(" + address + ", " + length + ")", Math.max( 0, Math.min( length, data.length - address ) ), count );
+								for ( int k = 0; k < count; k++ )
+								{
+									if ( buffer[ k ] != data[ address + k ] )
+									{
+										fail( "read(" + address + ")[" + k + "]" );
+									}
+								}
+							}
+						}
+						return null;
+					}
+				} ) );
+			}
+
+			for ( final Future<?> future : futures )
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertTrue( "Expected cache misses.", dataModel.getCacheMisses() > 0L );
+	}
+}
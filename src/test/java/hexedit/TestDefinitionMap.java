@@ -49,4 +49,162 @@ extends TestCase
 		assertSame( definition3, definitionMap.get( 26L ) );
 		assertNull( definitionMap.get( 27L ) );
 	}
+
+	public void testPutAndRemove()
+	{
+		final DefinitionMap definitionMap = new DefinitionMap();
+		final Random random = new Random( 1L );
+		final Definition[] expected = new Definition[ 1000 ];
+		for ( int i = 0; i < 2000; i++ )
+		{
+			final int index = random.nextInt( expected.length );
+			if ( random.nextBoolean() )
+			{
+				final DefinitionImpl definition = new DefinitionImpl( (long)index * 4L, 4 );
+				assertSame( expected[ index ], definitionMap.put( definition ) );
+				expected[ index ] = definition;
+			}
+			else
+			{
+				assertSame( expected[ index ], definitionMap.remove( (long)index * 4L ) );
+				expected[ index ] = null;
+			}
+		}
+
+		int size = 0;
+		for ( int index = 0; index < expected.length; index++ )
+		{
+			for ( int offset = 0; offset < 4; offset++ )
+			{
+				assertSame( expected[ index ], definitionMap.get( (long)index * 4L + (long)offset ) );
+			}
+			if ( expected[ index ] != null )
+			{
+				size++;
+			}
+		}
+		assertEquals( size, definitionMap.size() );
+	}
+
+	public void testOverlapping()
+	{
+		final DefinitionImpl outer = new DefinitionImpl( 0L, 100 );
+		final DefinitionImpl inner = new DefinitionImpl( 10L, 10 );
+		final DefinitionImpl partial = new DefinitionImpl( 90L, 20 );
+		final DefinitionMap definitionMap = new DefinitionMap( Arrays.<Definition>asList( partial, inner, outer ) );
+
+		assertSame( outer, definitionMap.get( 5L ) );
+		assertSame( inner, definitionMap.get( 15L ) );
+		assertSame( outer, definitionMap.get( 25L ) );
+		assertSame( partial, definitionMap.get( 95L ) );
+		assertSame( partial, definitionMap.get( 105L ) );
+		assertNull( definitionMap.get( 110L ) );
+	}
+
+	public void testUpdate()
+	{
+		final DefinitionImpl definition1 = new DefinitionImpl( 10L, 4 );
+		final DefinitionImpl definition2 = new DefinitionImpl( 20L, 4 );
+		final DefinitionMap definitionMap = new DefinitionMap( Arrays.<Definition>asList( definition1, definition2 ) );
+		final int version = definitionMap.getVersion();
+
+		definition1.setAddress( 30L );
+		definitionMap.update();
+
+		assertTrue( version != definitionMap.getVersion() );
+		assertNull( definitionMap.get( 10L ) );
+		assertSame( definition2, definitionMap.get( 20L ) );
+		assertSame( definition1, definitionMap.get( 30L ) );
+	}
+
+	public void testPutAll()
+	{
+		final DefinitionImpl definition1 = new DefinitionImpl( 10L, 4 );
+		final DefinitionImpl definition2 = new DefinitionImpl( 20L, 4 );
+		final DefinitionImpl replaced = new DefinitionImpl( 30L, 4 );
+		final DefinitionMap definitionMap = new DefinitionMap( Arrays.<Definition>asList( definition1, replaced ) );
+
+		final DefinitionImpl duplicate = new DefinitionImpl( 30L, 2 );
+		final DefinitionImpl definition3 = new DefinitionImpl( 30L, 4 );
+		final List<Definition> replacedDefinitions = definitionMap.putAll( Arrays.asList( definition3, definition2, duplicate, new DefinitionImpl( 40L, 4 ) ) );
+
+		assertEquals( Arrays.<Definition>asList( replaced, definition3 ), replacedDefinitions );
+		assertEquals( 4, definitionMap.size() );
+		assertSame( definition1, definitionMap.get( 10L ) );
+		assertSame( definition2, definitionMap.get( 20L ) );
+		assertSame( duplicate, definitionMap.get( 30L ) );
+		assertNull( definitionMap.get( 32L ) );
+		assertNotNull( definitionMap.get( 40L ) );
+	}
+
+	public void testOverlaps()
+	{
+		final DefinitionImpl definition1 = new DefinitionImpl( 10L, 4 );
+		final DefinitionImpl definition2 = new DefinitionImpl( 20L, 4 );
+		final DefinitionImpl definition3 = new DefinitionImpl( 22L, 10 );
+		final DefinitionImpl definition4 = new DefinitionImpl( 40L, 4 );
+		final DefinitionMap definitionMap = new DefinitionMap( Arrays.<Definition>asList( definition1, definition2, definition3, definition4 ) );
+
+		assertFalse( definitionMap.overlaps( 0L, 10L ) );
+		assertTrue( definitionMap.overlaps( 0L, 11L ) );
+		assertTrue( definitionMap.overlaps( 13L, 14L ) );
+		assertFalse( definitionMap.overlaps( 14L, 20L ) );
+		assertTrue( definitionMap.overlaps( 31L, 40L ) );
+		assertFalse( definitionMap.overlaps( 32L, 40L ) );
+		assertFalse( definitionMap.overlaps( 44L, 100L ) );
+
+		final List<Definition> overlapping = new ArrayList<Definition>();
+		definitionMap.getOverlapping( overlapping );
+		assertEquals( Arrays.<Definition>asList( definition2, definition3 ), overlapping );
+	}
+
+	public void testIterator()
+	{
+		final DefinitionImpl definition1 = new DefinitionImpl( 10L, 4 );
+		final DefinitionImpl definition2 = new DefinitionImpl( 15L, 2 );
+		final DefinitionImpl definition3 = new DefinitionImpl( 17L, 10 );
+		final DefinitionImpl outer = new DefinitionImpl( 0L, 100 );
+		final DefinitionMap definitionMap = new DefinitionMap( Arrays.<Definition>asList( definition3, definition1, definition2 ) );
+
+		assertEquals( Collections.<Definition>emptyList(), toList( definitionMap.iterator( 0L, 10L ) ) );
+		assertEquals( Arrays.<Definition>asList( definition1 ), toList( definitionMap.iterator( 0L, 11L ) ) );
+		assertEquals( Arrays.<Definition>asList( definition1, definition2 ), toList( definitionMap.iterator( 13L, 17L ) ) );
+		assertEquals( Arrays.<Definition>asList( definition2, definition3 ), toList( definitionMap.iterator( 16L, 100L ) ) );
+		assertEquals( Collections.<Definition>emptyList(), toList( definitionMap.iterator( 27L, 100L ) ) );
+
+		definitionMap.put( outer );
+		assertEquals( Arrays.<Definition>asList( outer, definition3 ), toList( definitionMap.iterator( 20L, 30L ) ) );
+		assertEquals( Arrays.<Definition>asList( outer ), toList( definitionMap.iterator( 50L, 60L ) ) );
+	}
+
+	public void testCursor()
+	{
+		final Random random = new Random( 1L );
+		final List<Definition> definitions = new ArrayList<Definition>();
+		for ( int i = 0; i < 500; i++ )
+		{
+			definitions.add( new DefinitionImpl( (long)random.nextInt( 5000 ), 1 + random.nextInt( random.nextBoolean() ? 8 : 200 ) ) );
+		}
+		final DefinitionMap definitionMap = new DefinitionMap( definitions );
+
+		final DefinitionMap.Cursor cursor = new DefinitionMap.Cursor();
+		for ( final long start : new long[] { -10L, 0L, 1234L, 4990L } )
+		{
+			cursor.reset( definitionMap );
+			for ( long address = start; address < 5300L; address += 1L + (long)random.nextInt( 3 ) )
+			{
+				assertSame( "Address " + address, definitionMap.get( address ), cursor.get( address ) );
+			}
+		}
+	}
+
+	private static List<Definition> toList( final Iterator<Definition> iterator )
+	{
+		final List<Definition> result = new ArrayList<Definition>();
+		while ( iterator.hasNext() )
+		{
+			result.add( iterator.next() );
+		}
+		return result;
+	}
 }
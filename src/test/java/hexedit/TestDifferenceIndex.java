@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link DifferenceIndex} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestDifferenceIndex
+extends TestCase
+{
+	private static final int BLOCK_SIZE = DifferenceIndex.BLOCK_SIZE;
+
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+			new File( file.getPath() + ".blockhash" ).delete();
+		}
+	}
+
+	public void testStates()
+	throws Exception
+	{
+		final byte[] first = createData();
+		final byte[] second = createChangedData( first );
+
+		final DifferenceIndex index = new DifferenceIndex( Arrays.asList( createDataModel( first ), createDataModel( second ) ) );
+		assertEquals( DifferenceIndex.UNKNOWN, index.getState( 10L ) );
+		index.start();
+		waitUntilComplete( index );
+
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( 10L ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( 11L ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( (long)BLOCK_SIZE - 1L ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( (long)BLOCK_SIZE ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( (long)BLOCK_SIZE + 1L ) );
+		assertEquals( DifferenceIndex.UNKNOWN, index.getState( 2L * (long)BLOCK_SIZE ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( 3L * (long)BLOCK_SIZE + 5L ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( 4L * (long)BLOCK_SIZE + 5L ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( (long)first.length - 1L ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( (long)first.length ) );
+	}
+
+	public void testUnequalLengthStates()
+	throws Exception
+	{
+		final byte[] first = createLongerData();
+		final byte[] second = createShorterData( first );
+
+		final DifferenceIndex index = new DifferenceIndex( Arrays.asList( createDataModel( second ), createDataModel( first ) ) );
+		assertEquals( (long)first.length, index.getLength() );
+		index.start();
+		waitUntilComplete( index );
+
+		// Bytes beyond the end of the second data model are treated as zero.
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( 1000L ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( (long)second.length - 1L ) );
+		assertEquals( DifferenceIndex.IDENTICAL, index.getState( (long)second.length + 100L ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( (long)second.length + 200L ) );
+		assertEquals( DifferenceIndex.DIFFERENT, index.getState( (long)first.length - 1L ) );
+	}
+
+	public void testNavigation()
+	throws Exception
+	{
+		final byte[] first = createData();
+		final byte[] second = createChangedData( first );
+		final List<Long> expected = findAll( first, second );
+		assertEquals( 46, expected.size() );
+
+		// Blocks are compared on demand.
+		final DifferenceIndex index = new DifferenceIndex( Arrays.asList( createDataModel( first ), createDataModel( second ) ) );
+		assertEquals( expected, findForward( index ) );
+		assertEquals( expected, findBackward( index ) );
+		assertEquals( 10L, index.nextDifference( -5L ) );
+		assertEquals( -1L, index.previousDifference( 10L ) );
+		assertEquals( 3L * (long)BLOCK_SIZE + 5L, index.previousDifference( (long)first.length - 1L ) );
+
+		// All blocks are indexed in the background.
+		final DifferenceIndex completeIndex = new DifferenceIndex( Arrays.asList( createDataModel( first ), createDataModel( second ) ) );
+		completeIndex.start();
+		waitUntilComplete( completeIndex );
+		assertEquals( expected, findForward( completeIndex ) );
+		assertEquals( expected, findBackward( completeIndex ) );
+	}
+
+	public void testUnequalLengthNavigation()
+	throws Exception
+	{
+		final byte[] first = createLongerData();
+		final byte[] second = createShorterData( first );
+		final List<Long> expected = findAll( first, second );
+		assertEquals( 1000L, (long)expected.get( 0 ) );
+		assertEquals( (long)second.length + 200L, (long)expected.get( 1 ) );
+		assertEquals( (long)first.length - 1L, (long)expected.get( expected.size() - 1 ) );
+
+		final DifferenceIndex index = new DifferenceIndex( Arrays.asList( createDataModel( second ), createDataModel( first ) ) );
+		assertEquals( expected, findForward( index ) );
+		assertEquals( expected, findBackward( index ) );
+
+		index.start();
+		waitUntilComplete( index );
+		assertEquals( expected, findForward( index ) );
+		assertEquals( expected, findBackward( index ) );
+	}
+
+	/**
+	 * Creates data that spans several blocks, the last of which is partial.
+	 */
+	private static byte[] createData()
+	{
+		final byte[] result = new byte[ 5 * BLOCK_SIZE + 1000 ];
+		new Random( 1L ).nextBytes( result );
+		return result;
+	}
+
+	/**
+	 * Changes single bytes, a range that crosses a block boundary and a block
+	 * with too many ranges to store.
+	 */
+	private static byte[] createChangedData( final byte[] data )
+	{
+		final byte[] result = data.clone();
+		result[ 10 ]++;
+		result[ BLOCK_SIZE - 1 ]++;
+		result[ BLOCK_SIZE ]++;
+		for ( int i = 0; i <= 40; i++ )
+		{
+			result[ 2 * BLOCK_SIZE + 100 * i ]++;
+		}
+		result[ 3 * BLOCK_SIZE + 5 ]++;
+		result[ result.length - 1 ]++;
+		return result;
+	}
+
+	/**
+	 * Creates data that ends with zeros followed by ones.
+	 */
+	private static byte[] createLongerData()
+	{
+		final byte[] result = new byte[ 3 * BLOCK_SIZE + 500 ];
+		new Random( 2L ).nextBytes( result );
+		final int shorterLength = 2 * BLOCK_SIZE - 100;
+		Arrays.fill( result, shorterLength, shorterLength + 200, (byte)0 );
+		Arrays.fill( result, shorterLength + 200, result.length, (byte)1 );
+		return result;
+	}
+
+	/**
+	 * Returns a shorter copy of the given data, with one byte changed.
+	 */
+	private static byte[] createShorterData( final byte[] data )
+	{
+		final byte[] result = Arrays.copyOf( data, 2 * BLOCK_SIZE - 100 );
+		result[ 1000 ]++;
+		return result;
+	}
+
+	private static void waitUntilComplete( final DifferenceIndex index )
+	throws InterruptedException
+	{
+		final long timeout = System.currentTimeMillis() + 30000L;
+		while ( !index.isComplete() )
+		{
+			assertTrue( "Index not completed in time.", System.currentTimeMillis() < timeout );
+			Thread.sleep( 10L );
+		}
+	}
+
+	private static List<Long> findForward( final DifferenceIndex index )
+	throws IOException
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( long address = index.nextDifference( 0L ); address >= 0L; address = index.nextDifference( address + 1L ) )
+		{
+			result.add( address );
+		}
+		return result;
+	}
+
+	private static List<Long> findBackward( final DifferenceIndex index )
+	throws IOException
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( long address = index.previousDifference( index.getLength() ); address >= 0L; address = index.previousDifference( address ) )
+		{
+			result.add( 0, address );
+		}
+		return result;
+	}
+
+	/**
+	 * Finds all differences by comparing the data byte by byte.
+	 */
+	private static List<Long> findAll( final byte[] first, final byte[] second )
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( int i = 0; i < Math.max( first.length, second.length ); i++ )
+		{
+			final byte firstValue = ( i < first.length ) ? first[ i ] : (byte)0;
+			final byte secondValue = ( i < second.length ) ? second[ i ] : (byte)0;
+			if ( firstValue != secondValue )
+			{
+				result.add( (long)i );
+			}
+		}
+		return result;
+	}
+
+	private DataModel createDataModel( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+		return new DataModel( file.toURI(), channel );
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link MaskedPattern} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestMaskedPattern
+extends TestCase
+{
+	/**
+	 * Byte values used in test data, so there are many partial and complete
+	 * matches.
+	 */
+	private static final byte[] ALPHABET = { (byte)0x4d, (byte)0x5a, (byte)0x1f, (byte)0x2f, (byte)0x10, (byte)0x00 };
+
+	public void testAgainstBruteForce()
+	{
+		final Random random = new Random( 1L );
+		final byte[] data = new byte[ 3000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = ALPHABET[ random.nextInt( ALPHABET.length ) ];
+		}
+
+		final String[] patterns = {
+			// Wildcard bytes around an anchor.
+			"4d ?? 5a", "?? 4d 5a ??", "4d 5a ?? ?? 1f 2f",
+			// Nibble masks, without any fully specified bytes.
+			"1? ?f", "?f 1?", "?d",
+			// Nibble masks around an anchor.
+			"1? 4d ?a",
+			// Only wildcards.
+			"??", "?? ?? ??" };
+
+		for ( final String string : patterns )
+		{
+			final SearchPattern pattern = MaskedPattern.compile( string );
+			assertTrue( string, pattern instanceof MaskedPattern );
+			final byte[][] valuesAndMasks = parse( string );
+
+			for ( int n = 0; n < 20; n++ )
+			{
+				final int from = random.nextInt( 100 );
+				final int to = data.length - random.nextInt( 100 );
+				assertEquals( string + " in [" + from + ", " + to + ")", indexOf( data, valuesAndMasks, from, to ), pattern.indexOf( data, from, to ) );
+				assertEquals( string + " in [" + from + ", " + to + ")", lastIndexOf( data, valuesAndMasks, from, to ), pattern.lastIndexOf( data, from, to ) );
+			}
+
+			// Iterate over all matches in both directions.
+			int count = 0;
+			for ( int i = pattern.indexOf( data, 0, data.length ); i >= 0; i = pattern.indexOf( data, i + 1, data.length ) )
+			{
+				count++;
+			}
+			int backwardCount = 0;
+			for ( int i = pattern.lastIndexOf( data, 0, data.length ); i >= 0; i = pattern.lastIndexOf( data, 0, i + pattern.getLength() - 1 ) )
+			{
+				backwardCount++;
+			}
+			assertEquals( string, count, backwardCount );
+			assertEquals( string, countMatches( data, valuesAndMasks ), count );
+		}
+	}
+
+	public void testOnlyWildcards()
+	{
+		final SearchPattern pattern = MaskedPattern.compile( "?? ??" );
+		final byte[] data = new byte[ 5 ];
+		assertEquals( 0, pattern.indexOf( data, 0, data.length ) );
+		assertEquals( 3, pattern.indexOf( data, 3, data.length ) );
+		assertEquals( -1, pattern.indexOf( data, 4, data.length ) );
+		assertEquals( 3, pattern.lastIndexOf( data, 0, data.length ) );
+		assertEquals( -1, pattern.lastIndexOf( data, 0, 1 ) );
+	}
+
+	public void testBounds()
+	{
+		final byte[] data = Tools.hexStringToBytes( "4d 00 5a 00 00 4d 01 5a" );
+		final SearchPattern pattern = MaskedPattern.compile( "4d ?? 5a" );
+		assertEquals( 0, pattern.indexOf( data, 0, data.length ) );
+		assertEquals( 5, pattern.indexOf( data, 1, data.length ) );
+		assertEquals( -1, pattern.indexOf( data, 1, data.length - 1 ) );
+		assertEquals( 5, pattern.lastIndexOf( data, 0, data.length ) );
+		assertEquals( 0, pattern.lastIndexOf( data, 0, data.length - 1 ) );
+	}
+
+	public void testCompile()
+	{
+		assertTrue( MaskedPattern.compile( "4d 5a 90" ) instanceof BytePattern );
+		assertEquals( 3, MaskedPattern.compile( "4d5a90" ).getLength() );
+		assertTrue( MaskedPattern.compile( "4d 5? 90" ) instanceof MaskedPattern );
+
+		final String[] invalid = { "", "4d5", "4g", "4d 5a ?" };
+		for ( final String string : invalid )
+		{
+			try
+			{
+				MaskedPattern.compile( string );
+				fail( "Expected an exception for: " + string );
+			}
+			catch ( IllegalArgumentException e )
+			{
+				// Expected.
+			}
+		}
+	}
+
+	/**
+	 * Parses a pattern into values and masks, independently of the pattern
+	 * implementation.
+	 */
+	private static byte[][] parse( final String string )
+	{
+		final String digits = string.replace( " ", "" );
+		final byte[] values = new byte[ digits.length() / 2 ];
+		final byte[] masks = new byte[ values.length ];
+		for ( int i = 0; i < digits.length(); i++ )
+		{
+			final char c = digits.charAt( i );
+			final int shift = ( i % 2 == 0 ) ? 4 : 0;
+			if ( c != '?' )
+			{
+				values[ i / 2 ] |= (byte)( Character.digit( c, 16 ) << shift );
+				masks[ i / 2 ] |= (byte)( 0xf << shift );
+			}
+		}
+		return new byte[][] { values, masks };
+	}
+
+	private static int indexOf( final byte[] data, final byte[][] pattern, final int from, final int to )
+	{
+		for ( int i = from; i + pattern[ 0 ].length <= to; i++ )
+		{
+			if ( matches( data, pattern, i ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf( final byte[] data, final byte[][] pattern, final int from, final int to )
+	{
+		for ( int i = to - pattern[ 0 ].length; i >= from; i-- )
+		{
+			if ( matches( data, pattern, i ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int countMatches( final byte[] data, final byte[][] pattern )
+	{
+		int result = 0;
+		for ( int i = 0; i + pattern[ 0 ].length <= data.length; i++ )
+		{
+			if ( matches( data, pattern, i ) )
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static boolean matches( final byte[] data, final byte[][] pattern, final int start )
+	{
+		final byte[] values = pattern[ 0 ];
+		final byte[] masks = pattern[ 1 ];
+		for ( int i = 0; i < values.length; i++ )
+		{
+			if ( ( data[ start + i ] & masks[ i ] ) != values[ i ] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.List;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link OverviewPainter} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestOverviewPainter
+extends TestCase
+{
+	/**
+	 * Color of zero bytes.
+	 */
+	private static final int ZERO_COLOR = 0xffffff;
+
+	/**
+	 * Color of byte {@code 0x01}, a control character.
+	 */
+	private static final int CONTROL_COLOR = 0x2e9e5b;
+
+	private static final int BACKGROUND = 0x808080;
+
+	private static final int HEADER_BACKGROUND = 0x404040;
+
+	private static final int WIDTH = 1300;
+
+	private static final int HEIGHT = 600;
+
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	private final List<ViewModel> _viewModels = new ArrayList<ViewModel>();
+
+	private final OverviewPainter _painter = new OverviewPainter( new Color( BACKGROUND ), new Color( HEADER_BACKGROUND ), Color.YELLOW );
+
+	private final BufferedImage _image = new BufferedImage( WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB );
+
+	@Override
+	protected void setUp()
+	throws Exception
+	{
+		assertEquals( OverviewPyramid.ZERO, OverviewPyramid.getByteClass( 0x00 ) );
+		assertEquals( OverviewPyramid.CONTROL, OverviewPyramid.getByteClass( 0x01 ) );
+	}
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final ViewModel viewModel : _viewModels )
+		{
+			viewModel.setDataModel( null );
+		}
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+			new File( file.getPath() + ".overview" ).delete();
+		}
+	}
+
+	/**
+	 * Tests that each tile is painted in the color of its byte when rows are
+	 * at least one pixel high.
+	 */
+	public void testTiles()
+	throws Exception
+	{
+		final ViewModel viewModel = createViewModel( createColumnData( 480 ) );
+		assertTrue( paint( viewModel ) );
+
+		for ( int column = 0; column < viewModel.getColumns(); column++ )
+		{
+			assertEquals( "Column " + column, ( column % 2 == 0 ) ? ZERO_COLOR : CONTROL_COLOR, getPixel( viewModel, column, 48.0 * 2.0 + 20.0 ) );
+		}
+		assertEquals( BACKGROUND, getPixel( viewModel, 0, 48.0 * 2.0 + 46.5 ) );
+		assertEquals( HEADER_BACKGROUND, getPixel( viewModel, 0, -50.0 ) );
+	}
+
+	/**
+	 * Tests that bytes are attributed to their own column when each row of
+	 * pixels covers several rows of tiles.
+	 */
+	public void testDirectColumns()
+	throws Exception
+	{
+		final ViewModel viewModel = createViewModel( createColumnData( 24 * 2000 ) );
+		setScale( viewModel, 1.0f / 96.0f );
+		assertTrue( paint( viewModel ) );
+
+		for ( int y = 10; y < 20; y++ )
+		{
+			for ( int column = 0; column < viewModel.getColumns(); column++ )
+			{
+				assertEquals( "Column " + column + " at " + y, ( column % 2 == 0 ) ? ZERO_COLOR : CONTROL_COLOR, getPixel( viewModel, column, y ) );
+			}
+		}
+	}
+
+	/**
+	 * Tests that the bytes of all rows covered by a row of pixels are
+	 * averaged.
+	 */
+	public void testDirectRows()
+	throws Exception
+	{
+		final byte[] data = new byte[ 24 * 2000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = (byte)( ( i / 24 ) % 2 );
+		}
+		final ViewModel viewModel = createViewModel( data );
+		setScale( viewModel, 1.0f / 96.0f );
+		assertTrue( paint( viewModel ) );
+
+		for ( int y = 10; y < 20; y++ )
+		{
+			final int color = getPixel( viewModel, 0, y );
+			assertTrue( "Mixed color at " + y + ": " + Integer.toHexString( color ), ( color >> 16 ) > ( CONTROL_COLOR >> 16 ) && ( color >> 16 ) < ( ZERO_COLOR >> 16 ) );
+			for ( int column = 1; column < viewModel.getColumns(); column++ )
+			{
+				assertEquals( "Column " + column + " at " + y, color, getPixel( viewModel, column, y ) );
+			}
+		}
+	}
+
+	/**
+	 * Tests that large ranges are shown as a bar with the fraction of each
+	 * byte class, followed by the mean and entropy.
+	 */
+	public void testSummary()
+	throws Exception
+	{
+		final byte[] data = new byte[ 24 * 20000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = (byte)( ( i % 24 < 12 ) ? 0x00 : 0x01 );
+		}
+		final ViewModel viewModel = createViewModel( data );
+		setScale( viewModel, 1.0f / 2048.0f );
+
+		final long timeout = System.currentTimeMillis() + 30000L;
+		while ( !paint( viewModel ) )
+		{
+			assertNull( viewModel.getOverviewException() );
+			assertTrue( "Overview not completed in time.", System.currentTimeMillis() < timeout );
+			Thread.sleep( 10L );
+		}
+
+		final AffineTransform transform = viewModel.getTransform();
+		final int barStart = (int)Math.ceil( transform.getTranslateX() - 0.5 );
+		final int barEnd = (int)Math.ceil( transform.getTranslateX() + ( 21.0 * 48.0 + 45.0 ) * transform.getScaleX() - 0.5 );
+		for ( int y = 100; y < 110; y++ )
+		{
+			int zero = 0;
+			int control = 0;
+			for ( int x = barStart; x < barEnd; x++ )
+			{
+				final int color = _image.getRGB( x, y ) & 0xffffff;
+				if ( color == ZERO_COLOR )
+				{
+					zero++;
+				}
+				else if ( color == CONTROL_COLOR )
+				{
+					control++;
+				}
+			}
+			assertEquals( barEnd - barStart, zero + control );
+			assertEquals( (double)zero, (double)control, 0.05 * (double)( barEnd - barStart ) );
+
+			final int mean = getPixel( viewModel, 22, y );
+			assertTrue( "Mean " + Integer.toHexString( mean ), ( mean & 0xff ) <= 1 );
+			final int entropy = getPixel( viewModel, 23, y ) >> 16;
+			assertTrue( "Entropy " + Integer.toHexString( entropy ), entropy > 0x66 && entropy < 0xff );
+		}
+	}
+
+	/**
+	 * Creates data where every even column contains zeros and every odd
+	 * column contains {@code 0x01}.
+	 */
+	private static byte[] createColumnData( final int length )
+	{
+		final byte[] result = new byte[ length ];
+		for ( int i = 0; i < length; i++ )
+		{
+			result[ i ] = (byte)( i % 2 );
+		}
+		return result;
+	}
+
+	private ViewModel createViewModel( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+
+		final ViewModel result = new ViewModel();
+		_viewModels.add( result );
+		result.setDataModel( new DataModel( file.toURI(), channel ) );
+		return result;
+	}
+
+	private static void setScale( final ViewModel viewModel, final float scale )
+	{
+		viewModel.scale( new Point2D.Float( 0.0f, 0.0f ), scale / viewModel.getScale() );
+		assertEquals( scale, viewModel.getScale(), 0.0f );
+		assertFalse( viewModel.isTextVisible() );
+	}
+
+	private boolean paint( final ViewModel viewModel )
+	{
+		final Graphics2D g = _image.createGraphics();
+		try
+		{
+			return _painter.paint( g, viewModel, new Rectangle( 0, 0, WIDTH, HEIGHT ) );
+		}
+		finally
+		{
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Returns the color of the pixel in the middle of the given column.
+	 *
+	 * @param viewModel View model that was painted.
+	 * @param column    Column of tiles.
+	 * @param y         Vertical position; in model coordinates when tiles are
+	 *                  shown, or in pixels otherwise.
+	 */
+	private int getPixel( final ViewModel viewModel, final int column, final double y )
+	{
+		final AffineTransform transform = viewModel.getTransform();
+		final int x = (int)Math.floor( transform.getTranslateX() + ( (double)column * 48.0 + 22.5 ) * transform.getScaleX() );
+		final int pixelY = viewModel.isTextVisible() ? (int)Math.floor( transform.getTranslateY() + y * transform.getScaleY() ) : (int)y;
+		return _image.getRGB( x, pixelY ) & 0xffffff;
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link OverviewPyramid} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestOverviewPyramid
+extends TestCase
+{
+	private static final int BLOCK_SIZE = OverviewPyramid.BLOCK_SIZE;
+
+	/**
+	 * Maximum error of a stored byte class fraction.
+	 */
+	private static final double FRACTION_DELTA = 0.5 / 4095.0 + 1.0e-6;
+
+	/**
+	 * Maximum error of a stored mean byte value.
+	 */
+	private static final double MEAN_DELTA = 0.5 + 1.0e-4;
+
+	/**
+	 * Maximum error of a stored entropy.
+	 */
+	private static final double ENTROPY_DELTA = 4.0 / 255.0 + 1.0e-4;
+
+	/**
+	 * Offset of the first block in a sidecar file.
+	 */
+	private static final int BLOCKS_OFFSET = 32;
+
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+			getSidecar( file ).delete();
+		}
+	}
+
+	public void testSummaries()
+	throws Exception
+	{
+		final byte[] data = createData( 2600000 );
+		final OverviewPyramid pyramid = new OverviewPyramid( createDataModel( createFile( data ) ) );
+		assertFalse( pyramid.isComplete() );
+		pyramid.start();
+		waitUntilComplete( pyramid );
+		assertNull( pyramid.getException() );
+
+		assertBlocks( data, pyramid );
+		assertTotal( data, pyramid );
+	}
+
+	public void testSidecar()
+	throws Exception
+	{
+		final byte[] data = createData( 1500000 );
+		final File file = createFile( data );
+		final File sidecar = getSidecar( file );
+
+		final OverviewPyramid pyramid = new OverviewPyramid( createDataModel( file ) );
+		pyramid.start();
+		waitUntilComplete( pyramid );
+		waitUntilExists( sidecar );
+
+		// A valid sidecar is loaded instead of reading the data.
+		final OverviewPyramid loaded = new OverviewPyramid( createDataModel( file ) );
+		loaded.start();
+		waitUntilComplete( loaded );
+		final float[] expected = new float[ OverviewPyramid.SUMMARY_SIZE ];
+		final float[] actual = new float[ OverviewPyramid.SUMMARY_SIZE ];
+		for ( int level = 0; level < pyramid.getLevelCount(); level++ )
+		{
+			final long blockSize = OverviewPyramid.getBlockSize( level );
+			for ( long start = 0L; start < (long)data.length; start += blockSize )
+			{
+				assertTrue( pyramid.getSummary( level, start, start + blockSize, expected ) );
+				assertTrue( loaded.getSummary( level, start, start + blockSize, actual ) );
+				assertTrue( "Level " + level + ", address " + start, Arrays.equals( expected, actual ) );
+			}
+		}
+
+		// Only summaries from the sidecar contain a block of all zeros.
+		setFirstBlock( sidecar, 0xfffL );
+		final OverviewPyramid tampered = new OverviewPyramid( createDataModel( file ) );
+		tampered.start();
+		waitUntilComplete( tampered );
+		assertTrue( tampered.getSummary( 0, 0L, (long)BLOCK_SIZE, actual ) );
+		assertEquals( 1.0f, actual[ OverviewPyramid.ZERO ], 0.0f );
+
+		// The sidecar is rejected when the file is modified.
+		Files.setLastModifiedTime( file.toPath(), FileTime.fromMillis( file.lastModified() + 10000L ) );
+		final OverviewPyramid rebuilt = new OverviewPyramid( createDataModel( file ) );
+		rebuilt.start();
+		waitUntilComplete( rebuilt );
+		assertBlocks( data, rebuilt );
+	}
+
+	public void testUpdate()
+	throws Exception
+	{
+		final byte[] data = createData( 2600000 );
+		final File file = createFile( data );
+		final DataModel dataModel = createDataModel( file );
+		final OverviewPyramid pyramid = new OverviewPyramid( dataModel );
+		pyramid.start();
+		waitUntilComplete( pyramid );
+
+		final int start = 1100000;
+		final int end = 1300000;
+		Arrays.fill( data, start, end, (byte)'x' );
+		final RandomAccessFile out = new RandomAccessFile( file, "rw" );
+		try
+		{
+			out.seek( (long)start );
+			out.write( data, start, end - start );
+		}
+		finally
+		{
+			out.close();
+		}
+		dataModel.clearCache();
+
+		pyramid.update( (long)start, (long)end ).get();
+		assertNull( pyramid.getException() );
+		assertBlocks( data, pyramid );
+		assertTotal( data, pyramid );
+
+		// Empty ranges and ranges beyond the end are ignored.
+		pyramid.update( 10L, 10L ).get();
+		pyramid.update( (long)data.length, (long)data.length + 100L ).get();
+	}
+
+	/**
+	 * Checks the summary of every first-level block against the data.
+	 */
+	private static void assertBlocks( final byte[] data, final OverviewPyramid pyramid )
+	{
+		final float[] summary = new float[ OverviewPyramid.SUMMARY_SIZE ];
+		for ( int start = 0; start < data.length; start += BLOCK_SIZE )
+		{
+			final int end = Math.min( data.length, start + BLOCK_SIZE );
+			final double[] expected = summarize( data, start, end );
+			assertTrue( pyramid.getSummary( 0, (long)start, (long)end, summary ) );
+
+			final String message = "Block at " + start;
+			for ( int byteClass = 0; byteClass < OverviewPyramid.CLASS_COUNT; byteClass++ )
+			{
+				assertEquals( message, expected[ byteClass ], (double)summary[ byteClass ], FRACTION_DELTA );
+			}
+			assertEquals( message, expected[ OverviewPyramid.MEAN ], (double)summary[ OverviewPyramid.MEAN ], MEAN_DELTA );
+			assertEquals( message, expected[ OverviewPyramid.ENTROPY ], (double)summary[ OverviewPyramid.ENTROPY ], ENTROPY_DELTA );
+		}
+	}
+
+	/**
+	 * Checks the summary of all data against the data. The entropy of a
+	 * combined block is the average entropy of its first-level blocks.
+	 */
+	private static void assertTotal( final byte[] data, final OverviewPyramid pyramid )
+	{
+		final double[] expected = summarize( data, 0, data.length );
+		double entropy = 0.0;
+		for ( int start = 0; start < data.length; start += BLOCK_SIZE )
+		{
+			final int end = Math.min( data.length, start + BLOCK_SIZE );
+			entropy += summarize( data, start, end )[ OverviewPyramid.ENTROPY ] * (double)( end - start );
+		}
+		expected[ OverviewPyramid.ENTROPY ] = entropy / (double)data.length;
+
+		// Rounding errors add up over the levels.
+		final double levels = (double)pyramid.getLevelCount();
+		final float[] summary = new float[ OverviewPyramid.SUMMARY_SIZE ];
+		assertTrue( pyramid.getSummary( 0L, (long)data.length, summary ) );
+		for ( int byteClass = 0; byteClass < OverviewPyramid.CLASS_COUNT; byteClass++ )
+		{
+			assertEquals( expected[ byteClass ], (double)summary[ byteClass ], levels * FRACTION_DELTA );
+		}
+		assertEquals( expected[ OverviewPyramid.MEAN ], (double)summary[ OverviewPyramid.MEAN ], levels * MEAN_DELTA );
+		assertEquals( expected[ OverviewPyramid.ENTROPY ], (double)summary[ OverviewPyramid.ENTROPY ], levels * ENTROPY_DELTA );
+	}
+
+	/**
+	 * Summarizes the given range of the data byte by byte.
+	 */
+	private static double[] summarize( final byte[] data, final int start, final int end )
+	{
+		final int[] histogram = new int[ 256 ];
+		for ( int i = start; i < end; i++ )
+		{
+			histogram[ data[ i ] & 0xff ]++;
+		}
+
+		final double n = (double)( end - start );
+		final double[] result = new double[ OverviewPyramid.SUMMARY_SIZE ];
+		for ( int value = 0; value < histogram.length; value++ )
+		{
+			if ( histogram[ value ] > 0 )
+			{
+				final double p = (double)histogram[ value ] / n;
+				result[ OverviewPyramid.getByteClass( value ) ] += p;
+				result[ OverviewPyramid.MEAN ] += p * (double)value;
+				result[ OverviewPyramid.ENTROPY ] -= p * Math.log( p ) / Math.log( 2.0 );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates data with regions of random bytes, zeros, text and a mix of
+	 * text and random bytes.
+	 */
+	private static byte[] createData( final int length )
+	{
+		final Random random = new Random( (long)length );
+		final byte[] result = new byte[ length ];
+		random.nextBytes( result );
+
+		final byte[] text = "Lorem ipsum dolor sit amet,\r\n\tconsectetur adipiscing elit. ".getBytes();
+		for ( int start = 100000; start < length; start += 400000 )
+		{
+			Arrays.fill( result, start, Math.min( length, start + 50000 ), (byte)0 );
+			for ( int i = start + 70000; i < Math.min( length, start + 200000 ); i++ )
+			{
+				result[ i ] = ( i % 3 == 0 ) ? (byte)random.nextInt( 256 ) : text[ i % text.length ];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Overwrites the first block in the given sidecar file.
+	 */
+	private static void setFirstBlock( final File sidecar, final long packed )
+	throws IOException
+	{
+		final FileChannel channel = FileChannel.open( sidecar.toPath(), StandardOpenOption.WRITE );
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate( 8 );
+			buffer.putLong( 0, packed );
+			channel.write( buffer, (long)BLOCKS_OFFSET );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static void waitUntilComplete( final OverviewPyramid pyramid )
+	throws InterruptedException
+	{
+		final long timeout = System.currentTimeMillis() + 30000L;
+		while ( !pyramid.isComplete() )
+		{
+			assertNull( pyramid.getException() );
+			assertTrue( "Pyramid not completed in time.", System.currentTimeMillis() < timeout );
+			Thread.sleep( 10L );
+		}
+	}
+
+	private static void waitUntilExists( final File file )
+	throws InterruptedException
+	{
+		final long timeout = System.currentTimeMillis() + 30000L;
+		while ( !file.isFile() )
+		{
+			assertTrue( "File not created in time.", System.currentTimeMillis() < timeout );
+			Thread.sleep( 10L );
+		}
+	}
+
+	private static File getSidecar( final File file )
+	{
+		return new File( file.getPath() + ".overview" );
+	}
+
+	private File createFile( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private DataModel createDataModel( final File file )
+	throws IOException
+	{
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+		return new DataModel( file.toURI(), channel );
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link Record} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestRecord
+extends TestCase
+{
+	/**
+	 * Tests that the definitions of a record are found at their new addresses
+	 * after the record moves to another element of its array.
+	 */
+	public void testNext()
+	{
+		final ArrayRecord array = new ArrayRecord( 100L, 50L, 4L );
+		final RecordDefinition first = createChild( array, 110L, 10L );
+		final RecordDefinition second = createChild( array, 130L, 5L );
+		final DefinitionImpl fixed = new DefinitionImpl( 20L, 4 );
+		array.addDefinition( fixed );
+
+		final DefinitionMap definitions = array.getDefinitions();
+		assertSame( first, definitions.get( 10L ) );
+		assertSame( second, definitions.get( 30L ) );
+		assertSame( fixed, definitions.get( 20L ) );
+
+		// The children stay put, so their relative addresses change.
+		array.next();
+		assertSame( definitions, array.getDefinitions() );
+		assertSame( first, array.getDefinitions().get( -40L ) );
+		assertSame( second, array.getDefinitions().get( -20L ) );
+		assertNull( array.getDefinitions().get( 10L ) );
+		assertSame( fixed, array.getDefinitions().get( 20L ) );
+
+		final List<Definition> intersecting = new ArrayList<Definition>();
+		array.getDefinitions().getIntersecting( -100L, 100L, intersecting );
+		assertEquals( Arrays.<Definition>asList( first, second, fixed ), intersecting );
+
+		final DefinitionMap.Cursor cursor = new DefinitionMap.Cursor();
+		cursor.reset( array.getDefinitions() );
+		assertSame( first, cursor.get( -35L ) );
+		assertNull( cursor.get( -25L ) );
+		assertSame( second, cursor.get( -16L ) );
+		assertNull( cursor.get( -15L ) );
+		assertSame( fixed, cursor.get( 23L ) );
+
+		// Moving back puts the children between the fixed definitions again.
+		array.setIndex( 0L );
+		intersecting.clear();
+		array.getDefinitions().getIntersecting( -100L, 100L, intersecting );
+		assertEquals( Arrays.<Definition>asList( first, fixed, second ), intersecting );
+		array.next();
+
+		array.removeDefinition( first );
+		assertNull( array.getDefinitions().get( -40L ) );
+		assertSame( second, array.getDefinitions().get( -20L ) );
+		assertEquals( 2, array.getDefinitions().size() );
+	}
+
+	/**
+	 * Tests that a definition is found at its new address after the record
+	 * that it defines is moved.
+	 */
+	public void testSetStart()
+	{
+		final ArrayRecord parent = new ArrayRecord( 0L, 1000L, 1L );
+		final RecordDefinition first = createChild( parent, 100L, 10L );
+		final RecordDefinition second = createChild( parent, 200L, 10L );
+		final ArrayRecord child = (ArrayRecord)first.getRecord();
+		assertSame( first, parent.getDefinitions().get( 100L ) );
+
+		child.setStart( 300L );
+		assertNull( parent.getDefinitions().get( 100L ) );
+		assertSame( first, parent.getDefinitions().get( 300L ) );
+		assertSame( second, parent.getDefinitions().get( 200L ) );
+
+		child.setLength( 20L );
+		assertSame( first, parent.getDefinitions().get( 315L ) );
+		child.setLength( 10L );
+		assertNull( parent.getDefinitions().get( 315L ) );
+
+		// Moving the parent itself also changes the child's address.
+		parent.setStart( 50L );
+		assertSame( first, parent.getDefinitions().get( 250L ) );
+		assertSame( second, parent.getDefinitions().get( 150L ) );
+
+		child.setStart( 60L );
+		parent.removeDefinition( first );
+		assertNull( parent.getDefinitions().get( 10L ) );
+		assertEquals( 1, parent.getDefinitions().size() );
+		assertSame( second, parent.getDefinitions().get( 150L ) );
+	}
+
+	private static RecordDefinition createChild( final Record parent, final long start, final long length )
+	{
+		final ArrayRecord record = new ArrayRecord( start, length, 1L );
+		record.setParent( parent );
+		final RecordDefinition result = new RecordDefinition( "record", record );
+		record.setRecordDefinition( result );
+		parent.addDefinition( result );
+		return result;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link RecordIndex} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestRecordIndex
+extends TestCase
+{
+	public void testHierarchy()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord header = createRecord( root, 0L, 64L, 1L );
+		final ArrayRecord table = createRecord( root, 100L, 16L, 10L );
+		final ArrayRecord entry = createRecord( table, 120L, 4L, 1L );
+		final ArrayRecord pointed = createRecord( entry, 500L, 100L, 1L );
+
+		final RecordIndex index = root.getRecordIndex();
+		assertSame( index, pointed.getRecordIndex() );
+		assertEquals( 4, index.size() );
+
+		assertSame( header, index.getDeepest( 10L ) );
+		assertNull( index.getDeepest( 64L ) );
+		assertSame( table, index.getDeepest( 100L ) );
+		assertSame( entry, index.getDeepest( 121L ) );
+		assertSame( table, index.getDeepest( 259L ) );
+		assertNull( index.getDeepest( 260L ) );
+		assertSame( pointed, index.getDeepest( 550L ) );
+
+		final List<Record> overlapping = new ArrayList<Record>();
+		index.getOverlapping( 50L, 121L, overlapping );
+		assertEquals( Arrays.<Record>asList( header, table, entry ), overlapping );
+	}
+
+	public void testGeometryChanges()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord record = createRecord( root, 100L, 10L, 1L );
+		final RecordIndex index = root.getRecordIndex();
+
+		record.setCount( 5L );
+		assertSame( record, index.getDeepest( 149L ) );
+		assertNull( index.getDeepest( 150L ) );
+
+		record.setLength( 20L );
+		assertSame( record, index.getDeepest( 199L ) );
+
+		record.setStart( 300L );
+		assertNull( index.getDeepest( 100L ) );
+		assertSame( record, index.getDeepest( 300L ) );
+
+		record.setEnd( 301L );
+		assertSame( record, index.getDeepest( 309L ) );
+		assertNull( index.getDeepest( 310L ) );
+	}
+
+	public void testRemove()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord parent = createRecord( root, 100L, 10L, 1L );
+		final ArrayRecord child = createRecord( parent, 105L, 2L, 1L );
+		final ArrayRecord other = createRecord( root, 200L, 10L, 1L );
+		final RecordIndex index = root.getRecordIndex();
+
+		parent.setParent( null );
+		assertEquals( 1, index.size() );
+		assertNull( index.getDeepest( 105L ) );
+		assertSame( other, index.getDeepest( 200L ) );
+		assertNotNull( child.getParent() );
+		assertSame( child, parent.getRecordIndex().getDeepest( 105L ) );
+	}
+
+	public void testReparent()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord first = createRecord( root, 100L, 100L, 1L );
+		final ArrayRecord second = createRecord( first, 150L, 10L, 1L );
+		final ArrayRecord third = createRecord( second, 152L, 2L, 1L );
+		final RecordIndex index = root.getRecordIndex();
+
+		// Move a subtree up, so the depth of each record in it changes.
+		second.setParent( root );
+		assertEquals( 3, index.size() );
+		assertSame( third, index.getDeepest( 152L ) );
+		assertSame( second, index.getDeepest( 155L ) );
+
+		// Attach a hierarchy that was built separately.
+		final ArrayRecord detached = new ArrayRecord( 120L, 10L, 1L );
+		final ArrayRecord detachedChild = createRecord( detached, 121L, 2L, 1L );
+		assertEquals( 1, detached.getRecordIndex().size() );
+		detached.setParent( first );
+		assertEquals( 5, index.size() );
+		assertSame( index, detachedChild.getRecordIndex() );
+		assertSame( detachedChild, index.getDeepest( 121L ) );
+		assertSame( detached, index.getDeepest( 125L ) );
+
+		first.setParent( null );
+		assertEquals( 2, index.size() );
+		assertNull( index.getDeepest( 121L ) );
+		assertSame( third, index.getDeepest( 152L ) );
+	}
+
+	public void testReplaceDefinition()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord first = createRecord( root, 100L, 10L, 1L );
+		first.setRecordDefinition( new RecordDefinition( "first", first ) );
+		root.addDefinition( first.getRecordDefinition() );
+
+		final ArrayRecord second = createRecord( root, 100L, 20L, 1L );
+		second.setRecordDefinition( new RecordDefinition( "second", second ) );
+		root.addDefinition( second.getRecordDefinition() );
+
+		assertNull( first.getParent() );
+		assertEquals( 1, root.getRecordIndex().size() );
+		assertSame( second, root.getRecordIndex().getDeepest( 105L ) );
+		assertSame( second.getRecordDefinition(), root.getDefinitions().get( 100L ) );
+	}
+
+	public void testReplaceDefinitions()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord first = createRecord( root, 100L, 10L, 1L );
+		first.setRecordDefinition( new RecordDefinition( "first", first ) );
+		final ArrayRecord kept = createRecord( root, 200L, 10L, 1L );
+		kept.setRecordDefinition( new RecordDefinition( "kept", kept ) );
+		root.addDefinitions( Arrays.asList( first.getRecordDefinition(), kept.getRecordDefinition() ) );
+
+		final ArrayRecord second = createRecord( root, 100L, 20L, 1L );
+		second.setRecordDefinition( new RecordDefinition( "second", second ) );
+		root.addDefinitions( Arrays.asList( second.getRecordDefinition(), kept.getRecordDefinition() ) );
+
+		assertNull( first.getParent() );
+		assertSame( root, second.getParent() );
+		assertSame( root, kept.getParent() );
+		assertEquals( 2, root.getRecordIndex().size() );
+		assertSame( second, root.getRecordIndex().getDeepest( 105L ) );
+		assertSame( second.getRecordDefinition(), root.getDefinitions().get( 100L ) );
+		assertSame( kept.getRecordDefinition(), root.getDefinitions().get( 200L ) );
+	}
+
+	/**
+	 * Records loaded from a session are only indexed once they are created.
+	 * {@link Record#findRecord} creates records that contain the address, but
+	 * not records defined elsewhere, such as the target of a pointer.
+	 */
+	public void testSession()
+	throws IOException
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+		final ArrayRecord table = createRecord( root, 100L, 16L, 10L );
+		table.setRecordDefinition( new RecordDefinition( "table", table ) );
+		root.addDefinition( table.getRecordDefinition() );
+		final ArrayRecord target = createRecord( table, 500L, 32L, 1L );
+		target.setRecordDefinition( new PointerDefinition( "pointer", 4L, 4, target ) );
+		table.addDefinition( target.getRecordDefinition() );
+		final ArrayRecord inner = createRecord( target, 510L, 4L, 2L );
+		inner.setRecordDefinition( new RecordDefinition( "inner", inner ) );
+		target.addDefinition( inner.getRecordDefinition() );
+
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Session.save( root, file );
+
+			final ArrayRecord loadedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( loadedRoot, file );
+			final RecordIndex index = loadedRoot.getRecordIndex();
+			assertEquals( 0, index.size() );
+			assertNull( index.getDeepest( 120L ) );
+
+			assertSame( loadedRoot, loadedRoot.findRecord( 512L ) );
+			final Record loadedTable = loadedRoot.findRecord( 120L );
+			assertEquals( 100L, loadedTable.getStart() );
+			assertEquals( 2, index.size() );
+
+			final Record loadedInner = loadedRoot.findRecord( 512L );
+			assertEquals( "inner", loadedInner.getRecordDefinition().getLabel() );
+			assertSame( loadedInner, index.getDeepest( 512L ) );
+			assertEquals( 3, index.size() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	private static ArrayRecord createRecord( final Record parent, final long start, final long length, final long count )
+	{
+		final ArrayRecord result = new ArrayRecord( start, length, count );
+		result.setParent( parent );
+		return result;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link Search} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestSearch
+extends TestCase
+{
+	private static final byte[] PATTERN = { (byte)0xde, (byte)0xad, (byte)0xbe, (byte)0xef, (byte)0x42 };
+
+	private File _file;
+
+	private FileChannel _channel;
+
+	private DataModel _dataModel;
+
+	private byte[] _data;
+
+	/**
+	 * Addresses at which the pattern is placed: at the start of the data,
+	 * straddling the first and second chunk boundaries, and at the end.
+	 */
+	private long[] _planted;
+
+	@Override
+	protected void setUp()
+	throws Exception
+	{
+		_data = new byte[ 2 * Search.CHUNK_SIZE + 1000 ];
+		new Random( 1L ).nextBytes( _data );
+
+		_planted = new long[] { 0L, (long)Search.CHUNK_SIZE - 2L, 2L * (long)Search.CHUNK_SIZE - 4L, (long)( _data.length - PATTERN.length ) };
+		for ( final long address : _planted )
+		{
+			System.arraycopy( PATTERN, 0, _data, (int)address, PATTERN.length );
+		}
+		// Differs from the pattern only in the second byte.
+		System.arraycopy( PATTERN, 0, _data, 5000, PATTERN.length );
+		_data[ 5001 ] = (byte)0x00;
+
+		_file = File.createTempFile( "hexedit", ".bin" );
+		final FileOutputStream out = new FileOutputStream( _file );
+		try
+		{
+			out.write( _data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		_channel = FileChannel.open( _file.toPath() );
+		_dataModel = new DataModel( _file.toURI(), _channel );
+	}
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		_channel.close();
+		_file.delete();
+	}
+
+	public void testFind()
+	throws IOException
+	{
+		final SearchPattern pattern = new BytePattern( PATTERN );
+		final List<Long> expected = findAll( pattern );
+		assertEquals( toList( _planted ), expected );
+
+		final Search search = new Search( _dataModel, pattern );
+		assertEquals( expected, findForward( search ) );
+		assertEquals( expected, findBackward( search ) );
+		assertEquals( -1L, search.findPrevious( 0L ) );
+		assertEquals( -1L, search.findNext( _data.length - PATTERN.length + 1 ) );
+	}
+
+	public void testFindMasked()
+	throws IOException
+	{
+		final SearchPattern pattern = MaskedPattern.compile( "de ?? be ef 4?" );
+		final List<Long> expected = findAll( pattern );
+		assertEquals( _planted.length + 1, expected.size() );
+		assertTrue( expected.contains( 5000L ) );
+
+		final Search search = new Search( _dataModel, pattern );
+		assertEquals( expected, findForward( search ) );
+		assertEquals( expected, findBackward( search ) );
+	}
+
+	public void testScan()
+	throws Exception
+	{
+		final SearchPattern pattern = MaskedPattern.compile( "de ?? be ef 4?" );
+		final List<Long> expected = findAll( pattern );
+
+		final Search search = new Search( _dataModel, pattern );
+		final AtomicInteger reported = new AtomicInteger();
+		final CountDownLatch completed = new CountDownLatch( 1 );
+		search.start( new SearchListener()
+		{
+			@Override
+			public void matchFound( final Search search, final long address )
+			{
+				reported.incrementAndGet();
+			}
+
+			@Override
+			public void searchCompleted( final Search search )
+			{
+				completed.countDown();
+			}
+		} );
+		assertTrue( completed.await( 30L, TimeUnit.SECONDS ) );
+
+		assertTrue( search.isCompleted() );
+		assertNull( search.getException() );
+		assertEquals( expected, new ArrayList<Long>( search.getMatches() ) );
+		assertEquals( expected.size(), search.getMatchCount() );
+		assertEquals( expected.size(), reported.get() );
+
+		// Completed searches use the matches that were found.
+		assertEquals( expected, findForward( search ) );
+		assertEquals( expected, findBackward( search ) );
+	}
+
+	private static List<Long> findForward( final Search search )
+	throws IOException
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( long address = search.findNext( 0L ); address >= 0L; address = search.findNext( address + 1L ) )
+		{
+			result.add( address );
+		}
+		return result;
+	}
+
+	private List<Long> findBackward( final Search search )
+	throws IOException
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( long address = search.findPrevious( (long)_data.length ); address >= 0L; address = search.findPrevious( address ) )
+		{
+			result.add( 0, address );
+		}
+		return result;
+	}
+
+	/**
+	 * Finds all matches by searching the data as a whole.
+	 */
+	private List<Long> findAll( final SearchPattern pattern )
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( int i = pattern.indexOf( _data, 0, _data.length ); i >= 0; i = pattern.indexOf( _data, i + 1, _data.length ) )
+		{
+			result.add( (long)i );
+		}
+		return result;
+	}
+
+	private static List<Long> toList( final long[] values )
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( final long value : values )
+		{
+			result.add( value );
+		}
+		return result;
+	}
+}
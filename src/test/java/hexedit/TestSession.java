@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link Session} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestSession
+extends TestCase
+{
+	public void testSaveAndLoad()
+	throws IOException
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+
+		final ArrayRecord table = new ArrayRecord( 100L, 16L, 10L );
+		table.setParent( root );
+		table.setRecordDefinition( new RecordDefinition( "table", table ) );
+		root.addDefinition( table.getRecordDefinition() );
+
+		final ArrayRecord target = new ArrayRecord( 500L, 32L, 1L );
+		target.setParent( table );
+		target.setRecordDefinition( new PointerDefinition( "pointer \u00e9", 4L, 4, target ) );
+		table.addDefinition( target.getRecordDefinition() );
+
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Session.save( root, file );
+
+			final ArrayRecord loadedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( loadedRoot, file );
+			assertEquals( 0, loadedRoot.getRecordIndex().size() );
+
+			final Definition tableDefinition = loadedRoot.getDefinitions().get( 100L );
+			assertTrue( tableDefinition instanceof RecordDefinition );
+			assertEquals( "table", tableDefinition.getLabel() );
+			final ArrayRecord loadedTable = (ArrayRecord)( (RecordDefinition)tableDefinition ).getRecord();
+			assertEquals( 100L, loadedTable.getStart() );
+			assertEquals( 16L, loadedTable.getLength() );
+			assertEquals( 10L, loadedTable.getCount() );
+			assertSame( loadedRoot, loadedTable.getParent() );
+			assertEquals( 1, loadedRoot.getRecordIndex().size() );
+
+			final Definition pointerDefinition = loadedTable.getDefinitions().get( 5L );
+			assertTrue( pointerDefinition instanceof PointerDefinition );
+			assertEquals( "pointer \u00e9", pointerDefinition.getLabel() );
+			assertEquals( 4L, pointerDefinition.getAddress() );
+			assertEquals( 4, pointerDefinition.getLength() );
+			final Record loadedTarget = ( (PointerDefinition)pointerDefinition ).getRecord();
+			assertEquals( 500L, loadedTarget.getStart() );
+			assertEquals( 531L, loadedTarget.getEnd() );
+			assertSame( loadedTarget, loadedRoot.getRecordIndex().getDeepest( 510L ) );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	public void testInvalidFile()
+	throws IOException
+	{
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Files.write( file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } );
+			Session.load( new ArrayRecord( 0L, 1000L, 1L ), file );
+			fail( "Expected an exception." );
+		}
+		catch ( IOException e )
+		{
+			// Expected.
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	public void testSaveWithoutLoading()
+	throws IOException
+	{
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		final Path copy = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Session.save( createTree(), file );
+
+			final ArrayRecord loadedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( loadedRoot, file );
+			final ArrayRecord added = new ArrayRecord( 700L, 8L, 2L );
+			added.setParent( loadedRoot );
+			added.setRecordDefinition( new RecordDefinition( "added", added ) );
+			loadedRoot.addDefinition( added.getRecordDefinition() );
+			Session.save( loadedRoot, copy );
+			assertEquals( "Only the table and the added record are created.", 2, loadedRoot.getRecordIndex().size() );
+
+			final ArrayRecord copiedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( copiedRoot, copy );
+			assertEquals( 700L, ( (RecordDefinition)copiedRoot.getDefinitions().get( 700L ) ).getRecord().getStart() );
+			final Record table = ( (RecordDefinition)copiedRoot.getDefinitions().get( 100L ) ).getRecord();
+			final Record target = ( (PointerDefinition)table.getDefinitions().get( 5L ) ).getRecord();
+			final Definition inner = target.getDefinitions().get( 10L );
+			assertEquals( "inner", inner.getLabel() );
+			assertEquals( 510L, ( (RecordDefinition)inner ).getRecord().getStart() );
+			assertEquals( 4, copiedRoot.getRecordIndex().size() );
+		}
+		finally
+		{
+			Files.delete( file );
+			Files.delete( copy );
+		}
+	}
+
+	public void testSaveUnchanged()
+	throws IOException
+	{
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Session.save( createTree(), file );
+			final FileTime modified = FileTime.fromMillis( 1000000000000L );
+			Files.setLastModifiedTime( file, modified );
+
+			final ArrayRecord loadedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( loadedRoot, file );
+			final ArrayRecord table = (ArrayRecord)( (RecordDefinition)loadedRoot.getDefinitions().get( 100L ) ).getRecord();
+			table.getDefinitions();
+			Session.save( loadedRoot, file );
+			assertEquals( "Unchanged session must not be written.", modified, Files.getLastModifiedTime( file ) );
+
+			table.setCount( 11L );
+			Session.save( loadedRoot, file );
+			assertFalse( modified.equals( Files.getLastModifiedTime( file ) ) );
+
+			final ArrayRecord reloadedRoot = new ArrayRecord( 0L, 1000L, 1L );
+			Session.load( reloadedRoot, file );
+			assertEquals( 11L, ( (ArrayRecord)( (RecordDefinition)reloadedRoot.getDefinitions().get( 100L ) ).getRecord() ).getCount() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	public void testCorruptFile()
+	throws IOException
+	{
+		final Path file = Files.createTempFile( "hexedit", ".session" );
+		try
+		{
+			Session.save( createTree(), file );
+			final byte[] contents = Files.readAllBytes( file );
+
+			// Record count that overflows when multiplied by the entry size.
+			assertInvalid( file, contents, 8, 0x7fffffff );
+			// Child range past the last record.
+			assertInvalid( file, contents, 20 + 36, 5 );
+			// Record that is its own child.
+			assertInvalid( file, contents, 20 + 48 + 32, 1 );
+			// Label index out of range.
+			assertInvalid( file, contents, 20 + 40, 3 );
+			// Decreasing label offsets.
+			assertInvalid( file, contents, 20 + 3 * 48 + 4, -1 );
+			// Record length and count.
+			final byte[] zeroLength = contents.clone();
+			ByteBuffer.wrap( zeroLength ).putLong( 20 + 48 + 8, 0L );
+			assertInvalid( file, zeroLength );
+			final byte[] hugeCount = contents.clone();
+			ByteBuffer.wrap( hugeCount ).putLong( 20 + 48 + 16, Long.MAX_VALUE );
+			assertInvalid( file, hugeCount );
+			// Pointer length.
+			final byte[] pointerLength = contents.clone();
+			pointerLength[ 20 + 48 + 45 ] = 9;
+			assertInvalid( file, pointerLength );
+			// Truncated label data.
+			assertInvalid( file, Arrays.copyOf( contents, contents.length - 1 ) );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	public void testSaveFailure()
+	throws IOException
+	{
+		final Path directory = Files.createTempDirectory( "hexedit" );
+		final Path file = directory.resolve( "data.session" );
+		final Path blocker = file.resolve( "blocker" );
+		try
+		{
+			// A non-empty directory can't be replaced by the session file.
+			Files.createDirectory( file );
+			Files.createFile( blocker );
+			try
+			{
+				Session.save( createTree(), file );
+				fail( "Expected an exception." );
+			}
+			catch ( IOException e )
+			{
+				// Expected.
+			}
+			assertFalse( Files.exists( directory.resolve( "data.session.tmp" ) ) );
+		}
+		finally
+		{
+			Files.delete( blocker );
+			Files.delete( file );
+			Files.delete( directory );
+		}
+	}
+
+	/**
+	 * Creates a root record containing a table, which contains a pointer to a
+	 * target record, which contains an inner record.
+	 */
+	private static ArrayRecord createTree()
+	{
+		final ArrayRecord root = new ArrayRecord( 0L, 1000L, 1L );
+
+		final ArrayRecord table = new ArrayRecord( 100L, 16L, 10L );
+		table.setParent( root );
+		table.setRecordDefinition( new RecordDefinition( "table", table ) );
+		root.addDefinition( table.getRecordDefinition() );
+
+		final ArrayRecord target = new ArrayRecord( 500L, 32L, 1L );
+		target.setParent( table );
+		target.setRecordDefinition( new PointerDefinition( "pointer", 4L, 4, target ) );
+		table.addDefinition( target.getRecordDefinition() );
+
+		final ArrayRecord inner = new ArrayRecord( 510L, 4L, 2L );
+		inner.setParent( target );
+		inner.setRecordDefinition( new RecordDefinition( "inner", inner ) );
+		target.addDefinition( inner.getRecordDefinition() );
+
+		return root;
+	}
+
+	private static void assertInvalid( final Path file, final byte[] contents, final int position, final int value )
+	throws IOException
+	{
+		final byte[] modified = contents.clone();
+		ByteBuffer.wrap( modified ).putInt( position, value );
+		assertInvalid( file, modified );
+	}
+
+	private static void assertInvalid( final Path file, final byte[] contents )
+	throws IOException
+	{
+		Files.write( file, contents );
+		try
+		{
+			Session.load( new ArrayRecord( 0L, 1000L, 1L ), file );
+			fail( "Expected an exception." );
+		}
+		catch ( IOException e )
+		{
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link SignatureScanner} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestSignatureScanner
+extends TestCase
+{
+	private final List<File> _files = new ArrayList<File>();
+
+	private final List<FileChannel> _channels = new ArrayList<FileChannel>();
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		for ( final FileChannel channel : _channels )
+		{
+			channel.close();
+		}
+		for ( final File file : _files )
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Signatures that are prefixes, suffixes and infixes of each other, which
+	 * exercises the failure transitions of the automaton.
+	 */
+	public void testOverlappingSignatures()
+	throws IOException
+	{
+		final List<Signature> signatures = Arrays.asList(
+		new Signature( "ab", "0a 0b" ),
+		new Signature( "bc", "0b 0c" ),
+		new Signature( "abcd", "0a 0b 0c 0d" ),
+		new Signature( "c", "0c" ),
+		new Signature( "bcd", "0b 0c 0d" ),
+		new Signature( "aa", "0a 0a" ) );
+
+		final byte[] data = Tools.hexStringToBytes( "0a 0a 0a 0b 0c 0d 0b 0c 0a 0b" );
+		final Set<String> expected = new TreeSet<String>( Arrays.asList(
+		"aa@0", "aa@1", "ab@2", "abcd@2", "bc@3", "bcd@3", "c@4", "bc@6", "c@7", "ab@8" ) );
+		assertEquals( expected, scan( signatures, data ) );
+	}
+
+	public void testAgainstBruteForce()
+	throws IOException
+	{
+		// Small alphabet, so there are many partial and complete matches.
+		final Random random = new Random( 1L );
+		final byte[] data = new byte[ 100000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = (byte)random.nextInt( 4 );
+		}
+
+		final List<Signature> signatures = new ArrayList<Signature>();
+		for ( int i = 0; i < 20; i++ )
+		{
+			final byte[] bytes = new byte[ 1 + random.nextInt( 8 ) ];
+			for ( int j = 0; j < bytes.length; j++ )
+			{
+				bytes[ j ] = (byte)random.nextInt( 4 );
+			}
+			signatures.add( new Signature( "s" + i, bytes ) );
+		}
+
+		assertEquals( findAll( signatures, data ), scan( signatures, data ) );
+	}
+
+	public void testChunkBoundaries()
+	throws IOException
+	{
+		final Signature signature = new Signature( "test", "de ad be ef 42" );
+		final int chunkSize = SignatureScanner.CHUNK_SIZE;
+		final byte[] data = new byte[ 2 * chunkSize + 100 ];
+
+		// Start of the data, ending at, starting at and crossing a chunk boundary, and end of the data.
+		final int[] addresses = { 0, chunkSize - 5, chunkSize, 2 * chunkSize - 2, data.length - 5 };
+		final Set<String> expected = new TreeSet<String>();
+		for ( final int address : addresses )
+		{
+			for ( int i = 0; i < signature.getLength(); i++ )
+			{
+				data[ address + i ] = signature.getByte( i );
+			}
+			expected.add( "test@" + address );
+		}
+
+		assertEquals( expected, scan( Collections.singletonList( signature ), data ) );
+	}
+
+	public void testFileFormats()
+	throws IOException
+	{
+		for ( final Signature signature : Signature.FILE_FORMATS )
+		{
+			assertTrue( signature.toString(), signature.getLength() >= 4 );
+		}
+
+		final byte[] data = new byte[ 0x800000 ];
+		new Random( 1L ).nextBytes( data );
+		final byte[] png = Tools.hexStringToBytes( "89 50 4e 47 0d 0a 1a 0a" );
+		System.arraycopy( png, 0, data, 1000, png.length );
+		final byte[] bzip2 = Tools.hexStringToBytes( "42 5a 68 39 31 41 59 26 53 59" );
+		System.arraycopy( bzip2, 0, data, 2000, bzip2.length );
+
+		assertEquals( new TreeSet<String>( Arrays.asList( "png@1000", "bzip2@2000" ) ), scan( Signature.FILE_FORMATS, data ) );
+	}
+
+	/**
+	 * Scans the given data and returns the signatures that were found, as
+	 * strings of the form {@code name@address}.
+	 */
+	private Set<String> scan( final List<Signature> signatures, final byte[] data )
+	throws IOException
+	{
+		final Set<String> result = Collections.synchronizedSet( new TreeSet<String>() );
+		final List<String> reported = Collections.synchronizedList( new ArrayList<String>() );
+		new SignatureScanner( signatures ).scan( createDataModel( data ), new SignatureListener()
+		{
+			@Override
+			public void signatureFound( final Signature signature, final long address )
+			{
+				result.add( signature.getName() + "@" + address );
+				reported.add( signature.getName() + "@" + address );
+			}
+		} );
+		assertEquals( "Each signature must be reported once.", result.size(), reported.size() );
+		return new TreeSet<String>( result );
+	}
+
+	private static Set<String> findAll( final List<Signature> signatures, final byte[] data )
+	{
+		final Set<String> result = new TreeSet<String>();
+		for ( final Signature signature : signatures )
+		{
+			positions: for ( int i = 0; i + signature.getLength() <= data.length; i++ )
+			{
+				for ( int j = 0; j < signature.getLength(); j++ )
+				{
+					if ( data[ i + j ] != signature.getByte( j ) )
+					{
+						continue positions;
+					}
+				}
+				result.add( signature.getName() + "@" + i );
+			}
+		}
+		return result;
+	}
+
+	private DataModel createDataModel( final byte[] data )
+	throws IOException
+	{
+		final File file = File.createTempFile( "hexedit", ".bin" );
+		_files.add( file );
+		final FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		final FileChannel channel = FileChannel.open( file.toPath() );
+		_channels.add( channel );
+		return new DataModel( file.toURI(), channel );
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link View} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestView
+extends TestCase
+{
+	private static final int WIDTH = 800;
+
+	private static final int HEIGHT = 2000;
+
+	/**
+	 * Regions repainted by the view, in component coordinates.
+	 */
+	private final List<Rectangle> _repainted = new ArrayList<Rectangle>();
+
+	private ViewModel _viewModel;
+
+	@Override
+	protected void setUp()
+	throws Exception
+	{
+		final View view = new View()
+		{
+			@Override
+			public void repaint( final long tm, final int x, final int y, final int width, final int height )
+			{
+				_repainted.add( new Rectangle( x, y, width, height ) );
+			}
+		};
+		view.setSize( WIDTH, HEIGHT );
+
+		_viewModel = new ViewModel();
+		view.setViewModel( _viewModel );
+		_repainted.clear();
+	}
+
+	/**
+	 * Tests that selection changes only repaint the rows of the bytes that
+	 * were selected or deselected, plus the row above the selection where
+	 * the selection tip is shown.
+	 *
+	 * <p>With the default transform, row {@code r} spans from {@code 150 + 48
+	 * * r} to {@code 195 + 48 * r}. One extra pixel is repainted above and
+	 * below, as well as the padding above the first row.
+	 */
+	public void testRepaintSelection()
+	{
+		// New selection in rows 1 and 2.
+		_viewModel.select( 30L, 40L );
+		assertEquals( new Rectangle( 0, 146, WIDTH, 101 ), getRepainted() );
+
+		// Extending the end repaints the rows up to the new end.
+		_viewModel.setSelectionEnd( 100L );
+		assertEquals( new Rectangle( 0, 146, WIDTH, 245 ), getRepainted() );
+
+		// Moving the selection repaints the old and new rows, but not those in between.
+		_viewModel.select( 500L, 510L );
+		final List<Rectangle> repainted = new ArrayList<Rectangle>( _repainted );
+		assertEquals( new Rectangle( 0, 146, WIDTH, 1061 ), getRepainted() );
+		for ( final Rectangle region : repainted )
+		{
+			assertFalse( "Repainted " + region, region.intersects( new Rectangle( 0, 400, WIDTH, 600 ) ) );
+		}
+
+		// Moving the start within the same row leaves the last row alone.
+		_viewModel.setSelectionStart( 502L );
+		assertEquals( new Rectangle( 0, 1058, WIDTH, 101 ), getRepainted() );
+
+		_viewModel.clearSelection();
+		assertEquals( new Rectangle( 0, 1058, WIDTH, 149 ), getRepainted() );
+
+		// Rows below the view are not repainted.
+		_viewModel.select( 2400L, 2401L );
+		assertNull( getRepainted() );
+	}
+
+	/**
+	 * Tests that the back buffer is only shifted by whole pixels, and only if
+	 * part of its contents remains visible.
+	 */
+	public void testBackBufferShift()
+	{
+		assertEquals( new Point( 0, 0 ), View.getBackBufferShift( 0.0, 0.0, 100, 50 ) );
+		assertEquals( new Point( 3, -2 ), View.getBackBufferShift( 3.0, -2.0, 100, 50 ) );
+		assertEquals( new Point( 2, 0 ), View.getBackBufferShift( 2.005, -0.005, 100, 50 ) );
+		assertEquals( new Point( -99, 49 ), View.getBackBufferShift( -99.0, 49.0, 100, 50 ) );
+
+		assertNull( View.getBackBufferShift( 3.5, 0.0, 100, 50 ) );
+		assertNull( View.getBackBufferShift( 0.0, 0.25, 100, 50 ) );
+		assertNull( View.getBackBufferShift( 100.0, 0.0, 100, 50 ) );
+		assertNull( View.getBackBufferShift( 0.0, -50.0, 100, 50 ) );
+	}
+
+	/**
+	 * Tests that the exposed strips are exactly the pixels of the back buffer
+	 * that have no source pixel after shifting.
+	 */
+	public void testExposedRegions()
+	{
+		assertEquals( Collections.<Rectangle>emptyList(), getExposedRegions( 0, 0 ) );
+		assertEquals( Arrays.asList( new Rectangle( 0, 0, 10, 50 ) ), getExposedRegions( 10, 0 ) );
+		assertEquals( Arrays.asList( new Rectangle( 90, 0, 10, 50 ) ), getExposedRegions( -10, 0 ) );
+		assertEquals( Arrays.asList( new Rectangle( 0, 0, 100, 5 ) ), getExposedRegions( 0, 5 ) );
+		assertEquals( Arrays.asList( new Rectangle( 0, 45, 100, 5 ) ), getExposedRegions( 0, -5 ) );
+
+		final int[] shifts = { -99, -10, -1, 0, 1, 7, 49 };
+		for ( final int x : shifts )
+		{
+			for ( final int y : shifts )
+			{
+				final List<Rectangle> exposed = getExposedRegions( x, y );
+				for ( int px = 0; px < 100; px++ )
+				{
+					for ( int py = 0; py < 50; py++ )
+					{
+						final boolean copied = ( px - x >= 0 ) && ( px - x < 100 ) && ( py - y >= 0 ) && ( py - y < 50 );
+						boolean painted = false;
+						for ( final Rectangle region : exposed )
+						{
+							painted |= region.contains( px, py );
+						}
+						assertEquals( "Pixel (" + px + "," + py + ") for shift (" + x + "," + y + ")", !copied, painted );
+					}
+				}
+			}
+		}
+	}
+
+	private static List<Rectangle> getExposedRegions( final int x, final int y )
+	{
+		final List<Rectangle> result = new ArrayList<Rectangle>();
+		View.getExposedRegions( 100, 50, x, y, result );
+		return result;
+	}
+
+	/**
+	 * Returns the union of the regions repainted since the last call.
+	 *
+	 * @return Repainted region; {@code null} if nothing was repainted.
+	 */
+	private Rectangle getRepainted()
+	{
+		Rectangle result = null;
+		for ( final Rectangle region : _repainted )
+		{
+			result = ( result == null ) ? region : result.union( region );
+		}
+		_repainted.clear();
+		return result;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Gerrit Meinders
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hexedit;
+
+import java.awt.geom.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Unit test for the {@link ViewModel} class.
+ *
+ * @author Gerrit Meinders
+ */
+public class TestViewModel
+extends TestCase
+{
+	/**
+	 * Distance between tiles, in model coordinates.
+	 */
+	private static final double SPACING = 48.0;
+
+	private File _file;
+
+	private FileChannel _channel;
+
+	private ViewModel _viewModel;
+
+	@Override
+	protected void setUp()
+	throws Exception
+	{
+		final byte[] data = new byte[ 1000 ];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[ i ] = (byte)i;
+		}
+
+		_file = File.createTempFile( "hexedit", ".bin" );
+		final FileOutputStream out = new FileOutputStream( _file );
+		try
+		{
+			out.write( data );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		_channel = FileChannel.open( _file.toPath() );
+		_viewModel = new ViewModel();
+		_viewModel.setDataModel( new DataModel( _file.toURI(), _channel ) );
+	}
+
+	@Override
+	protected void tearDown()
+	throws Exception
+	{
+		_channel.close();
+		_file.delete();
+	}
+
+	/**
+	 * Tests that only the rows and columns that intersect the bounds are
+	 * iterated, including those that are only partially covered.
+	 */
+	public void testGetTiles()
+	{
+		assertEquals( 24, _viewModel.getColumns() );
+		assertEquals( SPACING, (double)( _viewModel.getTileSize() + _viewModel.getTilePadding() ), 0.0 );
+
+		assertEquals( Arrays.asList( 0L, 1L ), getTiles( 0.0, 0.0, 2.0 * SPACING, SPACING ) );
+
+		// Columns 2 to 4 of rows 1 and 2, each partially covered.
+		assertEquals( Arrays.asList( 26L, 27L, 28L, 50L, 51L, 52L ), getTiles( 100.0, 50.0, 100.0, 60.0 ) );
+
+		// The last pixel of a tile, followed by padding.
+		assertEquals( Arrays.asList( 24L ), getTiles( 44.0, 92.0, 3.0, 3.0 ) );
+	}
+
+	/**
+	 * Tests that no tiles are iterated for bounds that only cover padding or
+	 * lie outside the columns.
+	 */
+	public void testGetTilesEmpty()
+	{
+		assertEquals( Collections.<Long>emptyList(), getTiles( 45.5, 0.0, 2.0, SPACING ) );
+		assertEquals( Collections.<Long>emptyList(), getTiles( 0.0, 45.5, SPACING, 2.0 ) );
+		assertEquals( Collections.<Long>emptyList(), getTiles( 24.0 * SPACING, 0.0, SPACING, SPACING ) );
+		assertEquals( Collections.<Long>emptyList(), getTiles( -2.0 * SPACING, 0.0, SPACING, SPACING ) );
+	}
+
+	/**
+	 * Tests that columns are clipped to the width of the view and rows to the
+	 * start of the data.
+	 */
+	public void testGetTilesClipped()
+	{
+		final List<Long> tiles = getTiles( -1000.0, -1000.0, 3000.0, 1000.0 + SPACING );
+		assertEquals( 24, tiles.size() );
+		assertEquals( Long.valueOf( 0L ), tiles.get( 0 ) );
+		assertEquals( Long.valueOf( 23L ), tiles.get( 23 ) );
+
+		// Rows above the first row are iterated, down to the start of the data.
+		_viewModel.jumpTo( 240L );
+		assertEquals( 192L, _viewModel.getFirstRowAddress() );
+		assertEquals( Arrays.asList( 0L, 24L, 48L, 72L, 96L, 120L, 144L, 168L ), getTiles( 0.0, -10.0 * SPACING, SPACING, 10.0 * SPACING ) );
+	}
+
+	/**
+	 * Tests that tiles are iterated with the values of their bytes.
+	 */
+	public void testGetTilesValues()
+	{
+		_viewModel.jumpTo( 500L );
+		int count = 0;
+		for ( final Tile tile : _viewModel.getTiles( new Rectangle2D.Double( 0.0, 0.0, 24.0 * SPACING, 3.0 * SPACING ) ) )
+		{
+			assertEquals( 432L + (long)count, tile.getAddress() );
+			assertEquals( String.valueOf( tile.getAddress() & 0xffL ), tile.getUnsignedDecimal() );
+			count++;
+		}
+		assertEquals( 72, count );
+	}
+
+	private List<Long> getTiles( final double x, final double y, final double width, final double height )
+	{
+		final List<Long> result = new ArrayList<Long>();
+		for ( final Tile tile : _viewModel.getTiles( new Rectangle2D.Double( x, y, width, height ) ) )
+		{
+			result.add( tile.getAddress() );
+		}
+		return result;
+	}
+}